@@ -0,0 +1,5 @@
+@echo off
+set HOME=%~dp0
+set LIB="%HOME%lib"
+set CP=
+java -cp %CP% ucesoft.cbm.misc.ClockBenchmark %*
@@ -0,0 +1,12 @@
+#!/bin/bash
+
+HOME=`dirname "$0"`
+HOME=`cd "$HOME"; pwd -P`
+LIB=$HOME/lib
+CP=
+if [ ! -x $JAVA_HOME/bin/java ]; then
+        JAVA=java
+else
+        JAVA=$JAVA_HOME/bin/java
+fi
+$JAVA -cp $CP ucesoft.cbm.misc.ClockBenchmark "$@"
@@ -0,0 +1,6 @@
+@echo off
+set HOME=%~dp0
+set LIB="%HOME%lib"
+set CP=
+java -cp %CP% -Dsid.fir.kernel=scalar ucesoft.cbm.peripheral.sid.FIRKernelBenchmark %*
+java --add-modules jdk.incubator.vector -cp %CP% -Dsid.fir.kernel=vector ucesoft.cbm.peripheral.sid.FIRKernelBenchmark %*
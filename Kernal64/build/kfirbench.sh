@@ -0,0 +1,13 @@
+#!/bin/bash
+
+HOME=`dirname "$0"`
+HOME=`cd "$HOME"; pwd -P`
+LIB=$HOME/lib
+CP=
+if [ ! -x $JAVA_HOME/bin/java ]; then
+        JAVA=java
+else
+        JAVA=$JAVA_HOME/bin/java
+fi
+$JAVA -cp $CP -Dsid.fir.kernel=scalar ucesoft.cbm.peripheral.sid.FIRKernelBenchmark "$@"
+$JAVA --add-modules jdk.incubator.vector -cp $CP -Dsid.fir.kernel=vector ucesoft.cbm.peripheral.sid.FIRKernelBenchmark "$@"
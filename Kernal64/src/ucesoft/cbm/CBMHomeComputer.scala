@@ -15,6 +15,7 @@ import ucesoft.cbm.peripheral.drive._
 import ucesoft.cbm.peripheral.keyboard.HomeKeyboard
 import ucesoft.cbm.peripheral.printer.{MPS803, Printer}
 import ucesoft.cbm.peripheral.rs232._
+import ucesoft.cbm.peripheral.sid.SIDResampler
 import ucesoft.cbm.peripheral.vic.Palette.PaletteType
 import ucesoft.cbm.peripheral.vic._
 import ucesoft.cbm.peripheral.vic.coprocessor.VASYL
@@ -169,6 +170,39 @@ abstract class CBMHomeComputer extends CBMComputer with GamePlayer with KeyListe
     }
   }
 
+  protected def captureSIDWrites(item:JCheckBoxMenuItem) : Unit = {
+    if (!item.isSelected) {
+      clock.pause()
+      sid.stopWriteCapture()
+      clock.play()
+      return
+    }
+    val fc = new JFileChooser
+    fc.setCurrentDirectory(new File(configuration.getProperty(CONFIGURATION_LASTDISKDIR,"./")))
+    fc.setFileFilter(new FileFilter {
+      def accept(f: File): Boolean = f.isDirectory || f.getName.toUpperCase.endsWith(".SRL")
+      def getDescription = "SID register log files"
+    })
+    fc.showSaveDialog(displayFrame) match {
+      case JFileChooser.APPROVE_OPTION =>
+        val file = if (fc.getSelectedFile.getName.toUpperCase.endsWith(".SRL")) fc.getSelectedFile else new File(fc.getSelectedFile.toString + ".srl")
+        try {
+          clock.pause()
+          sid.startWriteCapture(new FileOutputStream(file))
+        }
+        catch {
+          case t:Throwable =>
+            showError("SID capture error",t.toString)
+            item.setSelected(false)
+        }
+        finally {
+          clock.play()
+        }
+      case _ =>
+        item.setSelected(false)
+    }
+  }
+
   protected def savePrg() : Unit = {
     val fc = new JFileChooser
     fc.setCurrentDirectory(new File(configuration.getProperty(CONFIGURATION_LASTDISKDIR,"./")))
@@ -187,7 +221,7 @@ abstract class CBMHomeComputer extends CBMComputer with GamePlayer with KeyListe
 
   override protected def delayedAutorun(fn:String): Unit = {
     val cmd = if (isC64Mode) s"""LOAD"$fn",8,1""" + 13.toChar + "RUN" + 13.toChar else s"""RUN"$fn"""" + 13.toChar
-    clock.schedule(new ClockEvent("Loading", clock.currentCycles + PRG_RUN_DELAY_CYCLES, _ => HomeKeyboard.insertTextIntoKeyboardBuffer(cmd, mmu, isC64Mode)))
+    clock.schedule(new ClockEvent("Loading", clock.currentCycles + PRG_RUN_DELAY_CYCLES, _ => HomeKeyboard.insertTextIntoKeyboardBufferOnClock(cmd, mmu, isC64Mode, clock)))
   }
 
   override protected def attachDiskFile(driveID:Int,file:File,autorun:Boolean,fileToLoad:Option[String],emulateInserting:Boolean = true) : Unit = {
@@ -203,10 +237,12 @@ abstract class CBMHomeComputer extends CBMComputer with GamePlayer with KeyListe
       disk.canWriteOnDisk = canWriteOnDisk
       disk.flushListener = diskFlusher
       drives(driveID).getFloppy.close()
+      // a disk attached at boot, from the command line, is attached before the clock starts
+      val wasPaused = clock.isPaused
       if (!tracer.isTracing()) clock.pause()
       drives(driveID).setDriveReader(disk,emulateInserting)
       preferences.updateWithoutNotify(Preferences.PREF_DRIVE_X_FILE(driveID),file.toString)
-      clock.play()
+      if (!wasPaused) clock.play()
 
       loadFileItems(driveID).setEnabled(isD64)
       configuration.setProperty(CONFIGURATION_LASTDISKDIR,file.getParentFile.toString)
@@ -872,6 +908,14 @@ abstract class CBMHomeComputer extends CBMComputer with GamePlayer with KeyListe
         TestCart.screeshotHandler = display.waitFrameSaveSnapshot _
       }
     }
+    preferences.add(PREF_GIFRECORD,"Record the VIC screen on the given GIF file, a frame every 20ms of emulated time. Works in headless mode too.","",Set(),false) { file =>
+      if (file != "") {
+        // the emulator waits for the encoder, so no frame is lost
+        val recorder = new GIFRecorder(new File(file),display,Palette.VIC_RGB,20,clock,false)
+        recorder.start()
+        Runtime.getRuntime.addShutdownHook(new Thread(() => recorder.stop()))
+      }
+    }
     preferences.add(PREF_CPUJAMCONTINUE,"On cpu jam continue execution",false,Set(),false) { cpujamContinue = _ }
     preferences.add(PREF_CIAMODEL,
          "Set the CIA model (both cia1 and cia2). 6526 for old cia, 8521 for the new one. Default is 6526.",
@@ -1412,12 +1456,46 @@ abstract class CBMHomeComputer extends CBMComputer with GamePlayer with KeyListe
       clock.play()
     }
     // =====================================================================================================
+
+    // SID-RESAMPLING ======================================================================================
+    val sidResamplingItem = new JMenu("SID resampling")
+    sidItem.add(sidResamplingItem)
+    val resamplingGroup = new ButtonGroup
+    val resamplingMap = (for((key,label) <- List("nearest" -> "Nearest sample","linear" -> "Linear interpolation","fir" -> "FIR resampling","two-stage" -> "Two-stage FIR resampling")) yield {
+      val item = new JRadioButtonMenuItem(label)
+      item.setSelected(key == "nearest")
+      item.addActionListener(_ => preferences(PREF_SIDRESAMPLING) = key )
+      sidResamplingItem.add(item)
+      resamplingGroup.add(item)
+      key -> item
+    }).toMap
+    preferences.add(PREF_SIDRESAMPLING,"Set the resampling method used when sid is not cycle exact (nearest,linear,fir,two-stage)","nearest",resamplingMap.keySet) { r =>
+      val mode = r match {
+        case "linear" => SIDResampler.Mode.LINEAR
+        case "fir" => SIDResampler.Mode.FIR
+        case "two-stage" => SIDResampler.Mode.TWO_STAGE
+        case _ => SIDResampler.Mode.NEAREST
+      }
+      clock.pause()
+      sid.setResampling(mode)
+      resamplingMap get r foreach { _.setSelected(true) }
+      clock.play()
+    }
+    // =====================================================================================================
+
+    // SID-CAPTURE =========================================================================================
+    val sidCaptureItem = new JCheckBoxMenuItem("Capture SID register writes ...")
+    sidCaptureItem.addActionListener(_ => captureSIDWrites(sidCaptureItem) )
+    sidItem.add(sidCaptureItem)
+    // =====================================================================================================
     // reset setting
     resetSettingsActions = (() => {
       sid6581Item.setSelected(true)
       sid.setModel(true)
       nosid2Item.setSelected(true)
       setDualSID(None)
+      resamplingMap("nearest").setSelected(true)
+      sid.setResampling(SIDResampler.Mode.NEAREST)
     }) :: resetSettingsActions
   }
 
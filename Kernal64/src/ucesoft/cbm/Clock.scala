@@ -1,19 +1,50 @@
 package ucesoft.cbm
 
 import ucesoft.cbm.CBMComponentType.Type
-import ucesoft.cbm.misc.TestCart
+import ucesoft.cbm.misc.{TestCart, TimeHistogram}
 
 import java.io.{ObjectInputStream, ObjectOutputStream}
 import java.util.Properties
+import java.util.concurrent.locks.LockSupport
 
 class ClockEvent (val id : String,val when : Long,val execute: (Long) => Unit,val subid : Int = 0) {
   var canceled = false
+  // position in the clock's queue, -1 if not scheduled
+  private[cbm] var index = -1
+  // scheduling order, among events with the same when the last scheduled is executed first
+  private[cbm] var sequence = 0L
+  // scheduled events with the same id
+  private[cbm] var prevWithSameId, nextWithSameId : ClockEvent = _
   override def toString = s"$id($when canceled=$canceled)"
 }
 
 object Clock {
+  /**
+   * Notified by the clock's thread at the bounds of each slice of cycles.
+   */
+  trait SliceListener {
+    def sliceStarting(cycles:Long) : Unit
+    def sliceEnded(cycles:Long) : Unit
+    // the clock is going to be paused, after the end of a slice
+    def pausing(cycles:Long) : Unit = {}
+  }
+
   private var clock : Clock = null
-  def systemClock: Clock = clock
+  // clocks of the threads that keep their own time: the thread local is looked up only while some thread is bound.
+  // A bound thread sees its own update of threadClocks, the others don't need to
+  private[this] val threadClock = new ThreadLocal[Clock]
+  private[this] var threadClocks = 0
+
+  /**
+   * The system clock or, on a thread bound to its own clock, that clock.
+   */
+  def systemClock: Clock = {
+    if (threadClocks == 0) clock
+    else {
+      val c = threadClock.get
+      if (c == null) clock else c
+    }
+  }
   def isAvailable: Boolean = clock != null
 
   def setSystemClock(errorHandler:Option[(Throwable) => Unit] = None)(mainLoop: (Long) => Unit): Clock = {
@@ -24,6 +55,34 @@ object Clock {
     clock
   }
 
+  /**
+   * Makes a clock for a thread that keeps its own time, e.g. a drive running on its own thread. The clock is not
+   * started: the thread binds it with bindThreadClock, sets its cycles and executes its events.
+   */
+  def makeThreadClock(clockName:String) : Clock = {
+    val threadClock = new Clock(None,clockName)(_ => {})
+    if (clock != null) threadClock.setClockHz(clock.getClockHz)
+    threadClock
+  }
+
+  /**
+   * Binds the current thread to the given clock: systemClock returns it on this thread.
+   */
+  def bindThreadClock(c:Clock) : Unit = synchronized {
+    if (threadClock.get == null) threadClocks += 1
+    threadClock.set(c)
+  }
+
+  /**
+   * Unbinds the current thread from its clock: systemClock returns the system clock again.
+   */
+  def unbindThreadClock() : Unit = synchronized {
+    if (threadClock.get != null) {
+      threadClock.remove()
+      threadClocks -= 1
+    }
+  }
+
   def makeClock(clockName:String,errorHandler:Option[(Throwable) => Unit] = None)(mainLoop: (Long) => Unit): Clock = {
     val clock = new Clock(errorHandler,clockName)(mainLoop)
     clock.start()
@@ -35,22 +94,18 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
   val componentID = "System Clock"
   val componentType: Type = CBMComponentType.CHIP
 
-  private class EventList(val e:ClockEvent,var next:EventList = null) {
-    override def toString: String = {
-      val sb = new StringBuilder
-      var ptr = this
-      while (ptr != null) {
-        sb.append(ptr.e)
-        ptr = ptr.next
-        if (ptr != null) sb.append(",")
-      }
-      s"EventList[$sb]"
-    }
-  }
-
   Log.info(s"$name clock started")
 
-  private[this] var events : EventList = null
+  // binary min-heap of the scheduled events, ordered by when
+  private[this] var events = new Array[ClockEvent](64)
+  private[this] var eventsSize = 0
+  private[this] var eventsSequence = 0L
+  // first scheduled event of each id, the others are linked to it
+  private[this] val eventsById = new java.util.HashMap[String,ClockEvent]
+  private[this] var nextEventCycle = Long.MaxValue
+  // the current slice ends before this cycle
+  private[this] var sliceEnd = 0L
+  private[this] var sliceListener : Clock.SliceListener = _
   @volatile private[this] var running = false
   @volatile private[this] var suspended = true
   @volatile private[this] var suspendedConfim = false
@@ -63,17 +118,30 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
   // ------ PERFORMANCE MANAGEMENT -------------
   final private[this] val DEFAULT_CLOCK_HZ = PAL_CLOCK_HZ
   private[this] var C64_CLOCK_HZ = DEFAULT_CLOCK_HZ
-  private[this] var C64_CLOCK_HZ_DIV_1000 = DEFAULT_CLOCK_HZ / 1000
-  private[this] var C64_CLOCK_HZ_INV_BY_1000 = 1000 / DEFAULT_CLOCK_HZ
-  final private[this] val PERFORMANCE_MEASUREMENT_INTERVAL_SECONDS = 1 * 1000
+  private[this] var NANOS_PER_CYCLE = 1e9 / DEFAULT_CLOCK_HZ
+  final private[this] val PERFORMANCE_MEASUREMENT_INTERVAL_NANOS = 1000000000L
+  // the time is checked about once per PAL raster line
+  final private[this] val THROTTLE_CHECKS_PER_SECOND = 15625
+  // the emulation waits when it's ahead by at least MIN_WAIT_NANOS: it parks and spins the last SPIN_NANOS
+  final private[this] val MIN_WAIT_NANOS = 1000000L
+  final private[this] val SPIN_NANOS = 100000L
+  // when behind by more than MAX_LAG_NANOS the emulation doesn't try to catch up
+  final private[this] val MAX_LAG_NANOS = 100000000L
 
   private[this] var _maximumSpeed = false
+  private[this] var throttleCheckCycles = math.round(DEFAULT_CLOCK_HZ / THROTTLE_CHECKS_PER_SECOND).toInt
+  private[this] var throttleCountdown = 1
   private[this] var lastCorrectionTime = 0L
   private[this] var lastCorrectionCycles = 0L
   private[this] var nextPerformanceMeasurementTime = 0L
+  private[this] var measurementStartTime = 0L
   private[this] var lastPerformance = 0
   private[this] var throttleStartedAt = 0L
-  private[this] var skipThrottle = false
+  @volatile private[this] var skipThrottle = true
+  private[this] var lastWaitError = 0L
+  // overshoot: how late the emulation resumes after a wait; jitter: change of the overshoot between two waits
+  final val throttleOvershoot = new TimeHistogram
+  final val throttleJitter = new TimeHistogram
   // testbench
   private[this] var onLoading = false
   private[this] var loadingCycles = 0L
@@ -88,9 +156,13 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
     }
 
     onLoading = set
+    requestSync()
   }
 
-  def limitCyclesTo(cycles:Long) : Unit = limitCycles = cycles
+  def limitCyclesTo(cycles:Long) : Unit = {
+    limitCycles = cycles
+    requestSync()
+  }
   def getLimitCycles : Long = limitCycles
 
   def setDefaultClockHz() : Unit = setClockHz(DEFAULT_CLOCK_HZ)
@@ -101,8 +173,9 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
 
   def setClockHz(hz:Double) : Unit = {
     C64_CLOCK_HZ = hz
-    C64_CLOCK_HZ_DIV_1000 = hz / 1000
-    C64_CLOCK_HZ_INV_BY_1000 = 1000 / hz
+    NANOS_PER_CYCLE = 1e9 / hz
+    throttleCheckCycles = math.max(1,math.round(hz / THROTTLE_CHECKS_PER_SECOND).toInt)
+    skipThrottle = true
 
     // notifies listeners
     changeFrequencyListenerList foreach { _(hz) }
@@ -119,24 +192,22 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
 
   def maximumSpeed: Boolean = _maximumSpeed
   def maximumSpeed_=(maximumSpeed:Boolean) : Unit = {
-    if (!maximumSpeed) {
-      skipThrottle = true
-      setupNextMeasurement()
-    }
+    if (!maximumSpeed) skipThrottle = true
     _maximumSpeed = maximumSpeed
   }
 
   override def getProperties: Properties = {
     properties.setProperty("cycles","%10d".format(cycles))
+    properties.setProperty("throttle overshoot",throttleOvershoot.toString)
+    properties.setProperty("throttle jitter",throttleJitter.toString)
     properties
   }
 
   def init()  : Unit = {}
 
   def reset()  : Unit = {
-    events = null
-    lastCorrectionTime = System.currentTimeMillis
-    lastCorrectionCycles = cycles
+    clearEvents()
+    skipThrottle = true
   }
 
   /*override def hardReset(): Unit = {
@@ -149,23 +220,14 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
     while (running) {
       try {
         if (suspended) {
+          if (sliceListener != null) sliceListener.pausing(cycles)
           while (suspended) suspendedLock.synchronized {
             suspendedConfim = true
             suspendedLock.wait()
           }
         }
 
-        mainLoop(cycles)
-        while (events != null && cycles >= events.e.when) {
-          if (!events.e.canceled) events.e.execute(cycles)
-          val next = events.next
-          events.next = null 	// cut from list
-          events = next
-        }
-
-        cycles += 1
-        if (limitCycles > 0 && !onLoading && cycles > limitCycles) TestCart.exit(0x01)
-        throttle()
+        runSlice()
       }
       catch {
         case t:Throwable => errorHandler match {
@@ -176,62 +238,233 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
     }
   }
 
-  @inline private def setupNextMeasurement()  : Unit = {
-    lastCorrectionTime = System.currentTimeMillis
-    lastCorrectionCycles = cycles
+  /**
+   * Runs the main loop up to the next sync point: the next time check, the cycles limit or a sync request.
+   * Events are executed within the slice at their cycle: a component that needs to interact at a given cycle schedules
+   * an event for it.
+   */
+  private def runSlice() : Unit = {
+    val sliceStart = cycles
+    sliceEnd = cycles + throttleCountdown
+    if (limitCycles > 0 && !onLoading && limitCycles < sliceEnd) sliceEnd = limitCycles + 1
+    if (sliceListener != null) sliceListener.sliceStarting(cycles)
+
+    while (cycles < sliceEnd) {
+      mainLoop(cycles)
+      if (cycles >= nextEventCycle) executeEvents()
+      cycles += 1
+    }
+
+    if (sliceListener != null) sliceListener.sliceEnded(cycles)
+
+    throttleCountdown -= (cycles - sliceStart).toInt
+    if (limitCycles > 0 && !onLoading && cycles > limitCycles) TestCart.exit(0x01)
+    if (throttleCountdown <= 0) {
+      throttleCountdown = throttleCheckCycles
+      throttle()
+    }
+  }
+
+  private def executeEvents() : Unit = {
+    while (eventsSize > 0 && cycles >= events(0).when) {
+      val e = events(0)
+      removeEvent(e)
+      e.execute(cycles)
+    }
+  }
+
+  /**
+   * Sets the current cycle of a thread clock.
+   */
+  final def setCycles(cycles:Long) : Unit = this.cycles = cycles
+
+  /**
+   * Executes the events of a thread clock due at the current cycle.
+   */
+  final def executeDueEvents() : Unit = if (cycles >= nextEventCycle) executeEvents()
+
+  /**
+   * Ends the current slice after the current cycle.
+   */
+  final def requestSync() : Unit = sliceEnd = cycles + 1
+
+  def setSliceListener(l:Clock.SliceListener) : Unit = sliceListener = l
+
+  /**
+   * Moves the scheduled events with the given id to another clock, keeping their order. The thread of the other clock must not be running.
+   */
+  final def moveEvents(id:String,to:Clock) : Unit = {
+    var moved : List[ClockEvent] = Nil
+    var e = eventsById.get(id)
+    while (e != null) {
+      val next = e.nextWithSameId
+      removeEvent(e)
+      moved ::= e
+      e = next
+    }
+    for (e <- moved.sortBy(_.sequence)) to.schedule(e)
+  }
+
+  /**
+   * Moves all the scheduled events to another clock, keeping their order. The thread of the other clock must not be running.
+   */
+  final def moveAllEvents(to:Clock) : Unit = {
+    val moved = java.util.Arrays.copyOf(events,eventsSize).sortBy(_.sequence)
+    clearEvents()
+    for (e <- moved) to.schedule(e)
+  }
+
+  private def setupNextMeasurement(now:Long)  : Unit = {
     throttleStartedAt = cycles
-    nextPerformanceMeasurementTime = System.currentTimeMillis + PERFORMANCE_MEASUREMENT_INTERVAL_SECONDS
+    measurementStartTime = now
+    nextPerformanceMeasurementTime = now + PERFORMANCE_MEASUREMENT_INTERVAL_NANOS
   }
 
-  @inline private def throttle()  : Unit = {
+  private def throttle()  : Unit = {
+    var now = System.nanoTime
     if (!_maximumSpeed && !skipThrottle) {
-      val timeDiff = System.currentTimeMillis - lastCorrectionTime
-      val cyclesDiff = cycles - lastCorrectionCycles
-      val expectedCycles = timeDiff * C64_CLOCK_HZ_DIV_1000
-      if (cyclesDiff > expectedCycles) {
-        val waitTime = (C64_CLOCK_HZ_INV_BY_1000 * (cyclesDiff - expectedCycles)).asInstanceOf[Int]
-        Thread.sleep(if (waitTime == 0) 1 else waitTime)
+      val target = lastCorrectionTime + ((cycles - lastCorrectionCycles) * NANOS_PER_CYCLE).toLong
+      val ahead = target - now
+      if (ahead >= MIN_WAIT_NANOS) {
+        // parkNanos may oversleep, the last part is spun
+        LockSupport.parkNanos(ahead - SPIN_NANOS)
+        now = System.nanoTime
+        while (now < target) {
+          Thread.onSpinWait()
+          now = System.nanoTime
+        }
+        val error = now - target
+        throttleOvershoot.add(error)
+        throttleJitter.add(math.abs(error - lastWaitError))
+        lastWaitError = error
+      }
+      else
+      if (ahead < -MAX_LAG_NANOS) {
+        lastCorrectionTime = now
+        lastCorrectionCycles = cycles
       }
     }
-    if (skipThrottle || System.currentTimeMillis > nextPerformanceMeasurementTime) {
+    if (skipThrottle) {
       skipThrottle = false
+      lastCorrectionTime = now
+      lastCorrectionCycles = cycles
+      setupNextMeasurement(now)
+    }
+    else
+    if (now > nextPerformanceMeasurementTime) {
       val executed = cycles - throttleStartedAt
-      lastPerformance = math.round(100.0 * executed / C64_CLOCK_HZ / (PERFORMANCE_MEASUREMENT_INTERVAL_SECONDS / 1000)).toInt
-      setupNextMeasurement()
+      lastPerformance = math.round(100.0 * executed / C64_CLOCK_HZ / ((now - measurementStartTime) / 1e9)).toInt
+      setupNextMeasurement(now)
     }
   }
 
   def getLastPerformancePerc: Int = lastPerformance
 
   final def cancel(id:String) : Unit = {
-    if (events != null) {
-      var ptr = events
-      while (ptr != null) {
-        if (ptr.e.id == id) ptr.e.canceled = true
-        ptr = ptr.next
-      }
+    var e = eventsById.get(id)
+    while (e != null) {
+      val next = e.nextWithSameId
+      e.canceled = true
+      removeEvent(e)
+      e = next
     }
   }
 
   final def schedule(e:ClockEvent) : Unit = {
     //require(e.when > cycles,"Can't schedule an event in the past " + e.when + "(" + cycles + ")")
-    if (events == null) {
-      events = new EventList(e)
-    }
-    else
-    if (e.when <= events.e.when) {
-      events = new EventList(e,events)
+    if (eventsSize == events.length) events = java.util.Arrays.copyOf(events,eventsSize << 1)
+    e.sequence = eventsSequence
+    eventsSequence += 1
+    e.index = eventsSize
+    events(eventsSize) = e
+    eventsSize += 1
+    siftUp(e.index)
+    if (e.when < nextEventCycle) nextEventCycle = e.when
+
+    val first = eventsById.put(e.id,e)
+    e.prevWithSameId = null
+    e.nextWithSameId = first
+    if (first != null) first.prevWithSameId = e
+  }
+
+  @inline private def before(a:ClockEvent,b:ClockEvent) : Boolean = a.when < b.when || (a.when == b.when && a.sequence > b.sequence)
+
+  private def siftUp(index:Int) : Unit = {
+    val e = events(index)
+    var i = index
+    var parent = (i - 1) >> 1
+    while (i > 0 && before(e,events(parent))) {
+      events(i) = events(parent)
+      events(i).index = i
+      i = parent
+      parent = (i - 1) >> 1
     }
-    else {
-      var ptr = events
-      var ptrNext = events.next
-      val when = e.when
-      while (ptrNext != null && when > ptrNext.e.when) {
-        ptr = ptrNext
-        ptrNext = ptrNext.next
+    events(i) = e
+    e.index = i
+  }
+
+  private def siftDown(index:Int) : Unit = {
+    val e = events(index)
+    var i = index
+    var child = (i << 1) + 1
+    while (child < eventsSize) {
+      if (child + 1 < eventsSize && before(events(child + 1),events(child))) child += 1
+      if (before(events(child),e)) {
+        events(i) = events(child)
+        events(i).index = i
+        i = child
+        child = (i << 1) + 1
       }
-      ptr.next = new EventList(e,ptrNext)
+      else child = eventsSize
     }
+    events(i) = e
+    e.index = i
+  }
+
+  private def removeEvent(e:ClockEvent) : Unit = {
+    val index = e.index
+    eventsSize -= 1
+    if (index != eventsSize) {
+      events(index) = events(eventsSize)
+      events(index).index = index
+      siftDown(index)
+      if (events(index) eq events(eventsSize)) siftUp(index)
+    }
+    events(eventsSize) = null
+    e.index = -1
+    nextEventCycle = if (eventsSize > 0) events(0).when else Long.MaxValue
+
+    if (e.nextWithSameId != null) e.nextWithSameId.prevWithSameId = e.prevWithSameId
+    if (e.prevWithSameId != null) e.prevWithSameId.nextWithSameId = e.nextWithSameId
+    else if (e.nextWithSameId != null) eventsById.put(e.id,e.nextWithSameId)
+    else eventsById.remove(e.id)
+    e.prevWithSameId = null
+    e.nextWithSameId = null
+  }
+
+  private def clearEvents() : Unit = {
+    var i = 0
+    while (i < eventsSize) {
+      val e = events(i)
+      e.index = -1
+      e.prevWithSameId = null
+      e.nextWithSameId = null
+      events(i) = null
+      i += 1
+    }
+    eventsSize = 0
+    eventsById.clear()
+    nextEventCycle = Long.MaxValue
+  }
+
+  private def sortedEvents(first:ClockEvent) : List[ClockEvent] = {
+    var list : List[ClockEvent] = Nil
+    var e = first
+    while (e != null) {
+      list ::= e
+      e = e.nextWithSameId
+    }
+    list.sortWith(before)
   }
 
   def isPaused: Boolean = suspendedConfim
@@ -248,8 +481,17 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
     suspendedConfim = false
     suspendedLock.notify()
   }
-  def halt(): Unit = running = false
-  def printEvents()  : Unit = { println(if (events != null) events else "No events") }
+  /**
+   * Stops the clock's thread at the end of the current cycle.
+   */
+  def halt(): Unit = {
+    running = false
+    requestSync()
+  }
+  def printEvents()  : Unit = {
+    if (eventsSize == 0) println("No events")
+    else println(events.take(eventsSize).sortWith(before).mkString("EventList[",",","]"))
+  }
 
   // state
   protected def saveState(out:ObjectOutputStream) : Unit = {
@@ -257,22 +499,13 @@ class Clock private (errorHandler:Option[(Throwable) => Unit],name:String = "Clo
   }
   protected def loadState(in:ObjectInputStream) : Unit = {
     cycles = in.readLong
-    lastCorrectionTime = System.currentTimeMillis
-    lastCorrectionCycles = cycles
-    throttleStartedAt = cycles
-    events = null
+    skipThrottle = true
+    clearEvents()
   }
   protected def allowsStateRestoring : Boolean = true
 
   def getSubIdListFor(id:String) : List[(Int,Long)] = {
-    var ids : List[(Int,Long)] = Nil
-    if (events != null) {
-      var ptr = events
-      while (ptr != null) {
-        if (ptr.e.id == id && !ptr.e.canceled) ids = (ptr.e.subid,ptr.e.when) :: ids
-        ptr = ptr.next
-      }
-    }
-    ids
+    // in reverse time order
+    sortedEvents(eventsById.get(id)).foldLeft(List.empty[(Int,Long)]) { (ids,e) => (e.subid,e.when) :: ids }
   }
-}
\ No newline at end of file
+}
@@ -257,7 +257,7 @@ class C128 extends CBMHomeComputer with MMUChangeListener {
     displayFrame.setTransferHandler(DNDHandler)    
 
     // GIF Recorder
-    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display,vdcDisplay),Array("VIC","VDC"))
+    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display,vdcDisplay),Array("VIC","VDC"),Array(Palette.VIC_RGB,Palette.VDC_DEFAULT))
     // clock freq change listener
     clock.addChangeFrequencyListener(f => z80ScaleFactor = 2000000 / f)
 
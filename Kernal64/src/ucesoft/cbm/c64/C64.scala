@@ -12,7 +12,7 @@ import ucesoft.cbm.peripheral.c2n.Datassette
 import ucesoft.cbm.peripheral.drive._
 import ucesoft.cbm.peripheral.keyboard.HomeKeyboard
 import ucesoft.cbm.peripheral.vic.renderer.DriveRenderer
-import ucesoft.cbm.peripheral.vic.{VICType, VIC_II}
+import ucesoft.cbm.peripheral.vic.{Palette, VICType, VIC_II}
 import ucesoft.cbm.trace.Tracer
 import ucesoft.cbm.trace.Tracer.TracedDisplay
 
@@ -38,6 +38,12 @@ class C64 extends CBMHomeComputer {
   protected val busSnooper = new BusSnoop(bus)
   protected var busSnooperActive = false
   private[this] val vicMemory = new C64VICMemory(mmu,mmu.CHAR_ROM,cpu)
+  // drives on their own threads
+  private[this] val driveThreads = new DriveThreads(bus)
+  private[this] var driveThreadsEnabled = false
+  private[this] var drivesThreaded = false
+  private[this] var threadedDrives : Seq[(Int,Drive)] = Nil
+  private[this] var lastSyncCycles = 0L
 
   def reset()  : Unit = {
     dma = false
@@ -60,6 +66,7 @@ class C64 extends CBMHomeComputer {
     ProgramLoader.cpu = cpu
     ProgramLoader.warpModeListener = warpMode(_,true)
     add(clock)
+    clock.setSliceListener(DriveThreadsController)
     add(mmu)
     add(cpu)
     add(keyb)
@@ -135,7 +142,7 @@ class C64 extends CBMHomeComputer {
     displayFrame.setTransferHandler(DNDHandler)
 
     // GIF Recorder
-    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display),Array("VIC"))
+    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display),Array("VIC"),Array(Palette.VIC_RGB))
 
     // trace
     tracer.addDevice(Tracer.TracedDevice("Main 6510 CPU", mmu, cpu, true))
@@ -153,10 +160,13 @@ class C64 extends CBMHomeComputer {
     if (cia12Running(0)) cia1.clock(false)
     if (cia12Running(1)) cia2.clock(false)
     //DRIVES
-    var d = 0
-    while (d < TOTAL_DRIVES) {
-      if (drivesEnabled(d) && drivesRunning(d)) drives(d).clock(cycles)
-      d += 1
+    if (drivesThreaded) driveThreads.hostCycle(cycles)
+    else {
+      var d = 0
+      while (d < TOTAL_DRIVES) {
+        if (drivesEnabled(d) && drivesRunning(d)) drives(d).clock(cycles)
+        d += 1
+      }
     }
     if (device12DriveEnabled) device12Drive.clock(cycles)
     // bus snoop
@@ -177,6 +187,53 @@ class C64 extends CBMHomeComputer {
     if (sidCycleExact) sid.clock()
   }
 
+  /**
+   * The enabled drives that can run on their own threads, empty if the current configuration needs serial execution.
+   */
+  private def drivesToThread : Seq[(Int,Drive)] = {
+    if (!driveThreadsEnabled || tracer.isTracing() || printerEnabled || device12DriveEnabled || isFlyerEnabled || busSnooperActive || ParallelCable.enabled) Nil
+    else {
+      val enabled = for (d <- 0 until TOTAL_DRIVES if drivesEnabled(d)) yield (d,drives(d))
+      if (enabled.exists(d => d._2.getIECBusListeners.isEmpty || d._2.isChangingDisk)) Nil else enabled
+    }
+  }
+
+  private object DriveThreadsController extends Clock.SliceListener {
+    override def sliceStarting(cycles: Long): Unit = {
+      val wanted = drivesToThread
+      if (drivesThreaded && (wanted != threadedDrives || cycles != lastSyncCycles || !bus.isThreaded || driveThreads.hasFailed)) stopDriveThreads()
+      if (!drivesThreaded && wanted.nonEmpty) {
+        driveThreads.start(cycles,wanted,d => drivesEnabled(d) && drivesRunning(d))
+        threadedDrives = wanted
+        drivesThreaded = true
+      }
+    }
+    override def sliceEnded(cycles: Long): Unit = {
+      if (drivesThreaded) {
+        driveThreads.sync(cycles)
+        lastSyncCycles = cycles
+      }
+    }
+    override def pausing(cycles: Long): Unit = stopDriveThreads()
+  }
+
+  private def stopDriveThreads() : Unit = {
+    driveThreads.stop()
+    drivesThreaded = false
+    threadedDrives = Nil
+  }
+
+  override protected def reset(play:Boolean,loadAndRunLastPrg:Boolean) : Unit = {
+    // otherwise the threads are stopped when the clock is paused
+    if (Thread.currentThread == clock) stopDriveThreads()
+    super.reset(play,loadAndRunLastPrg)
+  }
+
+  override protected def hardReset(play:Boolean) : Unit = {
+    if (Thread.currentThread == clock) stopDriveThreads()
+    super.hardReset(play)
+  }
+
   protected def setDMA(dma:Boolean) : Unit = {
     this.dma = dma
     cpu.setDMA(dma)
@@ -406,6 +463,8 @@ class C64 extends CBMHomeComputer {
     // CUSTOM-GLUE-LOGIC ==================================================================================
     preferences.add(PREF_CUSTOMGLUELOGIC,"Set internal glue logic to custom (C64C)",false) { vicMemory.setCustomGlueLogic(_) }
     preferences.add(PREF_VICIINEW,"Set VICII new model",false) { vicChip.asInstanceOf[vic.VIC_II].setNEWVICModel(_) }
+    // non-saveable settings
+    preferences.add(PREF_DRIVETHREADS,"Run the 1541, 1571 and 1581 drives on their own threads",false,Set(),false) { driveThreadsEnabled = _ }
   }
   
   protected def saveSettings(save:Boolean) : Unit = {
@@ -853,7 +853,7 @@ class CBMII extends CBMComputer {
     displayFrame.setTransferHandler(DNDHandler)
 
     // GIF Recorder
-    gifRecorder = GIFPanel.createGIFPanel(displayFrame, Array(display), Array("CRT"))
+    gifRecorder = GIFPanel.createGIFPanel(displayFrame, Array(display), Array("CRT"), Array(CRTC6845.PALETTE))
 
     // trace
     tracer.addDevice(Tracer.TracedDevice("Main 6509 CPU", mmu, cpu, true))
@@ -0,0 +1,106 @@
+package ucesoft.cbm.cpu
+
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.{ChipID, Clock}
+
+import java.util.Properties
+
+/**
+ * Measures the emulated MHz of CPU6510_CE running a fixed program from plain RAM.
+ *
+ * The program mixes the addressing modes: absolute indexed, indirect indexed, zero page read-modify-write, stack and
+ * subroutine calls, branches. The checksum of the registers and of the written memory must not change when the cpu is
+ * changed, unless its behaviour does.
+ */
+object CPU6510Benchmark {
+  private final val START = 0x1000
+  private final val PROGRAM = Array(
+    0xA2,0x00,            // START: LDX #$00
+    0xBD,0x00,0x20,       // loop:  LDA $2000,X
+    0x18,                 //        CLC
+    0x7D,0x00,0x21,       //        ADC $2100,X
+    0x9D,0x00,0x22,       //        STA $2200,X
+    0x51,0xFB,            //        EOR ($FB),Y
+    0x26,0xFD,            //        ROL $FD
+    0xFE,0x00,0x23,       //        INC $2300,X
+    0x20,0x1D,0x10,       //        JSR sub
+    0xCA,                 //        DEX
+    0xD0,0xE9,            //        BNE loop
+    0xC8,                 //        INY
+    0x4C,0x00,0x10,       //        JMP START
+    0x48,                 // sub:   PHA
+    0xA5,0xFD,            //        LDA $FD
+    0x24,0xFE,            //        BIT $FE
+    0x4A,                 //        LSR A
+    0x85,0xFE,            //        STA $FE
+    0x68,                 //        PLA
+    0x60                  //        RTS
+  )
+
+  private class RAM extends Memory {
+    override val isRom = false
+    override val length = 0x10000
+    override val startAddress = 0
+    override val name = "RAM"
+    val ram : Array[Int] = Array.ofDim[Int](0x10000)
+
+    override def init() : Unit = {}
+    override def isActive = true
+    override def read(address:Int,chipID:ChipID.ID) : Int = ram(address)
+    override def write(address:Int,value:Int,chipID:ChipID.ID) : Unit = ram(address) = value
+  }
+
+  private case class Result(nanos:Long,checksum:Long)
+
+  private def run(cycles:Long) : Result = {
+    val mem = new RAM
+    val random = new java.util.Random(0x6510)
+    for (a <- 0x2000 until 0x2500) mem.ram(a) = random.nextInt(256)
+    // ($FB) -> $2400
+    mem.ram(0xFB) = 0x00
+    mem.ram(0xFC) = 0x24
+    System.arraycopy(PROGRAM,0,mem.ram,START,PROGRAM.length)
+
+    val cpu = new CPU6510_CE(mem,ChipID.CPU)
+    cpu.init()
+    cpu.jmpTo(START)
+    val start = System.nanoTime()
+    var c = cycles
+    while (c > 0) {
+      cpu.fetchAndExecute(1)
+      c -= 1
+    }
+    val elapsed = System.nanoTime() - start
+
+    val state = Array.ofDim[Int](8)
+    cpu.getExecutionState(state,0)
+    var checksum = 0L
+    for (v <- state) checksum = checksum * 31 + v
+    for (a <- 0 until 0x100) checksum = checksum * 31 + mem.ram(a)
+    for (a <- 0x2200 until 0x2400) checksum = checksum * 31 + mem.ram(a)
+    Result(elapsed,checksum)
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var cycles = 100000000L
+    var repeat = 3
+
+    settings.add("cycles","Number of cycles of each run",100000000) { c => cycles = c.toLong }
+    settings.add("repeat","Number of runs",3) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"CPU6510Benchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    // the cpu reads the cycles only for interrupts and tracing
+    Clock.bindThreadClock(Clock.makeThreadClock("CPU6510Benchmark"))
+    for (r <- 1 to repeat) {
+      val result = run(cycles)
+      println("run %d: %8.2f emulated MHz checksum %016X".format(r,cycles / (result.nanos / 1e9) / 1e6,result.checksum))
+    }
+  }
+}
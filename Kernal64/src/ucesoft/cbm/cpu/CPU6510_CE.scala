@@ -2,11 +2,13 @@ package ucesoft.cbm.cpu
 
 import ucesoft.cbm.ChipID.ID
 import ucesoft.cbm.cpu.CPU65xx.CPUPostponeReadException
+import ucesoft.cbm.trace.BinaryTrace
 import ucesoft.cbm.trace.TraceListener._
 import ucesoft.cbm.{ChipID, Clock, Log}
 
 import java.io.{ObjectInputStream, ObjectOutputStream, PrintWriter}
 import java.util.Properties
+import scala.annotation.switch
 
 class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
   override lazy val componentID = "6502"
@@ -18,6 +20,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
   override val cycleModeSupported: Boolean = true
   private[this] var tracing, tracingOnFile = false
   private[this] var tracingFile: PrintWriter = _
+  private[this] var traceRecorder: BinaryTrace.Recorder = _
   private[this] var breakType: BreakType = null
   private[this] var breakCallBack: CpuStepInfo => Unit = _
   private[this] var stepCallBack: CpuStepInfo => Unit = _
@@ -52,7 +55,8 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
   private[this] var irqLow = false
   private[this] var nmiLow = false
   private[this] var irqFirstCycle, nmiFirstCycle = 0L
-  private[this] val clk = Clock.systemClock
+  // looked up on each use: a drive can run on its own thread clock
+  @inline private[this] def clk = Clock.systemClock
   private[this] var delay1CycleIRQCheck = false
   private[this] var forceIRQNow = false
   private[this] var prevIClearedFlag = false
@@ -70,7 +74,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     override def isActive = true
 
     override def read(address: Int, chipID: ID): Int = {
-      if (breakType != null && breakType.isBreak(AddressBreakInfo(address,ReadBreakAccess))) stepAndWait()
+      if (breakType != null && breakType.hasBreakAt(address) && breakType.isBreak(AddressBreakInfo(address,ReadBreakAccess))) stepAndWait()
       _mem.read(address,chipID)
     }
 
@@ -84,7 +88,8 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
 
     override def write(address: Int, value: Int, chipID: ID): Unit = {
       _mem.write(address,value,chipID)
-      if (breakType != null && breakType.isBreak(AddressBreakInfo(address,WriteBreakAccess(value)))) stepAndWait()
+      if (traceRecorder != null) traceRecorder.write(address,value)
+      if (breakType != null && breakType.hasBreakAt(address) && breakType.isBreak(AddressBreakInfo(address,WriteBreakAccess(value)))) stepAndWait()
     }
   }
 
@@ -253,6 +258,11 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     tracingFile = if (enabled) out else null
   }
 
+  override def setTraceRecorder(recorder: BinaryTrace.Recorder): Unit = {
+    traceRecorder = recorder
+    mem = if (recorder != null || breakType != null) memRWProxy else _mem
+  }
+
   override def setTrace(traceOn: Boolean): Unit = tracing = traceOn
 
   override def step(updateRegisters: CpuStepInfo => Unit,stepType: StepType) : Unit = {
@@ -268,7 +278,8 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     breakCallBack = callback
     this.breakType = breakType match {
       case NoBreak =>
-        mem = _mem
+        // the proxy records the writes
+        if (traceRecorder == null) mem = _mem
         null
       case _ =>
         mem = memRWProxy
@@ -563,8 +574,6 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     1, O_SBC, 1, O_ISB, O_NOP_A, O_SBC, O_INC, O_ISB, // f0
     1, O_SBC, 1, O_ISB, O_NOP_A, O_SBC, O_INC, O_ISB)
 
-  final private[this] val states = Array.ofDim[() => Unit](O_EXT)
-
   // -----------------------------------------------------------------------------------------------------  
 
   @inline private[this] def push(data: Int) : Unit = {
@@ -592,1535 +601,1943 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     executing = false
   }
 
-  private def initStates()  : Unit = {
-    for (s <- 0 until states.length) states(s) =
-      s match {
-        // Opcode fetch (cycle 0)
-        case 0 => () => {
-          if (ready) {
-            op = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = MODE_TAB(op)
-            pageCrossed = false
-          }
-        }
-        // IRQ
-        case IRQ_STATE => () => {
-          if (ready) {
-            mem.read(PC)
-            state = IRQ_STATE_2
-          }
-        }
-        case IRQ_STATE_2 => () => {
-          if (ready) {
-            mem.read(PC)
-            state = IRQ_STATE_3
-          }
-        }
-        case IRQ_STATE_3 => () => {
-          push((PC >> 8) & 0xFF)
-          state = IRQ_STATE_4
-        }
-        case IRQ_STATE_4 => () => {
-          push(PC & 0xFF)
-          state = IRQ_STATE_5
-        }
-        case IRQ_STATE_5 => () => {
-          push(SR & ~B_FLAG)
-          sei()
-          state = IRQ_STATE_6
-        }
-        case IRQ_STATE_6 => () => {
-          if (ready) {
-            PC = mem.read(0xfffe)
-            state = IRQ_STATE_7
-          }
-        }
-        case IRQ_STATE_7 => () => {
-          if (ready) {
-            PC |= mem.read(0xffff) << 8
-            Last()
-          }
-        }
-        // NMI
-        case NMI_STATE => () => {
-          if (ready) {
-            mem.read(PC)
-            state = NMI_STATE_2
-          }
-        }
-        case NMI_STATE_2 => () => {
-          if (ready) {
-            mem.read(PC)
-            state = NMI_STATE_3
-          }
-        }
-        case NMI_STATE_3 => () => {
-          push((PC >> 8) & 0xFF)
-          state = NMI_STATE_4
-        }
-        case NMI_STATE_4 => () => {
-          push(PC & 0xFF)
-          state = NMI_STATE_5
-        }
-        case NMI_STATE_5 => () => {
-          push(SR & ~B_FLAG)
-          sei()
-          state = NMI_STATE_6
-        }
-        case NMI_STATE_6 => () => {
-          if (ready) {
-            PC = mem.read(0xfffa)
-            state = NMI_STATE_7
-          }
-        }
-        case NMI_STATE_7 => () => {
-          if (ready) {
-            PC |= mem.read(0xfffb) << 8
-            Last()
-          }
-        }
-        // Addressing modes: Fetch effective address, no extra cycles (-> ar)
-        case A_ZERO => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            Execute()
-          }
-        }
-        case A_ZEROX => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_ZEROX1
-          }
-        }
-        case A_ZEROX1 => () => {
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + X) & 0xff
-            Execute()
-          }
-        }
-        case A_ZEROY => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_ZEROY1
-          }
-        }
-        case A_ZEROY1 => () => {
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + Y) & 0xff
-            Execute()
-          }
-        }
-        case A_ABS => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_ABS1
-          }
-        }
-        case A_ABS1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = ar | (data << 8)
-            Execute()
-          }
-        }
-        case A_ABSX => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_ABSX1
-          }
-        }
-        case A_ABSX1 => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
-            if (ar + X < 0x100) state = A_ABSX2 else state = A_ABSX3
-            ar = (ar + X) & 0xff | (ar2 << 8)
-          }
-        }
-        case A_ABSX2 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            Execute()
-          }
-        }
-        case A_ABSX3 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        case A_ABSY => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_ABSY1
-          }
-        }
-        case A_ABSY1 => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
-            if (ar + Y < 0x100) state = A_ABSY2 else state = A_ABSY3
-            ar = (ar + Y) & 0xff | (ar2 << 8)
-          }
-        }
-        case A_ABSY2 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            Execute()
-          }
-        }
-        case A_ABSY3 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        case A_INDX => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
-            state = A_INDX1
-          }
-        }
-        case A_INDX1 => () => {
-          if (ready) {
-            mem.read(ar2)
-            ar2 = (ar2 + X) & 0xff
-            state = A_INDX2
-          }
-        }
-        case A_INDX2 => () => {
-          if (ready) {
-            ar = mem.read(ar2)
-            state = A_INDX3
-          }
-        }
-        case A_INDX3 => () => {
-          if (ready) {
-            data = mem.read((ar2 + 1) & 0xff)
-            ar = ar | (data << 8)
-            Execute()
-          }
-        }
-        case A_INDY => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = A_INDY1
-          }
-        }
-        case A_INDY1 => () => {
-          if (ready) {
-            ar = mem.read(ar2)
-            state = A_INDY2
-          }
-        }
-        case A_INDY2 => () => {
-          if (ready) {
-            ar2 = mem.read((ar2 + 1) & 0xff) // Note: Some undocumented opcodes rely on the value of ar2
-            if (ar + Y < 0x100) state = A_INDY3 else state = A_INDY4
-            ar = (ar + Y) & 0xff | (ar2 << 8)
-          }
-        }
-        case A_INDY3 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            Execute()
-          }
-        }
-        case A_INDY4 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        // Addressing modes: Fetch effective address, extra cycle on page crossing (-> ar)
-        case AE_ABSX => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = AE_ABSX1
-          }
-        }
-        case AE_ABSX1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            if (ar + X < 0x100) {
-              ar = (ar + X) & 0xff | (data << 8)
-              Execute()
-            } else {
-              ar = (ar + X) & 0xff | (data << 8)
-              state = AE_ABSX2
-            }
-          }
-        }
-        case AE_ABSX2 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        case AE_ABSY => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = AE_ABSY1
-          }
-        }
-        case AE_ABSY1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            if (ar + Y < 0x100) {
-              ar = (ar + Y) & 0xff | (data << 8)
-              Execute()
-            } else {
-              ar = (ar + Y) & 0xff | (data << 8)
-              state = AE_ABSY2
-            }
-          }
-        }
-        case AE_ABSY2 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        case AE_INDY => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = AE_INDY1
-          }
-        }
-        case AE_INDY1 => () => {
-          if (ready) {
-            ar = mem.read(ar2)
-            state = AE_INDY2
-          }
-        }
-        case AE_INDY2 => () => {
-          if (ready) {
-            data = mem.read((ar2 + 1) & 0xff)
-            if (ar + Y < 0x100) {
-              ar = (ar + Y) & 0xff | (data << 8)
-              Execute()
-            } else {
-              ar = (ar + Y) & 0xff | (data << 8)
-              state = AE_INDY3
-            }
-          }
-        }
-        case AE_INDY3 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            Execute()
-          }
-        }
-        // Addressing modes: Read operand, write it back, no extra cycles (-> ar, rdbuf)
-        case M_ZERO => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            DoRMW()
-          }
-        }
-        case M_ZEROX => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_ZEROX1
-          }
-        }
-        case M_ZEROX1 => () => {
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + X) & 0xff
-            DoRMW()
-          }
-        }
-        case M_ZEROY => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_ZEROY1
-          }
-        }
-        case M_ZEROY1 => () => {
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + Y) & 0xff
-            DoRMW()
-          }
-        }
-        case M_ABS => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_ABS1
-          }
-        }
-        case M_ABS1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = ar | (data << 8)
-            DoRMW()
-          }
-        }
-        case M_ABSX => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_ABSX1
-          }
-        }
-        case M_ABSX1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            if (ar + X < 0x100) state = M_ABSX2 else state = M_ABSX3
-            ar = (ar + X) & 0xff | (data << 8)
-          }
-        }
-        case M_ABSX2 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            DoRMW()
-          }
-        }
-        case M_ABSX3 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            DoRMW()
-          }
-        }
-        case M_ABSY => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_ABSY1
-          }
-        }
-        case M_ABSY1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            if (ar + Y < 0x100) state = M_ABSY2 else state = M_ABSY3
-            ar = (ar + Y) & 0xff | (data << 8)
-          }
-        }
-        case M_ABSY2 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            DoRMW()
-          }
-        }
-        case M_ABSY3 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            DoRMW()
-          }
-        }
-        case M_INDX => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_INDX1
-          }
-        }
-        case M_INDX1 => () => {
-          if (ready) {
-            mem.read(ar2)
-            ar2 = (ar2 + X) & 0xff
-            state = M_INDX2
-          }
-        }
-        case M_INDX2 => () => {
-          if (ready) {
-            ar = mem.read(ar2)
-            state = M_INDX3
-          }
-        }
-        case M_INDX3 => () => {
-          if (ready) {
-            data = mem.read((ar2 + 1) & 0xff)
-            ar = ar | (data << 8)
-            DoRMW()
-          }
-        }
-        case M_INDY => () => {
-          if (ready) {
-            ar2 = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = M_INDY1
-          }
-        }
-        case M_INDY1 => () => {
-          if (ready) {
-            ar = mem.read(ar2)
-            state = M_INDY2
-          }
-        }
-        case M_INDY2 => () => {
-          if (ready) {
-            data = mem.read((ar2 + 1) & 0xff)
-            if (ar + Y < 0x100) state = M_INDY3 else state = M_INDY4
-            ar = (ar + Y) & 0xff | (data << 8)
-          }
-        }
-        case M_INDY3 => () => { // No page crossed
-          if (ready) {
-            mem.read(ar)
-            DoRMW()
-          }
-        }
-        case M_INDY4 => () => { // Page crossed
-          if (ready) {
-            mem.read(ar)
-            ar = (ar + 0x100) & 0xFFFF
-            pageCrossed = true
-            DoRMW()
-          }
-        }
-        case RMW_DO_IT => () => {
-          if (ready) {
-            rdbuf = mem.read(ar)
-            state = RMW_DO_IT1
-          }
-        }
-        case RMW_DO_IT1 => () => {
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          Execute()
-        }
-        // ------------------ OPERATIONS -------------------------------
-        // Load group
-        case O_LDA => () => {
-          if (ready) {
-            data = mem.read(ar)
-            A = data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_LDA_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A = data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_LDX => () => {
-          if (ready) {
-            data = mem.read(ar)
-            X = data
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_LDX_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            X = data
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_LDY => () => {
-          if (ready) {
-            data = mem.read(ar)
-            Y = data
-            set_nz(Y)
-            Last()
-          }
-        }
-        case O_LDY_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            Y = data
-            set_nz(Y)
-            Last()
-          }
-        }
-        // Store group
-        case O_STA => () => {
-          /*if (!dma)*/mem.write(ar, A)
-          Last()
-        }
-        case O_STX => () => {
-          /*if (!dma)*/mem.write(ar, X)
-          Last()
-        }
-        case O_STY => () => {
-          /*if (!dma)*/mem.write(ar, Y)
-          Last()
-        }
-        // Transfer group
-        case O_TAX => () => {
-          if (ready) {
-            mem.read(PC)
-            X = A
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_TXA => () => {
-          if (ready) {
-            mem.read(PC)
-            A = X
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_TAY => () => {
-          if (ready) {
-            mem.read(PC)
-            Y = A
-            set_nz(Y)
-            Last()
-          }
-        }
-        case O_TYA => () => {
-          if (ready) {
-            mem.read(PC)
-            A = Y
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_TSX => () => {
-          if (ready) {
-            mem.read(PC)
-            X = SP
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_TXS => () => {
-          if (ready) {
-            mem.read(PC)
-            SP = X
-            Last()
-          }
-        }
-        // Arithmetic group
-        case O_ADC => () => {
-          if (ready) {
-            data = mem.read(ar)
-            do_adc(data)
-            Last()
-          }
-        }
-        case O_ADC_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            do_adc(data)
-            Last()
-          }
-        }
-        case O_SBC => () => {
-          if (ready) {
-            data = mem.read(ar)
-            do_sbc(data)
-            Last()
-          }
-        }
-        case O_SBC_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            do_sbc(data)
-            Last()
-          }
-        }
-        // Increment/decrement group
-        case O_INX => () => {
-          if (ready) {
-            mem.read(PC)
-            X = (X + 1) & 0xFF
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_DEX => () => {
-          if (ready) {
-            mem.read(PC)
-            X = (X - 1) & 0xFF
-            set_nz(X)
-            Last()
-          }
-        }
-        case O_INY => () => {
-          if (ready) {
-            mem.read(PC)
-            Y = (Y + 1) & 0xFF
-            set_nz(Y)
-            Last()
-          }
-        }
-        case O_DEY => () => {
-          if (ready) {
-            mem.read(PC)
-            Y = (Y - 1) & 0xFF
-            set_nz(Y)
-            Last()
-          }
-        }
-        case O_INC => () => {
-          rdbuf = (rdbuf + 1) & 0xFF
-          set_nz(rdbuf)
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          Last()
-        }
-        case O_DEC => () => {
-          rdbuf = (rdbuf - 1) & 0xFF
-          set_nz(rdbuf)
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          Last()
-        }
-        // Logic group
-        case O_AND => () => {
-          if (ready) {
-            data = mem.read(ar)
-            A &= data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_AND_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A &= data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_ORA => () => {
-          if (ready) {
-            data = mem.read(ar)
-            A |= data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_ORA_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A |= data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_EOR => () => {
-          if (ready) {
-            data = mem.read(ar)
-            A ^= data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_EOR_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A ^= data
-            set_nz(A)
-            Last()
-          }
-        }
-        // Compare group
-        case O_CMP => () => {
-          if (ready) {
-            data = mem.read(ar)
-            ar = A - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_CMP_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = A - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_CPX => () => {
-          if (ready) {
-            data = mem.read(ar)
-            ar = X - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_CPX_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = X - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_CPY => () => {
-          if (ready) {
-            data = mem.read(ar)
-            ar = Y - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_CPY_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = Y - data
-            set_nz(ar)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        // Bit-test group
-        case O_BIT => () => {
-          if (ready) {
-            data = mem.read(ar)
-            if (data >= 0x80) sen() else cln()
-            if ((data & V_FLAG) == V_FLAG) sev() else clv()
-            if ((A & data) == 0) sez() else clz()
-            Last()
-          }
-        }
-        // Shift/rotate group
-        case O_ASL => () => {
-          if ((rdbuf & N_FLAG) == N_FLAG) sec() else clc()
-          rdbuf = (rdbuf << 1) & 0xFF
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          set_nz(rdbuf)
-          Last()
-        }
-        case O_ASL_A => () => {
-          if (ready) {
-            mem.read(PC)
-            if ((A & N_FLAG) == N_FLAG) sec() else clc()
-            A = (A << 1) & 0xFF
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_LSR => () => {
-          if ((rdbuf & 0x01) == 0x01) sec() else clc()
-          rdbuf = (rdbuf >> 1) & 0xFF
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          set_nz(rdbuf)
-          Last()
-        }
-        case O_LSR_A => () => {
-          if (ready) {
-            mem.read(PC)
-            if ((A & 0x01) == 0x01) sec() else clc()
-            A = (A >> 1) & 0xFF
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_ROL => () => {
-          val oldC = if (isCarry) 1 else 0
-          if ((rdbuf & N_FLAG) == N_FLAG) sec() else clc()
-          rdbuf = ((rdbuf << 1) & 0xff) | oldC
-          set_nz(rdbuf)
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          Last()
-        }
-        case O_ROL_A => () => {
-          if (ready) {
-            mem.read(PC)
-            val oldC = if (isCarry) 1 else 0
-            if ((A & N_FLAG) == N_FLAG) sec() else clc()
-            A = ((A << 1) & 0xff) | oldC
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_ROR => () => {
-          val oldC = if (isCarry) 0x80 else 0
-          if ((rdbuf & 1) == 1) sec() else clc()
-          rdbuf = ((rdbuf >> 1) & 0xff) | oldC
-          set_nz(rdbuf)
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          Last()
-        }
-        case O_ROR_A => () => {
-          if (ready) {
-            mem.read(PC)
-            val oldC = if (isCarry) 0x80 else 0
-            if ((A & 1) == 1) sec() else clc()
-            A = ((A >> 1) & 0xff) | oldC
-            set_nz(A)
-            Last()
-          }
-        }
-        // Stack group
-        case O_PHA => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_PHA1
-          }
-        }
-        case O_PHA1 => () => {
-          //push(A)
-          /*if (!dma)*/mem.write(SP | 0x100, A)
-          SP = (SP - 1) & 0xFF
-          Last()
-        }
-        case O_PLA => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_PLA1
-          }
-        }
-        case O_PLA1 => () => {
-          if (ready) {
-            mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_PLA2
-          }
-        }
-        case O_PLA2 => () => {
-          if (ready) {
-            A = mem.read(SP | 0x100)
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_PHP => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_PHP1
-          }
-        }
-        case O_PHP1 => () => {
-          val sr = SR | B_FLAG
-          push(sr)
-          Last()
-        }
-        case O_PLP => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_PLP1
-          }
-        }
-        case O_PLP1 => () => {
-          if (ready) {
-            mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_PLP2
-          }
-        }
-        case O_PLP2 => () => {
-          if (ready) {
-            data = mem.read(SP | 0x100)
-            SR = (data & ~B_FLAG) | (SR & B_FLAG)
-            //delay1CycleIRQCheck = true
-            Last()
-          }
-        }
-        // Jump/branch group
-        case O_JMP => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = O_JMP1
-          }
-        }
-        case O_JMP1 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (data << 8) | ar
-            Last()
-          }
-        }
-        case O_JMP_I => () => {
-          if (ready) {
-            PC = mem.read(ar)
-            state = O_JMP_I1
-          }
-        }
-        case O_JMP_I1 => () => {
-          if (ready) {
-            data = mem.read((ar + 1) & 0xff | ar & 0xff00)
-            PC |= data << 8
-            Last()
-          }
-        }
-        case O_JSR => () => {
-          if (ready) {
-            ar = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = O_JSR1
-          }
-        }
-        case O_JSR1 => () => {
-          if (ready) {
-            mem.read(SP | 0x100)
-            state = O_JSR2
-          }
-        }
-        case O_JSR2 => () => {
-          /*if (!dma)*/mem.write(SP | 0x100, (PC >> 8) & 0xFF)
-          SP = (SP - 1) & 0xFF
-          state = O_JSR3
-        }
-        case O_JSR3 => () => {
-          /*if (!dma)*/mem.write(SP | 0x100, PC & 0xFF)
-          SP = (SP - 1) & 0xFF
-          state = O_JSR4
-        }
-        case O_JSR4 => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            PC = ar | (data << 8)
-            Last()
-          }
-        }
-        case O_RTS => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_RTS1
-          }
-        }
-        case O_RTS1 => () => {
-          if (ready) {
-            mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_RTS2
-          }
-        }
-        case O_RTS2 => () => {
-          if (ready) {
-            PC = mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_RTS3
-          }
-        }
-        case O_RTS3 => () => {
-          if (ready) {
-            data = mem.read(SP | 0x100)
-            PC |= data << 8
-            state = O_RTS4
-          }
-        }
-        case O_RTS4 => () => {
-          if (ready) {
-            mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            if (stepType == StepOut) {
-              tracing = true
-              stepType = StepIn
-            }
-            Last()
-          }
-        }
-        case O_RTI => () => {
-          if (ready) {
-            mem.read(PC)
-            state = O_RTI1
-          }
-        }
-        case O_RTI1 => () => {
-          if (ready) {
-            mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_RTI2
-          }
-        }
-        case O_RTI2 => () => {
-          if (ready) {
-            data = mem.read(SP | 0x100)
-            SR = (data & ~B_FLAG) | (SR & B_FLAG)
-            if (irqLow && !isInterrupt) forceIRQNow = true
-            SP = (SP + 1) & 0xFF
-            state = O_RTI3
-          }
-        }
-        case O_RTI3 => () => {
-          if (ready) {
-            PC = mem.read(SP | 0x100)
-            SP = (SP + 1) & 0xFF
-            state = O_RTI4
-          }
-        }
-        case O_RTI4 => () => {
-          if (ready) {
-            data = mem.read(SP | 0x100)
-            PC |= data << 8
-            Last()
-          }
-        }
-        case O_BRK => () => {
-          if (ready) {
-            mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            state = O_BRK1
-          }
-        }
-        case O_BRK1 => () => {
-          /*if (!dma)*/mem.write(SP | 0x100, PC >> 8)
-          SP = (SP - 1) & 0xFF
-          state = O_BRK2
-        }
-        case O_BRK2 => () => {
-          /*if (!dma)*/mem.write(SP | 0x100, PC & 0xFF)
-          SP = (SP - 1) & 0xFF
-          state = O_BRK3
-        }
-        case O_BRK3 => () => {
-          push(SR | B_FLAG)
-          sei()
-          // CHECK NMI
-          if (nmiOnNegativeEdge) {
-            nmiOnNegativeEdge = false
-            state = NMI_STATE_6
-          }
-          else state = O_BRK4
-        }
-        case O_BRK4 => () => {
-          if (ready) {
-            irqFirstCycle += 1
-            PC = mem.read(if (!nmiOnNegativeEdge) 0xfffe else 0xfffa)
-            state = O_BRK5
-          }
-        }
-        case O_BRK5 => () => {
-          if (ready) {
-            data = mem.read(if (!nmiOnNegativeEdge) 0xffff else 0xfffb)
-            if (nmiOnNegativeEdge) nmiOnNegativeEdge = false
-            PC |= data << 8
-            Last()
-          }
-        }
-        case O_BCS => () => {
-          branch(isCarry)
-        }
-        case O_BCC => () => {
-          branch(!isCarry)
-        }
-        case O_BEQ => () => {
-          branch(isZero)
-        }
-        case O_BNE => () => {
-          branch(!isZero)
-        }
-        case O_BVS => () => {
-          branch(isOverflow)
-        }
-        case O_BVC => () => {
-          branch(!isOverflow)
-        }
-        case O_BMI => () => {
-          branch(isNegative)
-        }
-        case O_BPL => () => {
-          branch(!isNegative)
-        }
-        case O_BRANCH_NP => () => { // No page crossed
-          if (ready) {
-            irqFirstCycle += 1
-            nmiFirstCycle += 1
-            mem.read(PC)
-            PC = ar
-            Last()
-          }
-        }
-        case O_BRANCH_BP => () => { // Page crossed, branch backwards
-          if (ready) {
-            mem.read(PC)
-            PC = ar
-            state = O_BRANCH_BP1
-            pageCrossed = true
-          }
-        }
-        case O_BRANCH_BP1 => () => {
-          if (ready) {
-            mem.read((PC + 0x100) & 0xFFFF)
-            Last()
-          }
-        }
-        case O_BRANCH_FP => () => { // Page crossed, branch forwards
-          if (ready) {
-            mem.read(PC)
-            PC = ar
-            state = O_BRANCH_FP1
-            pageCrossed = true
-          }
-        }
-        case O_BRANCH_FP1 => () => {
-          if (ready) {
-            mem.read((PC - 0x100) & 0xFFFF)
-            Last()
-          }
-        }
-        // Flag group
-        case O_SEC => () => {
-          if (ready) {
-            mem.read(PC)
-            sec()
-            Last()
-          }
-        }
-        case O_CLC => () => {
-          if (ready) {
-            mem.read(PC)
-            clc()
-            Last()
-          }
-        }
-        case O_SED => () => {
-          if (ready) {
-            mem.read(PC)
-            sed()
-            Last()
-          }
-        }
-        case O_CLD => () => {
-          if (ready) {
-            mem.read(PC)
-            cld()
-            Last()
-          }
-        }
-        case O_SEI => () => {
-          if (ready) {
-            mem.read(PC)
-            prevIClearedFlag = !isInterrupt
-            sei()
-            Last()
-          }
-        }
-        case O_CLI => () => {
-          if (ready) {
-            mem.read(PC)
-            if (irqLow && isInterrupt) delay1CycleIRQCheck = true
-            cli()
-            Last()
-          }
-        }
-        case O_CLV => () => {
-          if (ready) {
-            mem.read(PC)
-            clv()
-            Last()
-          }
-        }
-        // NOP group
-        case O_NOP => () => {
-          if (ready) {
-            mem.read(PC)
-            Last()
-          }
-        }
-        // Undocumented
-        // NOP group
-        case O_NOP_I => () => {
-          if (ready) {
-            mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            Last()
-          }
-        }
-        case O_NOP_A => () => {
-          if (ready) {
-            mem.read(ar)
-            Last()
-          }
-        }
-        // Load A/X group
-        case O_LAX => () => {
-          if (ready) {
-            data = mem.read(ar)
-            A = data
-            X = data
-            set_nz(A)
-            Last()
-          }
-        }
-        // Store A/X group
-        case O_SAX => () => {
-          /*if (!dma)*/mem.write(ar, A & X)
-          Last()
-        }
-        // ASL/ORA group
-        case O_SLO => () => {
-          if ((rdbuf & 0x80) > 0) sec() else clc()
-          rdbuf = (rdbuf << 1) & 0xFF
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          A |= rdbuf
-          set_nz(A)
-          Last()
-        }
-        // ROL/AND group
-        case O_RLA => () => {
-          val tmp = (rdbuf & 0x80) > 0
-          rdbuf = if (isCarry) (rdbuf << 1) | 0x01 else rdbuf << 1
-          if (tmp) sec() else clc()
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          A &= rdbuf
-          set_nz(A)
-          Last()
-        }
-        // LSR/EOR group
-        case O_SRE => () => {
-          if ((rdbuf & 0x01) > 0) sec() else clc()
-          rdbuf >>= 1
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          A ^= rdbuf
-          set_nz(A)
-          Last()
-        }
-        // ROR/ADC group
-        case O_RRA => () => {
-          val tmp = (rdbuf & 0x01) > 0
-          rdbuf = if (isCarry) (rdbuf >> 1) | 0x80 else rdbuf >> 1
-          if (tmp) sec() else clc()
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          do_adc(rdbuf)
-          Last()
-        }
-        // DEC/CMP group
-        case O_DCP => () => {
-          rdbuf = (rdbuf - 1) & 0xFF
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          ar = A - rdbuf
-          set_nz(ar)
-          if (ar >= 0) sec() else clc()
-          Last()
-        }
-        // INC/SBC group
-        case O_ISB => () => {
-          rdbuf = (rdbuf + 1) & 0xFF
-          /*if (!dma)*/mem.write(ar, rdbuf)
-          do_sbc(rdbuf)
-          Last()
-        }
-        // Complex functions
-        case O_ANC_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A &= data
-            set_nz(A)
-            if (isNegative) sec() else clc()
-            Last()
-          }
-        }
-        case O_ASR_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A &= data
-            if ((A & 0x01) > 0) sec() else clc()
-            A >>= 1
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_ARR_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            var tmp = A & data
-            if (isDecimal) {
-              var tmp_2 = tmp
-              tmp_2 |= (if (isCarry) 1 << 8 else 0)
-              tmp_2 >>= 1
-              if (isCarry) sen() else cln()
-              if (tmp_2 == 0) sez() else clz()
-              if (((tmp_2 ^ tmp) & 0x40) > 0) sev() else clv()
-              if (((tmp & 0xf) + (tmp & 0x1)) > 0x5) tmp_2 = (tmp_2 & 0xf0) | ((tmp_2 + 0x6) & 0xf)
-              if (((tmp & 0xf0) + (tmp & 0x10)) > 0x50) {
-                tmp_2 = (tmp_2 & 0x0f) | ((tmp_2 + 0x60) & 0xf0)
-                sec()
-              } else clc()
-              A = tmp_2 & 0xFF
-            }
-            else {
-              tmp |= (if (isCarry) 1 << 8 else 0)
-              tmp >>= 1
-              set_nz(tmp)
-              if ((tmp & 0x40) > 0) sec() else clc()
-              if (((tmp & 0x40) ^ ((tmp & 0x20) << 1)) > 0) sev() else clv()
-              A = tmp & 0xFF
-            }
-            Last()
-          }
-        }
-        case O_ANE_I => () => {
-          if (ready) {
-            val const = if ((readyCycles & 4) == 0) 0xEE else 0xEF
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            A = (A | const) & X & data
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_LXA_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            val const = 0xEE
-            A = (A | const) & data
-            X = A
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_SBX_I => () => {
-          if (ready) {
-            data = mem.read(PC)
-            PC = (PC + 1) & 0xFFFF
-            ar = (X & A) - data
-            X = ar & 0xFF
-            set_nz(X)
-            if (ar >= 0) sec() else clc()
-            Last()
-          }
-        }
-        case O_LAS => () => {
-          if (ready) {
-            data = mem.read(ar)
-            X = data & SP
-            SP = X
-            A = X
-            set_nz(A)
-            Last()
-          }
-        }
-        case O_SHS => () => { // ar2 contains the high byte of the operand address
-          SP = A & X
-          val value = if ((readyCycles & 4) == 0) SP else (ar2 + 1) & SP
-          val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
-          /*if (!dma)*/mem.write(target,value)
-          Last()
-        }
-        case O_SHY => () => { // ar2 contains the high byte of the operand address
-          val value = if ((readyCycles & 4) == 0) Y else Y & (ar2 + 1)
-          val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
-          /*if (!dma)*/mem.write(target,value)
-          Last()
-        }
-        case O_SHX => () => { // ar2 contains the high byte of the operand address
-          val value = if ((readyCycles & 4) == 0) X else X & (ar2 + 1)
-          val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
-          /*if (!dma)*/mem.write(target,value)
-          Last()
-        }
-        case O_SHA => () => { // ar2 contains the high byte of the operand address
-          val value = if ((readyCycles & 4) == 0) A & X else A & X & (ar2 + 1)
-          val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
-          /*if (!dma)*/mem.write(target, value)
-          Last()
-        }
-        case O_JAM => () => {
-          // HALT CPU
-        }
-        case 1 => () => {
-          state = O_JAM
-          PC -= 1
-          throw new CPU65xx.CPUJammedException(id, CURRENT_OP_PC)
-        }
-        case RESET => () => {
-          if (ready) {
-            PC = readWordFrom(0xfffc, mem)
-            state = 0
-            Log.info(s"$componentID/$id RESET to ${hex4(PC)}")
-          }
-        }
-        case s => () => {
-          println("Check CPU6510_CE states: " + s)
-        }
-        //case _ => throw new IllegalArgumentException("Bad state " + state + " at PC=" + Integer.toHexString(PC))
-      }
+  /**
+   * Executes the cycle of the given state. The states are dense constants, so the match compiles to a tableswitch
+   * and each state is a small private method the JIT can inline.
+   */
+  private[this] def executeState(s:Int) : Unit = (s : @switch) match {
+    case 0 => fetchOpCode()
+    case IRQ_STATE => state_IRQ_STATE()
+    case IRQ_STATE_2 => state_IRQ_STATE_2()
+    case IRQ_STATE_3 => state_IRQ_STATE_3()
+    case IRQ_STATE_4 => state_IRQ_STATE_4()
+    case IRQ_STATE_5 => state_IRQ_STATE_5()
+    case IRQ_STATE_6 => state_IRQ_STATE_6()
+    case IRQ_STATE_7 => state_IRQ_STATE_7()
+    case NMI_STATE => state_NMI_STATE()
+    case NMI_STATE_2 => state_NMI_STATE_2()
+    case NMI_STATE_3 => state_NMI_STATE_3()
+    case NMI_STATE_4 => state_NMI_STATE_4()
+    case NMI_STATE_5 => state_NMI_STATE_5()
+    case NMI_STATE_6 => state_NMI_STATE_6()
+    case NMI_STATE_7 => state_NMI_STATE_7()
+    case A_ZERO => state_A_ZERO()
+    case A_ZEROX => state_A_ZEROX()
+    case A_ZEROX1 => state_A_ZEROX1()
+    case A_ZEROY => state_A_ZEROY()
+    case A_ZEROY1 => state_A_ZEROY1()
+    case A_ABS => state_A_ABS()
+    case A_ABS1 => state_A_ABS1()
+    case A_ABSX => state_A_ABSX()
+    case A_ABSX1 => state_A_ABSX1()
+    case A_ABSX2 => state_A_ABSX2()
+    case A_ABSX3 => state_A_ABSX3()
+    case A_ABSY => state_A_ABSY()
+    case A_ABSY1 => state_A_ABSY1()
+    case A_ABSY2 => state_A_ABSY2()
+    case A_ABSY3 => state_A_ABSY3()
+    case A_INDX => state_A_INDX()
+    case A_INDX1 => state_A_INDX1()
+    case A_INDX2 => state_A_INDX2()
+    case A_INDX3 => state_A_INDX3()
+    case A_INDY => state_A_INDY()
+    case A_INDY1 => state_A_INDY1()
+    case A_INDY2 => state_A_INDY2()
+    case A_INDY3 => state_A_INDY3()
+    case A_INDY4 => state_A_INDY4()
+    case AE_ABSX => state_AE_ABSX()
+    case AE_ABSX1 => state_AE_ABSX1()
+    case AE_ABSX2 => state_AE_ABSX2()
+    case AE_ABSY => state_AE_ABSY()
+    case AE_ABSY1 => state_AE_ABSY1()
+    case AE_ABSY2 => state_AE_ABSY2()
+    case AE_INDY => state_AE_INDY()
+    case AE_INDY1 => state_AE_INDY1()
+    case AE_INDY2 => state_AE_INDY2()
+    case AE_INDY3 => state_AE_INDY3()
+    case M_ZERO => state_M_ZERO()
+    case M_ZEROX => state_M_ZEROX()
+    case M_ZEROX1 => state_M_ZEROX1()
+    case M_ZEROY => state_M_ZEROY()
+    case M_ZEROY1 => state_M_ZEROY1()
+    case M_ABS => state_M_ABS()
+    case M_ABS1 => state_M_ABS1()
+    case M_ABSX => state_M_ABSX()
+    case M_ABSX1 => state_M_ABSX1()
+    case M_ABSX2 => state_M_ABSX2()
+    case M_ABSX3 => state_M_ABSX3()
+    case M_ABSY => state_M_ABSY()
+    case M_ABSY1 => state_M_ABSY1()
+    case M_ABSY2 => state_M_ABSY2()
+    case M_ABSY3 => state_M_ABSY3()
+    case M_INDX => state_M_INDX()
+    case M_INDX1 => state_M_INDX1()
+    case M_INDX2 => state_M_INDX2()
+    case M_INDX3 => state_M_INDX3()
+    case M_INDY => state_M_INDY()
+    case M_INDY1 => state_M_INDY1()
+    case M_INDY2 => state_M_INDY2()
+    case M_INDY3 => state_M_INDY3()
+    case M_INDY4 => state_M_INDY4()
+    case RMW_DO_IT => state_RMW_DO_IT()
+    case RMW_DO_IT1 => state_RMW_DO_IT1()
+    case O_LDA => state_O_LDA()
+    case O_LDA_I => state_O_LDA_I()
+    case O_LDX => state_O_LDX()
+    case O_LDX_I => state_O_LDX_I()
+    case O_LDY => state_O_LDY()
+    case O_LDY_I => state_O_LDY_I()
+    case O_STA => state_O_STA()
+    case O_STX => state_O_STX()
+    case O_STY => state_O_STY()
+    case O_TAX => state_O_TAX()
+    case O_TXA => state_O_TXA()
+    case O_TAY => state_O_TAY()
+    case O_TYA => state_O_TYA()
+    case O_TSX => state_O_TSX()
+    case O_TXS => state_O_TXS()
+    case O_ADC => state_O_ADC()
+    case O_ADC_I => state_O_ADC_I()
+    case O_SBC => state_O_SBC()
+    case O_SBC_I => state_O_SBC_I()
+    case O_INX => state_O_INX()
+    case O_DEX => state_O_DEX()
+    case O_INY => state_O_INY()
+    case O_DEY => state_O_DEY()
+    case O_INC => state_O_INC()
+    case O_DEC => state_O_DEC()
+    case O_AND => state_O_AND()
+    case O_AND_I => state_O_AND_I()
+    case O_ORA => state_O_ORA()
+    case O_ORA_I => state_O_ORA_I()
+    case O_EOR => state_O_EOR()
+    case O_EOR_I => state_O_EOR_I()
+    case O_CMP => state_O_CMP()
+    case O_CMP_I => state_O_CMP_I()
+    case O_CPX => state_O_CPX()
+    case O_CPX_I => state_O_CPX_I()
+    case O_CPY => state_O_CPY()
+    case O_CPY_I => state_O_CPY_I()
+    case O_BIT => state_O_BIT()
+    case O_ASL => state_O_ASL()
+    case O_ASL_A => state_O_ASL_A()
+    case O_LSR => state_O_LSR()
+    case O_LSR_A => state_O_LSR_A()
+    case O_ROL => state_O_ROL()
+    case O_ROL_A => state_O_ROL_A()
+    case O_ROR => state_O_ROR()
+    case O_ROR_A => state_O_ROR_A()
+    case O_PHA => state_O_PHA()
+    case O_PHA1 => state_O_PHA1()
+    case O_PLA => state_O_PLA()
+    case O_PLA1 => state_O_PLA1()
+    case O_PLA2 => state_O_PLA2()
+    case O_PHP => state_O_PHP()
+    case O_PHP1 => state_O_PHP1()
+    case O_PLP => state_O_PLP()
+    case O_PLP1 => state_O_PLP1()
+    case O_PLP2 => state_O_PLP2()
+    case O_JMP => state_O_JMP()
+    case O_JMP1 => state_O_JMP1()
+    case O_JMP_I => state_O_JMP_I()
+    case O_JMP_I1 => state_O_JMP_I1()
+    case O_JSR => state_O_JSR()
+    case O_JSR1 => state_O_JSR1()
+    case O_JSR2 => state_O_JSR2()
+    case O_JSR3 => state_O_JSR3()
+    case O_JSR4 => state_O_JSR4()
+    case O_RTS => state_O_RTS()
+    case O_RTS1 => state_O_RTS1()
+    case O_RTS2 => state_O_RTS2()
+    case O_RTS3 => state_O_RTS3()
+    case O_RTS4 => state_O_RTS4()
+    case O_RTI => state_O_RTI()
+    case O_RTI1 => state_O_RTI1()
+    case O_RTI2 => state_O_RTI2()
+    case O_RTI3 => state_O_RTI3()
+    case O_RTI4 => state_O_RTI4()
+    case O_BRK => state_O_BRK()
+    case O_BRK1 => state_O_BRK1()
+    case O_BRK2 => state_O_BRK2()
+    case O_BRK3 => state_O_BRK3()
+    case O_BRK4 => state_O_BRK4()
+    case O_BRK5 => state_O_BRK5()
+    case O_BCS => state_O_BCS()
+    case O_BCC => state_O_BCC()
+    case O_BEQ => state_O_BEQ()
+    case O_BNE => state_O_BNE()
+    case O_BVS => state_O_BVS()
+    case O_BVC => state_O_BVC()
+    case O_BMI => state_O_BMI()
+    case O_BPL => state_O_BPL()
+    case O_BRANCH_NP => state_O_BRANCH_NP()
+    case O_BRANCH_BP => state_O_BRANCH_BP()
+    case O_BRANCH_BP1 => state_O_BRANCH_BP1()
+    case O_BRANCH_FP => state_O_BRANCH_FP()
+    case O_BRANCH_FP1 => state_O_BRANCH_FP1()
+    case O_SEC => state_O_SEC()
+    case O_CLC => state_O_CLC()
+    case O_SED => state_O_SED()
+    case O_CLD => state_O_CLD()
+    case O_SEI => state_O_SEI()
+    case O_CLI => state_O_CLI()
+    case O_CLV => state_O_CLV()
+    case O_NOP => state_O_NOP()
+    case O_NOP_I => state_O_NOP_I()
+    case O_NOP_A => state_O_NOP_A()
+    case O_LAX => state_O_LAX()
+    case O_SAX => state_O_SAX()
+    case O_SLO => state_O_SLO()
+    case O_RLA => state_O_RLA()
+    case O_SRE => state_O_SRE()
+    case O_RRA => state_O_RRA()
+    case O_DCP => state_O_DCP()
+    case O_ISB => state_O_ISB()
+    case O_ANC_I => state_O_ANC_I()
+    case O_ASR_I => state_O_ASR_I()
+    case O_ARR_I => state_O_ARR_I()
+    case O_ANE_I => state_O_ANE_I()
+    case O_LXA_I => state_O_LXA_I()
+    case O_SBX_I => state_O_SBX_I()
+    case O_LAS => state_O_LAS()
+    case O_SHS => state_O_SHS()
+    case O_SHY => state_O_SHY()
+    case O_SHX => state_O_SHX()
+    case O_SHA => state_O_SHA()
+    case O_JAM => state_O_JAM()
+    case 1 => jam()
+    case RESET => state_RESET()
+    case _ =>
+      println("Check CPU6510_CE states: " + s)
   }
 
-  @inline private[this] def branch(flag: Boolean) : Unit = {
+  // Opcode fetch (cycle 0)
+  private[this] def fetchOpCode() : Unit = {
     if (ready) {
-      data = mem.read(PC)
+      op = mem.read(PC)
+      // recorded once the opcode has been read: not on the cycles stolen by the VIC
+      if (traceRecorder != null) recordInstruction()
       PC = (PC + 1) & 0xFFFF
-      if (flag) {
-        ar = (PC + data.asInstanceOf[Byte]) & 0xFFFF
-        if ((ar >> 8) != (PC >> 8)) {
-          if ((data & 0x80) > 0) state = O_BRANCH_BP else state = O_BRANCH_FP
-        } else state = O_BRANCH_NP
-      } else state = 0
+      state = MODE_TAB(op)
+      pageCrossed = false
     }
   }
 
-  @inline private[this] def do_adc(data: Int) : Unit = {
-    val C = if (isCarry) 1 else 0
-    var res = A + data + C
-    if ((res & 0xFF) == 0) sez() else clz()
+  // IRQ
+  private[this] def state_IRQ_STATE() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = IRQ_STATE_2
+    }
+  }
 
-    if (isDecimal) {
-      res = (A & 0x0f) + (data & 0x0f) + C
-      if( res > 0x09 ) res += 0x06
-      val c = if (res > 0x0f) 1 else 0
-      res = (A & 0xf0) + (data & 0xf0) + (c << 4) + (res & 0x0f)
-      if ((res & 0x80) > 0) sen() else cln()
-      if ((((A ^ data) & 0x80) == 0) && (((A ^ res) & 0x80) != 0)) sev() else clv()
-      if( res > 0x9f ) res += 0x60
+  private[this] def state_IRQ_STATE_2() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = IRQ_STATE_3
     }
-    else {
-      if ((((A ^ data) & 0x80) == 0) && (((A ^ res) & 0x80) != 0)) sev() else clv()
-      if ((res & 0x80) > 0) sen() else cln()
+  }
+
+  private[this] def state_IRQ_STATE_3() : Unit = {
+    push((PC >> 8) & 0xFF)
+    state = IRQ_STATE_4
+  }
+
+  private[this] def state_IRQ_STATE_4() : Unit = {
+    push(PC & 0xFF)
+    state = IRQ_STATE_5
+  }
+
+  private[this] def state_IRQ_STATE_5() : Unit = {
+    push(SR & ~B_FLAG)
+    sei()
+    state = IRQ_STATE_6
+  }
+
+  private[this] def state_IRQ_STATE_6() : Unit = {
+    if (ready) {
+      PC = mem.read(0xfffe)
+      state = IRQ_STATE_7
     }
-    if (res >= 0x100) sec() else clc()
-    A = res & 0xFF
   }
 
-  @inline private[this] def do_sbc(data: Int) : Unit = {
-    val oldC = if (isCarry) 0 else -1
-    val dataInv = ~data & 0xFF
+  private[this] def state_IRQ_STATE_7() : Unit = {
+    if (ready) {
+      PC |= mem.read(0xffff) << 8
+      Last()
+    }
+  }
+
+  // NMI
+  private[this] def state_NMI_STATE() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = NMI_STATE_2
+    }
+  }
+
+  private[this] def state_NMI_STATE_2() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = NMI_STATE_3
+    }
+  }
+
+  private[this] def state_NMI_STATE_3() : Unit = {
+    push((PC >> 8) & 0xFF)
+    state = NMI_STATE_4
+  }
+
+  private[this] def state_NMI_STATE_4() : Unit = {
+    push(PC & 0xFF)
+    state = NMI_STATE_5
+  }
+
+  private[this] def state_NMI_STATE_5() : Unit = {
+    push(SR & ~B_FLAG)
+    sei()
+    state = NMI_STATE_6
+  }
+
+  private[this] def state_NMI_STATE_6() : Unit = {
+    if (ready) {
+      PC = mem.read(0xfffa)
+      state = NMI_STATE_7
+    }
+  }
+
+  private[this] def state_NMI_STATE_7() : Unit = {
+    if (ready) {
+      PC |= mem.read(0xfffb) << 8
+      Last()
+    }
+  }
+
+  // Addressing modes: Fetch effective address, no extra cycles (-> ar)
+  private[this] def state_A_ZERO() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      Execute()
+    }
+  }
+
+  private[this] def state_A_ZEROX() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_ZEROX1
+    }
+  }
+
+  private[this] def state_A_ZEROX1() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + X) & 0xff
+      Execute()
+    }
+  }
+
+  private[this] def state_A_ZEROY() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_ZEROY1
+    }
+  }
+
+  private[this] def state_A_ZEROY1() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + Y) & 0xff
+      Execute()
+    }
+  }
+
+  private[this] def state_A_ABS() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_ABS1
+    }
+  }
+
+  private[this] def state_A_ABS1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = ar | (data << 8)
+      Execute()
+    }
+  }
+
+  private[this] def state_A_ABSX() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_ABSX1
+    }
+  }
+
+  private[this] def state_A_ABSX1() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
+      if (ar + X < 0x100) state = A_ABSX2 else state = A_ABSX3
+      ar = (ar + X) & 0xff | (ar2 << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_A_ABSX2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      Execute()
+    }
+  }
+  // Page crossed
+  private[this] def state_A_ABSX3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+  private[this] def state_A_ABSY() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_ABSY1
+    }
+  }
+
+  private[this] def state_A_ABSY1() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
+      if (ar + Y < 0x100) state = A_ABSY2 else state = A_ABSY3
+      ar = (ar + Y) & 0xff | (ar2 << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_A_ABSY2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      Execute()
+    }
+  }
+  // Page crossed
+  private[this] def state_A_ABSY3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+  private[this] def state_A_INDX() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF // Note: Some undocumented opcodes rely on the value of ar2
+      state = A_INDX1
+    }
+  }
+
+  private[this] def state_A_INDX1() : Unit = {
+    if (ready) {
+      mem.read(ar2)
+      ar2 = (ar2 + X) & 0xff
+      state = A_INDX2
+    }
+  }
+
+  private[this] def state_A_INDX2() : Unit = {
+    if (ready) {
+      ar = mem.read(ar2)
+      state = A_INDX3
+    }
+  }
+
+  private[this] def state_A_INDX3() : Unit = {
+    if (ready) {
+      data = mem.read((ar2 + 1) & 0xff)
+      ar = ar | (data << 8)
+      Execute()
+    }
+  }
+
+  private[this] def state_A_INDY() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = A_INDY1
+    }
+  }
+
+  private[this] def state_A_INDY1() : Unit = {
+    if (ready) {
+      ar = mem.read(ar2)
+      state = A_INDY2
+    }
+  }
+
+  private[this] def state_A_INDY2() : Unit = {
+    if (ready) {
+      ar2 = mem.read((ar2 + 1) & 0xff) // Note: Some undocumented opcodes rely on the value of ar2
+      if (ar + Y < 0x100) state = A_INDY3 else state = A_INDY4
+      ar = (ar + Y) & 0xff | (ar2 << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_A_INDY3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      Execute()
+    }
+  }
+  // Page crossed
+  private[this] def state_A_INDY4() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+
+  // Addressing modes: Fetch effective address, extra cycle on page crossing (-> ar)
+  private[this] def state_AE_ABSX() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = AE_ABSX1
+    }
+  }
+
+  private[this] def state_AE_ABSX1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (ar + X < 0x100) {
+        ar = (ar + X) & 0xff | (data << 8)
+        Execute()
+      } else {
+        ar = (ar + X) & 0xff | (data << 8)
+        state = AE_ABSX2
+      }
+    }
+  }
+
+  // Page crossed
+  private[this] def state_AE_ABSX2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+  private[this] def state_AE_ABSY() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = AE_ABSY1
+    }
+  }
+
+  private[this] def state_AE_ABSY1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (ar + Y < 0x100) {
+        ar = (ar + Y) & 0xff | (data << 8)
+        Execute()
+      } else {
+        ar = (ar + Y) & 0xff | (data << 8)
+        state = AE_ABSY2
+      }
+    }
+  }
+
+  // Page crossed
+  private[this] def state_AE_ABSY2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+  private[this] def state_AE_INDY() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = AE_INDY1
+    }
+  }
+
+  private[this] def state_AE_INDY1() : Unit = {
+    if (ready) {
+      ar = mem.read(ar2)
+      state = AE_INDY2
+    }
+  }
+
+  private[this] def state_AE_INDY2() : Unit = {
+    if (ready) {
+      data = mem.read((ar2 + 1) & 0xff)
+      if (ar + Y < 0x100) {
+        ar = (ar + Y) & 0xff | (data << 8)
+        Execute()
+      } else {
+        ar = (ar + Y) & 0xff | (data << 8)
+        state = AE_INDY3
+      }
+    }
+  }
+
+  // Page crossed
+  private[this] def state_AE_INDY3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      Execute()
+    }
+  }
+
+  // Addressing modes: Read operand, write it back, no extra cycles (-> ar, rdbuf)
+  private[this] def state_M_ZERO() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      DoRMW()
+    }
+  }
+
+  private[this] def state_M_ZEROX() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_ZEROX1
+    }
+  }
+
+  private[this] def state_M_ZEROX1() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + X) & 0xff
+      DoRMW()
+    }
+  }
+
+  private[this] def state_M_ZEROY() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_ZEROY1
+    }
+  }
+
+  private[this] def state_M_ZEROY1() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + Y) & 0xff
+      DoRMW()
+    }
+  }
+
+  private[this] def state_M_ABS() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_ABS1
+    }
+  }
+
+  private[this] def state_M_ABS1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = ar | (data << 8)
+      DoRMW()
+    }
+  }
+
+  private[this] def state_M_ABSX() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_ABSX1
+    }
+  }
+
+  private[this] def state_M_ABSX1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (ar + X < 0x100) state = M_ABSX2 else state = M_ABSX3
+      ar = (ar + X) & 0xff | (data << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_M_ABSX2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      DoRMW()
+    }
+  }
+  // Page crossed
+  private[this] def state_M_ABSX3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      DoRMW()
+    }
+  }
+  private[this] def state_M_ABSY() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_ABSY1
+    }
+  }
+
+  private[this] def state_M_ABSY1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (ar + Y < 0x100) state = M_ABSY2 else state = M_ABSY3
+      ar = (ar + Y) & 0xff | (data << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_M_ABSY2() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      DoRMW()
+    }
+  }
+  // Page crossed
+  private[this] def state_M_ABSY3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      DoRMW()
+    }
+  }
+  private[this] def state_M_INDX() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_INDX1
+    }
+  }
+
+  private[this] def state_M_INDX1() : Unit = {
+    if (ready) {
+      mem.read(ar2)
+      ar2 = (ar2 + X) & 0xff
+      state = M_INDX2
+    }
+  }
+
+  private[this] def state_M_INDX2() : Unit = {
+    if (ready) {
+      ar = mem.read(ar2)
+      state = M_INDX3
+    }
+  }
+
+  private[this] def state_M_INDX3() : Unit = {
+    if (ready) {
+      data = mem.read((ar2 + 1) & 0xff)
+      ar = ar | (data << 8)
+      DoRMW()
+    }
+  }
+
+  private[this] def state_M_INDY() : Unit = {
+    if (ready) {
+      ar2 = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = M_INDY1
+    }
+  }
+
+  private[this] def state_M_INDY1() : Unit = {
+    if (ready) {
+      ar = mem.read(ar2)
+      state = M_INDY2
+    }
+  }
+
+  private[this] def state_M_INDY2() : Unit = {
+    if (ready) {
+      data = mem.read((ar2 + 1) & 0xff)
+      if (ar + Y < 0x100) state = M_INDY3 else state = M_INDY4
+      ar = (ar + Y) & 0xff | (data << 8)
+    }
+  }
+
+  // No page crossed
+  private[this] def state_M_INDY3() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      DoRMW()
+    }
+  }
+  // Page crossed
+  private[this] def state_M_INDY4() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      ar = (ar + 0x100) & 0xFFFF
+      pageCrossed = true
+      DoRMW()
+    }
+  }
+  private[this] def state_RMW_DO_IT() : Unit = {
+    if (ready) {
+      rdbuf = mem.read(ar)
+      state = RMW_DO_IT1
+    }
+  }
+
+  private[this] def state_RMW_DO_IT1() : Unit = {
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    Execute()
+  }
+
+  // ------------------ OPERATIONS -------------------------------
+
+  // Load group
+  private[this] def state_O_LDA() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      A = data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LDA_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A = data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LDX() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      X = data
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LDX_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      X = data
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LDY() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      Y = data
+      set_nz(Y)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LDY_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      Y = data
+      set_nz(Y)
+      Last()
+    }
+  }
+
+  // Store group
+  private[this] def state_O_STA() : Unit = {
+    /*if (!dma)*/mem.write(ar, A)
+    Last()
+  }
+
+  private[this] def state_O_STX() : Unit = {
+    /*if (!dma)*/mem.write(ar, X)
+    Last()
+  }
+
+  private[this] def state_O_STY() : Unit = {
+    /*if (!dma)*/mem.write(ar, Y)
+    Last()
+  }
+
+  // Transfer group
+  private[this] def state_O_TAX() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      X = A
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_TXA() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      A = X
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_TAY() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      Y = A
+      set_nz(Y)
+      Last()
+    }
+  }
+
+  private[this] def state_O_TYA() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      A = Y
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_TSX() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      X = SP
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_TXS() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      SP = X
+      Last()
+    }
+  }
+
+  // Arithmetic group
+  private[this] def state_O_ADC() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      do_adc(data)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ADC_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      do_adc(data)
+      Last()
+    }
+  }
+
+  private[this] def state_O_SBC() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      do_sbc(data)
+      Last()
+    }
+  }
+
+  private[this] def state_O_SBC_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      do_sbc(data)
+      Last()
+    }
+  }
+
+  // Increment/decrement group
+  private[this] def state_O_INX() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      X = (X + 1) & 0xFF
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_DEX() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      X = (X - 1) & 0xFF
+      set_nz(X)
+      Last()
+    }
+  }
+
+  private[this] def state_O_INY() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      Y = (Y + 1) & 0xFF
+      set_nz(Y)
+      Last()
+    }
+  }
+
+  private[this] def state_O_DEY() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      Y = (Y - 1) & 0xFF
+      set_nz(Y)
+      Last()
+    }
+  }
+
+  private[this] def state_O_INC() : Unit = {
+    rdbuf = (rdbuf + 1) & 0xFF
+    set_nz(rdbuf)
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    Last()
+  }
+
+  private[this] def state_O_DEC() : Unit = {
+    rdbuf = (rdbuf - 1) & 0xFF
+    set_nz(rdbuf)
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    Last()
+  }
+
+  // Logic group
+  private[this] def state_O_AND() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      A &= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_AND_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A &= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ORA() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      A |= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ORA_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A |= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_EOR() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      A ^= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_EOR_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A ^= data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  // Compare group
+  private[this] def state_O_CMP() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      ar = A - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CMP_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = A - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CPX() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      ar = X - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CPX_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = X - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CPY() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      ar = Y - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CPY_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = Y - data
+      set_nz(ar)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  // Bit-test group
+  private[this] def state_O_BIT() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      if (data >= 0x80) sen() else cln()
+      if ((data & V_FLAG) == V_FLAG) sev() else clv()
+      if ((A & data) == 0) sez() else clz()
+      Last()
+    }
+  }
+
+  // Shift/rotate group
+  private[this] def state_O_ASL() : Unit = {
+    if ((rdbuf & N_FLAG) == N_FLAG) sec() else clc()
+    rdbuf = (rdbuf << 1) & 0xFF
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    set_nz(rdbuf)
+    Last()
+  }
+
+  private[this] def state_O_ASL_A() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      if ((A & N_FLAG) == N_FLAG) sec() else clc()
+      A = (A << 1) & 0xFF
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LSR() : Unit = {
+    if ((rdbuf & 0x01) == 0x01) sec() else clc()
+    rdbuf = (rdbuf >> 1) & 0xFF
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    set_nz(rdbuf)
+    Last()
+  }
+
+  private[this] def state_O_LSR_A() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      if ((A & 0x01) == 0x01) sec() else clc()
+      A = (A >> 1) & 0xFF
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ROL() : Unit = {
+    val oldC = if (isCarry) 1 else 0
+    if ((rdbuf & N_FLAG) == N_FLAG) sec() else clc()
+    rdbuf = ((rdbuf << 1) & 0xff) | oldC
+    set_nz(rdbuf)
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    Last()
+  }
+
+  private[this] def state_O_ROL_A() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      val oldC = if (isCarry) 1 else 0
+      if ((A & N_FLAG) == N_FLAG) sec() else clc()
+      A = ((A << 1) & 0xff) | oldC
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ROR() : Unit = {
+    val oldC = if (isCarry) 0x80 else 0
+    if ((rdbuf & 1) == 1) sec() else clc()
+    rdbuf = ((rdbuf >> 1) & 0xff) | oldC
+    set_nz(rdbuf)
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    Last()
+  }
+
+  private[this] def state_O_ROR_A() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      val oldC = if (isCarry) 0x80 else 0
+      if ((A & 1) == 1) sec() else clc()
+      A = ((A >> 1) & 0xff) | oldC
+      set_nz(A)
+      Last()
+    }
+  }
+
+  // Stack group
+  private[this] def state_O_PHA() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_PHA1
+    }
+  }
+
+  private[this] def state_O_PHA1() : Unit = {
+    //push(A)
+    /*if (!dma)*/mem.write(SP | 0x100, A)
+    SP = (SP - 1) & 0xFF
+    Last()
+  }
+
+  private[this] def state_O_PLA() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_PLA1
+    }
+  }
+
+  private[this] def state_O_PLA1() : Unit = {
+    if (ready) {
+      mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_PLA2
+    }
+  }
+
+  private[this] def state_O_PLA2() : Unit = {
+    if (ready) {
+      A = mem.read(SP | 0x100)
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_PHP() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_PHP1
+    }
+  }
+
+  private[this] def state_O_PHP1() : Unit = {
+    val sr = SR | B_FLAG
+    push(sr)
+    Last()
+  }
+
+  private[this] def state_O_PLP() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_PLP1
+    }
+  }
+
+  private[this] def state_O_PLP1() : Unit = {
+    if (ready) {
+      mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_PLP2
+    }
+  }
+
+  private[this] def state_O_PLP2() : Unit = {
+    if (ready) {
+      data = mem.read(SP | 0x100)
+      SR = (data & ~B_FLAG) | (SR & B_FLAG)
+      //delay1CycleIRQCheck = true
+      Last()
+    }
+  }
+
+  // Jump/branch group
+  private[this] def state_O_JMP() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = O_JMP1
+    }
+  }
+
+  private[this] def state_O_JMP1() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (data << 8) | ar
+      Last()
+    }
+  }
+
+  private[this] def state_O_JMP_I() : Unit = {
+    if (ready) {
+      PC = mem.read(ar)
+      state = O_JMP_I1
+    }
+  }
+
+  private[this] def state_O_JMP_I1() : Unit = {
+    if (ready) {
+      data = mem.read((ar + 1) & 0xff | ar & 0xff00)
+      PC |= data << 8
+      Last()
+    }
+  }
+
+  private[this] def state_O_JSR() : Unit = {
+    if (ready) {
+      ar = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = O_JSR1
+    }
+  }
+
+  private[this] def state_O_JSR1() : Unit = {
+    if (ready) {
+      mem.read(SP | 0x100)
+      state = O_JSR2
+    }
+  }
+
+  private[this] def state_O_JSR2() : Unit = {
+    /*if (!dma)*/mem.write(SP | 0x100, (PC >> 8) & 0xFF)
+    SP = (SP - 1) & 0xFF
+    state = O_JSR3
+  }
+
+  private[this] def state_O_JSR3() : Unit = {
+    /*if (!dma)*/mem.write(SP | 0x100, PC & 0xFF)
+    SP = (SP - 1) & 0xFF
+    state = O_JSR4
+  }
+
+  private[this] def state_O_JSR4() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      PC = ar | (data << 8)
+      Last()
+    }
+  }
+
+  private[this] def state_O_RTS() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_RTS1
+    }
+  }
+
+  private[this] def state_O_RTS1() : Unit = {
+    if (ready) {
+      mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_RTS2
+    }
+  }
+
+  private[this] def state_O_RTS2() : Unit = {
+    if (ready) {
+      PC = mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_RTS3
+    }
+  }
+
+  private[this] def state_O_RTS3() : Unit = {
+    if (ready) {
+      data = mem.read(SP | 0x100)
+      PC |= data << 8
+      state = O_RTS4
+    }
+  }
+
+  private[this] def state_O_RTS4() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (stepType == StepOut) {
+        tracing = true
+        stepType = StepIn
+      }
+      Last()
+    }
+  }
+
+  private[this] def state_O_RTI() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      state = O_RTI1
+    }
+  }
+
+  private[this] def state_O_RTI1() : Unit = {
+    if (ready) {
+      mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_RTI2
+    }
+  }
+
+  private[this] def state_O_RTI2() : Unit = {
+    if (ready) {
+      data = mem.read(SP | 0x100)
+      SR = (data & ~B_FLAG) | (SR & B_FLAG)
+      if (irqLow && !isInterrupt) forceIRQNow = true
+      SP = (SP + 1) & 0xFF
+      state = O_RTI3
+    }
+  }
+
+  private[this] def state_O_RTI3() : Unit = {
+    if (ready) {
+      PC = mem.read(SP | 0x100)
+      SP = (SP + 1) & 0xFF
+      state = O_RTI4
+    }
+  }
+
+  private[this] def state_O_RTI4() : Unit = {
+    if (ready) {
+      data = mem.read(SP | 0x100)
+      PC |= data << 8
+      Last()
+    }
+  }
+
+  private[this] def state_O_BRK() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      state = O_BRK1
+    }
+  }
+
+  private[this] def state_O_BRK1() : Unit = {
+    /*if (!dma)*/mem.write(SP | 0x100, PC >> 8)
+    SP = (SP - 1) & 0xFF
+    state = O_BRK2
+  }
+
+  private[this] def state_O_BRK2() : Unit = {
+    /*if (!dma)*/mem.write(SP | 0x100, PC & 0xFF)
+    SP = (SP - 1) & 0xFF
+    state = O_BRK3
+  }
+
+  private[this] def state_O_BRK3() : Unit = {
+    push(SR | B_FLAG)
+    sei()
+    // CHECK NMI
+    if (nmiOnNegativeEdge) {
+      nmiOnNegativeEdge = false
+      state = NMI_STATE_6
+    }
+    else state = O_BRK4
+  }
+
+  private[this] def state_O_BRK4() : Unit = {
+    if (ready) {
+      irqFirstCycle += 1
+      PC = mem.read(if (!nmiOnNegativeEdge) 0xfffe else 0xfffa)
+      state = O_BRK5
+    }
+  }
+
+  private[this] def state_O_BRK5() : Unit = {
+    if (ready) {
+      data = mem.read(if (!nmiOnNegativeEdge) 0xffff else 0xfffb)
+      if (nmiOnNegativeEdge) nmiOnNegativeEdge = false
+      PC |= data << 8
+      Last()
+    }
+  }
+
+  private[this] def state_O_BCS() : Unit = {
+    branch(isCarry)
+  }
+
+  private[this] def state_O_BCC() : Unit = {
+    branch(!isCarry)
+  }
+
+  private[this] def state_O_BEQ() : Unit = {
+    branch(isZero)
+  }
+
+  private[this] def state_O_BNE() : Unit = {
+    branch(!isZero)
+  }
+
+  private[this] def state_O_BVS() : Unit = {
+    branch(isOverflow)
+  }
+
+  private[this] def state_O_BVC() : Unit = {
+    branch(!isOverflow)
+  }
+
+  private[this] def state_O_BMI() : Unit = {
+    branch(isNegative)
+  }
+
+  private[this] def state_O_BPL() : Unit = {
+    branch(!isNegative)
+  }
+
+  // No page crossed
+  private[this] def state_O_BRANCH_NP() : Unit = {
+    if (ready) {
+      // only a pending interrupt is delayed: otherwise the first cycle is set by the next request
+      if (irqLow) irqFirstCycle += 1
+      if (nmiOnNegativeEdge) nmiFirstCycle += 1
+      mem.read(PC)
+      PC = ar
+      Last()
+    }
+  }
+  // Page crossed, branch backwards
+  private[this] def state_O_BRANCH_BP() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      PC = ar
+      state = O_BRANCH_BP1
+      pageCrossed = true
+    }
+  }
+  private[this] def state_O_BRANCH_BP1() : Unit = {
+    if (ready) {
+      mem.read((PC + 0x100) & 0xFFFF)
+      Last()
+    }
+  }
+
+  // Page crossed, branch forwards
+  private[this] def state_O_BRANCH_FP() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      PC = ar
+      state = O_BRANCH_FP1
+      pageCrossed = true
+    }
+  }
+  private[this] def state_O_BRANCH_FP1() : Unit = {
+    if (ready) {
+      mem.read((PC - 0x100) & 0xFFFF)
+      Last()
+    }
+  }
+
+  // Flag group
+  private[this] def state_O_SEC() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      sec()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CLC() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_SED() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      sed()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CLD() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      cld()
+      Last()
+    }
+  }
+
+  private[this] def state_O_SEI() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      prevIClearedFlag = !isInterrupt
+      sei()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CLI() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      if (irqLow && isInterrupt) delay1CycleIRQCheck = true
+      cli()
+      Last()
+    }
+  }
+
+  private[this] def state_O_CLV() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      clv()
+      Last()
+    }
+  }
+
+  // NOP group
+  private[this] def state_O_NOP() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      Last()
+    }
+  }
+
+  // Undocumented
+
+  // NOP group
+  private[this] def state_O_NOP_I() : Unit = {
+    if (ready) {
+      mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      Last()
+    }
+  }
+
+  private[this] def state_O_NOP_A() : Unit = {
+    if (ready) {
+      mem.read(ar)
+      Last()
+    }
+  }
+
+  // Load A/X group
+  private[this] def state_O_LAX() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      A = data
+      X = data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  // Store A/X group
+  private[this] def state_O_SAX() : Unit = {
+    /*if (!dma)*/mem.write(ar, A & X)
+    Last()
+  }
+
+  // ASL/ORA group
+  private[this] def state_O_SLO() : Unit = {
+    if ((rdbuf & 0x80) > 0) sec() else clc()
+    rdbuf = (rdbuf << 1) & 0xFF
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    A |= rdbuf
+    set_nz(A)
+    Last()
+  }
+
+  // ROL/AND group
+  private[this] def state_O_RLA() : Unit = {
+    val tmp = (rdbuf & 0x80) > 0
+    rdbuf = if (isCarry) (rdbuf << 1) | 0x01 else rdbuf << 1
+    if (tmp) sec() else clc()
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    A &= rdbuf
+    set_nz(A)
+    Last()
+  }
+
+  // LSR/EOR group
+  private[this] def state_O_SRE() : Unit = {
+    if ((rdbuf & 0x01) > 0) sec() else clc()
+    rdbuf >>= 1
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    A ^= rdbuf
+    set_nz(A)
+    Last()
+  }
+
+  // ROR/ADC group
+  private[this] def state_O_RRA() : Unit = {
+    val tmp = (rdbuf & 0x01) > 0
+    rdbuf = if (isCarry) (rdbuf >> 1) | 0x80 else rdbuf >> 1
+    if (tmp) sec() else clc()
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    do_adc(rdbuf)
+    Last()
+  }
+
+  // DEC/CMP group
+  private[this] def state_O_DCP() : Unit = {
+    rdbuf = (rdbuf - 1) & 0xFF
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    ar = A - rdbuf
+    set_nz(ar)
+    if (ar >= 0) sec() else clc()
+    Last()
+  }
+
+  // INC/SBC group
+  private[this] def state_O_ISB() : Unit = {
+    rdbuf = (rdbuf + 1) & 0xFF
+    /*if (!dma)*/mem.write(ar, rdbuf)
+    do_sbc(rdbuf)
+    Last()
+  }
+
+  // Complex functions
+  private[this] def state_O_ANC_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A &= data
+      set_nz(A)
+      if (isNegative) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_ASR_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A &= data
+      if ((A & 0x01) > 0) sec() else clc()
+      A >>= 1
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_ARR_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      var tmp = A & data
+      if (isDecimal) {
+        var tmp_2 = tmp
+        tmp_2 |= (if (isCarry) 1 << 8 else 0)
+        tmp_2 >>= 1
+        if (isCarry) sen() else cln()
+        if (tmp_2 == 0) sez() else clz()
+        if (((tmp_2 ^ tmp) & 0x40) > 0) sev() else clv()
+        if (((tmp & 0xf) + (tmp & 0x1)) > 0x5) tmp_2 = (tmp_2 & 0xf0) | ((tmp_2 + 0x6) & 0xf)
+        if (((tmp & 0xf0) + (tmp & 0x10)) > 0x50) {
+          tmp_2 = (tmp_2 & 0x0f) | ((tmp_2 + 0x60) & 0xf0)
+          sec()
+        } else clc()
+        A = tmp_2 & 0xFF
+      }
+      else {
+        tmp |= (if (isCarry) 1 << 8 else 0)
+        tmp >>= 1
+        set_nz(tmp)
+        if ((tmp & 0x40) > 0) sec() else clc()
+        if (((tmp & 0x40) ^ ((tmp & 0x20) << 1)) > 0) sev() else clv()
+        A = tmp & 0xFF
+      }
+      Last()
+    }
+  }
+
+  private[this] def state_O_ANE_I() : Unit = {
+    if (ready) {
+      val const = if ((readyCycles & 4) == 0) 0xEE else 0xEF
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      A = (A | const) & X & data
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_LXA_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      val const = 0xEE
+      A = (A | const) & data
+      X = A
+      set_nz(A)
+      Last()
+    }
+  }
+
+  private[this] def state_O_SBX_I() : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      ar = (X & A) - data
+      X = ar & 0xFF
+      set_nz(X)
+      if (ar >= 0) sec() else clc()
+      Last()
+    }
+  }
+
+  private[this] def state_O_LAS() : Unit = {
+    if (ready) {
+      data = mem.read(ar)
+      X = data & SP
+      SP = X
+      A = X
+      set_nz(A)
+      Last()
+    }
+  }
+
+  // ar2 contains the high byte of the operand address
+  private[this] def state_O_SHS() : Unit = {
+    SP = A & X
+    val value = if ((readyCycles & 4) == 0) SP else (ar2 + 1) & SP
+    val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
+    /*if (!dma)*/mem.write(target,value)
+    Last()
+  }
+  // ar2 contains the high byte of the operand address
+  private[this] def state_O_SHY() : Unit = {
+    val value = if ((readyCycles & 4) == 0) Y else Y & (ar2 + 1)
+    val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
+    /*if (!dma)*/mem.write(target,value)
+    Last()
+  }
+  // ar2 contains the high byte of the operand address
+  private[this] def state_O_SHX() : Unit = {
+    val value = if ((readyCycles & 4) == 0) X else X & (ar2 + 1)
+    val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
+    /*if (!dma)*/mem.write(target,value)
+    Last()
+  }
+  // ar2 contains the high byte of the operand address
+  private[this] def state_O_SHA() : Unit = {
+    val value = if ((readyCycles & 4) == 0) A & X else A & X & (ar2 + 1)
+    val target = if (!pageCrossed) ar else (ar & 0x00FF) | (value << 8) & (ar & 0xFF00)
+    /*if (!dma)*/mem.write(target, value)
+    Last()
+  }
+  private[this] def state_O_JAM() : Unit = {
+    // HALT CPU
+  }
+
+  private[this] def jam() : Unit = {
+    state = O_JAM
+    PC -= 1
+    throw new CPU65xx.CPUJammedException(id, CURRENT_OP_PC)
+  }
+
+  private[this] def state_RESET() : Unit = {
+    if (ready) {
+      PC = readWordFrom(0xfffc, mem)
+      state = 0
+      Log.info(s"$componentID/$id RESET to ${hex4(PC)}")
+    }
+  }
+
+  @inline private[this] def branch(flag: Boolean) : Unit = {
+    if (ready) {
+      data = mem.read(PC)
+      PC = (PC + 1) & 0xFFFF
+      if (flag) {
+        ar = (PC + data.asInstanceOf[Byte]) & 0xFFFF
+        if ((ar >> 8) != (PC >> 8)) {
+          if ((data & 0x80) > 0) state = O_BRANCH_BP else state = O_BRANCH_FP
+        } else state = O_BRANCH_NP
+      } else state = 0
+    }
+  }
+
+  @inline private[this] def do_adc(data: Int) : Unit = {
+    val C = if (isCarry) 1 else 0
+    var res = A + data + C
+    if ((res & 0xFF) == 0) sez() else clz()
+
+    if (isDecimal) {
+      res = (A & 0x0f) + (data & 0x0f) + C
+      if( res > 0x09 ) res += 0x06
+      val c = if (res > 0x0f) 1 else 0
+      res = (A & 0xf0) + (data & 0xf0) + (c << 4) + (res & 0x0f)
+      if ((res & 0x80) > 0) sen() else cln()
+      if ((((A ^ data) & 0x80) == 0) && (((A ^ res) & 0x80) != 0)) sev() else clv()
+      if( res > 0x9f ) res += 0x60
+    }
+    else {
+      if ((((A ^ data) & 0x80) == 0) && (((A ^ res) & 0x80) != 0)) sev() else clv()
+      if ((res & 0x80) > 0) sen() else cln()
+    }
+    if (res >= 0x100) sec() else clc()
+    A = res & 0xFF
+  }
+
+  @inline private[this] def do_sbc(data: Int) : Unit = {
+    val oldC = if (isCarry) 0 else -1
+    val dataInv = ~data & 0xFF
     var res = A + dataInv + (if (isCarry) 1 else 0)
     if ((res & 0xFF) == 0) sez() else clz()
     if (res >= 0x100) sec() else clc()
@@ -2137,7 +2554,6 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
   }
 
   def init(): Unit = {
-    initStates()
     reset()
   }
 
@@ -2184,7 +2600,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
   @inline private def fetchAndExecute()  : Unit = {
     readyCycles = readyCycles << 1 | (if (ready) 1 else 0)
 
-    if (breakType != null && state == 0 && breakType.isBreak(AddressBreakInfo(PC,ExecuteBreakAccess))) {
+    if (breakType != null && state == 0 && breakType.hasBreakAt(PC) && breakType.isBreak(AddressBreakInfo(PC,ExecuteBreakAccess))) {
       tracing = true
       breakCallBack(CpuStepInfo(PC,buildCpuStepInfo(),formatDebug()))
     }
@@ -2193,6 +2609,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     if (nmiOnNegativeEdge && state == 0 && clk.currentCycles - nmiFirstCycle >= 2) {
       nmiOnNegativeEdge = false
       state = NMI_STATE
+      if (traceRecorder != null) traceRecorder.interrupt(BinaryTrace.FLAG_NMI)
       if (breakType != null && breakType.isBreak(NMIBreakInfo())) {
         tracing = true
         breakCallBack(CpuStepInfo(PC,buildCpuStepInfo(),formatDebug()))
@@ -2203,6 +2620,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
       if (!delay1CycleIRQCheck) {
         forceIRQNow = false
         state = IRQ_STATE
+        if (traceRecorder != null) traceRecorder.interrupt(BinaryTrace.FLAG_IRQ)
       }
       if (breakType != null && breakType.isBreak(IRQBreakInfo())) {
         tracing = true
@@ -2246,7 +2664,7 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     prevIClearedFlag = false
 
     try {
-      states(state)()
+      executeState(state)
     }
     catch {
       case _:CPUPostponeReadException =>
@@ -2254,12 +2672,39 @@ class CPU6510_CE(private var _mem: Memory, val id: ChipID.ID) extends CPU65xx {
     }
   }
 
+  private def recordInstruction() : Unit = {
+    disassembling = true
+    try {
+      val opcode = _mem.read(PC)
+      val operand = CPU65xx.instructionLength(opcode) match {
+        case 1 => 0
+        case 2 => _mem.read((PC + 1) & 0xFFFF) << 8
+        case _ => _mem.read((PC + 1) & 0xFFFF) << 8 | _mem.read((PC + 2) & 0xFFFF)
+      }
+      traceRecorder.begin(clk.currentCycles,PC,opcode,operand,A,X,Y,SP,SR)
+    }
+    finally disassembling = false
+  }
+
   override def getMemory: Memory = mem
   override def setMemory(m: Memory): Unit = _mem = m
   override def getCurrentOpCode: Int = op
 
   def isFetchingInstruction: Boolean = state == 0
 
+  def getExecutionState(s:Array[Int],offset:Int) : Int = {
+    s(offset) = PC
+    s(offset + 1) = A
+    s(offset + 2) = X
+    s(offset + 3) = Y
+    s(offset + 4) = SP
+    s(offset + 5) = SREG
+    s(offset + 6) = state
+    s(offset + 7) = (if (irqLow) 1 else 0) | (if (nmiLow) 2 else 0) | (if (nmiOnNegativeEdge) 4 else 0) | (if (delay1CycleIRQCheck) 8 else 0) |
+                    (if (forceIRQNow) 16 else 0) | (if (prevIClearedFlag) 32 else 0)
+    offset + 8
+  }
+
   protected def formatDebug(pc:Int = PC): String = {
     disassembling = true
     try
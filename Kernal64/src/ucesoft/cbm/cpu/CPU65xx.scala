@@ -103,6 +103,12 @@ object CPU65xx {
     }
   }
 
+  def instructionLength(opcode:Int): Int = OP_MATRIX((opcode >> 4) & 0x0F)(opcode & 0x0F)._2 match {
+    case IMP => 1
+    case ABS | ABX | ABY | IND => 3
+    case _ => 2
+  }
+
   def disassemble(mem:Memory,address: Int): DisassembledInfo = {
     val op = opcode(mem,address)
     val (ind, len) = op._2 match {
@@ -142,6 +148,11 @@ trait CPU65xx extends Chip with TraceListener {
   def setBaLow(low:Boolean) : Unit = {}
   def setDMA(dma:Boolean) : Unit = {}
   def isFetchingInstruction : Boolean
+  /**
+   * Copies into state, from offset, the registers and the internal state that affect the next instructions.
+   * Returns the next offset.
+   */
+  def getExecutionState(state:Array[Int],offset:Int) : Int
 
   def getCurrentOpCode : Int
   def getMemory : Memory
@@ -2988,7 +2988,7 @@ class Z80(mem:Memory,
   }
 
   final def clock : Int = {
-    if (breakType != null && breakType.isBreak(AddressBreakInfo(ctx.PC,ExecuteBreakAccess))) {
+    if (breakType != null && breakType.hasBreakAt(ctx.PC) && breakType.isBreak(AddressBreakInfo(ctx.PC,ExecuteBreakAccess))) {
       tracing = true
       breakCallBack(CpuStepInfo(ctx.PC,ctx.buildCpuStepInfo(),disassemble(ctx.PC).dis))
     }
@@ -24,35 +24,32 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class AnimatedGIFWriter {
     // Fields
-    private int codeLen;
-    private int codeIndex;
-    private int clearCode;
-    private int endOfImage;
-    private int bufIndex;
-    private int empty_bits = 0x08;
-
     private int bitsPerPixel = 0x08;
 
-    private byte bytes_buf[] = new byte[256];
     private int[] colorPalette;
     private boolean isApplyDither;
 
-    /**
-     * A child is made up of a parent(or prefix) code plus a suffix color
-     * and siblings are strings with a common parent(or prefix) and different
-     * suffix colors
-     */
-    int child[] = new int[4097];
+    private final FrameEncoder encoder = new FrameEncoder();
 
-    int siblings[] = new int[4097];
-    int suffix[] = new int[4097];
+    // Buffers reused frame after frame, grown when needed
+    private int[] rgbBuffer;
+    private int[] subPixelsBuffer;
+    private byte[] indexBuffer;
+    private final int[] singlePixel = new int[1];
 
     private int logicalScreenWidth;
     private int logicalScreenHeight;
@@ -61,6 +58,25 @@ public class AnimatedGIFWriter {
     private int loopCount;
     private boolean firstFrame = true;
 
+    // Palette-indexed mode: fixed global color table and a direct mapped rgb -> index cache
+    private int[] fixedPalette;
+    private int fixedPaletteSize;
+    private int fixedBitsPerPixel;
+    private int fixedTransparentIndex = -1;
+
+    // Incremental mode: the previous frame, to write only the changed area of the next one
+    private boolean incremental;
+    private int[] previousFrame;
+    private int previousWidth;
+    private int previousHeight;
+
+    // Parallel encoding: frames are mapped and compressed by a pool of threads and written in order
+    private ExecutorService encoderPool;
+    private ThreadLocal<FrameEncoder> poolEncoders;
+    private int maxFramesInFlight;
+    private final ArrayDeque<EncodedFrame> framesInFlight = new ArrayDeque<>();
+    private final ArrayDeque<EncodedFrame> freeFrames = new ArrayDeque<>();
+
     // Define constants
     public static final byte IMAGE_SEPARATOR = 0x2c; // ","
     public static final byte IMAGE_TRAILER = 0x3b; // ";"
@@ -71,6 +87,8 @@ public class AnimatedGIFWriter {
 
     private static final int MASK[] = {0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff};
 
+    private static final int COLOR_CACHE_BITS = 10;
+
     private static Dimension getLogicalScreenSize(BufferedImage[] images) {
         // Determine the logical screen dimension assuming all the frames have the same
         // left and top coordinates (0, 0)
@@ -111,6 +129,26 @@ public class AnimatedGIFWriter {
         this.isApplyDither = isApplyDither;
     }
 
+    /**
+     * Creates a writer in palette-indexed mode: the palette is written once as the global color table
+     * and every pixel is mapped straight to its palette index, without color reduction nor dithering.
+     * A pixel whose color is not in the palette is mapped to the nearest palette color.
+     *
+     * @param palette the ARGB colors of the palette, up to 256
+     */
+    public AnimatedGIFWriter(int[] palette) {
+        if(palette == null || palette.length == 0 || palette.length > 256)
+            throw new IllegalArgumentException("Invalid palette size");
+        fixedPaletteSize = palette.length;
+        fixedBitsPerPixel = 1;
+        while((1<<fixedBitsPerPixel) < fixedPaletteSize) fixedBitsPerPixel++;
+        // Unused entries of the color table are black
+        fixedPalette = new int[1<<fixedBitsPerPixel];
+        Arrays.fill(fixedPalette, 0xff000000);
+        for(int i = 0; i < fixedPaletteSize; i++)
+            fixedPalette[i] = 0xff000000|palette[i];
+    }
+
     // Write as a single frame GIF
     public void write(BufferedImage img, OutputStream os) throws Exception {
         if(img == null) throw new NullPointerException("Input image is null");
@@ -119,90 +157,6 @@ public class AnimatedGIFWriter {
         write(getRGB(img), imageWidth, imageHeight, os);
     }
 
-    private void encode(byte[] pixels, OutputStream os) throws Exception {
-        // Define local variables
-        int parent = 0;
-        int son = 0;
-        int brother = 0;
-        int color = 0;
-        int index = 0;
-        int dimension = pixels.length;
-
-        // Write out the length of the root
-        os.write(bitsPerPixel = (bitsPerPixel == 1)?2:bitsPerPixel);
-        // Initialize the encoder
-        init_encoder(bitsPerPixel);
-        // Tell the decoder to initialize the string table
-        send_code_to_buffer(clearCode, os);
-        // Get the first color and assign it to parent
-        parent = (pixels[index++]&0xff);
-
-        while (index < dimension)
-        {
-            color = (pixels[index++]&0xff);
-            son = child[parent];
-
-            if ( son > 0){
-                if (suffix[son] == color) {
-                    parent = son;
-                } else {
-                    brother = son;
-                    while (true)
-                    {
-                        if (siblings[brother] > 0)
-                        {
-                            brother = siblings[brother];
-                            if (suffix[brother] == color)
-                            {
-                                parent = brother;
-                                break;
-                            }
-                        } else {
-                            siblings[brother] = codeIndex;
-                            suffix[codeIndex] = color;
-                            send_code_to_buffer(parent,os);
-                            parent = color;
-                            codeIndex++;
-                            // Check code length
-                            if(codeIndex > ((1<<codeLen)))
-                            {
-                                if (codeLen == 12)
-                                {
-                                    send_code_to_buffer(clearCode,os);
-                                    init_encoder(bitsPerPixel);
-                                } else
-                                    codeLen++;
-                            }
-                            break;
-                        }
-                    }
-                }
-            } else {
-                child[parent] = codeIndex;
-                suffix[codeIndex] = color;
-                send_code_to_buffer(parent,os);
-                parent = color;
-                codeIndex++;
-                // Check code length
-                if(codeIndex > ((1<<codeLen)))
-                {
-                    if (codeLen == 12)
-                    {
-                        send_code_to_buffer(clearCode,os);
-                        init_encoder(bitsPerPixel);
-                    } else
-                        codeLen++;
-                }
-            }
-        }
-        // Send the last color code to the buffer
-        send_code_to_buffer(parent,os);
-        // Send the endOfImage code to the buffer
-        send_code_to_buffer(endOfImage,os);
-        // Flush the last code buffer
-        flush_buf(os, bufIndex+1);
-    }
-
     /**
      * This is intended to be called after writing all the frames if we write
      * an animated GIF frame by frame.
@@ -211,18 +165,12 @@ public class AnimatedGIFWriter {
      * @throws Exception
      */
     public void finishWrite(OutputStream os) throws Exception {
+        writeEncodedFrames(os, 0);
+        if(encoderPool != null) encoderPool.shutdown();
         os.write(IMAGE_TRAILER);
         os.close();
     }
 
-    private void flush_buf(OutputStream os, int len) throws Exception {
-        os.write(len);
-        os.write(bytes_buf,0,len);
-        // Clear the bytes buffer
-        bufIndex = 0;
-        Arrays.fill(bytes_buf, 0, 0xff, (byte)0x00);
-    }
-
     /**
      * Retrieves RGB values from Raster. This seems to be the fastest way to get RGB values.
      *
@@ -241,22 +189,27 @@ public class AnimatedGIFWriter {
      * TYPE_USHORT_555_RGB = 9
      * TYPE_CUSTOM         = 0.
      *
+     * The returned array is reused by the next call.
+     *
      * @param image input BufferedImage
      * @return integer array - default RGB color space representation
      */
-    private static int[] getRGB(BufferedImage image) {
+    private int[] getRGB(BufferedImage image) {
         // Get the BufferedImageType
         int type = image.getType();
-        // Grab the internal data array
-        Raster raster = image.getRaster();
-        Object object = raster.getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
-        // Determine the data transfer type
-        int transferType = raster.getTransferType();
         // Get image dimension
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
         int imageSize = imageWidth*imageHeight;
-        int[] rgbs = new int[imageSize];
+        if(rgbBuffer == null || rgbBuffer.length != imageSize)
+            rgbBuffer = new int[imageSize];
+        int[] rgbs = rgbBuffer;
+        // Grab the internal data array, straight in the buffer when it has one int per pixel
+        Raster raster = image.getRaster();
+        // Determine the data transfer type
+        int transferType = raster.getTransferType();
+        boolean intPixels = transferType == DataBuffer.TYPE_INT && raster.getNumDataElements() == 1;
+        Object object = raster.getDataElements(0, 0, imageWidth, imageHeight, intPixels ? rgbs : null);
         // Branch by transfer type
         switch(transferType) {
             case DataBuffer.TYPE_INT:
@@ -355,17 +308,6 @@ public class AnimatedGIFWriter {
         }
     }
 
-    private void init_encoder(int bitsPerPixel ) {
-        clearCode = 1 << bitsPerPixel;
-        endOfImage = clearCode + 1;
-        codeLen = bitsPerPixel + 1;
-        codeIndex = endOfImage + 1;
-        // Reset arrays
-        Arrays.fill(child, 0);
-        Arrays.fill(siblings, 0);
-        Arrays.fill(suffix, 0);
-    }
-
     /**
      * This is intended to be called first when writing an animated GIF
      * frame by frame.
@@ -386,29 +328,61 @@ public class AnimatedGIFWriter {
         animated = true;
     }
 
-    // Translate codes into bytes
-    private void send_code_to_buffer(int code, OutputStream os)throws Exception	{
-        int temp = codeLen;
-        // Shift the code to the left of the last byte in bytes_buf
-        bytes_buf[bufIndex] |= ((code&MASK[empty_bits])<<(8-empty_bits));
-        code >>= empty_bits;
-        temp -= empty_bits;
-        // If the code is longer than the empty_bits
-        while (temp > 0)
-        {
-            if ( ++bufIndex >= 0xff)
-            {
-                flush_buf(os,0xff);
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * Enables the incremental mode: after the first frame, only the bounding rectangle of the pixels
+     * changed since the previous frame is written, with the unchanged pixels transparent, and
+     * every frame is left in place for the next one.
+     * In palette-indexed mode the transparent color takes an additional entry of the color table, so
+     * the unchanged pixels are not made transparent when the palette has 256 colors.
+     * This is intended to be called before writing the first frame.
+     *
+     * @param incremental true to enable the incremental mode
+     */
+    public void setIncremental(boolean incremental) {
+        if(!firstFrame) throw new IllegalStateException("Incremental mode must be set before writing the first frame");
+        this.incremental = incremental;
+        if(fixedPalette != null) {
+            fixedTransparentIndex = (incremental && fixedPaletteSize < 256) ? fixedPaletteSize : -1;
+            int colors = fixedTransparentIndex >= 0 ? fixedPaletteSize + 1 : fixedPaletteSize;
+            fixedBitsPerPixel = 1;
+            while((1<<fixedBitsPerPixel) < colors) fixedBitsPerPixel++;
+            if(fixedPalette.length != (1<<fixedBitsPerPixel)) {
+                int[] palette = new int[1<<fixedBitsPerPixel];
+                Arrays.fill(palette, 0xff000000);
+                System.arraycopy(fixedPalette, 0, palette, 0, fixedPaletteSize);
+                fixedPalette = palette;
             }
-            bytes_buf[bufIndex] |= (code&0xff);
-            code >>= 8;
-            temp -= 8;
         }
-        empty_bits = -temp;
     }
 
-    public void setLoopCount(int loopCount) {
-        this.loopCount = loopCount;
+    /**
+     * Maps and compresses the frames on the given number of threads while the calling thread
+     * writes the ones already compressed. Frames are written in order and at most twice the
+     * number of threads are kept in memory.
+     * This is available in palette-indexed mode only, where a frame can be encoded without
+     * knowing the others, and is intended to be called before writing the first frame.
+     *
+     * @param threads number of encoding threads: with less than 2 frames are encoded by the caller
+     */
+    public void setParallelism(int threads) {
+        if(!firstFrame) throw new IllegalStateException("Parallelism must be set before writing the first frame");
+        if(fixedPalette == null) throw new IllegalStateException("Parallel encoding is available in palette-indexed mode only");
+        if(encoderPool != null) {
+            encoderPool.shutdown();
+            encoderPool = null;
+        }
+        if(threads < 2) return;
+        encoderPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "GIFEncoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poolEncoders = ThreadLocal.withInitial(FrameEncoder::new);
+        maxFramesInFlight = threads*2;
     }
 
     private void write(int[] pixels, int imageWidth, int imageHeight, OutputStream os) throws Exception {
@@ -423,6 +397,7 @@ public class AnimatedGIFWriter {
         // Write the image frame
         writeFrame(pixels, imageWidth, imageHeight, 0, 0, 0, os);
         // Make a clean end up of the image
+        writeEncodedFrames(os, 0);
         os.write(IMAGE_TRAILER);
         os.close();
     }
@@ -453,6 +428,7 @@ public class AnimatedGIFWriter {
             writeFrame(getRGB(images[i]), imageWidth, imageHeight, 0, 0, delays[i], os);
         }
 
+        writeEncodedFrames(os, 0);
         os.write(IMAGE_TRAILER);
         os.close();
     }
@@ -491,6 +467,7 @@ public class AnimatedGIFWriter {
                     frames[i].getDelay(), frames[i].getDisposalMethod(), frames[i].getUserInputFlag(), os);
         }
 
+        writeEncodedFrames(os, 0);
         os.write(IMAGE_TRAILER);
         os.close();
     }
@@ -578,57 +555,88 @@ public class AnimatedGIFWriter {
         writeFrame(getRGB(frame.getSubimage(0, 0, imageWidth, imageHeight)), imageWidth, imageHeight, 0, 0, delay, os);
     }
 
-    private void writeFrame(int[] pixels, int imageWidth, int imageHeight, int imageLeftPosition, int imageTopPosition, int delay, int disposalMethod, int userInputFlag, OutputStream os) throws Exception {
-        // Reset empty_bits
-        empty_bits = 0x08;
+    /**
+     * Writes a frame from an array of ARGB pixels, like the memory of an emulator's display.
+     * The array is not modified and can be reused after this call.
+     *
+     * @param os OutputStream for the animated GIF
+     * @param pixels ARGB pixels, row by row
+     * @param imageWidth width of the frame
+     * @param imageHeight height of the frame
+     * @param delay delay in milliseconds
+     * @throws Exception
+     */
+    public void writeFrame(OutputStream os, int[] pixels, int imageWidth, int imageHeight, int delay) throws Exception {
+        // Determine the logical screen dimension
+        if(firstFrame) {
+            if(logicalScreenWidth <= 0)
+                logicalScreenWidth = imageWidth;
+            if(logicalScreenHeight <= 0)
+                logicalScreenHeight = imageHeight;
+        }
+        if(delay <= 0) delay = 100;
+        int frameWidth = Math.min(imageWidth, logicalScreenWidth);
+        int frameHeight = Math.min(imageHeight, logicalScreenHeight);
+        if(frameWidth != imageWidth) {
+            // Crop the rows outside of the logical screen
+            int[] cropped = new int[frameWidth*frameHeight];
+            for(int y = 0; y < frameHeight; y++)
+                System.arraycopy(pixels, y*imageWidth, cropped, y*frameWidth, frameWidth);
+            pixels = cropped;
+        }
+        writeFrame(pixels, frameWidth, frameHeight, 0, 0, delay, os);
+    }
 
+    private void writeFrame(int[] pixels, int imageWidth, int imageHeight, int imageLeftPosition, int imageTopPosition, int delay, int disposalMethod, int userInputFlag, OutputStream os) throws Exception {
+        if(encoderPool != null) {
+            submitFrame(pixels, imageWidth, imageHeight, imageLeftPosition, imageTopPosition, delay, disposalMethod, userInputFlag, os);
+            return;
+        }
         int transparent_color = -1;
         int[] colorInfo;
 
         // Reduce colors, if the color depth is less than 8 bits, reduce colors
         // to the actual bits needed, otherwise reduce to 8 bits.
-        byte[] newPixels = new byte[imageWidth*imageHeight];
-        colorPalette = new int[256];
+        int size = imageWidth*imageHeight;
+        byte[] newPixels = indexBuffer = ensureCapacity(indexBuffer, size);
+
+        if(fixedPalette != null) {
+            // Palette-indexed mode: no color reduction
+            if(encoder.mapToPalette(pixels, newPixels, size))
+                transparent_color = fixedTransparentIndex;
+            colorPalette = fixedPalette;
+            bitsPerPixel = fixedBitsPerPixel;
+        } else {
+            if(colorPalette == null || colorPalette == fixedPalette)
+                colorPalette = new int[256];
+            else
+                Arrays.fill(colorPalette, 0);
 
-        colorInfo = checkColorDepth(pixels, newPixels, colorPalette);
+            colorInfo = checkColorDepth(pixels, newPixels, colorPalette);
 
-        if(colorInfo[0] > 0x08) {
-            bitsPerPixel = 8;
-            if(isApplyDither)
-                colorInfo = reduceColorsDiffusionDither(pixels, imageWidth, imageHeight, bitsPerPixel, newPixels, colorPalette);
-            else
-                colorInfo = reduceColors(pixels, bitsPerPixel, newPixels, colorPalette);
-        }
+            if(colorInfo[0] > 0x08) {
+                bitsPerPixel = 8;
+                if(isApplyDither)
+                    colorInfo = reduceColorsDiffusionDither(pixels, imageWidth, imageHeight, bitsPerPixel, newPixels, colorPalette);
+                else
+                    colorInfo = reduceColors(pixels, bitsPerPixel, newPixels, colorPalette);
+            }
 
-        bitsPerPixel = colorInfo[0];
+            bitsPerPixel = colorInfo[0];
 
-        transparent_color = colorInfo[1];
+            transparent_color = colorInfo[1];
+        }
 
         int num_of_color = 1<<bitsPerPixel;
 
-        if(firstFrame) {
-            // Logical screen descriptor
-            byte  flags = (byte)0x88;//0b10001000 (having sorted global color map) - To be updated
-            byte  bgcolor = 0x00;// To be set
-            byte  aspectRatio = 0x00;
-            int colorResolution = 0x07;
-            // Set GIF logical screen descriptor parameters
-            flags |= ((colorResolution<<4)|(bitsPerPixel - 1));
-            if(transparent_color >= 0)
-                bgcolor = (byte)transparent_color;
-            // Write logical screen descriptor
-            writeLSD(os, (short)logicalScreenWidth, (short)logicalScreenHeight, flags, bgcolor, aspectRatio);
-            // Write the global colorPalette
-            writePalette(os, num_of_color);
-            writeComment(os, "Created by ICAFE - https://github.com/dragon66/icafe");
-            if(animated)// Write Netscape extension block
-                writeNetscapeApplicationBlock(os, loopCount);
-        }
+        if(firstFrame)
+            writeScreenHeader(os, transparent_color);
 
         // Output the graphic control block
         writeGraphicControlBlock(os, delay, transparent_color, disposalMethod, userInputFlag);
         // Output image descriptor
-        if(firstFrame) {
+        if(firstFrame || fixedPalette != null) {
+            // The global color table is used
             writeImageDescriptor(os, imageWidth, imageHeight, imageLeftPosition, imageTopPosition, -1);
             firstFrame = false;
         } else {
@@ -637,15 +645,139 @@ public class AnimatedGIFWriter {
             writePalette(os, num_of_color);
         }
         // LZW encode the image
-        encode(newPixels, os);
+        encoder.encode(newPixels, size, bitsPerPixel, os);
         /** Write out a zero length data sub-block */
         os.write(0x00);
     }
 
+    // Writes the logical screen descriptor with the global color table and the extensions that precede the first frame
+    private void writeScreenHeader(OutputStream os, int transparent_color) throws Exception {
+        int num_of_color = 1<<bitsPerPixel;
+        // Logical screen descriptor
+        byte  flags = (byte)0x88;//0b10001000 (having sorted global color map) - To be updated
+        byte  bgcolor = 0x00;// To be set
+        byte  aspectRatio = 0x00;
+        int colorResolution = 0x07;
+        // Set GIF logical screen descriptor parameters
+        flags |= ((colorResolution<<4)|(bitsPerPixel - 1));
+        if(transparent_color >= 0)
+            bgcolor = (byte)transparent_color;
+        // Write logical screen descriptor
+        writeLSD(os, (short)logicalScreenWidth, (short)logicalScreenHeight, flags, bgcolor, aspectRatio);
+        // Write the global colorPalette
+        writePalette(os, num_of_color);
+        writeComment(os, "Created by ICAFE - https://github.com/dragon66/icafe");
+        if(animated)// Write Netscape extension block
+            writeNetscapeApplicationBlock(os, loopCount);
+    }
+
+    private void submitFrame(int[] pixels, int imageWidth, int imageHeight, int imageLeftPosition, int imageTopPosition, int delay, int disposalMethod, int userInputFlag, OutputStream os) throws Exception {
+        if(firstFrame) {
+            // The global color table doesn't depend on the frames: the screen header can be written at once
+            colorPalette = fixedPalette;
+            bitsPerPixel = fixedBitsPerPixel;
+            writeScreenHeader(os, -1);
+            firstFrame = false;
+        }
+        EncodedFrame frame = freeFrames.poll();
+        if(frame == null) frame = new EncodedFrame();
+        // The caller can reuse its pixels after this call
+        frame.size = imageWidth*imageHeight;
+        frame.pixels = ensureCapacity(frame.pixels, frame.size);
+        System.arraycopy(pixels, 0, frame.pixels, 0, frame.size);
+        frame.imageWidth = imageWidth;
+        frame.imageHeight = imageHeight;
+        frame.imageLeftPosition = imageLeftPosition;
+        frame.imageTopPosition = imageTopPosition;
+        frame.delay = delay;
+        frame.disposalMethod = disposalMethod;
+        frame.userInputFlag = userInputFlag;
+        frame.result = encoderPool.submit(frame);
+        framesInFlight.add(frame);
+        writeEncodedFrames(os, maxFramesInFlight);
+    }
+
+    // Writes in order the encoded frames that are ready, waiting for the oldest ones while more than maxInFlight are in flight
+    private void writeEncodedFrames(OutputStream os, int maxInFlight) throws Exception {
+        while(!framesInFlight.isEmpty() && (framesInFlight.size() > maxInFlight || framesInFlight.peek().result.isDone())) {
+            EncodedFrame frame = framesInFlight.poll();
+            try {
+                frame.result.get();
+            } catch(ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+            }
+            frame.result = null;
+            frame.data.writeTo(os);
+            freeFrames.add(frame);
+        }
+    }
+
+    private static int[] ensureCapacity(int[] buffer, int size) {
+        return buffer == null || buffer.length < size ? new int[size] : buffer;
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        return buffer == null || buffer.length < size ? new byte[size] : buffer;
+    }
+
     private void writeFrame(int[] pixels, int imageWidth, int imageHeight, int imageLeftPosition, int imageTopPosition, int delay, OutputStream os) throws Exception	{
+        if(incremental && imageLeftPosition == 0 && imageTopPosition == 0) {
+            writeIncrementalFrame(pixels, imageWidth, imageHeight, delay, os);
+            return;
+        }
         writeFrame(pixels, imageWidth, imageHeight, imageLeftPosition, imageTopPosition, delay, GIFFrame.DISPOSAL_RESTORE_TO_BACKGROUND, GIFFrame.USER_INPUT_NONE, os);
     }
 
+    private void writeIncrementalFrame(int[] pixels, int imageWidth, int imageHeight, int delay, OutputStream os) throws Exception {
+        int size = imageWidth*imageHeight;
+        if(firstFrame || previousFrame == null || imageWidth != previousWidth || imageHeight != previousHeight) {
+            // Full frame
+            writeFrame(pixels, imageWidth, imageHeight, 0, 0, delay, GIFFrame.DISPOSAL_LEAVE_AS_IS, GIFFrame.USER_INPUT_NONE, os);
+            if(previousFrame == null || previousFrame.length != size)
+                previousFrame = new int[size];
+            System.arraycopy(pixels, 0, previousFrame, 0, size);
+            previousWidth = imageWidth;
+            previousHeight = imageHeight;
+            return;
+        }
+        // Determine the bounding rectangle of the changed pixels
+        int top = -1, bottom = -1, left = imageWidth, right = -1;
+        for(int y = 0, offset = 0; y < imageHeight; y++, offset += imageWidth) {
+            int x = 0;
+            while(x < imageWidth && pixels[offset + x] == previousFrame[offset + x]) x++;
+            if(x == imageWidth) continue;
+            if(top < 0) top = y;
+            bottom = y;
+            if(x < left) left = x;
+            x = imageWidth - 1;
+            while(pixels[offset + x] == previousFrame[offset + x]) x--;
+            if(x > right) right = x;
+        }
+        if(top < 0) {
+            // Nothing changed: a single unchanged pixel keeps the frame's delay
+            singlePixel[0] = 0xff000000|previousFrame[0];
+            writeFrame(singlePixel, 1, 1, 0, 0, delay, GIFFrame.DISPOSAL_LEAVE_AS_IS, GIFFrame.USER_INPUT_NONE, os);
+            return;
+        }
+        int width = right - left + 1;
+        int height = bottom - top + 1;
+        boolean useTransparency = fixedPalette == null || fixedTransparentIndex >= 0;
+        // Color reduction needs an array of the exact size
+        int[] subPixels = fixedPalette != null ? (subPixelsBuffer = ensureCapacity(subPixelsBuffer, width*height)) : new int[width*height];
+        for(int y = 0, index = 0; y < height; y++) {
+            int offset = (top + y)*imageWidth + left;
+            for(int x = 0; x < width; x++, index++) {
+                int pixel = pixels[offset + x];
+                if(useTransparency && pixel == previousFrame[offset + x])
+                    subPixels[index] = 0; // Unchanged pixels are transparent
+                else
+                    subPixels[index] = 0xff000000|pixel;
+            }
+            System.arraycopy(pixels, offset, previousFrame, offset, width);
+        }
+        writeFrame(subPixels, width, height, left, top, delay, GIFFrame.DISPOSAL_LEAVE_AS_IS, GIFFrame.USER_INPUT_NONE, os);
+    }
+
     // Unit of delay is supposed to be in millisecond
     private void writeGraphicControlBlock(OutputStream os, int delay, int transparent_color, int disposalMethod, int userInputFlag) throws Exception {
         // Scale delay
@@ -906,6 +1038,241 @@ public class AnimatedGIFWriter {
         }
     }
 
+    /**
+     * A frame encoded by the pool: its buffers are reused by the following frames.
+     */
+    private final class EncodedFrame implements Callable<Void> {
+        private int[] pixels;
+        private byte[] newPixels;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private int size;
+        private int imageWidth;
+        private int imageHeight;
+        private int imageLeftPosition;
+        private int imageTopPosition;
+        private int delay;
+        private int disposalMethod;
+        private int userInputFlag;
+        private Future<Void> result;
+
+        @Override
+        public Void call() throws Exception {
+            FrameEncoder frameEncoder = poolEncoders.get();
+            newPixels = ensureCapacity(newPixels, size);
+            int transparent_color = frameEncoder.mapToPalette(pixels, newPixels, size) ? fixedTransparentIndex : -1;
+            data.reset();
+            writeGraphicControlBlock(data, delay, transparent_color, disposalMethod, userInputFlag);
+            writeImageDescriptor(data, imageWidth, imageHeight, imageLeftPosition, imageTopPosition, -1);
+            frameEncoder.encode(newPixels, size, fixedBitsPerPixel, data);
+            data.write(0x00);
+            return null;
+        }
+    }
+
+    /**
+     * Encoding state of a frame: the LZW string table and code buffer and, in palette-indexed
+     * mode, the rgb -> palette index cache. Each thread encoding frames needs its own.
+     */
+    private final class FrameEncoder {
+        private int codeLen;
+        private int codeIndex;
+        private int clearCode;
+        private int endOfImage;
+        private int bufIndex;
+        private int empty_bits = 0x08;
+
+        private byte bytes_buf[] = new byte[256];
+
+        /**
+         * A child is made up of a parent(or prefix) code plus a suffix color
+         * and siblings are strings with a common parent(or prefix) and different
+         * suffix colors
+         */
+        int child[] = new int[4097];
+
+        int siblings[] = new int[4097];
+        int suffix[] = new int[4097];
+
+        // Direct mapped rgb -> palette index cache
+        private final int[] colorCacheKeys = new int[1<<COLOR_CACHE_BITS];
+        private final byte[] colorCacheIndexes = new byte[1<<COLOR_CACHE_BITS];
+
+        FrameEncoder() {
+            Arrays.fill(colorCacheKeys, -1);
+        }
+
+        private void encode(byte[] pixels, int dimension, int bitsPerPixel, OutputStream os) throws Exception {
+            // Define local variables
+            int parent = 0;
+            int son = 0;
+            int brother = 0;
+            int color = 0;
+            int index = 0;
+            // Reset empty_bits and the first byte: the following ones are assigned when started
+            empty_bits = 0x08;
+            bytes_buf[0] = 0;
+
+            // Write out the length of the root
+            os.write(bitsPerPixel = (bitsPerPixel == 1)?2:bitsPerPixel);
+            // Initialize the encoder
+            init_encoder(bitsPerPixel);
+            // Tell the decoder to initialize the string table
+            send_code_to_buffer(clearCode, os);
+            // Get the first color and assign it to parent
+            parent = (pixels[index++]&0xff);
+
+            while (index < dimension)
+            {
+                color = (pixels[index++]&0xff);
+                son = child[parent];
+
+                if ( son > 0){
+                    if (suffix[son] == color) {
+                        parent = son;
+                    } else {
+                        brother = son;
+                        while (true)
+                        {
+                            if (siblings[brother] > 0)
+                            {
+                                brother = siblings[brother];
+                                if (suffix[brother] == color)
+                                {
+                                    parent = brother;
+                                    break;
+                                }
+                            } else {
+                                siblings[brother] = codeIndex;
+                                suffix[codeIndex] = color;
+                                child[codeIndex] = 0;
+                                siblings[codeIndex] = 0;
+                                send_code_to_buffer(parent,os);
+                                parent = color;
+                                codeIndex++;
+                                // Check code length
+                                if(codeIndex > ((1<<codeLen)))
+                                {
+                                    if (codeLen == 12)
+                                    {
+                                        send_code_to_buffer(clearCode,os);
+                                        init_encoder(bitsPerPixel);
+                                    } else
+                                        codeLen++;
+                                }
+                                break;
+                            }
+                        }
+                    }
+                } else {
+                    child[parent] = codeIndex;
+                    suffix[codeIndex] = color;
+                    child[codeIndex] = 0;
+                    siblings[codeIndex] = 0;
+                    send_code_to_buffer(parent,os);
+                    parent = color;
+                    codeIndex++;
+                    // Check code length
+                    if(codeIndex > ((1<<codeLen)))
+                    {
+                        if (codeLen == 12)
+                        {
+                            send_code_to_buffer(clearCode,os);
+                            init_encoder(bitsPerPixel);
+                        } else
+                            codeLen++;
+                    }
+                }
+            }
+            // Send the last color code to the buffer
+            send_code_to_buffer(parent,os);
+            // Send the endOfImage code to the buffer
+            send_code_to_buffer(endOfImage,os);
+            // Flush the last code buffer
+            flush_buf(os, bufIndex+1);
+        }
+
+        private void flush_buf(OutputStream os, int len) throws Exception {
+            os.write(len);
+            os.write(bytes_buf,0,len);
+            bufIndex = 0;
+        }
+
+        private void init_encoder(int bitsPerPixel ) {
+            clearCode = 1 << bitsPerPixel;
+            endOfImage = clearCode + 1;
+            codeLen = bitsPerPixel + 1;
+            codeIndex = endOfImage + 1;
+            // Reset the roots: the entries of the other codes are reset when the codes are added
+            Arrays.fill(child, 0, clearCode, 0);
+        }
+
+        // Translate codes into bytes
+        private void send_code_to_buffer(int code, OutputStream os)throws Exception	{
+            int temp = codeLen;
+            // Shift the code to the left of the last byte in bytes_buf
+            bytes_buf[bufIndex] |= ((code&MASK[empty_bits])<<(8-empty_bits));
+            code >>= empty_bits;
+            temp -= empty_bits;
+            // If the code is longer than the empty_bits
+            while (temp > 0)
+            {
+                if ( ++bufIndex >= 0xff)
+                {
+                    flush_buf(os,0xff);
+                }
+                bytes_buf[bufIndex] = (byte)(code&0xff);
+                code >>= 8;
+                temp -= 8;
+            }
+            empty_bits = -temp;
+        }
+
+        // Maps ARGB pixels to the indexes of the fixed palette, returns true if some pixel is transparent
+        private boolean mapToPalette(int[] pixels, byte[] newPixels, int size) {
+            int lastColor = -1;
+            byte lastIndex = 0;
+            boolean transparent = false;
+            for(int i = 0; i < size; i++) {
+                if(fixedTransparentIndex >= 0 && (pixels[i] >>> 24) < 0x80) { // Transparent
+                    newPixels[i] = (byte)fixedTransparentIndex;
+                    transparent = true;
+                    continue;
+                }
+                int color = (pixels[i]&0x00ffffff);
+                if(color != lastColor) {
+                    int slot = (color*0x9e3779b1)>>>(32 - COLOR_CACHE_BITS);
+                    if(colorCacheKeys[slot] != color) {
+                        colorCacheKeys[slot] = color;
+                        colorCacheIndexes[slot] = (byte)nearestPaletteIndex(color);
+                    }
+                    lastColor = color;
+                    lastIndex = colorCacheIndexes[slot];
+                }
+                newPixels[i] = lastIndex;
+            }
+            return transparent;
+        }
+
+        private int nearestPaletteIndex(int color) {
+            int red = (color>>16)&0xff;
+            int green = (color>>8)&0xff;
+            int blue = color&0xff;
+            int nearest = 0;
+            int minDistance = Integer.MAX_VALUE;
+            for(int i = 0; i < fixedPaletteSize && minDistance > 0; i++) {
+                int dr = red - ((fixedPalette[i]>>16)&0xff);
+                int dg = green - ((fixedPalette[i]>>8)&0xff);
+                int db = blue - (fixedPalette[i]&0xff);
+                int distance = dr*dr + dg*dg + db*db;
+                if(distance < minDistance) {
+                    minDistance = distance;
+                    nearest = i;
+                }
+            }
+            return nearest;
+        }
+    }
+
     public static class GIFFrame {
         // Frame parameters
         private BufferedImage frame;
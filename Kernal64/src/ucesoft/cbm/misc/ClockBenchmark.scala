@@ -0,0 +1,89 @@
+package ucesoft.cbm.misc
+
+import ucesoft.cbm.{Clock, ClockEvent}
+
+import java.util.Properties
+
+/**
+ * Measures the throughput of the clock's event queue: a fixed number of events, each with its own id, are kept
+ * pending at pseudo random distances, as the chips and drives do. Every executed event schedules the next one with
+ * the same id and, periodically, a random id is canceled and scheduled again.
+ *
+ * The checksum depends on the order of execution of the events: it must not change among queue implementations.
+ */
+object ClockBenchmark {
+  private class Run(clk:Clock,pending:Int,maxDistance:Int,cancelInterval:Int,totalCycles:Long) {
+    private[this] val ids = Array.tabulate(pending)(i => s"Event$i")
+    private[this] var seed = 0x2545F491
+    var scheduled = 0L
+    var executed = 0L
+    var canceled = 0L
+    var checksum = 0L
+
+    private def random(n:Int) : Int = {
+      seed ^= seed << 13
+      seed ^= seed >>> 17
+      seed ^= seed << 5
+      (seed & 0x7FFFFFFF) % n
+    }
+
+    private def schedule(i:Int,cycles:Long) : Unit = {
+      clk.schedule(new ClockEvent(ids(i),cycles + 1 + random(maxDistance),cycles => execute(i,cycles)))
+      scheduled += 1
+    }
+
+    private def execute(i:Int,cycles:Long) : Unit = {
+      executed += 1
+      checksum = checksum * 31 + (cycles << 8) + i
+      schedule(i,cycles)
+    }
+
+    def start() : Unit = for (i <- 0 until pending) schedule(i,0)
+
+    def mainLoop(cycles:Long) : Unit = {
+      if (cancelInterval > 0 && cycles % cancelInterval == 0) {
+        val i = random(pending)
+        clk.cancel(ids(i))
+        canceled += 1
+        schedule(i,cycles)
+      }
+      if (cycles == totalCycles) clk.halt()
+    }
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var cycles = 50000000L
+    var pending = 16
+    var distance = 2000
+    var cancelInterval = 100
+    var repeat = 3
+
+    settings.add("cycles","Number of cycles of each run",50000000) { c => cycles = c.toLong }
+    settings.add("events","Number of pending events",16) { pending = _ }
+    settings.add("distance","Maximum distance, in cycles, of a scheduled event",2000) { distance = _ }
+    settings.add("cancel-interval","Cycles between two cancellations, 0 for none",100) { cancelInterval = _ }
+    settings.add("repeat","Number of runs",3) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"ClockBenchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    for (r <- 1 to repeat) {
+      var run : Run = null
+      val clk = Clock.makeClock(s"ClockBenchmark$r")(cycles => run.mainLoop(cycles))
+      run = new Run(clk,pending,distance,cancelInterval,cycles)
+      clk.maximumSpeed = true
+      run.start()
+      val start = System.nanoTime()
+      clk.play()
+      clk.join()
+      val elapsed = (System.nanoTime() - start) / 1e9
+      println("run %d: %8.2f Mcycles/s %8.2f M scheduled/s %8.2f M executed/s %8.2f M canceled/s checksum %016X".format(
+        r,cycles / elapsed / 1e6,run.scheduled / elapsed / 1e6,run.executed / elapsed / 1e6,run.canceled / elapsed / 1e6,run.checksum))
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package ucesoft.cbm.misc
+
+import ucesoft.cbm.peripheral.vic.Palette
+
+import java.awt.image.BufferedImage
+import java.io.OutputStream
+import java.lang.management.ManagementFactory
+import java.util.Properties
+import scala.jdk.CollectionConverters._
+
+/**
+ * Measures the GIF encoding speed on a synthetic 384x272 VIC frame sequence: a text screen with a scrolling row,
+ * moving sprites and raster bars in the border. Memory allocated while encoding is measured on the writing and encoding
+ * threads, when supported by the JVM.
+ */
+object GIFBenchmark {
+  private[misc] final val WIDTH = 384
+  private[misc] final val HEIGHT = 272
+  private[misc] final val SEQUENCE_LENGTH = 100
+
+  private class CountingOutputStream extends OutputStream {
+    var count = 0L
+    override def write(b: Int): Unit = count += 1
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = count += len
+  }
+
+  /**
+   * Bytes allocated so far by the current thread and the encoding threads, -1 if not supported.
+   */
+  private def allocatedBytes : Long = ManagementFactory.getThreadMXBean match {
+    case bean:com.sun.management.ThreadMXBean if bean.isThreadAllocatedMemorySupported =>
+      Thread.getAllStackTraces.keySet.asScala.toList.
+        filter(t => t == Thread.currentThread || t.getName == "GIFEncoder").
+        map(t => bean.getThreadAllocatedBytes(t.getId)).sum
+    case _ =>
+      -1L
+  }
+
+  private[misc] def makeFrame(n:Int) : Array[Int] = {
+    val palette = Palette.VIC_RGB
+    val pixels = Array.ofDim[Int](WIDTH * HEIGHT)
+    val sprites = for (s <- 0 until 4) yield {
+      val angle = (n + s * 25) * 2 * math.Pi / SEQUENCE_LENGTH
+      (176 + (130 * math.cos(angle)).toInt,126 + (80 * math.sin(angle * 2)).toInt,Array(1,2,7,5)(s))
+    }
+    for (y <- 0 until HEIGHT; x <- 0 until WIDTH) {
+      var color = if (x < 32 || x >= 352 || y < 36 || y >= 236) {
+        if (((y + n) >> 2) % 9 == 0) 2 else 14
+      }
+      else {
+        val row = (y - 36) >> 3
+        val sx = if (row == 12) x - 32 + n * 2 else x - 32
+        val ch = ((sx >> 3) * 7 + row * 13) % 64
+        if ((ch * 0x2F + (y & 7) * 3 + (sx & 7)) % 5 == 0) 14 else 6
+      }
+      for ((spx,spy,spc) <- sprites) {
+        if (x >= spx && x < spx + 24 && y >= spy && y < spy + 21 && ((x - spx) ^ (y - spy)) % 3 != 0) color = spc
+      }
+      pixels(y * WIDTH + x) = palette(color)
+    }
+    pixels
+  }
+
+  /**
+   * Returns the frames per second, the GIF size and the bytes allocated per frame.
+   */
+  private def run(mode:String,frames:Array[Array[Int]],count:Int,threads:Int) : (Double,Long,Long) = {
+    val out = new CountingOutputStream
+    val writer = mode match {
+      case "quantized" => new AnimatedGIFWriter(true)
+      case _ => new AnimatedGIFWriter(Palette.VIC_RGB.clone())
+    }
+    if (mode == "incremental" || mode == "parallel") writer.setIncremental(true)
+    if (mode == "parallel") writer.setParallelism(threads)
+    writer.prepareForWrite(out,-1,-1)
+    val image = new BufferedImage(WIDTH,HEIGHT,BufferedImage.TYPE_INT_RGB)
+    val allocatedAtStart = allocatedBytes
+    val start = System.nanoTime()
+    for (f <- 0 until count) {
+      val pixels = frames(f % frames.length)
+      if (mode == "quantized") {
+        // the path used with screen captures
+        image.setRGB(0,0,WIDTH,HEIGHT,pixels,0,WIDTH)
+        writer.writeFrame(out,image,20)
+      }
+      else writer.writeFrame(out,pixels,WIDTH,HEIGHT,20)
+    }
+    val allocated = if (allocatedAtStart < 0) -1L else (allocatedBytes - allocatedAtStart) / count
+    writer.finishWrite(out)
+    val elapsed = (System.nanoTime() - start) / 1e9
+    (count / elapsed,out.count,allocated)
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var modes = "quantized,palette,incremental,parallel"
+    var frames = 500
+    var threads = Runtime.getRuntime.availableProcessors
+    var repeat = 2
+
+    settings.add("modes","Comma separated list of modes: quantized, palette, incremental, parallel","quantized,palette,incremental,parallel") { modes = _ }
+    settings.add("frames","Number of frames to encode",500) { frames = _ }
+    settings.add("threads","Number of encoding threads in parallel mode",threads) { threads = _ }
+    settings.add("repeat","Number of runs for each mode: the last one is reported after the warm up",2) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"GIFBenchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    println(s"Preparing $SEQUENCE_LENGTH frames of ${WIDTH}x$HEIGHT ...")
+    val sequence = Array.tabulate(SEQUENCE_LENGTH)(makeFrame)
+    for (mode <- modes.split(",").map(_.trim)) {
+      for (_ <- 1 until repeat) run(mode,sequence,frames,threads)
+      val (fps,size,allocated) = run(mode,sequence,frames,threads)
+      println("%-12s %8.1f frames/s %10d bytes %10s allocated/frame".format(mode,fps,size,if (allocated < 0) "n/a" else s"${allocated}B"))
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package ucesoft.cbm.misc
 
+import ucesoft.cbm.Clock
 import ucesoft.cbm.peripheral.vic.Display
 
 import java.awt.event.{WindowAdapter, WindowEvent}
@@ -8,7 +9,7 @@ import java.io.{File, FileOutputStream}
 import javax.swing._
 import javax.swing.filechooser.FileFilter
 
-class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel with Runnable {
+class GIFPanel(display:Array[Display],displayName:Array[String],palette:Array[Array[Int]]) extends JPanel with Runnable {
   private var delayInMillis = 0
   private var out : FileOutputStream = _
   @volatile private var recording = false
@@ -18,6 +19,8 @@ class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel
   private var selectedDisplayIndex = 0
   private val frameCheckbox = new JCheckBox("Include frame border")
   private val frameRecordedLabel = new JLabel("0")
+  private var recorder : GIFRecorder = _
+  private val recorderStatusTimer = new Timer(500,_ => updateRecorderStatus())
 
   private def init() : Unit = {
     setLayout(new GridBagLayout)
@@ -74,12 +77,22 @@ class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel
     try {
       if (!recording) {
         val fileName = if (fileTextField.getText.toUpperCase.endsWith("GIF")) fileTextField.getText else fileTextField.getText + ".gif"
-        out = new FileOutputStream(fileName)
-        val thread = new Thread(this,"GIFRecorder")
-        recording = true
         checkDelay()
-        startStopButton.setText("Stop recording")
-        thread.start()
+        if (frameCheckbox.isSelected) {
+          // the window border is not in the display memory: it must be captured from the screen
+          out = new FileOutputStream(fileName)
+          val thread = new Thread(this,"GIFRecorder")
+          recording = true
+          startStopButton.setText("Stop recording")
+          thread.start()
+        }
+        else {
+          recorder = new GIFRecorder(new File(fileName),display(selectedDisplayIndex),palette(selectedDisplayIndex),delayInMillis,Clock.systemClock,true)
+          recording = true
+          startStopButton.setText("Stop recording")
+          recorder.start()
+          recorderStatusTimer.start()
+        }
       }
       else stopRecording()
     }
@@ -103,9 +116,15 @@ class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel
     }
   }
 
+  private def updateRecorderStatus() : Unit = {
+    if (recorder != null) {
+      val dropped = recorder.getDroppedFrames
+      frameRecordedLabel.setText(if (dropped > 0) s"${recorder.getRecordedFrames} ($dropped dropped)" else recorder.getRecordedFrames.toString)
+    }
+  }
+
   def run() : Unit = {
-    val includeFrame = frameCheckbox.isSelected
-    val region = if (includeFrame) {
+    val region = {
       val frame = SwingUtilities.getRoot(display(selectedDisplayIndex)).asInstanceOf[JFrame]
       frame.requestFocus()
       val rootPane = frame.getRootPane
@@ -118,13 +137,7 @@ class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel
       rec.height += delta
       rec
     }
-    else {
-      val rec = display(selectedDisplayIndex).getBounds()
-      val p = display(selectedDisplayIndex).getLocationOnScreen
-      rec.x = p.x
-      rec.y = p.y
-      rec
-    }
+    // the border of the window is not made of palette colors: it needs color reduction
     val writer = new AnimatedGIFWriter(true)
     writer.prepareForWrite(out,-1,-1)
     var frameRecorded = 0
@@ -148,14 +161,24 @@ class GIFPanel(display:Array[Display],displayName:Array[String]) extends JPanel
 
   def stopRecording() : Unit = {
     recording = false
+    if (recorder != null) {
+      recorderStatusTimer.stop()
+      recorder.stop()
+      updateRecorderStatus()
+      recorder.getError.foreach(t => JOptionPane.showMessageDialog(this,s"Error while recording GIF: $t","GIF recording error",JOptionPane.ERROR_MESSAGE))
+      recorder = null
+    }
     startStopButton.setText("Start")
   }
 }
 
 object GIFPanel {
-  def createGIFPanel(parent:JFrame,display:Array[Display],displayName:Array[String]) : JDialog = {
+  /**
+   * palette contains, for each display, the colors the display is drawn with.
+   */
+  def createGIFPanel(parent:JFrame,display:Array[Display],displayName:Array[String],palette:Array[Array[Int]]) : JDialog = {
     val f = new JDialog(parent,s"GIF recording",false)
-    val gifPanel = new GIFPanel(display,displayName)
+    val gifPanel = new GIFPanel(display,displayName,palette)
 
     f.addWindowListener(new WindowAdapter {
       override def windowClosing(e:WindowEvent) : Unit = gifPanel.stopRecording()
@@ -0,0 +1,133 @@
+package ucesoft.cbm.misc
+
+import ucesoft.cbm.Clock
+import ucesoft.cbm.peripheral.vic.Display
+
+import java.io.{BufferedOutputStream, File, FileOutputStream}
+import java.util.concurrent.ArrayBlockingQueue
+
+object GIFRecorder {
+  private final val POOL_SIZE = 8
+
+  private class Frame(size:Int) {
+    var pixels: Array[Int] = Array.ofDim[Int](size)
+    var width, height, delay = 0
+  }
+}
+
+/**
+ * Records the frames completed by a display in an animated GIF, with the colors of the given palette.
+ *
+ * Frames are copied from the display memory into a small pool of buffers on the emulator thread and encoded on
+ * background threads. Timings are taken from the emulated cycles, so a recording is frame exact at any speed.
+ * When all the buffers are waiting to be encoded the frame is dropped or, if dropWhenBusy is false, the emulator
+ * waits for the encoder.
+ */
+class GIFRecorder(file:File,display:Display,palette:Array[Int],delayMillis:Int,clk:Clock,dropWhenBusy:Boolean) extends Display.FrameListener with Runnable {
+  import GIFRecorder._
+  private[this] val out = new BufferedOutputStream(new FileOutputStream(file),65536)
+  private[this] val writer = new AnimatedGIFWriter(palette.clone())
+  private[this] val freeFrames = new ArrayBlockingQueue[Frame](POOL_SIZE)
+  private[this] val readyFrames = new ArrayBlockingQueue[Frame](POOL_SIZE + 1)
+  private[this] val STOP = new Frame(0)
+  private[this] val encoder = new Thread(this,"GIFRecorder")
+  @volatile private[this] var recordedFrames = 0
+  @volatile private[this] var droppedFrames = 0
+  @volatile private[this] var error : Throwable = _
+  // emulator thread state, times are in emulated milliseconds
+  private[this] var stopped = false
+  private[this] var lastCycles = -1L
+  private[this] var now = 0.0
+  private[this] var pendingFrame : Frame = _
+  private[this] var pendingTime = 0.0
+  private[this] var writtenTime = 0.0
+
+  writer.setIncremental(true)
+  // this thread finds the changed areas and writes, the others compress
+  writer.setParallelism(math.min(4,Runtime.getRuntime.availableProcessors - 1))
+  writer.prepareForWrite(out,-1,-1)
+  for (_ <- 1 to POOL_SIZE) freeFrames.add(new Frame(0))
+  encoder.setDaemon(true)
+
+  def getRecordedFrames : Int = recordedFrames
+  def getDroppedFrames : Int = droppedFrames
+  def getError : Option[Throwable] = Option(error)
+
+  def start() : Unit = {
+    encoder.start()
+    display.setFrameListener(this)
+  }
+
+  /**
+   * Stops the recording and waits for the encoding of the pending frames.
+   */
+  def stop() : Unit = {
+    display.setFrameListener(null)
+    synchronized {
+      if (!stopped) {
+        stopped = true
+        if (pendingFrame != null) {
+          pendingFrame.delay = math.max(10,delayMillis / 10 * 10)
+          readyFrames.put(pendingFrame)
+          pendingFrame = null
+        }
+        readyFrames.put(STOP)
+      }
+    }
+    encoder.join()
+  }
+
+  override def frameCompleted(pixels: Array[Int], width: Int, height: Int): Unit = synchronized {
+    if (!stopped) {
+      val cycles = clk.currentCycles
+      if (lastCycles >= 0) now += (cycles - lastCycles) * 1000.0 / clk.getClockHz
+      lastCycles = cycles
+
+      if (pendingFrame == null || now - pendingTime >= delayMillis - 0.5) {
+        val frame = if (dropWhenBusy) freeFrames.poll() else freeFrames.take()
+        if (frame == null) droppedFrames += 1
+        else {
+          val size = width * height
+          if (frame.pixels.length != size) frame.pixels = Array.ofDim[Int](size)
+          System.arraycopy(pixels,0,frame.pixels,0,size)
+          frame.width = width
+          frame.height = height
+          // the delay of a frame is known when the next one is taken: it's rounded to the GIF's 1/100 sec. without drifting
+          if (pendingFrame != null) {
+            val delay = math.max(10,math.round((now - writtenTime) / 10).toInt * 10)
+            writtenTime += delay
+            pendingFrame.delay = delay
+            readyFrames.put(pendingFrame)
+          }
+          else writtenTime = now
+          pendingFrame = frame
+          pendingTime = now
+        }
+      }
+    }
+  }
+
+  override def run(): Unit = {
+    var frame = readyFrames.take()
+    while (frame ne STOP) {
+      if (error == null) {
+        try {
+          writer.writeFrame(out,frame.pixels,frame.width,frame.height,frame.delay)
+          recordedFrames += 1
+        }
+        catch {
+          case t:Throwable =>
+            println(s"Warning: GIF recording error: $t")
+            error = t
+        }
+      }
+      freeFrames.put(frame)
+      frame = readyFrames.take()
+    }
+    try writer.finishWrite(out)
+    catch {
+      case t:Throwable =>
+        if (error == null) error = t
+    }
+  }
+}
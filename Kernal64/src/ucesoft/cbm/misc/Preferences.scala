@@ -12,6 +12,7 @@ object Preferences {
   val PREF_LIMITCYCLES        = "limitcycles"
   val PREF_RUNFILE            = "run-file"
   val PREF_SCREENSHOT         = "screenshot"
+  val PREF_GIFRECORD          = "gif-record"
   val PREF_CPUJAMCONTINUE     = "cpujam-continue"
   val PREF_CIAMODEL           = "cia-model"
   val PREF_LOADSTATE          = "load-state"
@@ -42,6 +43,7 @@ object Preferences {
   val PREF_SID8580            = "sid-8580"
   val PREF_DUALSID            = "dual-sid"
   val PREF_SIDCYCLEEXACT      = "sid-cycle-exact"
+  val PREF_SIDRESAMPLING      = "sid-resampling"
   val PREF_REUTYPE            = "reu-type"
   val PREF_GEORAM             = "geo-ram"
   val PREF_RAMCART            = "ram-cart"
@@ -70,6 +72,7 @@ object Preferences {
   val PREF_MOUSE_DELAY_MILLIS = "mouse-delay-millis"
   val PREF_IEEE488_ROM        = "ieee488rom"
   val PREF_ASCIIDIN_ENABLED   = "capslock-as-asciidin"
+  val PREF_DRIVETHREADS       = "drive-threads"
   // ================== CBM II ===================================
   val PREF_CBM2_MODEL         = "model"
   val PREF_CBM2_BASIC128      = "basic128"
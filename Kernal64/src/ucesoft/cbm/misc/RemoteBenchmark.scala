@@ -0,0 +1,103 @@
+package ucesoft.cbm.misc
+
+import ucesoft.cbm.remote.RemoteFrameCodec
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.util.Properties
+
+/**
+ * Measures the bandwidth and the encoding and decoding time of the remote protocols on the synthetic VIC frame
+ * sequence of GIFBenchmark, sent as full frames as RemoteC64Server does: v1 sends each pixel as an ARGB int, v2 as
+ * palette indexes xored with the previous frame, run length encoded and deflated.
+ */
+object RemoteBenchmark {
+  private class Buffer extends ByteArrayOutputStream(1 << 20) {
+    def input : DataInputStream = new DataInputStream(new ByteArrayInputStream(buf,0,count))
+  }
+
+  /**
+   * Returns the bytes per frame, the encoding and decoding microseconds per frame.
+   */
+  private def run(version:Int,frames:Array[Array[Int]],count:Int) : (Long,Double,Double) = {
+    val WIDTH = GIFBenchmark.WIDTH
+    val HEIGHT = GIFBenchmark.HEIGHT
+    val buffer = new Buffer
+    val out = new DataOutputStream(buffer)
+    val encoder = new RemoteFrameCodec.Encoder(WIDTH,HEIGHT)
+    val decoder = new RemoteFrameCodec.Decoder(WIDTH,HEIGHT)
+    val screen = Array.ofDim[Int](WIDTH * HEIGHT)
+    var bytes, encodeTime, decodeTime = 0L
+    for (f <- 0 until count) {
+      val pixels = frames(f % frames.length)
+      buffer.reset()
+      var start = System.nanoTime()
+      if (version == 1) {
+        out.writeChar('P')
+        out.writeInt(0)
+        out.writeInt(0)
+        out.writeInt(WIDTH)
+        out.writeInt(HEIGHT)
+        var i = 0
+        while (i < pixels.length) {
+          out.writeInt(pixels(i))
+          i += 1
+        }
+      }
+      else encoder.encode(pixels,WIDTH,0,0,0,0,WIDTH,HEIGHT,out)
+      out.flush()
+      encodeTime += System.nanoTime() - start
+      bytes += buffer.size()
+
+      val in = buffer.input
+      start = System.nanoTime()
+      while (in.available() > 0) {
+        in.readChar match {
+          case 'P' =>
+            val x1 = in.readInt
+            val y1 = in.readInt
+            val x2 = in.readInt
+            val y2 = in.readInt
+            var i = y1 * WIDTH + x1
+            val end = y2 * WIDTH
+            while (i < end) {
+              screen(i) = in.readInt
+              i += 1
+            }
+          case 'C' =>
+            decoder.readPalette(in)
+          case 'R' =>
+            decoder.reset()
+          case 'Z' =>
+            decoder.decode(in,screen)
+        }
+      }
+      decodeTime += System.nanoTime() - start
+      if (!java.util.Arrays.equals(screen,pixels)) throw new IllegalStateException(s"Frame $f decoded with errors using protocol v$version")
+    }
+    (bytes / count,encodeTime / 1000.0 / count,decodeTime / 1000.0 / count)
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var frames = 500
+    var repeat = 2
+
+    settings.add("frames","Number of frames to send",500) { frames = _ }
+    settings.add("repeat","Number of runs for each protocol: the last one is reported after the warm up",2) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"RemoteBenchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    println(s"Preparing ${GIFBenchmark.SEQUENCE_LENGTH} frames of ${GIFBenchmark.WIDTH}x${GIFBenchmark.HEIGHT} ...")
+    val sequence = Array.tabulate(GIFBenchmark.SEQUENCE_LENGTH)(GIFBenchmark.makeFrame)
+    for (version <- 1 to RemoteFrameCodec.VERSION) {
+      for (_ <- 1 until repeat) run(version,sequence,frames)
+      val (bytes,encode,decode) = run(version,sequence,frames)
+      println("v%d %10d bytes/frame %10.1f us/frame encoding %10.1f us/frame decoding".format(version,bytes,encode,decode))
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package ucesoft.cbm.misc
+
+/**
+ * Histogram of time intervals with power of two buckets in microseconds: bucket 0 counts the intervals shorter than
+ * 1us, bucket n those in [2^(n-1),2^n) us and the last one all the longer intervals.
+ *
+ * Written by one thread, it can be read by others with approximate results.
+ */
+class TimeHistogram(val buckets:Int = 24) {
+  private[this] val counts = Array.ofDim[Long](buckets)
+  @volatile private[this] var total = 0L
+  @volatile private[this] var maxNanos = 0L
+
+  final def add(nanos:Long) : Unit = {
+    val micros = nanos / 1000
+    val bucket = if (micros <= 0) 0 else math.min(buckets - 1,64 - java.lang.Long.numberOfLeadingZeros(micros))
+    counts(bucket) += 1
+    total += 1
+    if (nanos > maxNanos) maxNanos = nanos
+  }
+
+  def reset() : Unit = {
+    java.util.Arrays.fill(counts,0L)
+    total = 0
+    maxNanos = 0
+  }
+
+  def count : Long = total
+  def max : Long = maxNanos
+  def getCounts : Array[Long] = counts.clone()
+
+  /**
+   * The upper bound, in microseconds, of the bucket containing the given percentile (0-100).
+   */
+  def percentile(p:Double) : Long = {
+    val threshold = math.ceil(total * p / 100).toLong
+    var sum = 0L
+    var b = 0
+    while (b < buckets - 1 && sum + counts(b) < threshold) {
+      sum += counts(b)
+      b += 1
+    }
+    1L << b
+  }
+
+  override def toString : String = {
+    if (total == 0) "no samples"
+    else s"n=$total p50<${percentile(50)}us p99<${percentile(99)}us max=${maxNanos / 1000}us"
+  }
+}
@@ -5,11 +5,14 @@ import ucesoft.cbm.{CBMComponent, CBMComponentType, Log}
 
 import java.io.{ObjectInputStream, ObjectOutputStream}
 import java.util.Properties
+import java.util.concurrent.locks.LockSupport
 
 trait IECBusListener {
   val isController = false
   val busid : String
   private[bus] var bitmap = 0
+  // in threaded mode, the participant that drives the lines of this listener: null for the host
+  private[bus] var owner : IECBus.Participant = null
   
   def atnChanged(oldValue:Int,newValue:Int) : Unit = {}
   def srqTriggered()  : Unit = {}
@@ -26,6 +29,60 @@ object IECBusLine extends Enumeration {
 object IECBus {
   final val GROUND = 1
   final val VOLTAGE = 0
+
+  // in threaded mode the accesses are ordered by stamps: cycle * 8 + position in the cycle (drives 1-6, host 7)
+  final val HOST_POSITION = 7
+  private final val RING_SIZE = 1024
+  private final val RING_MASK = RING_SIZE - 1
+  // a waiting thread spins, then yields, then parks
+  private final val SPINS = 1000
+  private final val YIELDS = 1000
+  private final val PARKS = 10000
+  private final val SHORT_PARK_NANOS = 50000L
+  private final val LONG_PARK_NANOS = 1000000L
+
+  /**
+   * A thread that accesses the bus in threaded mode with its own time.
+   *
+   * The lines driven by a participant are posted with the stamp of the access into a ring. A participant that reads
+   * the bus at a given stamp waits for the others to reach it and sees the lines they drove before it.
+   */
+  final class Participant private[bus] {
+    private[bus] var atn, clk, data, srq = 0L
+    // stamp of the current access, set by the participant's thread
+    private[bus] var stamp = 0L
+    // the lines driven before nextStamp have been posted
+    @volatile private[bus] var nextStamp = Long.MinValue
+    private[bus] val stamps = Array.ofDim[Long](RING_SIZE)
+    private[bus] val lines = Array.ofDim[Long](RING_SIZE << 2)
+    @volatile private[bus] var count = 0L
+    // the other participants' lines at viewStamp
+    private[bus] var viewStamp = Long.MinValue
+    private[bus] var viewAtn, viewClk, viewData, viewSrq = 0L
+    // next host entry to check for ATN edges and the host's ATN before it
+    private[bus] var hostCursor = 0L
+    private[bus] var hostAtn = 0L
+
+    final def setStamp(stamp:Long) : Unit = this.stamp = stamp
+    final def publish(nextStamp:Long) : Unit = this.nextStamp = nextStamp
+    final def getNextStamp : Long = nextStamp
+  }
+
+  /**
+   * Waits for the participant to reach the given stamp as long as waiting holds: it's checked once the spinning is over.
+   * Returns false if the wait has been given up.
+   */
+  final def await(p:Participant,stamp:Long,waiting: => Boolean = true) : Boolean = {
+    var waits = 0
+    while (p.nextStamp < stamp) {
+      if (waits < SPINS) Thread.onSpinWait()
+      else if (!waiting) return false
+      else if (waits < SPINS + YIELDS) Thread.`yield`()
+      else LockSupport.parkNanos(if (waits < SPINS + YIELDS + PARKS) SHORT_PARK_NANOS else LONG_PARK_NANOS)
+      waits += 1
+    }
+    true
+  }
 }
 
 class IECBus extends CBMComponent {
@@ -39,15 +96,20 @@ class IECBus extends CBMComponent {
   private[this] var SRQ : Long = VOLTAGE
   private[this] var listeners : List[IECBusListener] = Nil
   private[this] var listenersBitMap = 0L
+  // threaded mode: the host is the first participant
+  private[this] var threaded = false
+  private[this] var participants : Array[IECBus.Participant] = _
+  private[this] var host : IECBus.Participant = _
+  private[this] val currentParticipant = new ThreadLocal[IECBus.Participant]
 
   /* hack to enable driver's sound for freespin demo */
   var freeSpinStepperOn = false
   
   override def getProperties: Properties = {
-    properties.setProperty("ATN",normalize(ATN).toString)
-    properties.setProperty("CLK",normalize(CLK).toString)
-    properties.setProperty("DATA",normalize(DATA).toString)
-    properties.setProperty("SRQ",normalize(SRQ).toString)
+    properties.setProperty("ATN",normalize(rawLine(0)).toString)
+    properties.setProperty("CLK",normalize(rawLine(1)).toString)
+    properties.setProperty("DATA",normalize(rawLine(2)).toString)
+    properties.setProperty("SRQ",normalize(rawLine(3)).toString)
     properties
   }
     
@@ -65,6 +127,7 @@ class IECBus extends CBMComponent {
   @inline private def normalize(v:Long) = if (v > 0) GROUND else VOLTAGE
   
   final def unregisterListener(l:IECBusListener) : Unit = {
+    if (threaded) stopThreaded()
     listeners = listeners filterNot { _.busid == l.busid }
     listenersBitMap &= ~(1 << l.bitmap)
     ATN &= ~(1 << l.bitmap)
@@ -74,6 +137,7 @@ class IECBus extends CBMComponent {
   }
   
   final def registerListener(l:IECBusListener) : Unit = {
+    if (threaded) stopThreaded()
     l.bitmap = findAndSetNextBit
     listeners = l :: listeners
     Log.info(s"IECBus has registerd ${l.busid}(${l.bitmap})(${l.getClass.getName}) as a listener")
@@ -83,6 +147,15 @@ class IECBus extends CBMComponent {
   }
   
   final def setLine(l:IECBusListener,line:IECBusLine.Line,value:Int) : Unit = {
+    if (threaded) {
+      line match {
+        case IECBusLine.ATN => setLinesThreaded(l,value,-1,-1,-1)
+        case IECBusLine.CLK => setLinesThreaded(l,-1,-1,value,-1)
+        case IECBusLine.DATA => setLinesThreaded(l,-1,value,-1,-1)
+        case IECBusLine.SRQ => setLinesThreaded(l,-1,-1,-1,value)
+      }
+    }
+    else
     line match {
       case IECBusLine.ATN =>
         val preATN = ATN
@@ -107,12 +180,17 @@ class IECBus extends CBMComponent {
   def triggerSRQ(caller:IECBusListener) : Unit = {
     var l = listeners
 	  while (l != Nil) {
-	    if (caller.bitmap != l.head.bitmap) l.head.srqTriggered()
+	    // burst transfers need a C128 host, which doesn't run in threaded mode: the trigger stays on the caller's thread
+	    if (caller.bitmap != l.head.bitmap && (!threaded || (l.head.owner eq caller.owner))) l.head.srqTriggered()
 	    l = l .tail
 	  }
   }
   
   final def setLine(l:IECBusListener,atnValue:Int,dataValue:Int,clockValue:Int) : Unit = {
+    if (threaded) {
+      setLinesThreaded(l,atnValue,dataValue,clockValue,-1)
+      return
+    }
     val preATN = ATN
     if (atnValue == GROUND) ATN |= 1 << l.bitmap else ATN &= ~(1 << l.bitmap)
     if (preATN != ATN) notifyATNChange(preATN,ATN)
@@ -120,31 +198,227 @@ class IECBus extends CBMComponent {
     if (clockValue == GROUND) CLK |= 1 << l.bitmap else CLK &= ~(1 << l.bitmap)
   }
   
+  // ============================================ Threaded mode ===========================================
+  /**
+   * Switches to threaded mode: each group of listeners is driven by a new participant, the other listeners by the host.
+   * Must be called while no one is accessing the bus. Returns the participants, the host first.
+   * Registering or unregistering a listener, a reset or a state loading switch back to the normal mode.
+   */
+  def startThreaded(groups:Seq[Seq[IECBusListener]]) : Array[IECBus.Participant] = {
+    if (threaded) stopThreaded()
+    host = new IECBus.Participant
+    participants = (host +: groups.map { group =>
+      val p = new IECBus.Participant
+      for(l <- group) l.owner = p
+      p
+    }).toArray
+    for(l <- listeners) {
+      val p = if (l.owner == null) host else l.owner
+      val bit = 1 << l.bitmap
+      p.atn |= ATN & bit
+      p.clk |= CLK & bit
+      p.data |= DATA & bit
+      p.srq |= SRQ & bit
+    }
+    for(p <- participants) {
+      p.stamps(0) = Long.MinValue
+      p.lines(0) = p.atn
+      p.lines(1) = p.clk
+      p.lines(2) = p.data
+      p.lines(3) = p.srq
+      p.count = 1
+      p.hostCursor = 1
+      p.hostAtn = host.atn
+    }
+    currentParticipant.set(host)
+    threaded = true
+    participants
+  }
+
+  /**
+   * Switches back to the normal mode. Must be called while no one is accessing the bus.
+   */
+  def stopThreaded() : Unit = {
+    if (threaded) {
+      ATN = rawLine(0)
+      CLK = rawLine(1)
+      DATA = rawLine(2)
+      SRQ = rawLine(3)
+      for(l <- listeners) l.owner = null
+      threaded = false
+      participants = null
+      host = null
+    }
+  }
+
+  final def isThreaded : Boolean = threaded
+
+  /**
+   * Binds the current thread to the participant.
+   */
+  def attach(p:IECBus.Participant) : Unit = currentParticipant.set(p)
+
+  /**
+   * Notifies the participant's listeners of the ATN edges driven by the host before the given stamp.
+   */
+  final def notifyATNEdges(p:IECBus.Participant,before:Long) : Unit = {
+    val count = host.count
+    var cursor = p.hostCursor
+    while (cursor < count && host.stamps((cursor & RING_MASK).toInt) < before) {
+      val slot = (cursor & RING_MASK).toInt
+      val atn = host.lines(slot << 2)
+      if (atn != p.hostAtn) {
+        val savedStamp = p.stamp
+        p.stamp = host.stamps(slot)
+        notifyATNChange(p,p.hostAtn,atn)
+        p.stamp = savedStamp
+        p.hostAtn = atn
+      }
+      cursor += 1
+    }
+    p.hostCursor = cursor
+  }
+
+  @inline private def current : IECBus.Participant = {
+    val p = currentParticipant.get
+    if (p == null) host else p
+  }
+
+  private def rawLine(line:Int) : Long = {
+    if (threaded) {
+      var value = 0L
+      for(p <- participants) value |= (line match {
+        case 0 => p.atn
+        case 1 => p.clk
+        case 2 => p.data
+        case 3 => p.srq
+      })
+      value
+    }
+    else line match {
+      case 0 => ATN
+      case 1 => CLK
+      case 2 => DATA
+      case 3 => SRQ
+    }
+  }
+
+  private def setLinesThreaded(l:IECBusListener,atnValue:Int,dataValue:Int,clockValue:Int,srqValue:Int) : Unit = {
+    val p = if (l.owner == null) host else l.owner
+    val bit = 1 << l.bitmap
+    val preATN = p.atn
+    val preCLK = p.clk
+    val preDATA = p.data
+    val preSRQ = p.srq
+    if (atnValue == GROUND) p.atn |= bit else if (atnValue == VOLTAGE) p.atn &= ~bit
+    if (dataValue == GROUND) p.data |= bit else if (dataValue == VOLTAGE) p.data &= ~bit
+    if (clockValue == GROUND) p.clk |= bit else if (clockValue == VOLTAGE) p.clk &= ~bit
+    if (srqValue == GROUND) p.srq |= bit else if (srqValue == VOLTAGE) p.srq &= ~bit
+    if (preATN != p.atn || preCLK != p.clk || preDATA != p.data || preSRQ != p.srq) {
+      post(p)
+      // only the host drives ATN: the other participants notify their listeners when they reach the edge
+      if (preATN != p.atn) notifyATNChange(p,preATN,p.atn)
+    }
+  }
+
+  private def notifyATNChange(p:IECBus.Participant,preATN:Long,ATN:Long) : Unit = {
+    var l = listeners
+    while (l != Nil) {
+      val owner = if (l.head.owner == null) host else l.head.owner
+      if (owner eq p) l.head.atnChanged(normalize(preATN),normalize(ATN))
+      l = l.tail
+    }
+  }
+
+  private def post(p:IECBus.Participant) : Unit = {
+    val count = p.count
+    val last = ((count - 1) & RING_MASK).toInt
+    // a participant can't read a stamp not yet reached by p, so the last entry can be updated in place
+    val slot = if (p.stamps(last) == p.stamp) last
+    else {
+      if (count >= RING_SIZE) {
+        // the oldest entry can be overwritten when no one can read before the next one
+        val next = p.stamps(((count - RING_SIZE + 1) & RING_MASK).toInt)
+        var i = 0
+        while (i < participants.length) {
+          if (participants(i) ne p) {
+            await(participants(i),next + 1)
+          }
+          i += 1
+        }
+      }
+      (count & RING_MASK).toInt
+    }
+    p.stamps(slot) = p.stamp
+    val base = slot << 2
+    p.lines(base) = p.atn
+    p.lines(base + 1) = p.clk
+    p.lines(base + 2) = p.data
+    p.lines(base + 3) = p.srq
+    if (slot != last) p.count = count + 1
+  }
+
+  /**
+   * Updates the view of the lines driven by the other participants before the current stamp.
+   * A participant that reads at the host's position, handling an ATN edge or a clock event, follows the host's access
+   * in that cycle: it sees the lines driven by the host at that stamp too.
+   */
+  private def updateView(p:IECBus.Participant) : Unit = {
+    val stamp = p.stamp
+    if (p.viewStamp != stamp) {
+      val afterHost = (p ne host) && (stamp & 7) == IECBus.HOST_POSITION
+      var atn, clk, data, srq = 0L
+      var i = 0
+      while (i < participants.length) {
+        val q = participants(i)
+        if (q ne p) {
+          val limit = if (afterHost && (q eq host)) stamp + 1 else stamp
+          await(q,limit)
+          var entry = q.count - 1
+          while (q.stamps((entry & RING_MASK).toInt) >= limit) entry -= 1
+          val base = ((entry & RING_MASK) << 2).toInt
+          atn |= q.lines(base)
+          clk |= q.lines(base + 1)
+          data |= q.lines(base + 2)
+          srq |= q.lines(base + 3)
+        }
+        i += 1
+      }
+      p.viewAtn = atn
+      p.viewClk = clk
+      p.viewData = data
+      p.viewSrq = srq
+      p.viewStamp = stamp
+    }
+  }
+
   def init(): Unit = {}
   def reset(): Unit = {
+    stopThreaded()
     ATN = VOLTAGE
     CLK = VOLTAGE
     DATA = VOLTAGE
     SRQ = VOLTAGE
   }
   
-  final def atn: Int = normalize(ATN)
-  final def clk: Int = normalize(CLK)
-  final def data: Int = normalize(DATA)
-  final def srq: Int = normalize(SRQ)
+  final def atn: Int = if (threaded) { val p = current ; updateView(p) ; normalize(p.atn | p.viewAtn) } else normalize(ATN)
+  final def clk: Int = if (threaded) { val p = current ; updateView(p) ; normalize(p.clk | p.viewClk) } else normalize(CLK)
+  final def data: Int = if (threaded) { val p = current ; updateView(p) ; normalize(p.data | p.viewData) } else normalize(DATA)
+  final def srq: Int = if (threaded) { val p = current ; updateView(p) ; normalize(p.srq | p.viewSrq) } else normalize(SRQ)
   
-  override def toString = s"IECBus ATN=$ATN CLK=$CLK DATA=$DATA SRQ=$SRQ"  
+  override def toString = s"IECBus ATN=${rawLine(0)} CLK=${rawLine(1)} DATA=${rawLine(2)} SRQ=${rawLine(3)}"
   
   // state
   protected def saveState(out:ObjectOutputStream) : Unit = {
     out.writeInt(listeners.size)
     for(l <- listeners) out.writeObject(l.busid)
-    out.writeLong(ATN)
-    out.writeLong(CLK)
-    out.writeLong(DATA)
-    out.writeLong(SRQ)
+    out.writeLong(rawLine(0))
+    out.writeLong(rawLine(1))
+    out.writeLong(rawLine(2))
+    out.writeLong(rawLine(3))
   }
   protected def loadState(in:ObjectInputStream) : Unit = {
+    stopThreaded()
     val listenerSize = in.readInt
     for(l <- 1 to listenerSize) {
       val id = in.readObject.toString
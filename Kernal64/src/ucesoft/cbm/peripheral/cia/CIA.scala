@@ -74,7 +74,8 @@ class CIA(val name:String,
   private[this] var lastIcrMask = 0
   private[this] var lastIcrMaskClock = 0L
 
-  private[this] val clk = Clock.systemClock
+  // looked up on each use: a drive can run on its own thread clock
+  @inline private[this] def clk = Clock.systemClock
 
   @inline private def timerIdleCallBack(id:Int,idle:Boolean): Unit = {
     val lastRunning = timerABRunning(0) || timerABRunning(1)
@@ -198,11 +199,12 @@ class CIA(val name:String,
     }
     
     def init(): Unit = {
-      clk.addChangeFrequencyListener(f => {
+      val c = clk
+      c.addChangeFrequencyListener(f => {
         f match {
-          case clk.PAL_CLOCK_HZ =>
+          case c.PAL_CLOCK_HZ =>
             TICK_CYCLES = PAL_TICK
-          case clk.NTSC_CLOCK_HZ =>
+          case c.NTSC_CLOCK_HZ =>
             TICK_CYCLES = NTSC_TICK
           case f =>
             TICK_CYCLES = (f / 10).toInt
@@ -345,6 +347,11 @@ class CIA(val name:String,
   // ===============================================================================
 
   def setCIAModel(model:Int): Unit = ciaModel = model
+
+  /**
+   * The id of the clock event that updates the TOD.
+   */
+  def getTODEventID : String = tod.componentID
   
   /**
    * Manual clock
@@ -12,6 +12,8 @@ object CRTC6845 {
   final val SCREEN_HEIGHT = 312 // PAL rows
   final val SCREEN_WIDTH = (SCREEN_HEIGHT * 2 * 4 / 3.0).toInt
   final val PREFERRED_FRAME_SIZE = new java.awt.Dimension(SCREEN_WIDTH,SCREEN_HEIGHT * 2)
+  /** Background and foreground colors */
+  final val PALETTE : Array[Int] = Array(0xFF000000,0xFF00FF00)
 
   private object VideoMode extends Enumeration {
     val IDLE: VideoMode.Value = Value
@@ -102,8 +104,8 @@ class CRTC6845(ram:Array[Int],var charRom:Array[Int],bytes_per_char:Int,retraceL
   private[this] var deinterlaceMode = true
   private[this] var frameBit = 0
   // COLOR PALETTE =======================================
-  private[this] final val BACKGROUND_COLOR = 0xFF000000
-  private[this] final val FOREGROUND_COLOR = 0xFF00FF00
+  private[this] final val BACKGROUND_COLOR = PALETTE(0)
+  private[this] final val FOREGROUND_COLOR = PALETTE(1)
 
   // Clock management ====================================
   def pause() : Unit = {
@@ -25,7 +25,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   private[this] var cycleFrac = 0.0
   private[this] val mem = new C1541Mems.C1541_RAM
   private[this] val cpu = CPU65xx.make(mem,ChipID.CPU_1541)
-  private[this] val clk = Clock.systemClock
+  @inline private[this] def clk = Clock.systemClock
   private[this] var running = true
   private[this] var awakeCycles = 0L
   private[this] var tracing = false
@@ -59,6 +59,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
     override def setEnabled(enabled:Boolean): Unit = driveEnabled = enabled
     
     override def atnChanged(oldValue:Int,newValue:Int) : Unit = {
+      IdleLoopSkipper.wakeUp()
       if (driveEnabled) {
         if (newValue == IECBus.GROUND) {
           irq_set(IRQ_CA1)
@@ -68,7 +69,10 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
       }
     }
     
-    private def onCB1(): Unit = irq_set(IRQ_CB1)
+    private def onCB1(): Unit = {
+      IdleLoopSkipper.wakeUp()
+      irq_set(IRQ_CB1)
+    }
     
     override def read(address: Int, chipID: ChipID.ID): Int = (address & 0x0F) match {
       case ad@(PA|PA2) =>
@@ -81,6 +85,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
         else 0xFF
       case PB =>
         //(super.read(address,chipID) & 0x1A) | (bus.data|data_out) | (bus.clk|clock_out) << 2 | bus.atn << 7 | IDJACK << 5
+        IdleLoopSkipper.busRead()
         super.read(address,chipID)
         val res = (((bus.data|data_out) | (bus.clk|clock_out) << 2 | bus.atn << 7 | IDJACK << 5) & ~regs(DDRB)) | (regs(PB) & regs(DDRB))
         addPB7(res)
@@ -132,6 +137,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   private trait VIADisk {
     def setDriveReader(driveReader:Floppy,emulateInserting:Boolean): Unit
     def byteReady() : Unit
+    def isChangingDisk : Boolean
   }
   private[this] val viaDisk = new VIA("VIA1541_DiskControl", 0x1C00,IRQSwitcher.viaDiskIRQ _) with VIADisk {
     override lazy val componentID = "VIA1541_2 (DC)"
@@ -141,6 +147,8 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
     private[this] val SYNC_DETECTION_LINE = 0x80
     private[this] var isDiskChanged = true
     private[this] var isDiskChanging = false
+
+    override def isChangingDisk : Boolean = isDiskChanging
       
     override def setDriveReader(driveReader:Floppy,emulateInserting:Boolean) : Unit = {
       floppy = driveReader
@@ -256,22 +264,27 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   def getFloppy: Floppy = floppy
 
   def setDriveReader(driveReader: Floppy,emulateInserting:Boolean): Unit = {
+    IdleLoopSkipper.wakeUp()
     viaDisk.setDriveReader(driveReader,emulateInserting)
     RW_HEAD.setWriteProtected(floppy.isReadOnly)
   }
   override def isRunning : Boolean = running
 
   override def setActive(active: Boolean): Unit = {
+    IdleLoopSkipper.wakeUp()
     viaBus.setEnabled(active)
     running = active
     runningListener(active)
   }
   override def canGoSleeping : Boolean = canSleep
+  override def getIECBusListeners : List[IECBusListener] = List(viaBus)
+  override def isChangingDisk : Boolean = viaDisk.isChangingDisk
   override def setCanSleep(canSleep: Boolean) : Unit = {
     this.canSleep = canSleep
     awake()
   }
   private def awake() : Unit = {
+    IdleLoopSkipper.wakeUp()
     running = true
     runningListener(true)
     viaBus.setActive(true)
@@ -285,19 +298,34 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   }
 
   override def isReadOnly: Boolean = RW_HEAD.isWriteProtected
-  override def setReadOnly(readOnly:Boolean): Unit = RW_HEAD.setWriteProtected(readOnly)
+  override def setReadOnly(readOnly:Boolean): Unit = {
+    IdleLoopSkipper.wakeUp()
+    RW_HEAD.setWriteProtected(readOnly)
+  }
   
   override def setSpeedHz(speed:Int) : Unit = {
+    IdleLoopSkipper.wakeUp()
     currentSpeedHz = speed
     CYCLE_ADJ = (speed - MIN_SPEED_HZ) / MIN_SPEED_HZ.toDouble
   }
   
   override def getSpeedHz: Int = currentSpeedHz
+
+  /**
+   * Enables or disables the skipping of the idle loop's passes that repeat themselves.
+   */
+  def setIdleLoopSkipping(enabled:Boolean) : Unit = {
+    IdleLoopSkipper.wakeUp()
+    IdleLoopSkipper.enabled = enabled
+  }
+
+  def getIdleSkippedCycles : Long = IdleLoopSkipper.getTotalSkippedCycles
   
   override def getProperties: Properties = {
     properties.setProperty("Speed Hz",currentSpeedHz.toString)
     properties.setProperty("Cycle adjustment",CYCLE_ADJ.toString)
     properties.setProperty("Running", running.toString)
+    properties.setProperty("Idle skipped cycles/s", IdleLoopSkipper.getSkippedCyclesPerSecond.toString)
     val channels = mem.getChannelsState
     for (i <- 0 to 15) {
       val opened = (channels & (1 << i)) > 0
@@ -318,6 +346,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   }
 
   def reset(): Unit = {
+    IdleLoopSkipper.reset()
     running = true
     runningListener(true)
     awakeCycles = 0
@@ -373,6 +402,135 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
     protected def allowsStateRestoring : Boolean = true
   }
 
+  /************************************************************************************************************
+   * Idle loop skipping
+   *
+   * A pass of the DOS idle loop that starts and ends in the same state, with no interrupts, bus reads, timer reads or
+   * changes of the RAM in between, repeats itself until something external happens: such passes are skipped as a
+   * whole, counting down the timers, up to the next timer event. An ATN edge, or any other external event, ends the
+   * skip: the passes completed so far are skipped and the current one is executed, so the drive is in the same state
+   * as if it had run.
+   ***********************************************************************************************************/
+  private object IdleLoopSkipper {
+    private[this] val STATE_SIZE = 64
+    private[this] var state = Array.ofDim[Int](STATE_SIZE)
+    private[this] var lastState = Array.ofDim[Int](STATE_SIZE)
+    private[this] var lastArrival = -1L
+    private[this] var lastBound = 0
+    // something that can change the next pass happened since the last arrival
+    private[this] var eventSeen = false
+    private[this] var skipping = false
+    private[this] var skipPeriod = 0
+    private[this] var skipLength = 0
+    private[this] var skipped = 0
+    var enabled = true
+    // statistics, updated by the drive's thread once per second
+    private[this] var totalSkipped = 0L
+    private[this] var rateCycles = Long.MaxValue
+    private[this] var rateSkipped = 0L
+    private[this] var nextRateUpdate = 0L
+    @volatile private[this] var rate = 0L
+
+    @inline final def isSkipping : Boolean = skipping
+
+    final def busRead() : Unit = eventSeen = true
+
+    def reset() : Unit = {
+      skipping = false
+      lastArrival = -1
+      rate = 0
+      rateCycles = Long.MaxValue
+      nextRateUpdate = 0
+    }
+
+    def getSkippedCyclesPerSecond : Long = rate
+
+    def getTotalSkippedCycles : Long = totalSkipped
+
+    @inline final def isRateToUpdate(cycles:Long) : Boolean = cycles >= nextRateUpdate
+
+    def updateRate(cycles:Long) : Unit = {
+      if (cycles > rateCycles) rate = math.round((totalSkipped - rateSkipped) * clk.getClockHz / (cycles - rateCycles))
+      rateCycles = cycles
+      rateSkipped = totalSkipped
+      nextRateUpdate = cycles + clk.getClockHz.toLong
+    }
+
+    private def captureState(dest:Array[Int]) : Unit = {
+      val offset = cpu.getExecutionState(dest,0)
+      viaDisk.getIdleState(dest,viaBus.getIdleState(dest,offset))
+    }
+
+    /**
+     * Called when the CPU is going to fetch the first instruction of the idle loop. Returns true if the current cycle
+     * has been skipped.
+     */
+    def arrival(cycles:Long) : Boolean = {
+      val timersRead = viaBus.checkTimersRead() | viaDisk.checkTimersRead()
+      val ramChanged = mem.checkRAMChanged()
+      if (!enabled || tracing || CYCLE_ADJ > 0 || RW_HEAD.isMotorOn || mem.isChannelActive || viaDisk.isChangingDisk || mem.isExpansionRAMActive) {
+        lastArrival = -1
+        return false
+      }
+      var bound = math.min(viaBus.cyclesBeforeTimerEvent,viaDisk.cyclesBeforeTimerEvent)
+      // the drive must go sleeping at the same cycle
+      if (canSleep) bound = math.max(0,math.min(bound,awakeCycles + WAIT_CYCLES_FOR_STOPPING - cycles - 2)).toInt
+      captureState(state)
+      val period = cycles - lastArrival
+      val repeated = lastArrival >= 0 && !eventSeen && !timersRead && !ramChanged && period <= lastBound && java.util.Arrays.equals(state,lastState)
+      val tmp = lastState
+      lastState = state
+      state = tmp
+      lastArrival = cycles
+      lastBound = bound
+      eventSeen = false
+      if (repeated && bound >= period) {
+        skipping = true
+        skipPeriod = period.toInt
+        skipLength = (bound / period * period).toInt
+        skipped = 1
+        true
+      }
+      else false
+    }
+
+    /**
+     * Called on each skipped cycle.
+     */
+    @inline final def skip(cycles:Long) : Unit = {
+      skipped += 1
+      if (skipped == skipLength) {
+        endSkip(cycles)
+        // the next cycle is an arrival after a pass that repeated itself
+        lastArrival = cycles + 1 - skipPeriod
+        lastBound = Int.MaxValue
+      }
+    }
+
+    private def endSkip(cycles:Long) : Unit = {
+      skipping = false
+      val passes = skipped / skipPeriod * skipPeriod
+      viaBus.skipTimers(passes)
+      viaDisk.skipTimers(passes)
+      totalSkipped += passes
+      // the current pass is executed up to now
+      var c = passes
+      while (c < skipped) {
+        execute(cycles)
+        c += 1
+      }
+    }
+
+    /**
+     * Ends the skip, if any, before an external event.
+     */
+    final def wakeUp() : Unit = {
+      if (skipping) endSkip(clk.currentCycles)
+      eventSeen = true
+      lastArrival = -1
+    }
+  }
+
   override def getMem: Memory = mem
 
   @inline private def checkPC(cycles: Long) : Unit = {
@@ -388,8 +546,14 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   }
 
   def clock(cycles: Long) : Unit = {
+    if (IdleLoopSkipper.isRateToUpdate(cycles)) IdleLoopSkipper.updateRate(cycles)
     if (running) {
+      if (IdleLoopSkipper.isSkipping) {
+        IdleLoopSkipper.skip(cycles)
+        return
+      }
       checkPC(cycles)
+      if (running && cpu.getPC == WAIT_LOOP_ROUTINE && cpu.isFetchingInstruction && IdleLoopSkipper.arrival(cycles)) return
       if (CYCLE_ADJ > 0) {
         cycleFrac += CYCLE_ADJ
         if (cycleFrac >= 1) {
@@ -409,6 +573,13 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
     }
   }
 
+  @inline private def execute(cycles: Long) : Unit = {
+    cpu.fetchAndExecute(1)
+    viaDisk.clock(cycles)
+    viaBus.clock(cycles)
+    if (RW_HEAD.rotate) viaDisk.byteReady()
+  }
+
   private def setFilename() : Unit = {
     var adr = 0x200
     val sb = new StringBuilder
@@ -438,6 +609,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
   override def disassemble(address:Int): DisassembleInfo = cpu.disassemble(address)
   // state
   protected def saveState(out:ObjectOutputStream) : Unit = {
+    IdleLoopSkipper.wakeUp()
     if (ledListener != null) out.writeBoolean(ledListener.isOn)
     out.writeDouble(CYCLE_ADJ)
     out.writeInt(currentSpeedHz)
@@ -450,6 +622,7 @@ class C1541(val jackID: Int, bus: IECBus, ledListener: DriveLedListener) extends
     if (ledListener != null) {
       if (in.readBoolean) ledListener.turnOn() else ledListener.turnOff()
     }
+    IdleLoopSkipper.reset()
     CYCLE_ADJ = in.readDouble
     currentSpeedHz = in.readInt
     cycleFrac = in.readDouble
@@ -0,0 +1,95 @@
+package ucesoft.cbm.peripheral.drive
+
+import ucesoft.cbm.Clock
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.peripheral.bus.IECBus
+
+import java.io.{ByteArrayOutputStream, ObjectOutputStream}
+import java.util.Properties
+
+/**
+ * Measures the speed of an idle 1541, that is waiting for commands on an empty bus, with and without the skipping of
+ * the idle loop. Each drive runs on its own clock, bound to the main thread, and never goes sleeping.
+ *
+ * At the end of each run the states of the two drives, as saved by a state snapshot, are compared: skipping must not
+ * change them.
+ */
+object C1541Benchmark {
+  private object NoLeds extends DriveLedListener {
+    def writeMode(enabled:Boolean) : Unit = {}
+    def setPowerLedMode(on:Boolean) : Unit = {}
+    def turnPower(on:Boolean) : Unit = {}
+    def turnOn() : Unit = {}
+    def turnOff() : Unit = {}
+    def isOn : Boolean = false
+    def moveTo(track:Int,sector:Option[Int],halfTrack:Boolean) : Unit = {}
+  }
+
+  private class Run(skipping:Boolean) {
+    private[this] val clk = Clock.makeThreadClock(s"C1541Benchmark${if (skipping) "Skipping" else ""}")
+    private[this] var drive : C1541 = _
+
+    Clock.bindThreadClock(clk)
+    drive = new C1541(0,new IECBus,NoLeds)
+    drive.runningListener = _ => {}
+    drive.initComponent()
+    drive.resetComponent()
+    drive.setCanSleep(false)
+    drive.setIdleLoopSkipping(skipping)
+
+    /**
+     * Executes the given cycles and returns the elapsed seconds.
+     */
+    def run(cycles:Long) : Double = {
+      Clock.bindThreadClock(clk)
+      val start = System.nanoTime()
+      var c = clk.currentCycles + 1
+      val end = c + cycles
+      while (c < end) {
+        clk.setCycles(c)
+        clk.executeDueEvents()
+        drive.clock(c)
+        c += 1
+      }
+      (System.nanoTime() - start) / 1e9
+    }
+
+    def skippedCycles : Long = drive.getIdleSkippedCycles
+
+    def state : Array[Byte] = {
+      Clock.bindThreadClock(clk)
+      val bytes = new ByteArrayOutputStream
+      val out = new ObjectOutputStream(bytes)
+      drive.save(out)
+      out.close()
+      bytes.toByteArray
+    }
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var cycles = 50000000L
+    var repeat = 3
+
+    settings.add("cycles","Number of cycles of each run",50000000) { c => cycles = c.toLong }
+    settings.add("repeat","Number of runs",3) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"C1541Benchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    for (r <- 1 to repeat) {
+      val normal = new Run(skipping = false)
+      val skipping = new Run(skipping = true)
+      val normalElapsed = normal.run(cycles)
+      val skippingElapsed = skipping.run(cycles)
+      val sameState = java.util.Arrays.equals(normal.state,skipping.state)
+      println("run %d: skipping off %8.2f Mcycles/s, skipping on %8.2f Mcycles/s, %5.1f%% skipped, same final state: %s".format(
+        r,cycles / normalElapsed / 1e6,cycles / skippingElapsed / 1e6,skipping.skippedCycles * 100.0 / cycles,sameState))
+    }
+    Clock.unbindThreadClock()
+  }
+}
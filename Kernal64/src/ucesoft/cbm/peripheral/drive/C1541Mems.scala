@@ -40,19 +40,56 @@ object C1541Mems {
     private[this] val mem = Array.fill(length)(0)
     final val isActive = true
     private[this] var channelActive = 0
+    // journal of the locations changed since the last check, address << 8 | previous value, each one with its first
+    // change only: a pass that changes some locations and restores them has not changed the RAM
+    private[this] final val JOURNAL_SIZE = 32
+    private[this] val journal = Array.ofDim[Int](JOURNAL_SIZE)
+    private[this] val journaled = Array.ofDim[Boolean](length)
+    private[this] var journalSize = 0
+    // too many changes, or changes not journaled
+    private[this] var changed = true
     
     def isChannelActive: Boolean = channelActive != 0
     def getChannelsState: Int = channelActive
+    /**
+     * Tells if the RAM is not the same as at the last check.
+     */
+    def checkChanged() : Boolean = {
+      var c = changed
+      var i = 0
+      while (i < journalSize) {
+        val address = journal(i) >> 8
+        if (mem(address) != (journal(i) & 0xFF)) c = true
+        journaled(address) = false
+        i += 1
+      }
+      journalSize = 0
+      changed = false
+      c
+    }
     
     def init() : Unit = {
       Log.info("Initialaizing C1541 RAM memory ...")
       java.util.Arrays.fill(mem,0)
+      changed = true
     }
     def reset() : Unit = {}
     override def hardReset(): Unit = init()
     final def read(address: Int, chipID: ChipID.ID = ChipID.CPU): Int = mem(address & 0xFFFF)
     final def write(address: Int, value: Int, chipID: ChipID.ID = ChipID.CPU) : Unit = {
-      mem(address & 0xFFFF) = value & 0xff
+      val a = address & 0xFFFF
+      val v = value & 0xff
+      if (mem(a) != v) {
+        if (!journaled(a)) {
+          if (journalSize < JOURNAL_SIZE) {
+            journal(journalSize) = a << 8 | mem(a)
+            journalSize += 1
+            journaled(a) = true
+          }
+          else changed = true
+        }
+        mem(a) = v
+      }
       if (address >= 0x22B && address <= 0x239) {
         val channel = address - 0x22B
         if (value != 0xFF) channelActive |= 1 << channel else channelActive &= ~(1 << channel)
@@ -65,6 +102,7 @@ object C1541Mems {
     protected def loadState(in:ObjectInputStream) : Unit = {
       loadMemory[Int](mem,in)
       channelActive = in.readInt
+      changed = true
     }
     protected def allowsStateRestoring : Boolean = true
   }
@@ -138,6 +176,9 @@ object C1541Mems {
     
     def isChannelActive: Boolean = RAM.isChannelActive
     def getChannelsState: Int = RAM.getChannelsState
+    def isExpansionRAMActive: Boolean = RAM_EXP_2000.isActive || RAM_EXP_4000.isActive || RAM_EXP_6000.isActive || RAM_EXP_8000.isActive || RAM_EXP_A000.isActive
+    // tells if the 2K of RAM have been changed since the last check
+    def checkRAMChanged() : Boolean = RAM.checkChanged()
     
     override def defaultValue(address:Int): Option[Int] = Some(address >> 8)
     // state
@@ -34,7 +34,7 @@ class D1571(val driveID: Int,
   private[this] val _1541_LOAD_ROUTINE = 0xD7B4
   private[this] val _1541_WAIT_LOOP_ROUTINE = 0xEBFF
   private[this] val WAIT_CYCLES_FOR_STOPPING = 2000000
-  private[this] val clk = Clock.systemClock
+  @inline private[this] def clk = Clock.systemClock
   private[this] var running = true
   private[this] var tracing = false
   private[this] var channelActive = 0
@@ -234,6 +234,7 @@ class D1571(val driveID: Int,
   private trait VIADisk {
     def setDriveReader(driveReader: Floppy, emulateInserting: Boolean): Unit
     def byteReady(): Unit
+    def isChangingDisk : Boolean
   }
   private[this] val VIA2 = new VIA(s"VIA1571_DiskControl_$driveID", 0x1C00,IRQSwitcher.viaDiskIRQ _) with VIADisk {
     override lazy val componentID = s"VIA1571_2 (DC)_$driveID"
@@ -244,6 +245,8 @@ class D1571(val driveID: Int,
     private[this] var isDiskChanged = true
     private[this] var isDiskChanging = false
 
+    override def isChangingDisk : Boolean = isDiskChanging
+
     override def setDriveReader(driveReader:Floppy,emulateInserting:Boolean) : Unit = {
       floppy = driveReader
       if (emulateInserting) {
@@ -437,6 +440,9 @@ class D1571(val driveID: Int,
     runningListener(active)
   }
   override def canGoSleeping: Boolean = this.canSleep
+  override def getIECBusListeners : List[IECBusListener] = List(VIA1,CIA)
+  override def isChangingDisk : Boolean = VIA2.isChangingDisk
+  override def getClockEventIDs : List[String] = List(CIA.getTODEventID)
   override def setCanSleep(canSleep: Boolean) : Unit = {
     this.canSleep = canSleep
     awake()
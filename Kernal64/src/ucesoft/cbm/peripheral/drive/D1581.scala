@@ -49,7 +49,7 @@ class D1581(val driveID: Int,
   private[this] final val WD1772 = false
   private[this] final val _1581_WAIT_LOOP_ROUTINE = 0xB106
   private[this] final val WAIT_CYCLES_FOR_STOPPING = 4000000
-  private[this] val clk = Clock.systemClock
+  @inline private[this] def clk = Clock.systemClock
   private[this] var running = true
   private[this] var tracing = false
   private[this] var floppy : Floppy = D1581.MFMEmptyFloppy
@@ -265,6 +265,8 @@ class D1581(val driveID: Int,
     runningListener(active)
   }
   override def canGoSleeping: Boolean = this.canSleep
+  override def getIECBusListeners : List[IECBusListener] = List(CIAPortBConnector,CIA)
+  override def getClockEventIDs : List[String] = List(CIA.getTODEventID)
   override def setCanSleep(canSleep: Boolean) : Unit = {
     this.canSleep = canSleep
     awake()
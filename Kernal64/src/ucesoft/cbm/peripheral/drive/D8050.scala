@@ -5,7 +5,7 @@ import ucesoft.cbm.ChipID.ID
 import ucesoft.cbm.cpu.{CPU65xx, Memory, RAMComponent}
 import ucesoft.cbm.peripheral.bus.IEEE488Bus
 import ucesoft.cbm.peripheral.mos653x.{MOS6532, MOS653X}
-import ucesoft.cbm.trace.TraceListener
+import ucesoft.cbm.trace.{BinaryTrace, TraceListener}
 import ucesoft.cbm.trace.TraceListener.{BreakType, CpuStepInfo, StepType}
 
 import java.io.{File, ObjectInputStream, ObjectOutputStream, PrintWriter}
@@ -210,6 +210,7 @@ class D8050(val driveID:Int,
    ***********************************************************************************************************/
   override def getRegisters(): List[TraceListener.TraceRegister] = UN1_6502.getRegisters()
   override def setTraceOnFile(out: PrintWriter, enabled: Boolean): Unit = UN1_6502.setTraceOnFile(out,enabled)
+  override def setTraceRecorder(recorder: BinaryTrace.Recorder): Unit = UN1_6502.setTraceRecorder(recorder)
 
   override def setTrace(traceOn: Boolean): Unit = UN1_6502.setTrace(traceOn)
 
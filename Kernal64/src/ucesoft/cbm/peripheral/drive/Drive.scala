@@ -2,6 +2,7 @@ package ucesoft.cbm.peripheral.drive
 
 import ucesoft.cbm.CBMComponentType.Type
 import ucesoft.cbm.cpu.Memory
+import ucesoft.cbm.peripheral.bus.IECBusListener
 import ucesoft.cbm.{CBMComponent, CBMComponentType}
 
 object DriveType extends Enumeration {
@@ -30,6 +31,12 @@ trait Drive extends CBMComponent {
   def isReadOnly : Boolean = false
   def getFloppy : Floppy
   def getMem : Memory = Memory.empty
+  // the listeners through which the drive accesses the IEC bus, if it can run on its own thread
+  def getIECBusListeners : List[IECBusListener] = Nil
+  // the ids of the clock events of the drive's components, moved with it on its thread
+  def getClockEventIDs : List[String] = Nil
+  // the disk change is emulated by clock events
+  def isChangingDisk : Boolean = false
   
   def getSpeedHz: Int = -1
   def setSpeedHz(speed:Int) : Unit = {}
@@ -0,0 +1,151 @@
+package ucesoft.cbm.peripheral.drive
+
+import ucesoft.cbm.{Clock, Log}
+import ucesoft.cbm.peripheral.bus.IECBus
+
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Runs each drive on its own thread, in lockstep with the host's clock.
+ *
+ * Every access to the bus has a stamp, cycle * 8 + position in the cycle: the drives come first, in the order of
+ * their ids, and the host last, as in the serial main loop. A drive executes cycle t when the host has started it:
+ * first the ATN edges driven by the host and its own clock events of the cycle before, then its cycle. A thread that
+ * reads the bus waits for the others to reach its stamp, so it sees the lines exactly as in serial execution.
+ * At the end of each host slice the drives are held before the next cycle: the threads can be stopped there and the
+ * emulation goes on serially.
+ */
+class DriveThreads(bus:IECBus) {
+  import IECBus.HOST_POSITION
+
+  private class DriveThread(val id:Int,val drive:Drive,val participant:IECBus.Participant,val clk:Clock,startCycle:Long,clockDrive:Int => Boolean) extends Thread(s"Drive${id + 8}") {
+    @volatile var failed = false
+
+    override def run() : Unit = {
+      Clock.bindThreadClock(clk)
+      bus.attach(participant)
+      val position = id + 1
+      var t = startCycle
+      try {
+        while (awaitHost(t << 3)) {
+          // the host's accesses and clock events of cycle t - 1
+          clk.setCycles(t - 1)
+          participant.setStamp(((t - 1) << 3) + HOST_POSITION)
+          bus.notifyATNEdges(participant,t << 3)
+          clk.executeDueEvents()
+          val stamp = (t << 3) + position
+          participant.setStamp(stamp)
+          participant.publish(stamp)
+          if (awaitHost(stamp)) {
+            clk.setCycles(t)
+            if (clockDrive(id)) drive.clock(t)
+            participant.publish((t << 3) + HOST_POSITION)
+            t += 1
+          }
+        }
+      }
+      catch {
+        case e:Throwable =>
+          Log.info(s"Drive ${id + 8} thread stopped: $e")
+          failed = true
+          // no one must wait for this drive
+          participant.publish(Long.MaxValue)
+      }
+      finally Clock.unbindThreadClock()
+    }
+
+    /**
+     * Waits for the host to reach the given stamp: false if the thread has been stopped meanwhile.
+     */
+    private def awaitHost(stamp:Long) : Boolean = IECBus.await(host,stamp,running)
+  }
+
+  @volatile private[this] var running = false
+  private[this] var threads : List[DriveThread] = Nil
+  private[this] var host : IECBus.Participant = _
+  private[this] var lastHostCycle = 0L
+
+  def isActive : Boolean = running
+
+  def hasFailed : Boolean = threads.exists(_.failed)
+
+  /**
+   * Starts the threads before the host's cycle startCycle. drives are the drives with their ids, clockDrive tells, on a
+   * drive's thread, if the drive must be clocked. Must be called on the host's clock thread between two cycles.
+   */
+  def start(startCycle:Long,drives:Seq[(Int,Drive)],clockDrive:Int => Boolean) : Unit = {
+    if (running) stop()
+    val sorted = drives.sortBy(_._1)
+    val participants = bus.startThreaded(sorted.map(_._2.getIECBusListeners))
+    val hostClock = Clock.systemClock
+    host = participants(0)
+    host.setStamp(((startCycle - 1) << 3) + HOST_POSITION)
+    host.publish(startCycle << 3)
+    lastHostCycle = startCycle - 1
+    running = true
+    threads = (for (((id,drive),p) <- sorted.zip(participants.drop(1))) yield {
+      val clk = Clock.makeThreadClock(s"Drive${id + 8}Clock")
+      clk.setCycles(startCycle - 1)
+      for (eventID <- drive.getClockEventIDs) hostClock.moveEvents(eventID,clk)
+      p.publish(startCycle << 3)
+      val thread = new DriveThread(id,drive,p,clk,startCycle,clockDrive)
+      thread.setDaemon(true)
+      thread
+    }).toList
+    threads.foreach(_.start())
+  }
+
+  /**
+   * Called by the host at the beginning of each cycle.
+   */
+  final def hostCycle(cycles:Long) : Unit = {
+    val stamp = (cycles << 3) + HOST_POSITION
+    host.setStamp(stamp)
+    host.publish(stamp)
+    lastHostCycle = cycles
+  }
+
+  /**
+   * Called by the host at the end of a slice, before cycle nextCycle: waits for the drives to complete the cycles
+   * before it and holds them there.
+   */
+  def sync(nextCycle:Long) : Unit = {
+    host.publish(nextCycle << 3)
+    // a dead thread will be stopped at the next slice
+    for (t <- threads) if (!IECBus.await(t.participant,nextCycle << 3,t.isAlive)) t.failed = true
+    lastHostCycle = nextCycle - 1
+  }
+
+  /**
+   * Stops the threads and switches the bus back to the normal mode: the drives will be clocked by the host.
+   * Must be called on the host's clock thread, or while the clock is paused.
+   */
+  def stop() : Unit = {
+    if (running) {
+      val cycles = lastHostCycle
+      // the drives complete the current cycle
+      for (t <- threads) IECBus.await(t.participant,(cycles << 3) + HOST_POSITION,t.isAlive)
+      running = false
+      for (t <- threads) {
+        LockSupport.unpark(t)
+        t.join()
+      }
+      // the ATN edges driven by the host in the current cycle, if any, are notified here
+      host.publish((cycles + 1) << 3)
+      val hostClock = Clock.systemClock
+      for (t <- threads) {
+        if (bus.isThreaded) {
+          bus.attach(t.participant)
+          bus.notifyATNEdges(t.participant,Long.MaxValue)
+        }
+        t.clk.moveAllEvents(hostClock)
+      }
+      if (bus.isThreaded) {
+        bus.attach(host)
+        bus.stopThreaded()
+      }
+      threads = Nil
+      host = null
+    }
+  }
+}
@@ -57,6 +57,8 @@ abstract class VIA(val name:String,
   protected var srCounter,srStartDelay = 0
   
   protected var active = true
+  // the timer counters have been read, see checkTimersRead
+  private[this] var timersRead = false
 
   def init() : Unit = {
     active = true
@@ -142,11 +144,16 @@ abstract class VIA(val name:String,
       checkSR()
       regs(SR)
     case T1LC =>
+      timersRead = true
       irq_clr(IRQ_TIMER_1)
       regs(T1LC)
 	  case T2LC =>
+      timersRead = true
   	  irq_clr(IRQ_TIMER_2)
   	  regs(T2LC)
+    case ofs@(T1HC|T2HC) =>
+      timersRead = true
+      regs(ofs)
     case IER =>
       regs(IER) | 0x80
     case ofs =>
@@ -474,6 +481,90 @@ abstract class VIA(val name:String,
     }
   }
 
+  // ============== Idle skipping ==================================================
+
+  // the timeouts of T1 and T2 change nothing but the counters: they can be skipped too
+  @inline private def isT1Silent : Boolean = !pending_t1 && !is_set(ACR,0x80)
+  @inline private def isT2Silent : Boolean = !pending_t2 && srMode() != 2
+
+  /**
+   * The number of cycles the timers will just count down: they can be skipped by at most this many cycles.
+   */
+  final def cyclesBeforeTimerEvent : Int = {
+    if (!active) Int.MaxValue
+    else
+    if (acrNew || srStarted || reload_t2) 0
+    else {
+      val t1 = if (isT1Silent) Int.MaxValue else if (reload_t1) 0 else regs(T1LC) | regs(T1HC) << 8
+      if (oneshotB && !isT2Silent) math.min(t1,regs(T2LC) | regs(T2HC) << 8) else t1
+    }
+  }
+
+  /**
+   * Counts down the timers by the given cycles, not more than cyclesBeforeTimerEvent.
+   */
+  final def skipTimers(cycles:Int) : Unit = {
+    if (active) {
+      var t1 = regs(T1LC) | regs(T1HC) << 8
+      var left = cycles
+      if (reload_t1 && left > 0) {
+        t1 = regs(T1LL) | regs(T1HL) << 8
+        reload_t1 = false
+        left -= 1
+      }
+      if (left <= t1) t1 -= left
+      else {
+        // a silent timeout: from the latch the counter repeats every latch + 2 cycles, the last one at 0xFFFF
+        val latch = regs(T1LL) | regs(T1HL) << 8
+        left = (left - t1 - 1) % (latch + 2)
+        if (left == 0) {
+          t1 = 0xFFFF
+          reload_t1 = true
+        }
+        else t1 = latch + 1 - left
+      }
+      regs(T1LC) = t1 & 0xFF
+      regs(T1HC) = t1 >> 8
+      if (oneshotB) {
+        val t2 = ((regs(T2LC) | regs(T2HC) << 8) - cycles) & 0xFFFF
+        regs(T2LC) = t2 & 0xFF
+        regs(T2HC) = t2 >> 8
+      }
+    }
+  }
+
+  /**
+   * Tells if the timer counters have been read since the last call.
+   */
+  final def checkTimersRead() : Boolean = {
+    val read = timersRead
+    timersRead = false
+    read
+  }
+
+  /**
+   * Copies into state, from offset, the state of the chip apart from the timer counters. Returns the next offset.
+   */
+  final def getIdleState(state:Array[Int],offset:Int) : Int = {
+    var o = offset
+    var r = 0
+    while (r < 16) {
+      if (r != T1LC && r != T1HC && r != T2LC && r != T2HC) {
+        state(o) = regs(r)
+        o += 1
+      }
+      r += 1
+    }
+    state(o) = paLatch
+    state(o + 1) = pbLatch
+    state(o + 2) = t2ll
+    state(o + 3) = PB7
+    state(o + 4) = (if (pending_t1) 1 else 0) | (if (pending_t2) 2 else 0) | (if (oneshotB) 4 else 0) | (if (oneshotBNew) 8 else 0) |
+                   (if (lastCA1) 16 else 0) | (if (lastCB1) 32 else 0) | (if (lastCA2) 64 else 0) | (if (lastCB2) 128 else 0) |
+                   (if (active) 256 else 0)
+    o + 5
+  }
+
   override def getProperties: Properties = {
     properties.setProperty("T1 counter",Integer.toHexString(regs(T1LC) | regs(T1HC) << 8))
     properties.setProperty("T2 counter",Integer.toHexString(regs(T2LC) | regs(T2HC) << 8))
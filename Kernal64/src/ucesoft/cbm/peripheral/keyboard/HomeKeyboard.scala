@@ -3,7 +3,7 @@ package ucesoft.cbm.peripheral.keyboard
 import ucesoft.cbm.CBMComponentType.Type
 import ucesoft.cbm.cpu.Memory
 import ucesoft.cbm.peripheral.keyboard.CKey._
-import ucesoft.cbm.{C128Model, CBMComponentType, CBMComputerModel}
+import ucesoft.cbm.{C128Model, CBMComponentType, CBMComputerModel, Clock, ClockEvent}
 
 import java.awt.event.KeyEvent
 import java.io.{ObjectInputStream, ObjectOutputStream}
@@ -36,6 +36,35 @@ object HomeKeyboard {
     }
   }
 
+  // cycles between the checks of the keyboard buffer while the text is typed by the clock
+  private final val CLOCK_TYPING_CHECK_CYCLES = 1000
+
+  /**
+   * Like insertTextIntoKeyboardBuffer, but the text is typed by events of the given clock: it must be called on the
+   * clock's thread. The text reaches the buffer at the same cycles on every run, also in warp mode.
+   */
+  def insertTextIntoKeyboardBufferOnClock(txt:String,mem:Memory,c64Mode:Boolean,clock:Clock) : Unit = {
+    val maxLenAddr = if (c64Mode) 649 else 2592
+    val bufferAddr = if (c64Mode) 631 else 842
+    val lenAddr = if (c64Mode) 198 else 208
+    val len = mem.read(maxLenAddr)
+    var strpos = 0
+
+    def typeNext(cycles:Long) : Unit = {
+      if (mem.read(lenAddr) == 0) {
+        val size = if (len < txt.length - strpos) len else txt.length - strpos
+        for(i <- 0 until size) {
+          val c = txt.charAt(strpos).toUpper
+          mem.write(bufferAddr + i,if (c != '\n') c else 0x0D)
+          strpos += 1
+        }
+        mem.write(lenAddr,size)
+      }
+      if (strpos < txt.length) clock.schedule(new ClockEvent("KeyboardTyping",cycles + CLOCK_TYPING_CHECK_CYCLES,typeNext _))
+    }
+    typeNext(clock.currentCycles)
+  }
+
   def insertSmallTextIntoKeyboardBuffer(txt:String,mem:Memory,c64Mode:Boolean) : Unit = {
     val bufferAddr = if (c64Mode) 631 else 842
     val lenAddr = if (c64Mode) 198 else 208
@@ -11,4 +11,9 @@ trait AudioDriverDevice {
   def addSample(sample:Int) : Unit
   def reset() : Unit
   def discard() : Unit
+  // buffering metrics: drivers that don't queue samples keep the defaults
+  def getQueuedFrames : Int = -1
+  def getTargetFrames : Int = -1
+  def getOverruns : Long = 0
+  def getUnderruns : Long = 0
 }
\ No newline at end of file
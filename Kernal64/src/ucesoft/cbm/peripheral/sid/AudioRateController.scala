@@ -0,0 +1,66 @@
+package ucesoft.cbm.peripheral.sid
+
+/**
+ * Closed loop controller that locks the number of produced samples to the audio output.
+ *
+ * The emulation is throttled on the system clock while the audio line plays on the sound card clock: the two drift and
+ * the audio buffer slowly fills up or drains. The controller measures the buffer fill level against the driver's target
+ * and corrects the sample step (cycles per sample, 16.16 fixed point) with a PI loop, within +/- MAX_CORRECTION.
+ */
+class AudioRateController {
+  private[this] final val MAX_CORRECTION = 0.005
+  private[this] final val FILL_ALPHA = 1.0 / 64
+  private[this] final val KP = 0.002
+  private[this] final val KI = 0.000005
+
+  private[this] var nominalStep = 0
+  private[this] var step = 0
+  private[this] var fillError = 0.0
+  private[this] var integral = 0.0
+  private[this] var correction = 0.0
+  private[this] var fillLevel = 0.0
+
+  /**
+   * Sets the nominal step and clears the loop state.
+   */
+  def setNominalStep(cyclesPerSample:Int): Unit = {
+    nominalStep = cyclesPerSample
+    step = cyclesPerSample
+    fillError = 0.0
+    integral = 0.0
+    correction = 0.0
+  }
+
+  /**
+   * Restarts the fill level filter keeping the integral term, i.e. the drift estimate.
+   */
+  def restart(): Unit = fillError = 0.0
+
+  /**
+   * Updates the loop with the current fill level of the driver and returns the corrected step.
+   */
+  def update(driver:AudioDriverDevice): Int = {
+    val target = driver.getTargetFrames
+    val queued = driver.getQueuedFrames
+    if (target <= 0 || queued < 0 || !driver.isSoundOn || driver.isMuted) return step
+
+    fillLevel = queued.toDouble / target
+    val error = math.max(-1.0,math.min(1.0,fillLevel - 1.0))
+    fillError += (error - fillError) * FILL_ALPHA
+    integral = math.max(-MAX_CORRECTION,math.min(MAX_CORRECTION,integral + fillError * KI))
+    // a buffer above target means we are producing too many samples: the step must grow
+    correction = math.max(-MAX_CORRECTION,math.min(MAX_CORRECTION,fillError * KP + integral))
+    step = (nominalStep * (1.0 + correction)).toInt
+    step
+  }
+
+  def getStep: Int = step
+  /**
+   * The current correction of the sample rate in parts per million. Positive values mean fewer samples produced.
+   */
+  def getCorrectionPPM: Int = (correction * 1000000).toInt
+  /**
+   * The last fill level measured, relative to the driver's target.
+   */
+  def getFillLevel: Double = fillLevel
+}
@@ -0,0 +1,77 @@
+package ucesoft.cbm.peripheral.sid
+
+/**
+ * Lock-free single producer / single consumer ring of 16 bits PCM samples.
+ *
+ * The producer (the emulation thread) only moves writePos, the consumer (the audio output thread) only moves readPos.
+ * Positions are free running counters: the difference between them is the number of queued samples, also across Int overflow.
+ */
+class AudioRingBuffer(minCapacity:Int) {
+  val capacity : Int = Integer.highestOneBit(math.max(minCapacity,2) * 2 - 1)
+  private[this] val mask = capacity - 1
+  private[this] val ring = Array.ofDim[Short](capacity)
+  @volatile private[this] var writePos = 0
+  @volatile private[this] var readPos = 0
+  @volatile private[this] var flushRequested = false
+
+  /**
+   * Number of samples queued. Can be called by both threads.
+   */
+  final def size : Int = writePos - readPos
+
+  /**
+   * Producer side: writes len samples if all of them fit, otherwise writes nothing and returns false.
+   */
+  final def write(buf:Array[Short],offset:Int,len:Int) : Boolean = {
+    val wp = writePos
+    if (capacity - (wp - readPos) < len) return false
+    var i = 0
+    while (i < len) {
+      ring((wp + i) & mask) = buf(offset + i)
+      i += 1
+    }
+    writePos = wp + len
+    true
+  }
+
+  /**
+   * Consumer side: reads up to len samples as little endian bytes into out. Returns the number of samples read.
+   */
+  final def read(out:Array[Byte],len:Int) : Int = {
+    val rp = readPos
+    val n = math.min(len,writePos - rp)
+    var i = 0
+    var o = 0
+    while (i < n) {
+      val s = ring((rp + i) & mask)
+      out(o) = (s & 0xFF).toByte
+      out(o + 1) = (s >> 8).toByte
+      o += 2
+      i += 1
+    }
+    readPos = rp + n
+    n
+  }
+
+  /**
+   * Consumer side: drops up to len queued samples.
+   */
+  final def skip(len:Int) : Unit = readPos += math.min(len,writePos - readPos)
+
+  /**
+   * Can be called by any thread: the consumer will discard all the queued samples on its next checkFlush.
+   */
+  final def flush() : Unit = flushRequested = true
+
+  /**
+   * Consumer side: serves a pending flush request. Returns true if the ring has been emptied.
+   */
+  final def checkFlush() : Boolean = {
+    if (flushRequested) {
+      flushRequested = false
+      readPos = writePos
+      true
+    }
+    else false
+  }
+}
@@ -1,10 +1,25 @@
 package ucesoft.cbm.peripheral.sid
 
+import java.util.concurrent.locks.LockSupport
 import javax.sound.sampled._
 
+/**
+ * Samples produced by the emulation thread are queued into a lock-free ring and written to the audio line by a dedicated
+ * output thread, so a full line never blocks the emulation and a short one never truncates a write.
+ *
+ * The output thread keeps the ring around a target fill level: after an underrun it raises the target and pre-buffers
+ * up to it before restarting, while it slowly lowers the target back when playback is stable. Samples queued well above
+ * the target are dropped to keep the latency bounded.
+ */
 class DefaultAudioDriver(override val sampleRate:Int,bufferSizeInMillis:Int,isStereo:Boolean = false) extends AudioDriverDevice {
+  private[this] final val CHANNELS = if (isStereo) 2 else 1
+  private[this] final val CHUNK_SAMPLES = 64 * CHANNELS
+  private[this] final val PARK_NANOS = 1000000L
+  private[this] final val TARGET_DECREASE_PERIOD_NANOS = 10000000000L
+
+  private[this] val lineBufferSamples = align(sampleRate * CHANNELS * math.max(bufferSizeInMillis,10) / 1000)
   private[this] val dataLine = {
-    val af = new AudioFormat(sampleRate.toFloat, 16,if (isStereo) 2 else 1, true, false)
+    val af = new AudioFormat(sampleRate.toFloat, 16,CHANNELS, true, false)
     val dli = new DataLine.Info(classOf[SourceDataLine], af)
     val dataLine = try {
       AudioSystem.getLine(dli).asInstanceOf[SourceDataLine]
@@ -15,19 +30,41 @@ class DefaultAudioDriver(override val sampleRate:Int,bufferSizeInMillis:Int,isSt
         null
     }
 
-    if (dataLine != null) dataLine.open(dataLine.getFormat)
+    if (dataLine != null) dataLine.open(dataLine.getFormat,lineBufferSamples * 2)
     dataLine
   }
   private[this] val volume : FloatControl = if (dataLine != null) dataLine.getControl(FloatControl.Type.MASTER_GAIN).asInstanceOf[FloatControl] else null
   private[this] var vol = 0
-  private[this] val buffer = Array.ofDim[Byte]((if (isStereo) 2 else 1) * 2 * (sampleRate * bufferSizeInMillis / 1000.0).toInt)
+  // producer side
+  private[this] val chunk = Array.ofDim[Short](CHUNK_SAMPLES)
   private[this] var pos = 0
-  private[this] var muted = false
-  private[this] var soundOn = true
-  
+  // shared
+  private[this] val ring = new AudioRingBuffer(sampleRate * CHANNELS * math.max(bufferSizeInMillis * 8,250) / 1000)
+  private[this] val writeSamples = align(math.max(lineBufferSamples / 4,CHUNK_SAMPLES))
+  private[this] val minTarget = align(math.max(writeSamples,sampleRate * CHANNELS * bufferSizeInMillis / 2000))
+  private[this] val maxTarget = align(math.max(ring.capacity / 4,minTarget))
+  @volatile private[this] var target = minTarget
+  @volatile private[this] var overruns = 0L // written by the producer only
+  @volatile private[this] var trimmed = 0L  // written by the output thread only
+  @volatile private[this] var underruns = 0L
+  @volatile private[this] var muted = false
+  @volatile private[this] var soundOn = true
+  @volatile private[this] var running = true
+  private[this] val outputThread = if (dataLine != null) {
+    val t = new Thread(() => output(),"AudioOutput")
+    t.setDaemon(true)
+    t.setPriority(Thread.MAX_PRIORITY)
+    t
+  } else null
+
   setMasterVolume(100)
-  if (dataLine != null) dataLine.start()
-  
+  if (dataLine != null) {
+    dataLine.start()
+    outputThread.start()
+  }
+
+  @inline private def align(samples:Int) : Int = samples & ~(CHANNELS - 1)
+
   def getMasterVolume: Int = vol
   def setMasterVolume(v:Int) : Unit = {
     if (volume != null) {
@@ -38,26 +75,26 @@ class DefaultAudioDriver(override val sampleRate:Int,bufferSizeInMillis:Int,isSt
     }
   }
   final def addSample(sample:Int) : Unit = {
-    if (dataLine == null || !soundOn) return
+    if (dataLine == null || !soundOn || muted) return
 
-    buffer(pos) = (sample & 0xff).toByte ; pos += 1
-    buffer(pos) = (sample >> 8).toByte ; pos += 1
-    if (pos == buffer.length) {      
+    chunk(pos) = sample.toShort ; pos += 1
+    if (pos == CHUNK_SAMPLES) {
       pos = 0
-      val av = dataLine.available()
-      val bsize = if (av < buffer.length) av else buffer.length
-      dataLine.write(buffer, 0, bsize)
+      if (!ring.write(chunk,0,CHUNK_SAMPLES)) overruns += 1
     }
   }
   final def reset() : Unit = {
     pos = 0
+    ring.flush()
     if (dataLine != null) dataLine.flush()
     setSoundOn(true)
   }
   def discard() : Unit = {
     if (dataLine != null) {
+      running = false
       dataLine.stop()
       dataLine.flush()
+      LockSupport.unpark(outputThread)
     }
   }
   def setSoundOn(on:Boolean) : Unit = {
@@ -69,9 +106,9 @@ class DefaultAudioDriver(override val sampleRate:Int,bufferSizeInMillis:Int,isSt
     if (dataLine != null) {
       if (soundOn && !muted) dataLine.start()
       else {
+        ring.flush()
         dataLine.stop()
         dataLine.flush()
-        pos = 0
       }
     }
   }
@@ -84,4 +121,60 @@ class DefaultAudioDriver(override val sampleRate:Int,bufferSizeInMillis:Int,isSt
   override def isMuted: Boolean = muted
 
   override def isSoundOn: Boolean = soundOn
-}
\ No newline at end of file
+
+  override def getQueuedFrames: Int = ring.size / CHANNELS
+  override def getTargetFrames: Int = target / CHANNELS
+  override def getOverruns: Long = overruns + trimmed
+  override def getUnderruns: Long = underruns
+
+  // ============================== Output thread ======================================
+  private def output() : Unit = {
+    val out = Array.ofDim[Byte](writeSamples * 2)
+    var prebuffering = true
+    var lastUnderrun = System.nanoTime()
+    try {
+      while (running) {
+        if (ring.checkFlush()) prebuffering = true
+
+        val queued = ring.size
+        if (!soundOn || muted) {
+          prebuffering = true
+          LockSupport.parkNanos(PARK_NANOS)
+        }
+        else if (prebuffering) {
+          if (queued >= target) prebuffering = false
+          else LockSupport.parkNanos(PARK_NANOS)
+        }
+        else if (queued == 0) {
+          // the line is playing its last samples: if it drains completely we have an underrun
+          if (dataLine.available() >= dataLine.getBufferSize) {
+            underruns += 1
+            target = math.min(maxTarget,align(target + target / 2))
+            lastUnderrun = System.nanoTime()
+            prebuffering = true
+          }
+          else LockSupport.parkNanos(PARK_NANOS)
+        }
+        else {
+          val t = target
+          if (queued > (t << 1) + writeSamples) {
+            ring.skip(align(queued - t))
+            trimmed += 1
+          }
+          val n = ring.read(out,writeSamples)
+          // blocking write: only this thread waits for the line
+          dataLine.write(out,0,n << 1)
+
+          val now = System.nanoTime()
+          if (t > minTarget && now - lastUnderrun > TARGET_DECREASE_PERIOD_NANOS) {
+            target = math.max(minTarget,align(t - t / 8))
+            lastUnderrun = now
+          }
+        }
+      }
+    }
+    finally {
+      dataLine.close()
+    }
+  }
+}
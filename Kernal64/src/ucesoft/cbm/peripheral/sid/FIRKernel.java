@@ -0,0 +1,80 @@
+package ucesoft.cbm.peripheral.sid;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+
+/**
+ * Convolution kernel of the FIR resamplers.
+ * <p>
+ * The default kernel is the plain scalar loop. With -Dsid.fir.kernel=vector the Vector API kernel
+ * (ucesoft.cbm.peripheral.sid.vector.VectorFIRKernel) is used instead: it is compiled apart, since it needs
+ * a newer java release than the rest of the sources, and requires --add-modules jdk.incubator.vector.
+ * If the kernel class or the module are not available, or the kernel does not give the same result of
+ * the scalar loop, the scalar loop is used.
+ */
+public final class FIRKernel {
+    private static final String VECTOR_KERNEL_CLASS = "ucesoft.cbm.peripheral.sid.vector.VectorFIRKernel";
+    private static final MethodHandle VECTOR_KERNEL = lookupVectorKernel();
+
+    private FIRKernel() {}
+
+    private static MethodHandle lookupVectorKernel() {
+        if (!"vector".equalsIgnoreCase(System.getProperty("sid.fir.kernel","scalar"))) {
+            return null;
+        }
+        try {
+            final Class<?> kernelClass = Class.forName(VECTOR_KERNEL_CLASS);
+            final MethodHandle kernel = MethodHandles.publicLookup().findStatic(kernelClass, "convolve", MethodType.methodType(int.class, short[].class, int.class, short[].class, int.class, int.class));
+            // checks the kernel against the scalar loop
+            final Random random = new Random(0);
+            final short[] sample = new short[1024];
+            final short[] fir = new short[1024];
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = (short) random.nextInt();
+                fir[i] = (short) random.nextInt(4096);
+            }
+            for (int n = 0; n < 300; n += 7) {
+                if ((int) kernel.invokeExact(sample, n, fir, n / 2, n) != scalar(sample, n, fir, n / 2, n)) {
+                    throw new IllegalStateException("vector kernel gives a different result");
+                }
+            }
+            return kernel;
+        }
+        catch (Throwable t) {
+            System.out.println("Warning: SID vector FIR kernel not available, using scalar kernel. Cause: " + t);
+            return null;
+        }
+    }
+
+    /**
+     * @return the name of the kernel in use
+     */
+    public static String getKernelName() {
+        return VECTOR_KERNEL != null ? "vector" : "scalar";
+    }
+
+    /**
+     * @return the sum of sample[sample_start + j] * fir[fir_start + j] for j = 0 .. n - 1
+     */
+    public static int convolve(short[] sample, int sample_start, short[] fir, int fir_start, int n) {
+        if (VECTOR_KERNEL != null) {
+            try {
+                return (int) VECTOR_KERNEL.invokeExact(sample, sample_start, fir, fir_start, n);
+            }
+            catch (Throwable t) {
+                throw new RuntimeException("Error while running vector FIR kernel", t);
+            }
+        }
+        return scalar(sample, sample_start, fir, fir_start, n);
+    }
+
+    private static int scalar(short[] sample, int sample_start, short[] fir, int fir_start, int n) {
+        int v = 0;
+        for (int j = 0; j < n; j++) {
+            v += sample[sample_start + j] * fir[fir_start + j];
+        }
+        return v;
+    }
+}
@@ -0,0 +1,103 @@
+package ucesoft.cbm.peripheral.sid
+
+import ucesoft.cbm.misc.Preferences
+
+import java.io.{ObjectInputStream, ObjectOutputStream}
+import java.util.Properties
+
+/**
+ * Measures the samples per second of the FIR resamplers with the FIR kernel in use, see FIRKernel: the kernel is
+ * chosen when the class is loaded, so the scalar and the vector kernels are measured by two runs, with
+ * -Dsid.fir.kernel=scalar and with -Dsid.fir.kernel=vector --add-modules jdk.incubator.vector.
+ *
+ * The chip plays a fixed pseudo random signal at almost no cost, so the time is spent by the resampling. The checksum
+ * of the output must be the same with both kernels.
+ */
+object FIRKernelBenchmark {
+  private final val RATES = List(44100,48000)
+  private final val MODES = List(SIDResampler.Mode.FIR,SIDResampler.Mode.TWO_STAGE)
+  private final val SAMPLES_PER_EVENT = 64
+
+  private class NoiseChip extends SIDChip {
+    private[this] val noise = {
+      val random = new java.util.Random(0x5EED)
+      Array.fill(1 << 16)((random.nextInt(1 << 14) - (1 << 13)).toShort)
+    }
+    private[this] var pos = 0
+
+    override def clock() : Unit = pos = (pos + 1) & 0xFFFF
+    // the resamplers take a sample every cycle
+    override def clock(cycles:Int,buf:Array[Short],offset:Int,cyclesPerSample:Int) : Int = {
+      var i = 0
+      while (i < cycles) {
+        buf(offset + i) = noise(pos)
+        pos = (pos + 1) & 0xFFFF
+        i += 1
+      }
+      cycles
+    }
+    override def read(offset:Int) : Int = 0
+    override def write(offset:Int,value:Int) : Unit = {}
+    override def setModel(model:Int) : Unit = {}
+    override def output() : Int = noise(pos)
+    override def saveState(out:ObjectOutputStream) : Unit = {}
+    override def loadState(in:ObjectInputStream) : Unit = {}
+    override def reset() : Unit = pos = 0
+    override def updateBusValue(value:Int) : Unit = {}
+  }
+
+  private case class Result(samples:Long,nanos:Long,checksum:Long)
+
+  /**
+   * Resamples the given emulated seconds, one sid event at a time.
+   */
+  private def run(mode:SIDResampler.Mode,clockHz:Int,sampleRate:Int,seconds:Int) : Result = {
+    val step = ((clockHz.toLong << 16) / sampleRate).toInt
+    val eventCycles = (clockHz / sampleRate) * SAMPLES_PER_EVENT
+    val resampler = SIDResampler.create(mode,clockHz,sampleRate)
+    val chip = new NoiseChip
+    val buffer = Array.ofDim[Short](SAMPLES_PER_EVENT * 4)
+    val totalCycles = clockHz.toLong * seconds
+    var cycles = 0L
+    var samples = 0L
+    var checksum = 0L
+    val start = System.nanoTime()
+    while (cycles < totalCycles) {
+      val n = resampler.clock(chip,eventCycles,buffer,0,step)
+      var i = 0
+      while (i < n) {
+        checksum = checksum * 31 + buffer(i)
+        i += 1
+      }
+      samples += n
+      cycles += eventCycles
+    }
+    Result(samples,System.nanoTime() - start,checksum)
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var clockHz = 985248
+    var seconds = 20
+    var repeat = 3
+
+    settings.add("clock","Chip clock frequency",985248) { clockHz = _ }
+    settings.add("seconds","Emulated seconds of each run",20) { seconds = _ }
+    settings.add("repeat","Number of runs for each method and rate: the best one is reported",3) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"FIRKernelBenchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    println(s"FIR kernel: ${FIRKernel.getKernelName}")
+    for (mode <- MODES; rate <- RATES) {
+      val results = (1 to repeat).map(_ => run(mode,clockHz,rate,seconds))
+      val best = results.minBy(_.nanos)
+      println("%-9s %6d Hz %10.1f k samples/s %8.1fx realtime checksum %016X".format(
+        mode,rate,best.samples / (best.nanos / 1e9) / 1e3,seconds / (best.nanos / 1e9),best.checksum))
+    }
+  }
+}
@@ -5,7 +5,8 @@ import ucesoft.cbm.misc.MouseCage
 import ucesoft.cbm.peripheral.sid.resid4.{SID => RESID}
 import ucesoft.cbm.{Chip, ChipID, Clock, ClockEvent}
 
-import java.io.{ObjectInputStream, ObjectOutputStream}
+import java.io.{ObjectInputStream, ObjectOutputStream, OutputStream}
+import java.util.Properties
 
 class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Option[AudioDriverDevice] = None) extends Chip with SIDDevice {
   override lazy val componentID: String = "SID_" + sidID
@@ -14,6 +15,14 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
   private[this] var CPU_FREQ = 985248
   private[this] var CLOCKS_PER_SAMPLE = CPU_FREQ / SAMPLE_RATE
   private[this] var CLOCKS_PER_SAMPLE_REST = ((CPU_FREQ * 1000L) / SAMPLE_RATE).toInt - CLOCKS_PER_SAMPLE * 1000
+  // 16.16 fixed point cycles per sample used by block clocking
+  private[this] var CLOCKS_PER_SAMPLE_FIXP = ((CPU_FREQ.toLong << 16) / SAMPLE_RATE).toInt
+  // CLOCKS_PER_SAMPLE_FIXP corrected by the rate controller to follow the audio output
+  private var sampleStep = CLOCKS_PER_SAMPLE_FIXP
+  private[this] val rateController = new AudioRateController
+  private[this] val rateControl = System.getProperty("audio.ratecontrol","true").toBoolean
+  // number of samples produced by each sid event when not in cycle exact mode
+  private[this] final val SAMPLES_PER_EVENT = 64
   
   val id: ID = ChipID.SID
   val name = "SID"
@@ -36,13 +45,23 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
   private[this] var mouseEnabled,lightGunOnPOTXEnabled,lightGunOnPOTYEnabled = false
   private[this] var lightGunPOTValue = 0xFF
   private[this] var sid2 : SID = null
+  private[this] var is6581 = true
+  // register writes capture, see SIDRegisterLog
+  private[this] var writeLog : SIDRegisterLog.Writer = _
+  // the sid that pulls our samples when we are the 2nd sid of a stereo pair
+  private var master : SID = null
 
-  private[this] var lastCycles = Clock.systemClock.currentCycles
+  private var lastCycles = Clock.systemClock.currentCycles
   private[this] var nextRest = 0
-  private[this] var removeSample = false
+  private var removeSample = false
   private[this] var nextSample = 0
   private[this] var cycleExact = false
   private[this] var fullSpeed = false
+  private val sampleBuffer = Array.ofDim[Short](SAMPLES_PER_EVENT * 4)
+  private[this] var resampler = SIDResampler.create(SIDResampler.Mode.NEAREST,CPU_FREQ,SAMPLE_RATE)
+  private var sampleBufferSize = 0
+  // samples of a stereo pair dropped because the buffer filled up before the next sid event
+  private var droppedSamples = 0L
   private[this] val audioBuffer = System.getProperty("audio.buffer","50").toInt
   private[this] var driver = externalDriver.getOrElse(new DefaultAudioDriver(SAMPLE_RATE, audioBuffer))
   private[this] val driverProxy : AudioDriverDevice = new AudioDriverDevice {
@@ -57,15 +76,66 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
     def isMuted : Boolean = driver.isMuted
 
     override def isSoundOn: Boolean = driver.isSoundOn
+    override def getQueuedFrames: Int = driver.getQueuedFrames
+    override def getTargetFrames: Int = driver.getTargetFrames
+    override def getOverruns: Long = driver.getOverruns
+    override def getUnderruns: Long = driver.getUnderruns
   }
 
   def setCPUFrequency(f:Double) : Unit = {
     CPU_FREQ = f.toInt
     CLOCKS_PER_SAMPLE = CPU_FREQ / SAMPLE_RATE
     CLOCKS_PER_SAMPLE_REST = ((CPU_FREQ * 1000L) / SAMPLE_RATE).toInt - CLOCKS_PER_SAMPLE * 1000
+    CLOCKS_PER_SAMPLE_FIXP = ((CPU_FREQ.toLong << 16) / SAMPLE_RATE).toInt
+    sampleStep = CLOCKS_PER_SAMPLE_FIXP
+    rateController.setNominalStep(CLOCKS_PER_SAMPLE_FIXP)
+    if (resampler != null) resampler = SIDResampler.create(resampler.getMode,CPU_FREQ,SAMPLE_RATE)
     if (sid2 != null) sid2.setCPUFrequency(f)
   }
 
+  /**
+   * Sets the resampling method used when not in cycle exact mode.
+   */
+  def setResampling(mode:SIDResampler.Mode): Unit = {
+    resampler = SIDResampler.create(mode,CPU_FREQ,SAMPLE_RATE)
+    if (sid2 != null) sid2.setResampling(mode)
+  }
+  def getResampling: SIDResampler.Mode = resampler.getMode
+
+  /**
+   * Starts capturing the register writes of this sid (not of the 2nd one) to out, in SIDRegisterLog format.
+   */
+  def startWriteCapture(out:OutputStream): Unit = {
+    stopWriteCapture()
+    writeLog = new SIDRegisterLog.Writer(out,CPU_FREQ,if (is6581) 0 else 1,Clock.systemClock.currentCycles)
+  }
+  def stopWriteCapture(): Unit = {
+    if (writeLog != null) {
+      writeLog.close(Clock.systemClock.currentCycles)
+      writeLog = null
+    }
+  }
+  def isCapturingWrites: Boolean = writeLog != null
+
+  /**
+   * Current correction applied to the sample rate by the audio rate controller, in parts per million.
+   */
+  def getRateCorrectionPPM: Int = rateController.getCorrectionPPM
+  /**
+   * Audio buffer fill level relative to the driver's target, as last seen by the rate controller.
+   */
+  def getAudioFillLevel: Double = rateController.getFillLevel
+
+  override def getProperties: Properties = {
+    properties.setProperty("Audio queued frames",driver.getQueuedFrames.toString)
+    properties.setProperty("Audio target frames",driver.getTargetFrames.toString)
+    properties.setProperty("Audio overruns",driver.getOverruns.toString)
+    properties.setProperty("Audio underruns",driver.getUnderruns.toString)
+    properties.setProperty("Audio dropped samples",(droppedSamples + (if (sid2 != null) sid2.droppedSamples else 0)).toString)
+    properties.setProperty("Audio rate correction (ppm)",getRateCorrectionPPM.toString)
+    properties
+  }
+
   def setCycleExact(ce:Boolean): Unit = {
     Clock.systemClock.cancel(componentID)
 
@@ -78,7 +148,11 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
     if (this.sid2 != null) this.sid2.stop()
 
     this.sid2 = sid2.getOrElse(null)
-    if (this.sid2 != null) this.sid2.setCycleExact(cycleExact)
+    if (this.sid2 != null) {
+      this.sid2.master = this
+      this.sid2.setResampling(resampler.getMode)
+      this.sid2.setCycleExact(cycleExact)
+    }
     externalDriver match {
       case None =>
         val volume = driver.getMasterVolume
@@ -108,6 +182,7 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
   }
   
   def setModel(is6581:Boolean) : Unit = {
+    this.is6581 = is6581
     if (is6581) {
       sid.setModel(0)
       if (sid2 != null) sid2.setModel(true)
@@ -147,38 +222,97 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
       val value = if (lightGunOnPOTYEnabled) lightGunPOTValue else if (mouseEnabled) (0x7F - (MouseCage.y & 0x7F)) << 1 else 0xFF
       sid.updateBusValue(value)
       value
-    case ofs => sid.read(ofs)
+    case ofs =>
+      syncSamples()
+      sid.read(ofs)
   }
   final def write(address: Int, value: Int, chipID: ChipID.ID): Unit = {
     decode(address) match {
       case -1 =>
         sid2.write(address,value)
       case ofs =>
+        syncSamples()
         sid.write(ofs,value)
+        if (writeLog != null) writeLog.write(Clock.systemClock.currentCycles,ofs,value)
     }
   }
 
   private[this] val sidEventCallBack = sidEvent _
 
   private def sidEvent(cycles:Long) : Unit = {
-    var nextSample = cycles + CLOCKS_PER_SAMPLE
-    nextRest += CLOCKS_PER_SAMPLE_REST
-    if (nextRest > 1000) {
-      nextRest -= 1000
-      nextSample += 1
+    catchUp()
+    if (sid2 != null) {
+      sid2.catchUp()
+      // stereo: left channel from this sid, right channel from sid2
+      val samples = math.min(sampleBufferSize,sid2.sampleBufferSize)
+      var s = 0
+      while (s < samples) {
+        driver.addSample(sampleBuffer(s))
+        driver.addSample(sid2.sampleBuffer(s))
+        s += 1
+      }
+      consumeSamples(samples)
+      sid2.consumeSamples(samples)
     }
+    else {
+      var s = 0
+      while (s < sampleBufferSize) {
+        driver.addSample(sampleBuffer(s))
+        s += 1
+      }
+      sampleBufferSize = 0
+    }
+
+    if (rateControl) {
+      sampleStep = rateController.update(driver)
+      if (sid2 != null) sid2.sampleStep = sampleStep
+    }
+
+    if (!removeSample) Clock.systemClock.schedule(new ClockEvent(componentID,cycles + CLOCKS_PER_SAMPLE * SAMPLES_PER_EVENT,sidEventCallBack))
+  }
+
+  /**
+   * Clocks the sid up to the current cycle, appending the produced samples to sampleBuffer.
+   */
+  private def catchUp(): Unit = {
+    val now = Clock.systemClock.currentCycles
+    // after a long gap, e.g. a state load, one second at most is caught up
+    var delta = math.min(now - lastCycles,CPU_FREQ.toLong).toInt
+    lastCycles = now
+    while (delta > 0) {
+      if (sampleBufferSize >= sampleBuffer.length - 2) overrun()
+      val cycles = math.min(delta,(sampleBuffer.length - sampleBufferSize - 1) * CLOCKS_PER_SAMPLE)
+      sampleBufferSize += resampler.clock(sid,cycles,sampleBuffer,sampleBufferSize,sampleStep)
+      delta -= cycles
+    }
+  }
 
-    val delta = cycles - lastCycles
-    lastCycles = cycles
-    var c = delta.toInt
-    while (c > 0) {
-      sid.clock()
-      c -= 1
+  /**
+   * The buffer filled up before the next sid event: a single sid hands the samples to the driver, a stereo pair can't
+   * split its pairs so they are dropped and counted.
+   */
+  private def overrun(): Unit = {
+    if (sid2 == null && master == null) {
+      var s = 0
+      while (s < sampleBufferSize) {
+        driver.addSample(sampleBuffer(s))
+        s += 1
+      }
     }
+    else droppedSamples += sampleBufferSize
+    sampleBufferSize = 0
+  }
 
-    driver.addSample(sid.output)
+  private def consumeSamples(samples:Int): Unit = {
+    System.arraycopy(sampleBuffer,samples,sampleBuffer,0,sampleBufferSize - samples)
+    sampleBufferSize -= samples
+  }
 
-    if (!removeSample) Clock.systemClock.schedule(new ClockEvent(componentID,nextSample,sidEventCallBack))
+  /**
+   * Before accessing registers the sid must be clocked up to the current cycle when samples are produced by sid events.
+   */
+  @inline private def syncSamples(): Unit = {
+    if (!cycleExact && !removeSample && (master == null || !master.removeSample)) catchUp()
   }
 
   def clock(): Unit = {
@@ -216,8 +350,14 @@ class SID(override val startAddress:Int = 0xd400,sidID:Int = 1,externalDriver:Op
       removeSample = false
       driver.reset()
     }
-    if (!cycleExact) Clock.systemClock.schedule(new ClockEvent(componentID,Clock.systemClock.currentCycles + 5,sidEventCallBack))
+    if (!cycleExact && master == null) Clock.systemClock.schedule(new ClockEvent(componentID,Clock.systemClock.currentCycles + 5,sidEventCallBack))
     lastCycles = Clock.systemClock.currentCycles
+    sampleBufferSize = 0
+    rateController.restart()
+    if (sid2 != null) {
+      sid2.lastCycles = lastCycles
+      sid2.sampleBufferSize = 0
+    }
   }
   def setFullSpeed(full:Boolean) : Unit ={
     fullSpeed = full
@@ -5,6 +5,19 @@ import java.io.ObjectOutputStream;
 
 public interface SIDChip {
     void clock();
+    /**
+     * Clocks the chip for the given number of cycles, storing a sample into buf every time
+     * the 16.16 fixed point sampling position reaches cyclesPerSample.
+     * The sampling position is kept by the chip, so consecutive calls are equivalent to a single
+     * call with the sum of the cycles.
+     *
+     * @param cycles the number of cycles to clock
+     * @param buf the destination buffer: it must have room for at least cycles / (cyclesPerSample >> 16) + 1 samples
+     * @param offset the index of buf where the first sample is stored
+     * @param cyclesPerSample the number of cycles per sample, 16.16 fixed point
+     * @return the number of samples stored into buf
+     */
+    int clock(int cycles,short[] buf,int offset,int cyclesPerSample);
     int read(int offset);
     void write(int offset,int value);
     void setModel(int model);
@@ -0,0 +1,117 @@
+package ucesoft.cbm.peripheral.sid
+
+import java.io._
+
+/**
+ * Binary log of SID register writes.
+ *
+ * Header: "KSRL", version (1 byte), clock frequency in Hz (4 bytes big endian), chip model (1 byte: 0 = 6581, 1 = 8580, 0xFF = unknown).
+ * Records: cycles elapsed since the previous record (unsigned LEB128 varint), register (1 byte) and value (1 byte).
+ * The log ends with the END register, whose delta is the number of cycles to render after the last write.
+ */
+object SIDRegisterLog {
+  final val MAGIC = "KSRL"
+  final val VERSION = 1
+  final val END = 0xFF
+  final val UNKNOWN_MODEL = 0xFF
+
+  def isLog(file:File) : Boolean = {
+    val in = new DataInputStream(new FileInputStream(file))
+    try {
+      val magic = Array.ofDim[Byte](4)
+      in.readFully(magic)
+      new String(magic,"ISO-8859-1") == MAGIC
+    }
+    catch {
+      case _:EOFException => false
+    }
+    finally {
+      in.close()
+    }
+  }
+
+  class Writer(out:OutputStream,val clockHz:Int,val model:Int,startCycle:Long = 0) {
+    private[this] val dout = new DataOutputStream(new BufferedOutputStream(out))
+    private[this] var lastCycle = startCycle
+
+    dout.writeBytes(MAGIC)
+    dout.writeByte(VERSION)
+    dout.writeInt(clockHz)
+    dout.writeByte(model)
+
+    private def writeDelta(cycle:Long) : Unit = {
+      var delta = cycle - lastCycle
+      lastCycle = cycle
+      while (delta >= 0x80) {
+        dout.writeByte((delta & 0x7F).toInt | 0x80)
+        delta >>>= 7
+      }
+      dout.writeByte(delta.toInt)
+    }
+
+    def write(cycle:Long,register:Int,value:Int) : Unit = {
+      writeDelta(cycle)
+      dout.writeByte(register & 0x1F)
+      dout.writeByte(value)
+    }
+
+    def close(cycle:Long) : Unit = {
+      writeDelta(cycle)
+      dout.writeByte(END)
+      dout.close()
+    }
+  }
+
+  class Reader(in:InputStream) {
+    private[this] val din = new DataInputStream(new BufferedInputStream(in))
+    private[this] var ended = false
+    /** Cycles elapsed since the previous record */
+    var delta = 0L
+    var register = 0
+    var value = 0
+
+    private[this] val magic = Array.ofDim[Byte](4)
+    din.readFully(magic)
+    if (new String(magic,"ISO-8859-1") != MAGIC) throw new IOException("Not a SID register log")
+    if (din.readUnsignedByte() != VERSION) throw new IOException("Unsupported SID register log version")
+    val clockHz : Int = din.readInt()
+    val model : Int = din.readUnsignedByte()
+
+    /**
+     * Reads the next write. Returns false at the end of the log: in that case delta holds the cycles to render
+     * after the last write.
+     */
+    def next() : Boolean = {
+      if (ended) return false
+      try {
+        var d = 0L
+        var shift = 0
+        var b = din.readUnsignedByte()
+        while ((b & 0x80) != 0) {
+          d |= (b & 0x7F).toLong << shift
+          shift += 7
+          b = din.readUnsignedByte()
+        }
+        delta = d | b.toLong << shift
+        register = din.readUnsignedByte()
+        if (register == END) {
+          ended = true
+          false
+        }
+        else {
+          value = din.readUnsignedByte()
+          true
+        }
+      }
+      catch {
+        case _:EOFException =>
+          // truncated log: nothing else to render
+          ended = true
+          delta = 0
+          false
+      }
+    }
+
+    def close() : Unit = din.close()
+  }
+}
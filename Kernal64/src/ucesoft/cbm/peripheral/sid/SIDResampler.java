@@ -0,0 +1,399 @@
+package ucesoft.cbm.peripheral.sid;
+
+/**
+ * Resampling stage between a SIDChip, clocked at the cpu frequency, and the audio driver.
+ * <p>
+ * NEAREST picks the chip output at the nearest cycle and relies on the chip block clocking.
+ * The other methods collect the chip output of every cycle in a ring buffer:
+ * LINEAR interpolates the two outputs around the sampling point, FIR convolves them with a
+ * Kaiser windowed sinc (the same filter used by resid's SAMPLE_RESAMPLE_INTERPOLATE), TWO_STAGE
+ * first decimates them by an integer factor with a short low pass filter and then resamples the
+ * intermediate signal with a much shorter windowed sinc.
+ */
+public abstract class SIDResampler {
+    public enum Mode {
+        NEAREST, LINEAR, FIR, TWO_STAGE
+    }
+
+    protected static final int FIXP_SHIFT = 16;
+    protected static final int FIXP_MASK = 0xFFFF;
+    protected static final int FIR_SHIFT = 15;
+    // 16 bits -> -96dB stopband attenuation
+    protected static final double STOPBAND_ATTENUATION = -20 * Math.log10(1.0 / (1 << 16));
+    // interpolated FIR table lookup error bounded by 1.234/L^2: L >= 285 for 16 bits
+    protected static final int FIR_RES = 285;
+    // the filter scaling is only included to avoid clipping
+    protected static final double FILTER_SCALE = 0.97;
+    protected static final int RINGSIZE = 16384;
+    protected static final int RINGMASK = RINGSIZE - 1;
+
+    protected final double clockFreq;
+    protected final double sampleFreq;
+    protected final double passFreq;
+    // 16.16 fixed point sampling position
+    protected int sample_offset;
+
+    protected SIDResampler(double clockFreq, double sampleFreq) {
+        this.clockFreq = clockFreq;
+        this.sampleFreq = sampleFreq;
+        // the default pass band limit is 0.9*sample_freq/2 for sample frequencies below ~ 44.1kHz, and 20kHz for higher sample frequencies.
+        double pass = 20000;
+        if (2 * pass / sampleFreq >= 0.9) {
+            pass = 0.9 * sampleFreq / 2;
+        }
+        passFreq = pass;
+    }
+
+    public static SIDResampler create(Mode mode, double clockFreq, double sampleFreq) {
+        switch (mode) {
+            case LINEAR:
+                return new Linear(clockFreq, sampleFreq);
+            case FIR:
+                return new FIR(clockFreq, sampleFreq);
+            case TWO_STAGE:
+                return new TwoStage(clockFreq, sampleFreq);
+            default:
+                return new Nearest(clockFreq, sampleFreq);
+        }
+    }
+
+    public abstract Mode getMode();
+
+    /**
+     * Clocks the given chip for the given number of cycles, storing the resampled output into buf.
+     *
+     * @param sid the chip to clock
+     * @param cycles the number of cycles to clock
+     * @param buf the destination buffer: it must have room for at least cycles / (cyclesPerSample >> 16) + 1 samples
+     * @param offset the index of buf where the first sample is stored
+     * @param cyclesPerSample the number of cycles per sample, 16.16 fixed point
+     * @return the number of samples stored into buf
+     */
+    public abstract int clock(SIDChip sid, int cycles, short[] buf, int offset, int cyclesPerSample);
+
+    public void reset() {
+        sample_offset = 0;
+    }
+
+    /**
+     * I0() computes the 0th order modified Bessel function of the first kind.
+     * This function is originally from resample-1.5/filterkit.c by J. O. Smith.
+     */
+    protected static double I0(double x) {
+        // Max error acceptable in I0.
+        final double I0e = 1e-6;
+        double sum, u, halfx, temp;
+        int n;
+
+        sum = u = n = 1;
+        halfx = x / 2.0;
+
+        do {
+            temp = halfx / n++;
+            u *= temp * temp;
+            sum += u;
+        } while (u >= I0e * sum);
+
+        return sum;
+    }
+
+    /**
+     * Builds res Kaiser windowed sinc tables of length N, each one shifted by 1/res of input sample, with the
+     * given cutoff (normalized to the input frequency, in radians) and the given DC gain.
+     * The tables are stored one after the other, so table i starts at i * N.
+     */
+    protected static short[] buildFIR(int N, int res, double wc, double gain) {
+        final double beta = 0.1102 * (STOPBAND_ATTENUATION - 8.7);
+        final double I0beta = I0(beta);
+        final short[] fir = new short[N * res];
+
+        for (int i = 0; i < res; i++) {
+            int fir_offset = i * N + N / 2;
+            double j_offset = (double) i / res;
+            for (int j = -N / 2; j <= N / 2; j++) {
+                double jx = j - j_offset;
+                double wt = wc * jx;
+                double temp = jx / (N / 2);
+                double kaiser = Math.abs(temp) <= 1 ? I0(beta * Math.sqrt(1 - temp * temp)) / I0beta : 0;
+                double sincwt = Math.abs(wt) >= 1e-6 ? Math.sin(wt) / wt : 1;
+                double val = (1 << FIR_SHIFT) * gain * wc / Math.PI * sincwt * kaiser;
+                fir[fir_offset + j] = (short) Math.round(val);
+            }
+        }
+        return fir;
+    }
+
+    /**
+     * @return the filter order needed to get the stopband attenuation with a transition band of dw radians
+     */
+    protected static int filterOrder(double dw) {
+        int N = (int) ((STOPBAND_ATTENUATION - 7.95) / (2.285 * dw) + 0.5);
+        return N + (N & 1);
+    }
+
+    protected static short saturate(int v) {
+        final int half = 1 << 15;
+        if (v >= half) {
+            return (short) (half - 1);
+        }
+        if (v < -half) {
+            return (short) -half;
+        }
+        return (short) v;
+    }
+
+    // ===================================================================================
+
+    /**
+     * Point sampling: the chip output at the nearest cycle.
+     */
+    static class Nearest extends SIDResampler {
+        Nearest(double clockFreq, double sampleFreq) {
+            super(clockFreq, sampleFreq);
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.NEAREST;
+        }
+
+        @Override
+        public int clock(SIDChip sid, int cycles, short[] buf, int offset, int cyclesPerSample) {
+            return sid.clock(cycles, buf, offset, cyclesPerSample);
+        }
+    }
+
+    /**
+     * Base class for the methods working on the chip output of every cycle. The output is kept in a
+     * ring buffer with overflow for contiguous storage of RINGSIZE samples.
+     */
+    abstract static class CycleResampler extends SIDResampler {
+        protected final short[] sample = new short[RINGSIZE * 2];
+        protected int sample_index;
+
+        CycleResampler(double clockFreq, double sampleFreq) {
+            super(clockFreq, sampleFreq);
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            java.util.Arrays.fill(sample, (short) 0);
+            sample_index = 0;
+        }
+
+        /**
+         * Clocks the chip for the given cycles, storing one sample per cycle in the ring buffer.
+         */
+        protected final void feed(SIDChip sid, int cycles) {
+            while (cycles > 0) {
+                final int n = Math.min(cycles, RINGSIZE - sample_index);
+                sid.clock(n, sample, sample_index, 1 << FIXP_SHIFT);
+                System.arraycopy(sample, sample_index, sample, sample_index + RINGSIZE, n);
+                sample_index = (sample_index + n) & RINGMASK;
+                cycles -= n;
+            }
+        }
+
+        /**
+         * @return the output sample at fraction sample_offset of the last cycle
+         */
+        protected abstract short output();
+
+        @Override
+        public int clock(SIDChip sid, int cycles, short[] buf, int offset, int cyclesPerSample) {
+            int s = offset;
+            for (;;) {
+                final int next_sample_offset = sample_offset + cyclesPerSample;
+                final int delta_t_sample = next_sample_offset >> FIXP_SHIFT;
+                if (delta_t_sample > cycles) {
+                    break;
+                }
+                feed(sid, delta_t_sample);
+                cycles -= delta_t_sample;
+                sample_offset = next_sample_offset & FIXP_MASK;
+                buf[s++] = output();
+            }
+            feed(sid, cycles);
+            sample_offset -= cycles << FIXP_SHIFT;
+            return s - offset;
+        }
+    }
+
+    /**
+     * Linear interpolation between the last two cycles.
+     */
+    static class Linear extends CycleResampler {
+        Linear(double clockFreq, double sampleFreq) {
+            super(clockFreq, sampleFreq);
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.LINEAR;
+        }
+
+        @Override
+        protected short output() {
+            final int now = sample[sample_index - 1 + RINGSIZE];
+            final int prev = sample[sample_index - 2 + RINGSIZE];
+            // in 64 bits: a 16 bits fraction times a 17 bits difference overflows 32 bits
+            return (short) (prev + ((long) sample_offset * (now - prev) >> FIXP_SHIFT));
+        }
+    }
+
+    /**
+     * Polyphase FIR resampling with linear interpolation between adjacent phases.
+     */
+    static class FIR extends CycleResampler {
+        private final int fir_N;
+        private final int fir_RES;
+        private final short[] fir;
+
+        FIR(double clockFreq, double sampleFreq) {
+            super(clockFreq, sampleFreq);
+            final double f_cycles_per_sample = clockFreq / sampleFreq;
+            // A fraction of the bandwidth is allocated to the transition band, the cutoff frequency is midway through it.
+            final double dw = (1 - 2 * passFreq / sampleFreq) * Math.PI;
+            final double wc = (2 * passFreq / sampleFreq + 1) * Math.PI / 2;
+            final int N = filterOrder(dw);
+            fir_N = ((int) (N * f_cycles_per_sample) + 1) | 1;
+            // We clamp the filter table resolution to 2^n, making the fixpoint sample_offset a whole multiple of the filter table resolution.
+            fir_RES = 1 << (int) Math.ceil(Math.log(FIR_RES / f_cycles_per_sample) / Math.log(2));
+            fir = buildFIR(fir_N, fir_RES, wc / f_cycles_per_sample, FILTER_SCALE);
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.FIR;
+        }
+
+        @Override
+        protected short output() {
+            return interpolate(sample, sample_index, sample_offset, fir, fir_N, fir_RES);
+        }
+    }
+
+    /**
+     * Convolution of the samples ending at sample_index with the two FIR tables around sample_offset, linearly interpolated.
+     */
+    protected static short interpolate(short[] sample, int sample_index, int sample_offset, short[] fir, int fir_N, int fir_RES) {
+        int fir_offset = sample_offset * fir_RES >> FIXP_SHIFT;
+        final int fir_offset_rmd = sample_offset * fir_RES & FIXP_MASK;
+        int fir_start = fir_offset * fir_N;
+        // One sample older than the newest: the next FIR table may need the next sample.
+        int sample_start = sample_index - fir_N - 1 + RINGSIZE;
+
+        // Convolution with filter impulse response.
+        final int v1 = FIRKernel.convolve(sample, sample_start, fir, fir_start, fir_N);
+
+        // Use next FIR table, wrap around to first FIR table using next sample: the last table is followed by the
+        // first one centered one sample later.
+        if (++fir_offset == fir_RES) {
+            fir_offset = 0;
+            ++sample_start;
+        }
+        fir_start = fir_offset * fir_N;
+
+        // Convolution with filter impulse response.
+        final int v2 = FIRKernel.convolve(sample, sample_start, fir, fir_start, fir_N);
+
+        // Linear interpolation, in 64 bits: the product overflows 32 bits as soon as the two tables differ by more than
+        // one output bit.
+        final int v = v1 + (int) ((long) fir_offset_rmd * (v2 - v1) >> FIXP_SHIFT);
+        return saturate(v >> FIR_SHIFT);
+    }
+
+    /**
+     * Two stage resampling: the cycle samples are decimated by an integer factor to an intermediate
+     * frequency near the optimal one found by Laurent Ganier:
+     * 2 * pass_freq + sqrt [ 2 * pass_freq * orig_sample_freq * (dest_sample_freq - 2 * pass_freq) / dest_sample_freq ]
+     * The first stage only has to attenuate the frequencies that would alias into the pass band, so its
+     * transition band is very wide and the filter very short. The second stage works at the intermediate
+     * frequency, so its filter is shorter by the decimation factor.
+     */
+    static class TwoStage extends CycleResampler {
+        private final int decimation;
+        private final int dec_N;
+        private final short[] dec_fir;
+        private final int fir_N;
+        private final int fir_RES;
+        private final short[] fir;
+        // intermediate ring buffer with overflow
+        private final short[] inter = new short[RINGSIZE * 2];
+        private int inter_index;
+        // cycles since the last intermediate sample
+        private int dec_phase;
+        // 16.16 cycles from the last intermediate sample to the next output sample
+        private int next_offset;
+
+        TwoStage(double clockFreq, double sampleFreq) {
+            super(clockFreq, sampleFreq);
+            final double optimal = 2 * passFreq + Math.sqrt(2 * passFreq * clockFreq * (sampleFreq - 2 * passFreq) / sampleFreq);
+            decimation = Math.max(1, (int) (clockFreq / optimal));
+            final double interFreq = clockFreq / decimation;
+            // 1st stage: pass band up to pass_freq, stop band from interFreq - pass_freq
+            final double dw1 = 2 * Math.PI * (interFreq - 2 * passFreq) / clockFreq;
+            final double wc1 = Math.PI * interFreq / clockFreq;
+            dec_N = (filterOrder(dw1) + 1) | 1;
+            dec_fir = buildFIR(dec_N, 1, wc1, 1);
+            // 2nd stage: like FIR, working at the intermediate frequency
+            final double f_inter_per_sample = interFreq / sampleFreq;
+            final double dw = (1 - 2 * passFreq / sampleFreq) * Math.PI;
+            final double wc = (2 * passFreq / sampleFreq + 1) * Math.PI / 2;
+            final int N = filterOrder(dw);
+            fir_N = ((int) (N * f_inter_per_sample) + 1) | 1;
+            fir_RES = 1 << (int) Math.ceil(Math.log(FIR_RES / f_inter_per_sample) / Math.log(2));
+            fir = buildFIR(fir_N, fir_RES, wc / f_inter_per_sample, FILTER_SCALE);
+            next_offset = decimation << FIXP_SHIFT;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.TWO_STAGE;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            java.util.Arrays.fill(inter, (short) 0);
+            inter_index = 0;
+            dec_phase = 0;
+            next_offset = decimation << FIXP_SHIFT;
+        }
+
+        @Override
+        protected short output() {
+            return interpolate(inter, inter_index, sample_offset, fir, fir_N, fir_RES);
+        }
+
+        @Override
+        public int clock(SIDChip sid, int cycles, short[] buf, int offset, int cyclesPerSample) {
+            int s = offset;
+            while (cycles > 0) {
+                final int n = Math.min(cycles, decimation - dec_phase);
+                feed(sid, n);
+                cycles -= n;
+                dec_phase += n;
+                if (dec_phase < decimation) {
+                    break;
+                }
+                dec_phase = 0;
+                // 1st stage
+                final int sample_start = sample_index - dec_N + RINGSIZE;
+                final int v = FIRKernel.convolve(sample, sample_start, dec_fir, 0, dec_N);
+                inter[inter_index] = inter[inter_index + RINGSIZE] = saturate(v >> FIR_SHIFT);
+                inter_index = (inter_index + 1) & RINGMASK;
+                // 2nd stage: the position of the next output sample is kept in cycles, so that the step isn't rounded
+                // and a step changed between two calls can't make it pass over the sampling point
+                next_offset -= decimation << FIXP_SHIFT;
+                if (next_offset < decimation << FIXP_SHIFT) {
+                    sample_offset = next_offset / decimation;
+                    buf[s++] = output();
+                    next_offset += cyclesPerSample;
+                }
+            }
+            return s - offset;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import ucesoft.cbm.Tickable
+import ucesoft.cbm.peripheral.sid.resid.ISIDDefs
+import ucesoft.cbm.peripheral.sid.resid.{SID => RESID}
+import ucesoft.cbm.peripheral.sid.resid4.{SID => RESID4}
+import ucesoft.cbm.peripheral.sid.{SIDChip, SIDResampler}
+
+object ChipRenderer {
+  private final val BLOCK_CYCLES = 20000
+
+  /**
+   * Creates a renderer for the given engine: resid4 with the given resampling method, or resid with its equivalent
+   * native sampling method.
+   */
+  def create(engine:String,model:Int,resampling:SIDResampler.Mode,clockHz:Int,sampleRate:Int)(sink:(Array[Short],Int) => Unit) : ChipRenderer = {
+    engine match {
+      case "resid" =>
+        // resid uses its own sampling methods and is sampled by its block clock
+        val sid = new RESID
+        val method = resampling match {
+          case SIDResampler.Mode.NEAREST => ISIDDefs.sampling_method.SAMPLE_FAST
+          case SIDResampler.Mode.LINEAR => ISIDDefs.sampling_method.SAMPLE_INTERPOLATE
+          case SIDResampler.Mode.FIR => ISIDDefs.sampling_method.SAMPLE_RESAMPLE_INTERPOLATE
+          case SIDResampler.Mode.TWO_STAGE => ISIDDefs.sampling_method.SAMPLE_RESAMPLE_TWO_STAGE
+        }
+        sid.set_sampling_parameters(clockHz,method,sampleRate,-1,0.97)
+        sid.setModel(model)
+        new ChipRenderer(sid,SIDResampler.create(SIDResampler.Mode.NEAREST,clockHz,sampleRate),clockHz,sampleRate,sink)
+      case _ =>
+        val renderer = new ChipRenderer(null,SIDResampler.create(resampling,clockHz,sampleRate),clockHz,sampleRate,sink)
+        val sid = new RESID4(renderer)
+        sid.setModel(model)
+        renderer.chip = sid
+        renderer
+    }
+  }
+}
+
+/**
+ * Clocks a chip up to the requested cycle, passing the resampled output to sink.
+ * The chip's clock is the renderer: chips are accessed only after a catchUp to the current cycle.
+ */
+class ChipRenderer(var chip:SIDChip,resampler:SIDResampler,clockHz:Int,sampleRate:Int,sink:(Array[Short],Int) => Unit) extends Tickable {
+  import ChipRenderer._
+  private[this] val step = ((clockHz.toLong << 16) / sampleRate).toInt
+  private[this] val buffer = Array.ofDim[Short](BLOCK_CYCLES / (step >> 16) + 2)
+  private[this] var renderedCycles = 0L
+  private[this] var samples = 0L
+
+  override def currentCycles(): Long = renderedCycles
+  def getSamples : Long = samples
+
+  final def catchUp(cycle:Long) : Unit = {
+    while (renderedCycles < cycle) {
+      val cycles = math.min(cycle - renderedCycles,BLOCK_CYCLES).toInt
+      val n = resampler.clock(chip,cycles,buffer,0,step)
+      sink(buffer,n)
+      samples += n
+      renderedCycles += cycles
+    }
+  }
+}
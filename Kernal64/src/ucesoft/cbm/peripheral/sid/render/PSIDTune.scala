@@ -0,0 +1,69 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import java.io.{File, IOException}
+import java.nio.file.Files
+
+object PSIDTune {
+  def isTune(file:File) : Boolean = {
+    val in = new java.io.FileInputStream(file)
+    try {
+      val magic = Array.ofDim[Byte](4)
+      in.read(magic) == 4 && (new String(magic,"ISO-8859-1") == "PSID" || new String(magic,"ISO-8859-1") == "RSID")
+    }
+    finally {
+      in.close()
+    }
+  }
+
+  def load(file:File) : PSIDTune = new PSIDTune(file.getName,Files.readAllBytes(file.toPath))
+}
+
+/**
+ * PSID/RSID file header and payload.
+ */
+class PSIDTune(val fileName:String,bytes:Array[Byte]) {
+  private def byte(ofs:Int) : Int = if (ofs < bytes.length) bytes(ofs) & 0xFF else 0
+  private def word(ofs:Int) : Int = byte(ofs) << 8 | byte(ofs + 1)
+  private def string(ofs:Int) : String = new String(bytes,ofs,32,"ISO-8859-1").takeWhile(_ != 0).trim
+
+  if (bytes.length < 0x76) throw new IOException(s"$fileName: invalid SID file")
+
+  val magic : String = new String(bytes,0,4,"ISO-8859-1")
+  if (magic != "PSID" && magic != "RSID") throw new IOException(s"$fileName: invalid SID file")
+
+  val isRSID : Boolean = magic == "RSID"
+  val version : Int = word(4)
+  private val dataOffset = word(6)
+  private val headerLoadAddress = word(8)
+  val loadAddress : Int = if (headerLoadAddress != 0) headerLoadAddress else byte(dataOffset) | byte(dataOffset + 1) << 8
+  val initAddress : Int = if (word(0x0A) != 0) word(0x0A) else loadAddress
+  val playAddress : Int = word(0x0C)
+  val songs : Int = math.max(1,word(0x0E))
+  val startSong : Int = if (word(0x10) == 0) 1 else word(0x10)
+  private val speed = word(0x12) << 16 | word(0x14)
+  val name : String = string(0x16)
+  val author : String = string(0x36)
+  val released : String = string(0x56)
+  private val flags = if (version >= 2) word(0x76) else 0
+  val isNTSC : Boolean = ((flags >> 2) & 3) == 2
+  /** 0 = 6581, 1 = 8580, -1 = unknown */
+  val model : Int = (flags >> 4) & 3 match {
+    case 1 => 0
+    case 2 => 1
+    case _ => -1
+  }
+  val startPage : Int = if (version >= 2) byte(0x78) else 0
+  val pageLength : Int = if (version >= 2) byte(0x79) else 0
+  val data : Array[Byte] = {
+    val start = if (headerLoadAddress != 0) dataOffset else dataOffset + 2
+    java.util.Arrays.copyOfRange(bytes,start,bytes.length)
+  }
+  val endAddress : Int = loadAddress + data.length
+
+  /**
+   * True if the play routine of the given song (1 based) must be called at the CIA timer rate instead of the vertical blank.
+   */
+  def isCIASpeed(song:Int) : Boolean = (speed >> (math.min(song,32) - 1) & 1) == 1
+
+  override def toString = s"$name ($author, $released)"
+}
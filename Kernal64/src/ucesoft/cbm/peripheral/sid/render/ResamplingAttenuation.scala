@@ -0,0 +1,210 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.peripheral.sid.resid.{ISIDDefs, SID => RESID}
+
+import java.util.Properties
+
+/**
+ * Measures the stopband attenuation of resid's resampling methods: a stopband tone is fed to the resampler in place
+ * of the chip output, together with a pass band tone of the same amplitude, and the highest peak of the output
+ * pass band away from the pass band tone is compared with the tones' amplitude. The filters let the aliases land in
+ * the transition band, between the pass band and half the sample rate, so that is not searched.
+ *
+ * The stopband tones sweep from sample rate - pass band, the first frequency that aliases into the pass band, up to
+ * the given maximum frequency. The pass band tone keeps the resampler's quantizers busy, as music does: alone, an
+ * aliased tone below one bit would be rounded away or turned into a square wave. The spectrum is a Kaiser windowed
+ * FFT, whose side lobes are far below the 16 bits resolution of the output, so the quantization noise spreads over
+ * the bins and the aliased tones emerge from it.
+ */
+object ResamplingAttenuation {
+  private final val METHODS = List(
+    "interpolate" -> ISIDDefs.sampling_method.SAMPLE_RESAMPLE_INTERPOLATE,
+    "two-stage" -> ISIDDefs.sampling_method.SAMPLE_RESAMPLE_TWO_STAGE
+  )
+  private final val FFT_SIZE = 8192
+  // output samples skipped while the filters fill up
+  private final val SETTLE_SAMPLES = 4096
+  private final val WINDOW_BETA = 14.5
+  private final val FILTER_SCALE = 0.97
+  // the peaks below this frequency are the dc offset of the output
+  private final val MIN_PEAK_FREQ = 20.0
+  // bins around the pass band tone that are not searched for peaks: the main lobe of the window
+  private final val TONE_BINS = 8
+
+  /**
+   * A chip whose output is the sum of two sines, the pass band tone and the given one, of the same amplitude.
+   */
+  private class ToneSID(clockHz:Double,amplitude:Double,passTone:Double) extends RESID {
+    private[this] val passStep = 2 * math.Pi * passTone / clockHz
+    private[this] var passPhase, phase = 0.0
+    private[this] var phaseStep = 0.0
+
+    def setTone(freq:Double) : Unit = {
+      passPhase = 0
+      phase = 0
+      phaseStep = 2 * math.Pi * freq / clockHz
+    }
+
+    override def clock() : Unit = {
+      passPhase += passStep
+      if (passPhase > 2 * math.Pi) passPhase -= 2 * math.Pi
+      phase += phaseStep
+      if (phase > 2 * math.Pi) phase -= 2 * math.Pi
+    }
+
+    override def output() : Int = math.round(amplitude * (math.sin(passPhase) + math.sin(phase))).toInt
+  }
+
+  private def bessel0(x:Double) : Double = {
+    var sum = 1.0
+    var u = 1.0
+    var n = 1
+    while (u > sum * 1e-12) {
+      val half = x / (2 * n)
+      u *= half * half
+      sum += u
+      n += 1
+    }
+    sum
+  }
+
+  private val window = Array.tabulate(FFT_SIZE) { i =>
+    val t = 2.0 * i / (FFT_SIZE - 1) - 1
+    bessel0(WINDOW_BETA * math.sqrt(1 - t * t)) / bessel0(WINDOW_BETA)
+  }
+  private val windowSum = window.sum
+
+  /**
+   * Amplitude spectrum of the windowed samples, bins 0 .. FFT_SIZE / 2, scaled so that a sine of amplitude a has a
+   * peak of a.
+   */
+  private def spectrum(samples:Array[Short]) : Array[Double] = {
+    val re = Array.tabulate(FFT_SIZE)(i => samples(i) * window(i))
+    val im = Array.ofDim[Double](FFT_SIZE)
+    // bit reversal
+    var j = 0
+    for (i <- 1 until FFT_SIZE) {
+      var bit = FFT_SIZE >> 1
+      while ((j & bit) != 0) {
+        j ^= bit
+        bit >>= 1
+      }
+      j |= bit
+      if (i < j) {
+        val tr = re(i); re(i) = re(j); re(j) = tr
+        val ti = im(i); im(i) = im(j); im(j) = ti
+      }
+    }
+    var len = 2
+    while (len <= FFT_SIZE) {
+      val angle = -2 * math.Pi / len
+      for (start <- 0 until FFT_SIZE by len; k <- 0 until len / 2) {
+        val wr = math.cos(angle * k)
+        val wi = math.sin(angle * k)
+        val a = start + k
+        val b = a + len / 2
+        val xr = re(b) * wr - im(b) * wi
+        val xi = re(b) * wi + im(b) * wr
+        re(b) = re(a) - xr
+        im(b) = im(a) - xi
+        re(a) += xr
+        im(a) += xi
+      }
+      len <<= 1
+    }
+    Array.tabulate(FFT_SIZE / 2 + 1)(k => 2 * math.hypot(re(k),im(k)) / windowSum)
+  }
+
+  /**
+   * Resamples a tone and returns the output spectrum.
+   */
+  private def resample(sid:ToneSID,freq:Double) : Array[Double] = {
+    sid.setTone(freq)
+    val samples = Array.ofDim[Short](SETTLE_SAMPLES + FFT_SIZE)
+    val block = Array.ofDim[Short](1024)
+    val delta = new sid.CycleCount(0)
+    var n = 0
+    while (n < samples.length) {
+      delta.delta_t = 10000
+      while (delta.delta_t > 0) {
+        val s = math.min(sid.clock(delta,block,block.length,1),samples.length - n)
+        System.arraycopy(block,0,samples,n,s)
+        n += s
+      }
+    }
+    spectrum(samples.drop(SETTLE_SAMPLES))
+  }
+
+  /**
+   * Returns the bin of the highest peak of the pass band, skipping the dc offset and the pass band tone.
+   */
+  private def peakBin(spec:Array[Double],sampleRate:Int,passFreq:Double,passTone:Int) : Int = {
+    val minBin = math.ceil(MIN_PEAK_FREQ * FFT_SIZE / sampleRate).toInt
+    val maxBin = math.floor(passFreq * FFT_SIZE / sampleRate).toInt
+    val toneBin = math.round(passTone.toDouble * FFT_SIZE / sampleRate).toInt
+    var best = -1
+    for (k <- minBin to maxBin if math.abs(k - toneBin) > TONE_BINS) if (best == -1 || spec(k) > spec(best)) best = k
+    best
+  }
+
+  private def db(ratio:Double) : Double = 20 * math.log10(math.max(ratio,1e-12))
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var clockHz = 985248
+    var sampleRate = 44100
+    var step = 500
+    var maxFreq = 0
+    var passTone = 997
+
+    settings.add("clock","Chip clock frequency",985248) { clockHz = _ }
+    settings.add("rate","Output sample rate",44100) { sampleRate = _ }
+    settings.add("step","Frequency step of the stopband sweep, in Hz",500) { step = _ }
+    settings.add("max-freq","Highest tone of the sweep, in Hz: 0 for half the clock frequency",0) { maxFreq = _ }
+    settings.add("pass-tone","Frequency of the pass band tone, in Hz",997) { passTone = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"ResamplingAttenuation ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    // the two tones together reach 90% of the full scale
+    val amplitude = 0.45 * 32767
+    // the default pass band of set_sampling_parameters
+    val passFreq = if (2 * 20000.0 / sampleRate >= 0.9) 0.9 * sampleRate / 2 else 20000.0
+    val stopFreq = sampleRate - passFreq
+    val lastFreq = if (maxFreq > 0) maxFreq else clockHz / 2
+    println("clock %d Hz, sample rate %d Hz, pass band %.0f Hz, stopband sweep %.0f - %d Hz, step %d Hz".format(clockHz,sampleRate,passFreq,stopFreq,lastFreq,step))
+
+    for ((name,method) <- METHODS) {
+      val sid = new ToneSID(clockHz,amplitude,passTone)
+      if (!sid.set_sampling_parameters(clockHz,method,sampleRate,-1,FILTER_SCALE)) {
+        println(s"$name: sampling parameters not supported")
+      }
+      else {
+        val start = System.nanoTime()
+        // a tone of 0 Hz is silent: the pass band tone alone
+        val passPeak = resample(sid,0).max
+        var worst = 0.0
+        var worstTone, worstAlias = 0.0
+        var freq = stopFreq
+        while (freq <= lastFreq) {
+          val spec = resample(sid,freq)
+          val k = peakBin(spec,sampleRate,passFreq,passTone)
+          if (spec(k) > worst) {
+            worst = spec(k)
+            worstTone = freq
+            worstAlias = k.toDouble * sampleRate / FFT_SIZE
+          }
+          freq += step
+        }
+        val elapsed = (System.nanoTime() - start) / 1e9
+        println("%-11s pass band gain %6.2f dB, worst stopband attenuation %6.1f dB (tone %.0f Hz aliased to %.0f Hz), %.1fs".format(
+          name,db(passPeak / amplitude),-db(worst / amplitude),worstTone,worstAlias,elapsed))
+      }
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import ucesoft.cbm.cpu.{CPU6510_CE, Memory}
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.peripheral.sid.{SIDRegisterLog, SIDResampler}
+import ucesoft.cbm.ChipID
+
+import java.io.{File, FileInputStream}
+import java.util.Properties
+import java.util.concurrent.{Callable, ExecutorCompletionService, Executors}
+
+/**
+ * Headless SID renderer: renders PSID tunes and SID register logs to WAV files without a full machine.
+ *
+ * Register logs drive the chip directly. PSID tunes run on a 6510 (CPU6510_CE) over 64K of flat RAM with the SID
+ * mapped at $D400: a small driver calls the init routine and then the play routine every frame (or CIA timer period).
+ * There are no ROMs and no interrupts, so RSID tunes and tunes without a play address are not supported.
+ * Jobs (files and subtunes) are rendered in parallel on a thread pool.
+ */
+object SIDRenderer {
+  final val PAL_CLOCK_HZ = 985248
+  final val NTSC_CLOCK_HZ = 1022730
+  private final val PAL_FRAME_CYCLES = 312 * 63
+  private final val NTSC_FRAME_CYCLES = 263 * 65
+  private final val PAL_CIA_TIMER = 0x4025
+  private final val NTSC_CIA_TIMER = 0x4295
+
+  case class Settings(chip:String,model:String,resampling:SIDResampler.Mode,sampleRate:Int,seconds:Int,outDir:File)
+
+  case class JobResult(name:String,clockHz:Int,cycles:Long,samples:Long,nanos:Long,error:Option[String] = None) {
+    override def toString: String = error match {
+      case Some(e) =>
+        s"$name: $e"
+      case None =>
+        val emulated = cycles.toDouble / clockHz
+        val wall = nanos / 1e9
+        "%-48s %7.1fs in %8.1fms %8.1fx realtime %8.1f ksamples/s".format(name,emulated,nanos / 1e6,emulated / wall,samples / wall / 1000)
+    }
+  }
+
+  private class CycleCounter {
+    var cycles = 0L
+  }
+
+  private def createRenderer(settings:Settings,model:Int,clockHz:Int,out:WAVWriter) : ChipRenderer = {
+    val chipModel = settings.model match {
+      case "6581" => 0
+      case "8580" => 1
+      case _ => if (model == 1) 1 else 0
+    }
+    ChipRenderer.create(settings.chip,chipModel,settings.resampling,clockHz,settings.sampleRate)(out.write)
+  }
+
+  // ============================== Register log ======================================
+
+  private def renderLog(file:File,settings:Settings) : JobResult = {
+    val name = file.getName
+    val log = new SIDRegisterLog.Reader(new FileInputStream(file))
+    val out = new WAVWriter(new File(settings.outDir,baseName(name) + ".wav"),settings.sampleRate)
+    val renderer = createRenderer(settings,log.model,log.clockHz,out)
+    val start = System.nanoTime()
+    try {
+      val cycles = SIDReplay.replay(log,renderer)
+      JobResult(name,log.clockHz,cycles,renderer.getSamples,System.nanoTime() - start)
+    }
+    finally {
+      log.close()
+      out.close()
+    }
+  }
+
+  // ============================== PSID tune =========================================
+
+  /**
+   * 64K of flat RAM with the SID visible at $D400-$D7FF when the I/O area is banked in.
+   */
+  private class TuneMemory(renderer:ChipRenderer,counter:CycleCounter) extends Memory {
+    override val isRom = false
+    override val length = 0x10000
+    override val startAddress = 0
+    override val name = "TuneRAM"
+    val ram : Array[Int] = Array.ofDim[Int](0x10000)
+
+    override def init(): Unit = {}
+    override def isActive = true
+
+    @inline private def isSID(address:Int) : Boolean = (address & 0xFC00) == 0xD400 && (ram(1) & 3) != 0 && (ram(1) & 4) != 0
+
+    override def read(address: Int, chipID: ChipID.ID): Int = {
+      if (isSID(address)) {
+        renderer.catchUp(counter.cycles)
+        renderer.chip.read(address & 0x1F)
+      }
+      else ram(address)
+    }
+
+    override def write(address: Int, value: Int, chipID: ChipID.ID): Unit = {
+      if (isSID(address)) {
+        renderer.catchUp(counter.cycles)
+        renderer.chip.write(address & 0x1F,value)
+      }
+      else ram(address) = value
+    }
+  }
+
+  private def driverAddress(tune:PSIDTune) : Int = {
+    val DRIVER_SIZE = 18
+    def free(address:Int) = address + DRIVER_SIZE <= tune.loadAddress || address >= tune.endAddress
+    if (tune.startPage > 0 && tune.startPage < 0xFF && tune.pageLength > 0) tune.startPage << 8
+    else List(0x0334,0xCF00,0x0200,0xFF00).find(free) match {
+      case Some(address) => address
+      case None => throw new IllegalArgumentException("no free memory for the driver")
+    }
+  }
+
+  private def renderTune(file:File,song:Int,settings:Settings) : JobResult = {
+    val tune = PSIDTune.load(file)
+    val name = s"${file.getName}#$song"
+    if (tune.isRSID) return JobResult(name,0,0,0,0,Some("RSID tunes need a full machine"))
+    if (tune.playAddress == 0) return JobResult(name,0,0,0,0,Some("tunes without a play address are not supported"))
+
+    val clockHz = if (tune.isNTSC) NTSC_CLOCK_HZ else PAL_CLOCK_HZ
+    val out = new WAVWriter(new File(settings.outDir,s"${baseName(file.getName)}-$song.wav"),settings.sampleRate)
+    val counter = new CycleCounter
+    val renderer = createRenderer(settings,tune.model,clockHz,out)
+    val mem = new TuneMemory(renderer,counter)
+    val ram = mem.ram
+    for (i <- tune.data.indices if tune.loadAddress + i < 0x10000) ram(tune.loadAddress + i) = tune.data(i) & 0xFF
+    ram(0) = 0x2F
+    ram(1) = 0x37
+    // driver: SEI, LDX #$FF, TXS, LDA #song-1, JSR init, JMP idle, call: JSR play, idle: JMP idle
+    val driver = driverAddress(tune)
+    val call = driver + 12
+    val idle = driver + 15
+    val code = Array(0x78,0xA2,0xFF,0x9A,0xA9,song - 1,0x20,tune.initAddress & 0xFF,tune.initAddress >> 8,0x4C,idle & 0xFF,idle >> 8,
+                     0x20,tune.playAddress & 0xFF,tune.playAddress >> 8,0x4C,idle & 0xFF,idle >> 8)
+    System.arraycopy(code,0,ram,driver,code.length)
+
+    val cpu = new CPU6510_CE(mem,ChipID.CPU)
+    cpu.init()
+    cpu.jmpTo(driver)
+
+    val totalCycles = settings.seconds.toLong * clockHz
+    // init routines that never return are abandoned after 2 seconds
+    val initMaxCycles = 2L * clockHz
+    var initialized = false
+    var busy = true
+    var period = if (tune.isNTSC) NTSC_FRAME_CYCLES else PAL_FRAME_CYCLES
+    var nextCall = 0L
+    val start = System.nanoTime()
+    try {
+      while (counter.cycles < totalCycles) {
+        if (busy) {
+          cpu.fetchAndExecute(1)
+          counter.cycles += 1
+          if (cpu.getCurrentInstructionPC == idle) busy = false
+          else if (!initialized && counter.cycles >= initMaxCycles) busy = false
+          if (!busy && !initialized) {
+            initialized = true
+            nextCall = counter.cycles
+            if (tune.isCIASpeed(song)) {
+              val timer = ram(0xDC04) | ram(0xDC05) << 8
+              period = (if (timer != 0) timer else if (tune.isNTSC) NTSC_CIA_TIMER else PAL_CIA_TIMER) + 1
+            }
+          }
+        }
+        else if (counter.cycles >= nextCall) {
+          cpu.jmpTo(call)
+          busy = true
+          nextCall += period
+        }
+        else counter.cycles = math.min(nextCall,totalCycles)
+      }
+      renderer.catchUp(totalCycles)
+      JobResult(name,clockHz,totalCycles,renderer.getSamples,System.nanoTime() - start)
+    }
+    catch {
+      case j:ucesoft.cbm.cpu.CPU65xx.CPUJammedException =>
+        JobResult(name,clockHz,counter.cycles,renderer.getSamples,System.nanoTime() - start,Some(s"CPU jammed at ${Integer.toHexString(j.pcError)}"))
+    }
+    finally {
+      out.close()
+    }
+  }
+
+  private def baseName(fileName:String) : String = fileName.lastIndexOf('.') match {
+    case -1 => fileName
+    case i => fileName.substring(0,i)
+  }
+
+  /**
+   * Renders the given files in parallel, calling resultListener as each job completes.
+   * Subtunes can be "default", "all" or a comma separated list of subtune numbers.
+   */
+  def render(files:List[File],subtunes:String,settings:Settings,threads:Int)(resultListener:JobResult => Unit) : Unit = {
+    val jobs : List[(String,() => JobResult)] = files.flatMap { file =>
+      if (SIDRegisterLog.isLog(file)) List((file.getName,() => renderLog(file,settings)))
+      else if (PSIDTune.isTune(file)) {
+        val tune = PSIDTune.load(file)
+        val songs = subtunes match {
+          case "default" => List(tune.startSong)
+          case "all" => (1 to tune.songs).toList
+          case list => list.split(",").map(_.trim.toInt).filter(s => s >= 1 && s <= tune.songs).toList
+        }
+        songs.map(song => (s"${file.getName}#$song",() => renderTune(file,song,settings)))
+      }
+      else {
+        resultListener(JobResult(file.getName,0,0,0,0,Some("unknown file format")))
+        Nil
+      }
+    }
+    val pool = Executors.newFixedThreadPool(threads)
+    try {
+      val completion = new ExecutorCompletionService[JobResult](pool)
+      for ((name,job) <- jobs) completion.submit(new Callable[JobResult] {
+        override def call(): JobResult = {
+          try job()
+          catch {
+            case t:Throwable =>
+              JobResult(name,0,0,0,0,Some(t.toString))
+          }
+        }
+      })
+      for (_ <- jobs) resultListener(completion.take().get())
+    }
+    finally {
+      pool.shutdown()
+    }
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var chip = "resid4"
+    var model = "auto"
+    var resampling = SIDResampler.Mode.NEAREST
+    var sampleRate = 44100
+    var seconds = 180
+    var subtunes = "default"
+    var threads = Runtime.getRuntime.availableProcessors()
+    var outDir = new File(".")
+
+    settings.add("chip","SID emulation engine: resid4 or resid","resid4",Set("resid4","resid")) { chip = _ }
+    settings.add("model","SID model: auto (from the file), 6581 or 8580","auto",Set("auto","6581","8580")) { model = _ }
+    settings.add("resampling","Resampling method: nearest, linear, fir or two-stage","nearest",Set("nearest","linear","fir","two-stage")) { r =>
+      resampling = r match {
+        case "linear" => SIDResampler.Mode.LINEAR
+        case "fir" => SIDResampler.Mode.FIR
+        case "two-stage" => SIDResampler.Mode.TWO_STAGE
+        case _ => SIDResampler.Mode.NEAREST
+      }
+    }
+    settings.add("rate","Output sample rate",44100) { sampleRate = _ }
+    settings.add("seconds","Length of each rendered tune in seconds",180) { seconds = _ }
+    settings.add("subtunes","Subtunes to render: default, all or a comma separated list","default") { subtunes = _ }
+    settings.add("threads","Number of rendering threads",threads) { threads = _ }
+    settings.add("out","Output directory",".") { dir => outDir = new File(dir) }
+
+    if (settings.checkForHelp(args) || args.length == 0) {
+      println(s"SIDRenderer ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("sid tunes and/or sid register logs")
+      sys.exit(0)
+    }
+
+    val files = settings.parseAndLoad(args,new Properties) match {
+      case Some(first) =>
+        args.drop(args.indexOf(first)).map(new File(_)).toList
+      case None =>
+        println("No files to render")
+        sys.exit(1)
+    }
+    for (f <- files if !f.isFile) {
+      println(s"File $f not found")
+      sys.exit(1)
+    }
+    outDir.mkdirs()
+
+    val renderSettings = Settings(chip,model,resampling,sampleRate,seconds,outDir)
+    var totalSeconds = 0.0
+    var totalSamples = 0L
+    val start = System.nanoTime()
+    render(files,subtunes,renderSettings,threads) { result =>
+      println(result)
+      if (result.error.isEmpty) {
+        totalSeconds += result.cycles.toDouble / result.clockHz
+        totalSamples += result.samples
+      }
+    }
+    val wall = (System.nanoTime() - start) / 1e9
+    println("Total: %.1fs rendered in %.1fs, %.1fx realtime, %.1f ksamples/s on %d threads".format(totalSeconds,wall,totalSeconds / wall,totalSamples / wall / 1000,threads))
+  }
+}
@@ -0,0 +1,103 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.peripheral.sid.{SIDRegisterLog, SIDResampler}
+
+import java.io.{ByteArrayInputStream, File}
+import java.nio.file.Files
+import java.util.Properties
+
+/**
+ * Replays SID register logs at maximum speed.
+ *
+ * The main entry point replays a log on one or more engines and prints, for each of them, the replay speed and a
+ * checksum of the produced samples: a changed checksum on the same engine means a changed output.
+ */
+object SIDReplay {
+  /**
+   * Feeds the writes of log to the renderer's chip, rendering the cycles between them. Returns the cycles replayed.
+   */
+  def replay(log:SIDRegisterLog.Reader,renderer:ChipRenderer) : Long = {
+    var cycles = 0L
+    while (log.next()) {
+      cycles += log.delta
+      renderer.catchUp(cycles)
+      renderer.chip.write(log.register,log.value)
+    }
+    cycles += log.delta
+    renderer.catchUp(cycles)
+    cycles
+  }
+
+  def resolveModel(model:String,logModel:Int) : Int = model match {
+    case "6581" => 0
+    case "8580" => 1
+    case _ => if (logModel == 1) 1 else 0
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var engines = "resid4,resid"
+    var model = "auto"
+    var resampling = SIDResampler.Mode.NEAREST
+    var sampleRate = 44100
+    var repeat = 3
+
+    settings.add("engines","Comma separated list of engines to compare: resid4, resid","resid4,resid") { engines = _ }
+    settings.add("model","SID model: auto (from the log), 6581 or 8580","auto",Set("auto","6581","8580")) { model = _ }
+    settings.add("resampling","Resampling method: nearest, linear, fir or two-stage","nearest",Set("nearest","linear","fir","two-stage")) { r =>
+      resampling = r match {
+        case "linear" => SIDResampler.Mode.LINEAR
+        case "fir" => SIDResampler.Mode.FIR
+        case "two-stage" => SIDResampler.Mode.TWO_STAGE
+        case _ => SIDResampler.Mode.NEAREST
+      }
+    }
+    settings.add("rate","Output sample rate",44100) { sampleRate = _ }
+    settings.add("repeat","Number of replays for each engine: the best one is reported",3) { repeat = _ }
+
+    if (settings.checkForHelp(args) || args.length == 0) {
+      println(s"SIDReplay ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("sid register log")
+      sys.exit(0)
+    }
+
+    val file = settings.parseAndLoad(args,new Properties) match {
+      case Some(f) => new File(f)
+      case None =>
+        println("No log to replay")
+        sys.exit(1)
+    }
+    if (!file.isFile) {
+      println(s"File $file not found")
+      sys.exit(1)
+    }
+    // the log is kept in memory so that the replay doesn't measure the I/O
+    val bytes = Files.readAllBytes(file.toPath)
+
+    for (engine <- engines.split(",").map(_.trim)) {
+      var best = Long.MaxValue
+      var checksum = 0L
+      var cycles = 0L
+      var clockHz = 0
+      for (_ <- 1 to repeat) {
+        val log = new SIDRegisterLog.Reader(new ByteArrayInputStream(bytes))
+        clockHz = log.clockHz
+        var hash = 0L
+        val renderer = ChipRenderer.create(engine,resolveModel(model,log.model),resampling,log.clockHz,sampleRate) { (buffer,n) =>
+          var i = 0
+          while (i < n) {
+            hash = hash * 31 + buffer(i)
+            i += 1
+          }
+        }
+        val start = System.nanoTime()
+        cycles = replay(log,renderer)
+        best = math.min(best,System.nanoTime() - start)
+        checksum = hash
+      }
+      val emulated = cycles.toDouble / clockHz
+      println("%-8s %7.1fs in %8.1fms %8.1fx realtime %8.2f Mcycles/s checksum %016X".format(engine,emulated,best / 1e6,emulated / (best / 1e9),cycles / (best / 1e3),checksum))
+    }
+  }
+}
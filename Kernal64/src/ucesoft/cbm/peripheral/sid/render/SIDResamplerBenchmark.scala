@@ -0,0 +1,126 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import ucesoft.cbm.misc.Preferences
+import ucesoft.cbm.peripheral.sid.SIDResampler
+import ucesoft.cbm.peripheral.sid.resid4.{SID => RESID4}
+
+import java.util.Properties
+
+/**
+ * Checks and measures the SIDResampler methods on a resid4 chip playing three voices.
+ *
+ * The check changes the sample step at every sid event, as the audio rate controller does, with a random jitter and
+ * with a smooth variation: every method must produce the number of samples given by the steps in use.
+ * Then each method is timed with the nominal step: the CPU time per emulated second includes the chip's clocking,
+ * that is the whole cost of NEAREST.
+ */
+object SIDResamplerBenchmark {
+  private final val MODES = List(SIDResampler.Mode.NEAREST,SIDResampler.Mode.LINEAR,SIDResampler.Mode.FIR,SIDResampler.Mode.TWO_STAGE)
+  private final val SAMPLES_PER_EVENT = 64
+
+  private def makeChip(model:Int) : RESID4 = {
+    val sid = new RESID4(() => 0L)
+    sid.setModel(model)
+    // a sawtooth, a pulse and a triangle, low pass filtered
+    val regs = Array(0x00 -> 0x2C,0x01 -> 0x1C,0x05 -> 0x09,0x06 -> 0xF0,0x04 -> 0x21,
+                     0x07 -> 0x7A,0x08 -> 0x0E,0x09 -> 0x00,0x0A -> 0x08,0x0C -> 0x09,0x0D -> 0xF0,0x0B -> 0x41,
+                     0x0E -> 0x45,0x0F -> 0x3A,0x13 -> 0x09,0x14 -> 0xF0,0x12 -> 0x11,
+                     0x15 -> 0x00,0x16 -> 0x40,0x17 -> 0xF3,0x18 -> 0x1F)
+    for ((r,v) <- regs) sid.write(r,v)
+    sid
+  }
+
+  /**
+   * Steps of each sid event: jitter is the relative amplitude of a random variation, drift the relative amplitude of a
+   * sinusoidal one.
+   */
+  private class StepGenerator(nominal:Int,jitter:Double,drift:Double) {
+    private[this] val random = new java.util.Random(0x5EED)
+    private[this] var event = 0
+
+    def next() : Int = {
+      val correction = jitter * (random.nextDouble() * 2 - 1) + drift * math.sin(2 * math.Pi * event / 5000.0)
+      event += 1
+      (nominal * (1.0 + correction)).toInt
+    }
+  }
+
+  /**
+   * Clocks a resampler for the given emulated seconds, one sid event at a time. Returns the samples produced and
+   * the samples expected from the steps used.
+   */
+  private def check(mode:SIDResampler.Mode,clockHz:Int,sampleRate:Int,seconds:Int,jitter:Double,drift:Double) : (Long,Double) = {
+    val nominal = ((clockHz.toLong << 16) / sampleRate).toInt
+    val eventCycles = (clockHz / sampleRate) * SAMPLES_PER_EVENT
+    val resampler = SIDResampler.create(mode,clockHz,sampleRate)
+    val sid = makeChip(0)
+    val steps = new StepGenerator(nominal,jitter,drift)
+    val buffer = Array.ofDim[Short](SAMPLES_PER_EVENT * 4)
+    var samples = 0L
+    var expected = 0.0
+    var step = nominal
+    var cycles = 0L
+    val totalCycles = clockHz.toLong * seconds
+    while (cycles < totalCycles) {
+      samples += resampler.clock(sid,eventCycles,buffer,0,step)
+      expected += eventCycles * 65536.0 / step
+      cycles += eventCycles
+      step = steps.next()
+    }
+    (samples,expected)
+  }
+
+  /**
+   * Clocks a resampler for the given emulated seconds with the nominal step. Returns the nanoseconds elapsed.
+   */
+  private def time(mode:SIDResampler.Mode,clockHz:Int,sampleRate:Int,seconds:Int) : Long = {
+    val step = ((clockHz.toLong << 16) / sampleRate).toInt
+    val eventCycles = (clockHz / sampleRate) * SAMPLES_PER_EVENT
+    val resampler = SIDResampler.create(mode,clockHz,sampleRate)
+    val sid = makeChip(0)
+    val buffer = Array.ofDim[Short](SAMPLES_PER_EVENT * 4)
+    val totalCycles = clockHz.toLong * seconds
+    var cycles = 0L
+    val start = System.nanoTime()
+    while (cycles < totalCycles) {
+      resampler.clock(sid,eventCycles,buffer,0,step)
+      cycles += eventCycles
+    }
+    System.nanoTime() - start
+  }
+
+  def main(args:Array[String]) : Unit = {
+    val settings = new Preferences
+    var clockHz = 985248
+    var sampleRate = 44100
+    var seconds = 30
+    var repeat = 3
+
+    settings.add("clock","Chip clock frequency",985248) { clockHz = _ }
+    settings.add("rate","Output sample rate",44100) { sampleRate = _ }
+    settings.add("seconds","Emulated seconds of each run",30) { seconds = _ }
+    settings.add("repeat","Number of timed runs for each method: the best one is reported",3) { repeat = _ }
+
+    if (settings.checkForHelp(args)) {
+      println(s"SIDResamplerBenchmark ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage("")
+      sys.exit(0)
+    }
+    settings.parseAndLoad(args,new Properties)
+
+    var failed = false
+    for (mode <- MODES; (name,jitter,drift) <- List(("jitter",0.001,0.0),("drift",0.0,0.004))) {
+      val (samples,expected) = check(mode,clockHz,sampleRate,seconds,jitter,drift)
+      // one sample can be pending at the end
+      val ok = math.abs(samples - expected) <= 2
+      if (!ok) failed = true
+      println("%-9s %-6s %10d samples, %12.1f expected %s".format(mode,name,samples,expected,if (ok) "OK" else "FAILED"))
+    }
+    if (failed) sys.exit(1)
+
+    for (mode <- MODES) {
+      val best = (1 to repeat).map(_ => time(mode,clockHz,sampleRate,seconds)).min
+      println("%-9s %8.2f ms/emulated second %8.1fx realtime".format(mode,best / 1e6 / seconds,seconds / (best / 1e9)))
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package ucesoft.cbm.peripheral.sid.render
+
+import java.io.{File, RandomAccessFile}
+
+/**
+ * 16 bits signed PCM WAV file writer: the header sizes are fixed on close.
+ */
+class WAVWriter(file:File,sampleRate:Int,channels:Int = 1) {
+  private[this] val HEADER_SIZE = 44
+  private[this] val out = new RandomAccessFile(file,"rw")
+  private[this] val buffer = Array.ofDim[Byte](16384)
+  private[this] var pos = 0
+  private[this] var dataSize = 0L
+
+  out.setLength(0)
+  writeHeader()
+
+  private def writeHeader() : Unit = {
+    def int(i:Int) : Unit = out.writeInt(Integer.reverseBytes(i))
+    def short(s:Int) : Unit = out.writeShort(java.lang.Short.reverseBytes(s.toShort))
+
+    out.seek(0)
+    out.writeBytes("RIFF")
+    int((dataSize + HEADER_SIZE - 8).toInt)
+    out.writeBytes("WAVEfmt ")
+    int(16)
+    short(1) // PCM
+    short(channels)
+    int(sampleRate)
+    int(sampleRate * channels * 2)
+    short(channels * 2)
+    short(16)
+    out.writeBytes("data")
+    int(dataSize.toInt)
+  }
+
+  private def flush() : Unit = {
+    out.write(buffer,0,pos)
+    dataSize += pos
+    pos = 0
+  }
+
+  def write(samples:Array[Short],count:Int) : Unit = {
+    var i = 0
+    while (i < count) {
+      if (pos == buffer.length) flush()
+      val s = samples(i)
+      buffer(pos) = (s & 0xFF).toByte
+      buffer(pos + 1) = (s >> 8).toByte
+      pos += 2
+      i += 1
+    }
+  }
+
+  def close() : Unit = {
+    flush()
+    writeHeader()
+    out.close()
+  }
+}
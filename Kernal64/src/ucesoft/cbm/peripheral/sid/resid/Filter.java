@@ -203,14 +203,24 @@ public class Filter {
 	protected int /* sound_sample */_1024_div_Q;
 
 	/**
-	 * Cutoff frequency tables. FC is an 11 bit register.
+	 * Cutoff frequency tables. FC is an 11 bit register. The tables are
+	 * built on first use and shared by all the filter instances: they must not
+	 * be modified.
 	 */
-	protected int /* sound_sample */f0_6581[] = new int[2048];
+	private static final class F0_6581 {
+		static final int /* sound_sample */table[] = f0_table(f0_points_6581);
+	}
 
-	/**
-	 * Cutoff frequency tables. FC is an 11 bit register.
-	 */
-	protected int /* sound_sample */f0_8580[] = new int[2048];
+	private static final class F0_8580 {
+		static final int /* sound_sample */table[] = f0_table(f0_points_8580);
+	}
+
+	private static int[] f0_table(int[] /* fc_point */f0_points[]) {
+		int f0[] = new int[2048];
+		interpolate(f0_points, 0, f0_points.length - 1, new PointPlotter(f0),
+				1.0);
+		return f0;
+	}
 
 	protected int /* sound_sample */f0[];
 
@@ -760,12 +770,6 @@ public class Filter {
 
 		enable_filter(true);
 
-		// Create mappings from FC to cutoff frequency.
-		interpolate(f0_points_6581, 0, f0_points_6581.length - 1,
-				new PointPlotter(f0_6581), 1.0);
-		interpolate(f0_points_8580, 0, f0_points_8580.length - 1,
-				new PointPlotter(f0_8580), 1.0);
-
 		set_chip_model(ISIDDefs.chip_model.MOS6581);
 
 		/* no distortion by default */
@@ -801,14 +805,14 @@ public class Filter {
 
 			mixer_DC = -0xfff * 0xff / 18 >> 7;
 
-			f0 = f0_6581;
+			f0 = F0_6581.table;
 			f0_points = f0_points_6581;
 			f0_count = f0_points_6581.length;
 		} else {
 			// No DC offsets in the MOS8580.
 			mixer_DC = 0;
 
-			f0 = f0_8580;
+			f0 = F0_8580.table;
 			f0_points = f0_points_8580;
 			f0_count = f0_points_8580.length;
 		}
@@ -1073,7 +1077,7 @@ public class Filter {
 	// ki = kj = dy/dx;
 	//
 
-	public class Coefficients {
+	public static class Coefficients {
 
 		public double a;
 
@@ -1095,7 +1099,7 @@ public class Filter {
 	 * @param k2
 	 * @param coeff
 	 */
-	protected void cubic_coefficients(double x1, double y1, double x2,
+	protected static void cubic_coefficients(double x1, double y1, double x2,
 			double y2, double k1, double k2, Coefficients coeff) {
 		double dx = x2 - x1, dy = y2 - y1;
 
@@ -1117,7 +1121,7 @@ public class Filter {
 	 * @param plotter
 	 * @param res
 	 */
-	protected void interpolate_brute_force(double x1, double y1, double x2,
+	protected static void interpolate_brute_force(double x1, double y1, double x2,
 			double y2, double k1, double k2, PointPlotter plotter, double res) {
 		Coefficients coeff = new Coefficients();
 		cubic_coefficients(x1, y1, x2, y2, k1, k2, coeff);
@@ -1141,7 +1145,7 @@ public class Filter {
 	 * @param plotter
 	 * @param res
 	 */
-	protected void interpolate_forward_difference(double x1, double y1,
+	protected static void interpolate_forward_difference(double x1, double y1,
 			double x2, double y2, double k1, double k2, PointPlotter plotter,
 			double res) {
 		Coefficients coeff = new Coefficients();
@@ -1162,11 +1166,11 @@ public class Filter {
 		}
 	}
 
-	protected double x(int[] /* fc_point */f0_base[], int p) {
+	protected static double x(int[] /* fc_point */f0_base[], int p) {
 		return (f0_base[p])[0];
 	}
 
-	protected double y(int[] /* fc_point */f0_base[], int p) {
+	protected static double y(int[] /* fc_point */f0_base[], int p) {
 		return (f0_base[p])[1];
 	}
 
@@ -1183,7 +1187,7 @@ public class Filter {
 	 * @param plotter
 	 * @param res
 	 */
-	public void interpolate(int[] /* fc_point */f0_base[], int p0, int pn,
+	public static void interpolate(int[] /* fc_point */f0_base[], int p0, int pn,
 			PointPlotter plotter, double res) {
 		double k1, k2;
 
@@ -45,7 +45,7 @@ public interface ISIDDefs {
 	};
 
 	public enum sampling_method {
-		SAMPLE_FAST, SAMPLE_INTERPOLATE, SAMPLE_RESAMPLE_INTERPOLATE, SAMPLE_RESAMPLE_FAST
+		SAMPLE_FAST, SAMPLE_INTERPOLATE, SAMPLE_RESAMPLE_INTERPOLATE, SAMPLE_RESAMPLE_FAST, SAMPLE_RESAMPLE_TWO_STAGE
 	};
 
 	public static final String resid_version_string = "0.15";
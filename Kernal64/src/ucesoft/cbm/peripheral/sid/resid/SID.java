@@ -22,6 +22,7 @@
  */
 package ucesoft.cbm.peripheral.sid.resid;
 
+import ucesoft.cbm.peripheral.sid.FIRKernel;
 import ucesoft.cbm.peripheral.sid.SIDChip;
 
 import java.io.ObjectInputStream;
@@ -263,6 +264,15 @@ public class SID implements SIDChip {
 	 */
 	protected static final int FIR_SHIFT = 15;
 
+	/**
+	 * Two stage resampling: the filter coefficients have FIR_LO_BITS more
+	 * bits than FIR_SHIFT. The 16 bit coefficients limit the stopband
+	 * attenuation to ~75dB, far from the 96dB the filters are designed for,
+	 * so each coefficient is split into a high part, with the FIR_SHIFT
+	 * scale, and a low part, and the samples are convolved with both.
+	 */
+	protected static final int FIR_LO_BITS = 6;
+
 	/**
 	 * Resampling constants. The error in interpolated lookup is bounded by
 	 * 1.234/L^2, while the error in non-interpolated lookup is bounded by
@@ -327,6 +337,57 @@ public class SID implements SIDChip {
 	 */
 	protected short fir[];
 
+	/**
+	 * Two stage resampling: low parts of the FIR tables, see FIR_LO_BITS.
+	 */
+	protected short fir_lo[];
+
+	/**
+	 * Two stage resampling: decimation factor of the first stage.
+	 */
+	protected int dec_factor;
+
+	/**
+	 * Two stage resampling: length of the first stage filter.
+	 */
+	protected int dec_N;
+
+	/**
+	 * Two stage resampling: first stage filter table.
+	 */
+	protected short dec_fir[];
+
+	/**
+	 * Two stage resampling: low parts of the first stage filter table.
+	 */
+	protected short dec_fir_lo[];
+
+	/**
+	 * Two stage resampling: cycles since the last intermediate sample.
+	 */
+	protected int dec_phase;
+
+	/**
+	 * Two stage resampling: ring buffer with overflow for the intermediate
+	 * samples.
+	 */
+	protected short inter_sample[];
+
+	/**
+	 * Two stage resampling: intermediate sample ring buffer index.
+	 */
+	protected int inter_index;
+
+	/**
+	 * Block clocking variables.
+	 */
+	protected final CycleCount block_delta_t = new CycleCount(0);
+
+	/**
+	 * Block clocking variables.
+	 */
+	protected final short block_buf[] = new short[1024];
+
 	/**
 	 * Constructor.
 	 */
@@ -743,7 +804,8 @@ public class SID implements SIDChip {
 			double filter_scale) {
 		// Check resampling constraints.
 		if (method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_INTERPOLATE
-				|| method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_FAST) {
+				|| method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_FAST
+				|| method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_TWO_STAGE) {
 			// Check whether the sample ring buffer would overfill.
 			if (FIR_N * clock_freq / sample_freq >= RINGSIZE) {
 				return false;
@@ -782,9 +844,14 @@ public class SID implements SIDChip {
 
 		// FIR initialization is only necessary for resampling.
 		if (method != ISIDDefs.sampling_method.SAMPLE_RESAMPLE_INTERPOLATE
-				&& method != ISIDDefs.sampling_method.SAMPLE_RESAMPLE_FAST) {
+				&& method != ISIDDefs.sampling_method.SAMPLE_RESAMPLE_FAST
+				&& method != ISIDDefs.sampling_method.SAMPLE_RESAMPLE_TWO_STAGE) {
 			sample = null;
 			fir = null;
+			fir_lo = null;
+			dec_fir = null;
+			dec_fir_lo = null;
+			inter_sample = null;
 			return true;
 		}
 
@@ -813,6 +880,21 @@ public class SID implements SIDChip {
 		double f_samples_per_cycle = sample_freq / clock_freq;
 		double f_cycles_per_sample = clock_freq / sample_freq;
 
+		// Two stage resampling: the first stage decimates the cycle samples by
+		// an integer factor, the second stage resamples the intermediate
+		// samples like the single stage methods do with the cycle samples.
+		boolean two_stage = method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_TWO_STAGE;
+		if (two_stage) {
+			set_decimation_parameters(clock_freq, sample_freq, pass_freq,
+					beta, I0beta);
+			f_cycles_per_sample /= dec_factor;
+			f_samples_per_cycle *= dec_factor;
+		} else {
+			dec_fir = null;
+			dec_fir_lo = null;
+			inter_sample = null;
+		}
+
 		// The filter length is equal to the filter order + 1.
 		// The filter length must be an odd number (sinc is symmetric about x =
 		// 0).
@@ -821,8 +903,8 @@ public class SID implements SIDChip {
 
 		// We clamp the filter table resolution to 2^n, making the fixpoint
 		// sample_offset a whole multiple of the filter table resolution.
-		int res = method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_INTERPOLATE ? FIR_RES_INTERPOLATE
-				: FIR_RES_FAST;
+		int res = method == ISIDDefs.sampling_method.SAMPLE_RESAMPLE_FAST ? FIR_RES_FAST
+				: FIR_RES_INTERPOLATE;
 		int n = (int) Math.ceil(Math.log(res / f_cycles_per_sample)
 				/ Math.log((double) 2));
 		fir_RES = 1 << n;
@@ -830,6 +912,7 @@ public class SID implements SIDChip {
 		// Allocate memory for FIR tables.
 		fir = null;
 		fir = new short[fir_N * fir_RES];
+		fir_lo = two_stage ? new short[fir_N * fir_RES] : null;
 
 		// Calculate fir_RES FIR tables for linear interpolation.
 		for (int i = 0; i < fir_RES; i++) {
@@ -847,7 +930,14 @@ public class SID implements SIDChip {
 				double sincwt = Math.abs(wt) >= 1e-6 ? Math.sin(wt) / wt : 1;
 				double val = (1 << FIR_SHIFT) * filter_scale
 						* f_samples_per_cycle * wc / pi * sincwt * Kaiser;
-				fir[fir_offset + j] = (short) (val + 0.5);
+				if (two_stage) {
+					int c = (int) Math.round(val * (1 << FIR_LO_BITS));
+					int hi = (c + (1 << FIR_LO_BITS - 1)) >> FIR_LO_BITS;
+					fir[fir_offset + j] = (short) hi;
+					fir_lo[fir_offset + j] = (short) (c - (hi << FIR_LO_BITS));
+				} else {
+					fir[fir_offset + j] = (short) (val + 0.5);
+				}
 			}
 		}
 
@@ -864,6 +954,73 @@ public class SID implements SIDChip {
 		return true;
 	}
 
+	/**
+	 * Two stage resampling setup. The intermediate frequency is the integer
+	 * fraction of the clock frequency just above the optimal one found by
+	 * Laurent Ganier: 2 * pass_freq + sqrt [ 2 * pass_freq * orig_sample_freq *
+	 * (dest_sample_freq - 2 * pass_freq) / dest_sample_freq ]
+	 * <P>
+	 * The first stage only has to remove the frequencies that would alias
+	 * into the passband, i.e. above intermediate_freq - pass_freq, so its
+	 * transition band is very wide and the filter order very low. E.g. for a
+	 * PAL clock and a 44.1kHz sampling rate the decimation factor is 9, the
+	 * first stage filter has 89 taps, computed once every 9 cycles, and the
+	 * second stage filter has ~310 taps instead of ~2770: with the high and
+	 * low parts of the coefficients, see FIR_LO_BITS, ~1/3 of the
+	 * multiply-adds of SAMPLE_RESAMPLE_INTERPOLATE.
+	 * 
+	 * @param clock_freq
+	 * @param sample_freq
+	 * @param pass_freq
+	 * @param beta
+	 * @param I0beta
+	 */
+	protected void set_decimation_parameters(double clock_freq,
+			double sample_freq, double pass_freq, double beta, double I0beta) {
+		final double pi = 3.1415926535897932385;
+		final double A = -20 * Math.log10(1.0 / (1 << 16));
+
+		double inter_freq_opt = 2 * pass_freq
+				+ Math.sqrt(2 * pass_freq * clock_freq
+						* (sample_freq - 2 * pass_freq) / sample_freq);
+		dec_factor = Math.max(1, (int) (clock_freq / inter_freq_opt));
+		double inter_freq = clock_freq / dec_factor;
+
+		// Transition band from pass_freq to inter_freq - pass_freq, with the
+		// cutoff frequency midway.
+		double dw = 2 * pi * (inter_freq - 2 * pass_freq) / clock_freq;
+		double wc = pi * inter_freq / clock_freq;
+
+		int N = (int) ((A - 7.95) / (2.285 * dw) + 0.5);
+		N += N & 1;
+		dec_N = N + 1;
+
+		dec_fir = new short[dec_N];
+		dec_fir_lo = new short[dec_N];
+		for (int j = -dec_N / 2; j <= dec_N / 2; j++) {
+			double wt = wc * j;
+			double temp = (double) j / (dec_N / 2);
+			double Kaiser = Math.abs(temp) <= 1 ? I0(beta
+					* Math.sqrt(1 - temp * temp))
+					/ I0beta : 0;
+			double sincwt = Math.abs(wt) >= 1e-6 ? Math.sin(wt) / wt : 1;
+			double val = (1 << FIR_SHIFT) * wc / pi * sincwt * Kaiser;
+			int c = (int) Math.round(val * (1 << FIR_LO_BITS));
+			int hi = (c + (1 << FIR_LO_BITS - 1)) >> FIR_LO_BITS;
+			dec_fir[dec_N / 2 + j] = (short) hi;
+			dec_fir_lo[dec_N / 2 + j] = (short) (c - (hi << FIR_LO_BITS));
+		}
+
+		if (inter_sample == null) {
+			inter_sample = new short[RINGSIZE * 2];
+		}
+		for (int j = 0; j < RINGSIZE * 2; j++) {
+			inter_sample[j] = 0;
+		}
+		inter_index = 0;
+		dec_phase = 0;
+	}
+
 	/**
 	 * Adjustment of SID sampling frequency.
 	 * <P>
@@ -1064,7 +1221,34 @@ public class SID implements SIDChip {
 			return clock_resample_interpolate(delta_t, buf, n, interleave);
 		case SAMPLE_RESAMPLE_FAST:
 			return clock_resample_fast(delta_t, buf, n, interleave);
+		case SAMPLE_RESAMPLE_TWO_STAGE:
+			return clock_resample_two_stage(delta_t, buf, n, interleave);
+		}
+	}
+
+	/**
+	 * SID clocking with audio sampling at the given sample step, using the
+	 * current sampling method. The sample step replaces the one set by
+	 * set_sampling_parameters, like adjust_sampling_frequency does.
+	 * 
+	 * @return
+	 */
+	@Override
+	public int clock(int cycles, short buf[], int offset, int cyclesPerSample) {
+		cycles_per_sample = cyclesPerSample;
+		// A shorter sample step can leave the sampling position behind the
+		// current cycle: the sample is taken on the next one.
+		if (sample_offset + cyclesPerSample < 1 << FIXP_SHIFT) {
+			sample_offset = (1 << FIXP_SHIFT) - cyclesPerSample;
+		}
+		block_delta_t.delta_t = cycles;
+		int s = 0;
+		while (block_delta_t.delta_t > 0) {
+			int n = clock(block_delta_t, block_buf, block_buf.length, 1);
+			System.arraycopy(block_buf, 0, buf, offset + s, n);
+			s += n;
 		}
+		return s;
 	}
 
 	/**
@@ -1213,33 +1397,34 @@ public class SID implements SIDChip {
 			int fir_offset = sample_offset * fir_RES >> FIXP_SHIFT;
 			int fir_offset_rmd = sample_offset * fir_RES & FIXP_MASK;
 			int fir_start = (fir_offset * fir_N);
-			int sample_start = (sample_index - fir_N + RINGSIZE);
+			// One sample older than the newest: the next FIR table may need
+			// the next sample.
+			int sample_start = (sample_index - fir_N - 1 + RINGSIZE);
 
 			// Convolution with filter impulse response.
-			int v1 = 0;
-			for (int j = 0; j < fir_N; j++) {
-				v1 += sample[sample_start + j] * fir[fir_start + j];
-			}
+			int v1 = FIRKernel.convolve(sample, sample_start, fir, fir_start,
+					fir_N);
 
 			// Use next FIR table, wrap around to first FIR table using
-			// previous sample.
+			// next sample: the last table is followed by the first one
+			// centered one sample later.
 			if (++fir_offset == fir_RES) {
 				fir_offset = 0;
-				--sample_start;
+				++sample_start;
 			}
 			fir_start = (fir_offset * fir_N);
 
 			// Convolution with filter impulse response.
-			int v2 = 0;
-			for (int j = 0; j < fir_N; j++) {
-				v2 += sample[sample_start + j] * fir[fir_start + j];
-			}
+			int v2 = FIRKernel.convolve(sample, sample_start, fir, fir_start,
+					fir_N);
 
 			// Linear interpolation.
 			// fir_offset_rmd is equal for all samples, it can thus be
 			// factorized out:
 			// sum(v1 + rmd*(v2 - v1)) = sum(v1) + rmd*(sum(v2) - sum(v1))
-			int v = v1 + (fir_offset_rmd * (v2 - v1) >> FIXP_SHIFT);
+			// The product is 64 bits: it overflows 32 bits as soon as the two
+			// tables differ by more than one output bit.
+			int v = v1 + (int) ((long) fir_offset_rmd * (v2 - v1) >> FIXP_SHIFT);
 
 			v >>= FIR_SHIFT;
 
@@ -1298,10 +1483,8 @@ public class SID implements SIDChip {
 			int sample_start = (sample_index - fir_N + RINGSIZE);
 
 			// Convolution with filter impulse response.
-			int v = 0;
-			for (int j = 0; j < fir_N; j++) {
-				v += sample[sample_start + j] * fir[fir_start + j];
-			}
+			int v = FIRKernel.convolve(sample, sample_start, fir, fir_start,
+					fir_N);
 
 			v >>= FIR_SHIFT;
 
@@ -1327,6 +1510,134 @@ public class SID implements SIDChip {
 		return s;
 	}
 
+	/**
+	 * SID clocking with audio sampling - cycle based with two stage audio
+	 * resampling, see set_decimation_parameters. The sampling position is
+	 * kept in cycles as for the other methods: an output sample is computed
+	 * from the last intermediate sample on, so its position is the last
+	 * intermediate sample plus the fraction of cycles elapsed since then.
+	 * 
+	 * @return
+	 */
+	protected int clock_resample_two_stage(CycleCount delta_t, short buf[],
+			int n, int interleave) {
+		int s = 0;
+
+		for (;;) {
+			int /* cycle_count */next_sample_offset = sample_offset
+					+ cycles_per_sample;
+			int /* cycle_count */delta_t_sample = next_sample_offset >> FIXP_SHIFT;
+			if (delta_t_sample > delta_t.delta_t) {
+				break;
+			}
+			if (s >= n) {
+				return s;
+			}
+			for (int i = 0; i < delta_t_sample; i++) {
+				clock_decimate();
+			}
+			delta_t.delta_t -= delta_t_sample;
+			sample_offset = next_sample_offset & FIXP_MASK;
+
+			// Position within the intermediate sample period, in 16.16 fixpoint
+			// intermediate samples.
+			int inter_offset = ((dec_phase << FIXP_SHIFT) + sample_offset)
+					/ dec_factor;
+
+			int fir_offset = inter_offset * fir_RES >> FIXP_SHIFT;
+			int fir_offset_rmd = inter_offset * fir_RES & FIXP_MASK;
+			int fir_start = (fir_offset * fir_N);
+			// One sample older than the newest: the next FIR table may need
+			// the next sample.
+			int sample_start = (inter_index - fir_N - 1 + RINGSIZE);
+
+			// Convolution with filter impulse response.
+			long v1 = convolve_two_parts(inter_sample, sample_start, fir_start);
+
+			// Use next FIR table, wrap around to first FIR table using
+			// next sample: the last table is followed by the first one
+			// centered one sample later.
+			if (++fir_offset == fir_RES) {
+				fir_offset = 0;
+				++sample_start;
+			}
+			fir_start = (fir_offset * fir_N);
+
+			// Convolution with filter impulse response.
+			long v2 = convolve_two_parts(inter_sample, sample_start, fir_start);
+
+			// Linear interpolation.
+			long v = v1 + (fir_offset_rmd * (v2 - v1) >> FIXP_SHIFT);
+
+			// Rounded, not truncated: no dc offset of half a bit.
+			v = v + (1 << FIR_SHIFT + FIR_LO_BITS - 1) >> FIR_SHIFT + FIR_LO_BITS;
+
+			// Saturated arithmetics to guard against 16 bit sample overflow.
+			final int half = 1 << 15;
+			if (v >= half) {
+				v = half - 1;
+			} else if (v < -half) {
+				v = -half;
+			}
+
+			buf[s++ * interleave] = (short) v;
+		}
+
+		for (int i = 0; i < delta_t.delta_t; i++) {
+			clock_decimate();
+		}
+		sample_offset -= delta_t.delta_t << FIXP_SHIFT;
+		delta_t.delta_t = 0;
+		return s;
+	}
+
+	/**
+	 * Two stage resampling - 1 cycle: stores the cycle sample and computes a
+	 * new intermediate sample every dec_factor cycles.
+	 */
+	protected void clock_decimate() {
+		clock();
+		sample[sample_index] = sample[sample_index + RINGSIZE] = (short) output();
+		++sample_index;
+		sample_index &= 0x3fff;
+
+		if (++dec_phase == dec_factor) {
+			dec_phase = 0;
+			int sample_start = (sample_index - dec_N + RINGSIZE);
+
+			// Convolution with the first stage impulse response.
+			long hi = FIRKernel.convolve(sample, sample_start, dec_fir, 0,
+					dec_N);
+			int lo = FIRKernel.convolve(sample, sample_start, dec_fir_lo, 0,
+					dec_N);
+			long v = (hi << FIR_LO_BITS) + lo + (1 << FIR_SHIFT + FIR_LO_BITS - 1) >> FIR_SHIFT + FIR_LO_BITS;
+
+			// Saturated arithmetics to guard against 16 bit sample overflow.
+			final int half = 1 << 15;
+			if (v >= half) {
+				v = half - 1;
+			} else if (v < -half) {
+				v = -half;
+			}
+
+			inter_sample[inter_index] = inter_sample[inter_index + RINGSIZE] = (short) v;
+			++inter_index;
+			inter_index &= 0x3fff;
+		}
+	}
+
+	/**
+	 * Two stage resampling: convolution of the intermediate samples with the
+	 * second stage filter table at fir_start, high and low parts. The result
+	 * has FIR_SHIFT + FIR_LO_BITS fraction bits.
+	 */
+	protected long convolve_two_parts(short buf[], int sample_start,
+			int fir_start) {
+		long hi = FIRKernel.convolve(buf, sample_start, fir, fir_start, fir_N);
+		int lo = FIRKernel.convolve(buf, sample_start, fir_lo, fir_start, fir_N);
+		return (hi << FIR_LO_BITS) + lo;
+	}
+
 	@Override
 	public void saveState(ObjectOutputStream out) {
 		try {
@@ -113,6 +113,38 @@ public class EnvelopeGenerator {
         }
     }
 
+    void clock(int delta_t) {
+        while (delta_t > 0) {
+            if (update) {
+                clock();
+                delta_t--;
+                continue;
+            }
+            // cycles before the rate counter reaches the rate period
+            final int delta_t_rate = rate_counter <= rate_period ? rate_period - rate_counter : 32767 - rate_counter + rate_period;
+            if (delta_t_rate >= delta_t) {
+                rate_counter += delta_t;
+                if (rate_counter > 32767) {
+                    rate_counter -= 32767;
+                }
+                return;
+            }
+            rate_counter += delta_t_rate;
+            if (rate_counter > 32767) {
+                rate_counter -= 32767;
+            }
+            clock();
+            delta_t -= delta_t_rate + 1;
+        }
+    }
+
+    /**
+     * @return true if the envelope counter is stuck at zero until the next gate on
+     */
+    boolean isSilent() {
+        return envelope_counter == 0 && !envON && state != 0 && (state_pipeline | envelope_pipeline | exponential_pipeline) == 0;
+    }
+
     int output() {
         return model_dac[envelope_counter];
     }
@@ -12,13 +12,17 @@ class ExternalFilter {
     private int w0hp;
     final private int w0lp_1_s7;
     final private int w0hp_1_s17;
+    // true when the last clock did not change the filter state: with the same input the next clocks will not change it either
+    boolean steady;
 
     public void clock(final int Vi) {
         final int dVlp = (w0lp >> 8) * (Vi - Vlp) >> 12;
         final int dVhp = w0hp * (Vlp - Vhp) >> 20;
+        final int Vo_prev = Vo;
         Vo = Vlp - Vhp;
         Vlp += dVlp;
         Vhp += dVhp;
+        steady = dVlp == 0 && dVhp == 0 && Vo == Vo_prev;
     }
 
     public int output() {
@@ -44,6 +48,7 @@ class ExternalFilter {
         Vlp = 0;
         Vhp = 0;
         Vo = 0;
+        steady = false;
     }
 
     void saveState(ObjectOutputStream out) throws IOException {
@@ -56,5 +61,6 @@ class ExternalFilter {
         Vlp = in.readInt();
         Vhp = in.readInt();
         Vlp = in.readInt();
+        steady = false;
     }
 }
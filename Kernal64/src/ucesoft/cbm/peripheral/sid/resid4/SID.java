@@ -9,8 +9,6 @@ import java.io.ObjectOutputStream;
 public class SID implements SIDChip {
     private SIDModel current_model;
     public boolean enabled;
-    private static final SIDModel MOS_6581;
-    private static final SIDModel MOS_8580;
     private final Voice[] voices;
     public final Tickable clock;
     private final int[] register;
@@ -19,6 +17,10 @@ public class SID implements SIDChip {
     private int bus_value;
     private long bus_clock;
     public int type;
+    // 16.16 fixed point sampling position used by block clocking
+    private static final int FIXP_SHIFT = 16;
+    private static final int FIXP_MASK = 0xFFFF;
+    private int sample_offset;
 
     public SID(final Tickable clock) {
         voices = new Voice[3];
@@ -53,6 +55,64 @@ public class SID implements SIDChip {
         extfilt.clock(filter.output());
     }
 
+    /**
+     * Clocks the chip delta_t cycles. The result is the same of delta_t calls to clock() as long as no register
+     * is written in between: when all voices are silent and both filters have reached a steady state only the
+     * envelopes and the oscillators are clocked, in bulk when possible.
+     */
+    public void clock(int delta_t) {
+        while (delta_t > 0) {
+            if (filter.steady && extfilt.steady && voices[0].isSilent() && voices[1].isSilent() && voices[2].isSilent()) {
+                voices[0].envelope.clock(delta_t);
+                voices[1].envelope.clock(delta_t);
+                voices[2].envelope.clock(delta_t);
+                if (voices[0].wave.canClockDelta() && voices[1].wave.canClockDelta() && voices[2].wave.canClockDelta()) {
+                    voices[0].wave.clock(delta_t);
+                    voices[1].wave.clock(delta_t);
+                    voices[2].wave.clock(delta_t);
+                } else {
+                    while (delta_t-- > 0) {
+                        voices[0].wave.clock();
+                        voices[1].wave.clock();
+                        voices[2].wave.clock();
+                        voices[0].wave.synchronize();
+                        voices[1].wave.synchronize();
+                        voices[2].wave.synchronize();
+                        voices[0].wave.set_waveform_output();
+                        voices[1].wave.set_waveform_output();
+                        voices[2].wave.set_waveform_output();
+                    }
+                }
+                return;
+            }
+            clock();
+            delta_t--;
+        }
+    }
+
+    @Override
+    public int clock(int cycles, short[] buf, int offset, int cyclesPerSample) {
+        // a shorter sample step can leave the sampling position behind the current cycle: the sample is taken on the next one
+        if (sample_offset + cyclesPerSample < 1 << FIXP_SHIFT) {
+            sample_offset = (1 << FIXP_SHIFT) - cyclesPerSample;
+        }
+        int s = offset;
+        for (;;) {
+            final int next_sample_offset = sample_offset + cyclesPerSample;
+            final int delta_t_sample = next_sample_offset >> FIXP_SHIFT;
+            if (delta_t_sample > cycles) {
+                break;
+            }
+            clock(delta_t_sample);
+            cycles -= delta_t_sample;
+            sample_offset = next_sample_offset & FIXP_MASK;
+            buf[s++] = (short)output();
+        }
+        clock(cycles);
+        sample_offset -= cycles << FIXP_SHIFT;
+        return s - offset;
+    }
+
     @Override
     final public int read(int offset) {
         switch (offset & 0x1F) {
@@ -191,7 +251,7 @@ public class SID implements SIDChip {
     }
 
     public void updateBus() {
-        if (clock.currentCycles() - bus_clock > ((current_model == SID.MOS_8580) ? 663552 : 7424)) {
+        if (clock.currentCycles() - bus_clock > ((current_model.id == 1) ? 663552 : 7424)) {
             bus_value = 0;
         }
     }
@@ -210,10 +270,8 @@ public class SID implements SIDChip {
 
     public void setModel(final int type) {
         this.type = type;
-        if (type == 0) {
-            current_model = SID.MOS_6581;
-        } else if (type == 1) {
-            current_model = SID.MOS_8580;
+        if (type == 0 || type == 1) {
+            current_model = SIDModelCache.model(type);
         }
         voices[0].switch_model(current_model);
         voices[1].switch_model(current_model);
@@ -228,6 +286,7 @@ public class SID implements SIDChip {
         filter.reset();
         extfilt.reset();
         bus_value = 0;
+        sample_offset = 0;
     }
 
     @Override
@@ -266,9 +325,4 @@ public class SID implements SIDChip {
             throw new RuntimeException("Can't load SID state",e);
         }
     }
-
-    static {
-        MOS_6581 = new SIDModel("6581", 2.2, 896, 522240, false, 0);
-        MOS_8580 = new SIDModel("8580", 2.0, 2528, 0, true, 1);
-    }
 }
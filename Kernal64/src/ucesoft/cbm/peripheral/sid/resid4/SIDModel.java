@@ -31,8 +31,8 @@ class SIDModel {
         this.id = id;
         this.wave_zero = wave_zero;
         this.voice_DC = voice_DC;
-        model_dacW = DAC.build_dac_table(12, r, term);
-        model_dacE = DAC.build_dac_table(8, r, term);
+        model_dacW = SIDModelCache.dac_table(12, r, term);
+        model_dacE = SIDModelCache.dac_table(8, r, term);
         waveforms[3] = getResourceAsInt("sid/wave" + type + "__ST.dat");
         waveforms[5] = getResourceAsInt("sid/wave" + type + "_P_T.dat");
         waveforms[6] = getResourceAsInt("sid/wave" + type + "_PS_.dat");
@@ -0,0 +1,72 @@
+package ucesoft.cbm.peripheral.sid.resid4;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tables shared by all the SID instances of the JVM.
+ * Each model is built the first time it is requested (holder idiom), DAC tables are keyed by their parameters.
+ * The returned arrays are shared: they must be treated as read only.
+ */
+final class SIDModelCache {
+    private static final class DACKey {
+        final int bits;
+        final long r;
+        final boolean term;
+
+        DACKey(final int bits, final double r, final boolean term) {
+            this.bits = bits;
+            this.r = Double.doubleToLongBits(r);
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof DACKey)) return false;
+            final DACKey k = (DACKey) o;
+            return bits == k.bits && r == k.r && term == k.term;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(r) * 31 + bits) * 31 + (term ? 1 : 0);
+        }
+    }
+
+    private static final ConcurrentHashMap<DACKey, int[]> DAC_TABLES = new ConcurrentHashMap<>();
+
+    private static final class MOS6581 {
+        static final SIDModel MODEL = new SIDModel("6581", 2.2, 896, 522240, false, 0);
+        static final int[] F0 = f0_table(SIDfilter.f0_points_6581);
+    }
+
+    private static final class MOS8580 {
+        static final SIDModel MODEL = new SIDModel("8580", 2.0, 2528, 0, true, 1);
+        static final int[] F0 = f0_table(SIDfilter.f0_points_8580);
+    }
+
+    private SIDModelCache() {}
+
+    private static int[] f0_table(final int[][] points) {
+        final int[] f0 = new int[2048];
+        DAC.interpolate(points, 0, points.length - 1, f0, 1.0);
+        return f0;
+    }
+
+    static int[] dac_table(final int bits, final double _2R_div_R, final boolean term) {
+        return DAC_TABLES.computeIfAbsent(new DACKey(bits, _2R_div_R, term), k -> DAC.build_dac_table(bits, _2R_div_R, term));
+    }
+
+    /**
+     * @param id 0 for MOS 6581, 1 for MOS 8580
+     */
+    static SIDModel model(final int id) {
+        return id == 0 ? MOS6581.MODEL : MOS8580.MODEL;
+    }
+
+    /**
+     * Cutoff frequency table of the given model, FC is an 11 bit register.
+     */
+    static int[] f0(final int id) {
+        return id == 0 ? MOS6581.F0 : MOS8580.F0;
+    }
+}
@@ -31,13 +31,13 @@ class SIDfilter {
     private int w0;
     private int w0_ceil_1;
     private int _1024_div_Q;
-    private final int[] f0_6581;
-    private final int[] f0_8580;
     private int[] f0;
     static final int[][] f0_points_6581;
     static final int[][] f0_points_8580;
     private static final int[][] _1024_div_Q_table;
     private int sid_model;
+    // true when the last clock did not change the filter state: with the same input the next clocks will not change it either
+    boolean steady;
 
     public void clock(final int voice1, final int voice2, final int voice3) {
         clock(voice1, voice2, voice3, 0);
@@ -47,12 +47,17 @@ class SIDfilter {
         if (voice3off) {
             voice3 = 0;
         }
+        final int Vhp_prev = Vhp;
+        final int Vbp_prev = Vbp;
+        final int Vlp_prev = Vlp;
+        final int Vnf_prev = Vnf;
         if (!enabled) {
             Vnf = voice1 + voice2 + voice3 + ext_in;
             final int vhp = 0;
             Vlp = vhp;
             Vbp = vhp;
             Vhp = vhp;
+            steady = Vnf == Vnf_prev && Vhp == Vhp_prev && Vbp == Vbp_prev && Vlp == Vlp_prev;
             return;
         }
         Vnf = 0;
@@ -160,6 +165,7 @@ class SIDfilter {
         Vhp = (Vbp * _1024_div_Q >> 10) - Vlp - Vi;
         Vlp -= w0_eff_lp * Vbp >> 20;
         Vbp -= w0_eff_bp * Vhp >> 20;
+        steady = Vnf == Vnf_prev && Vhp == Vhp_prev && Vbp == Vbp_prev && Vlp == Vlp_prev;
     }
 
     public int output() {
@@ -206,8 +212,6 @@ class SIDfilter {
 
     public SIDfilter() {
         V3OFF = false;
-        f0_6581 = new int[2048];
-        f0_8580 = new int[2048];
         fc = 0;
         res = 0;
         filt = 0;
@@ -219,8 +223,6 @@ class SIDfilter {
         Vlp = 0;
         Vnf = 0;
         enable_filter(true);
-        DAC.interpolate(SIDfilter.f0_points_6581, 0, SIDfilter.f0_points_6581.length - 1, f0_6581, 1.0);
-        DAC.interpolate(SIDfilter.f0_points_8580, 0, SIDfilter.f0_points_8580.length - 1, f0_8580, 1.0);
         set_chip_model(0);
         set_distortion_properties(999999, 999999, 0, 0, 0, 999999, 999999, 0, 0, 0);
     }
@@ -233,13 +235,14 @@ class SIDfilter {
         sid_model = model;
         if (model == 0) {
             mixer_DC = -454;
-            f0 = f0_6581;
+            f0 = SIDModelCache.f0(0);
         } else {
             mixer_DC = 0;
-            f0 = f0_8580;
+            f0 = SIDModelCache.f0(1);
         }
         set_w0();
         set_Q();
+        steady = false;
     }
 
     private void set_distortion_properties(final int Lthreshold, int Lsteepness, final int Llp, final int Lbp, final int Lhp, final int Hthreshold, int Hsteepness, final int Hlp, final int Hbp, final int Hhp) {
@@ -274,16 +277,19 @@ class SIDfilter {
         Vnf = 0;
         set_w0();
         set_Q();
+        steady = false;
     }
 
     public void writeFC_LO(final int fc_lo) {
         fc = ((fc & 0x7F8) | (fc_lo & 0x7));
         set_w0();
+        steady = false;
     }
 
     public void writeFC_HI(final int fc_hi) {
         fc = ((fc_hi << 3 & 0x7F8) | (fc & 0x7));
         set_w0();
+        steady = false;
     }
 
     public void writeRES_FILT(final int res_filt) {
@@ -291,6 +297,7 @@ class SIDfilter {
         set_Q();
         filt = (res_filt & 0xF);
         voice3off = (V3OFF && (filt & 0x4) == 0x0);
+        steady = false;
     }
 
     public void writeMODE_VOL(final int mode_vol) {
@@ -298,6 +305,7 @@ class SIDfilter {
         voice3off = (V3OFF && (filt & 0x4) == 0x0);
         hp_bp_lp = (mode_vol >> 4 & 0x7);
         vol = (mode_vol & 0xF);
+        steady = false;
     }
 
     private void set_w0() {
@@ -366,6 +374,7 @@ class SIDfilter {
         w0_ceil_1 = in.readInt();
         _1024_div_Q = in.readInt();
         sid_model = in.readInt();
+        steady = false;
     }
 
     static {
@@ -32,6 +32,13 @@ class Voice {
         return ON ? (envelope.output() * (wave.output() - wave_zero) + voice_DC) : voice_DC;
     }
 
+    /**
+     * @return true if the voice output is the constant voice_DC until the next register write
+     */
+    boolean isSilent() {
+        return envelope.isSilent();
+    }
+
     int generateRAW() {
         return ON ? (envelope.output() * wave.output()) : 0;
     }
@@ -67,6 +67,60 @@ public class WaveformGenerator {
         }
     }
 
+    /**
+     * Clocks the oscillator delta_t cycles. Valid only when canClockDelta() is true.
+     */
+    void clock(int delta_t) {
+        if (test) {
+            if (shift_register_reset != 0) {
+                if (shift_register_reset <= delta_t) {
+                    reset_shift_register();
+                } else {
+                    shift_register_reset -= delta_t;
+                }
+            }
+        } else if (freq == 0) {
+            msb_rising = false;
+            if (shift_pipeline != 0) {
+                if (shift_pipeline <= delta_t) {
+                    shift_pipeline = 0;
+                    clock_shift_register();
+                } else {
+                    shift_pipeline -= delta_t;
+                }
+            }
+        } else {
+            for (int i = 0; i < delta_t; i++) {
+                final int accumulator_next = accumulator + freq & 0xFFFFFF;
+                final int accumulator_bits_set = ~accumulator & accumulator_next;
+                accumulator = accumulator_next;
+                if ((accumulator_bits_set & 0x80000) != 0x0) {
+                    shift_pipeline = 2;
+                } else if (shift_pipeline != 0 && --shift_pipeline == 0) {
+                    clock_shift_register();
+                }
+                msb_rising = ((accumulator_bits_set & 0x800000) != 0x0);
+            }
+        }
+        if (floating_output_ttl != 0) {
+            if (floating_output_ttl <= delta_t) {
+                floating_output_ttl = 0;
+                waveform_output = 0;
+            } else {
+                floating_output_ttl -= delta_t;
+            }
+        }
+        pulse_output = ((accumulator >> 12 >= pw) ? 4095 : 0);
+    }
+
+    /**
+     * @return true if the oscillator has no waveform selected and does not take part in hard sync, so it can be clocked
+     * independently of the other oscillators
+     */
+    boolean canClockDelta() {
+        return waveform == 0 && !sync && !sync_dest.sync;
+    }
+
     void reset_shift_register() {
         shift_register = 8388607;
         shift_register_reset = 0;
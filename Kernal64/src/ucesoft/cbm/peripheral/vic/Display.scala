@@ -10,6 +10,15 @@ import java.io.{File, ObjectInputStream, ObjectOutputStream}
 import javax.imageio.ImageIO
 import javax.swing._
 
+object Display {
+  /**
+   * Notified on the emulator thread every time a frame is completed: pixels must be copied before returning.
+   */
+  trait FrameListener {
+    def frameCompleted(pixels:Array[Int],width:Int,height:Int) : Unit
+  }
+}
+
 class Display(width: Int,height: Int, title: String, frame: JFrame,clk:Clock = Clock.systemClock) extends JComponent with MouseMotionListener with MouseListener with CBMComponent {
   val componentID = "Display"
   val componentType: Type = CBMComponentType.OUTPUT_DEVICE
@@ -60,6 +69,10 @@ class Display(width: Int,height: Int, title: String, frame: JFrame,clk:Clock = C
   private[this] var waitFrameAndSaveSnapshotCounter = 0
   private[this] var waitFrameAndSaveSnapshotCallback : () => Unit = _
 
+  private[this] var displayWidth = width
+  private[this] var displayHeight = height
+  @volatile private[this] var frameListener : Display.FrameListener = _
+
   addMouseMotionListener(this)
   addMouseListener(this)
 
@@ -86,6 +99,8 @@ class Display(width: Int,height: Int, title: String, frame: JFrame,clk:Clock = C
 
   def setNewResolution(height:Int,width:Int) : Unit = {
     Log.debug(s"New resolution: $width x $height")
+    displayWidth = width
+    displayHeight = height
     normalDisplayMem = Array.fill(width * height)(0xFF000000)
     interlacedDisplayMem = Array.fill(width * height * 2)(0xFF000000)
     normalDisplayImage = new MemoryImageSource(width, height, normalDisplayMem, 0, width)
@@ -104,6 +119,7 @@ class Display(width: Int,height: Int, title: String, frame: JFrame,clk:Clock = C
   }
   
   def displayMem : Array[Int] = ptrDisplayMem
+  def setFrameListener(l:Display.FrameListener) : Unit = frameListener = l
   def setInterlaceMode(enabled:Boolean) : Unit = {
     interlaced = enabled
     if (enabled) {
@@ -268,6 +284,9 @@ class Display(width: Int,height: Int, title: String, frame: JFrame,clk:Clock = C
       repaint()
     }
 
+    val listener = frameListener
+    if (listener != null) listener.frameCompleted(ptrDisplayMem,displayWidth,if (interlaced) displayHeight * 2 else displayHeight)
+
     if (waitFrameAndSaveSnapshotFile != null) {
       if (waitFrameAndSaveSnapshotCounter < 2) waitFrameAndSaveSnapshotCounter += 1
       else {
@@ -33,7 +33,7 @@ class RemoteC64Client(host:String,port:Int,video:RemoteC64Frame) extends KeyList
   
   video.addKeyListener(this)
   
-  private def sendKey(e:KeyEvent) : Unit = {
+  private def sendKey(e:KeyEvent) : Unit = out.synchronized {
     out.writeChar('K')
     out.writeInt(e.getID)
     out.writeInt(e.getModifiers)
@@ -58,6 +58,7 @@ class RemoteC64Client(host:String,port:Int,video:RemoteC64Frame) extends KeyList
       out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream))
       
       var videoBuffer:Array[Int] = null
+      var decoder : RemoteFrameCodec.Decoder = null
       
       var i = 0
       var w = 0
@@ -68,7 +69,21 @@ class RemoteC64Client(host:String,port:Int,video:RemoteC64Frame) extends KeyList
             w = in.readInt
             val h = in.readInt
             videoBuffer = Array.ofDim[Int](w * h)
+            decoder = new RemoteFrameCodec.Decoder(w,h)
             video.initImage(w, h,videoBuffer)
+          case 'O' =>
+            out.synchronized {
+              out.writeChar('V')
+              out.writeInt(RemoteFrameCodec.VERSION)
+              out.flush()
+            }
+          case 'C' =>
+            decoder.readPalette(in)
+          case 'R' =>
+            decoder.reset()
+          case 'Z' =>
+            decoder.decode(in,videoBuffer)
+            video.updateScreen(decoder.x1,decoder.y1,decoder.x2,decoder.y2)
           case 'P' =>
             val x1 = in.readInt
             val y1 = in.readInt
@@ -20,6 +20,9 @@ class RemoteC64Server(port:Int,keyListeners:List[KeyListener],videoBuffer:Array[
   private[this] var socket : Socket = _
   private[this] var connected = false
   private[this] val ss = new ServerSocket(port)
+  // set by the client's answer to the protocol offer
+  @volatile private[this] var clientVersion = 1
+  private[this] var encoder : RemoteFrameCodec.Encoder = _
   
   private class KBThread extends Thread {
     override def run() : Unit = {
@@ -41,6 +44,9 @@ class RemoteC64Server(port:Int,keyListeners:List[KeyListener],videoBuffer:Array[
                   }  
                 }
               })              
+            case 'V' =>
+              clientVersion = in.readInt
+              Log.info(s"Remote client uses protocol version $clientVersion")
             case _ =>
           }
         }
@@ -92,6 +98,8 @@ class RemoteC64Server(port:Int,keyListeners:List[KeyListener],videoBuffer:Array[
         try {          
           Log.info(s"Accepting remote connection on port $port ...")
           socket = ss.accept
+          clientVersion = 1
+          encoder = null
           in = new DataInputStream(new BufferedInputStream(socket.getInputStream))
           out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream))
           Log.info(s"Remote connection accepted from ${socket.getInetAddress.getHostAddress}")
@@ -117,8 +125,14 @@ class RemoteC64Server(port:Int,keyListeners:List[KeyListener],videoBuffer:Array[
             out.writeChar('W')
             out.writeInt(width)
             out.writeInt(height)
+            // protocol offer
+            out.writeChar('O')
             firstSend = false
           }
+          else if (clientVersion >= RemoteFrameCodec.VERSION) {
+            if (encoder == null) encoder = new RemoteFrameCodec.Encoder(width,height)
+            encoder.encode(videoBuffer,w,c1x,c1y,x1,y1,x2,y2,out)
+          }
           else {
             out.writeChar('P')
             out.writeInt(if (x1 - c1x < 0) 0 else x1 - c1x)
@@ -0,0 +1,314 @@
+package ucesoft.cbm.remote
+
+import java.io.{DataInputStream, DataOutputStream, IOException}
+import java.util.zip.{DataFormatException, Deflater, Inflater}
+
+/**
+ * Video encoding of the remote protocol v2.
+ *
+ * The pixels are sent as indexes of a palette built while sending: the new colors are sent with a 'C' message before
+ * the frame that uses them. Each index is xored with the one previously sent for the same pixel, so the unchanged
+ * pixels are zeros, then the rectangle is run length encoded (PackBits) and deflated in a 'Z' message.
+ * When the palette is full both ends clear it with an 'R' message; a rectangle with more than MAX_COLORS colors is
+ * sent as a protocol v1 'P' message.
+ *
+ * The protocol is negotiated after the 'W' message: the server sends 'O' and a client that supports the version 2
+ * answers with 'V' and its version. v1 clients ignore 'O'.
+ */
+object RemoteFrameCodec {
+  final val VERSION = 2
+  final val MAX_COLORS = 256
+
+  private final val HASH_SIZE = 1024
+
+  /**
+   * PackBits: a header n < 128 is followed by n + 1 literal bytes, a header n >= 128 by a byte repeated n - 125 times.
+   * Returns the packed length.
+   */
+  private def pack(src:Array[Byte],length:Int,dest:Array[Byte]): Int = {
+    var s = 0
+    var d = 0
+    var literalStart = 0
+    while (s < length) {
+      val b = src(s)
+      var run = 1
+      while (s + run < length && run < 130 && src(s + run) == b) run += 1
+      if (run >= 3) {
+        d = flushLiterals(src,literalStart,s,dest,d)
+        dest(d) = (run + 125).toByte
+        dest(d + 1) = b
+        d += 2
+        s += run
+        literalStart = s
+      }
+      else {
+        s += run
+        if (s - literalStart >= 128) {
+          d = flushLiterals(src,literalStart,literalStart + 128,dest,d)
+          literalStart += 128
+        }
+      }
+    }
+    flushLiterals(src,literalStart,length,dest,d)
+  }
+
+  private def flushLiterals(src:Array[Byte],from:Int,to:Int,dest:Array[Byte],d:Int): Int = {
+    if (from == to) d
+    else {
+      dest(d) = (to - from - 1).toByte
+      System.arraycopy(src,from,dest,d + 1,to - from)
+      d + 1 + to - from
+    }
+  }
+
+  private def unpack(src:Array[Byte],length:Int,dest:Array[Byte],destLength:Int): Unit = {
+    var s = 0
+    var d = 0
+    while (s < length) {
+      val n = src(s) & 0xFF
+      if (n < 128) {
+        if (d + n + 1 > destLength || s + n + 2 > length) throw new IOException("Bad remote frame")
+        System.arraycopy(src,s + 1,dest,d,n + 1)
+        d += n + 1
+        s += n + 2
+      }
+      else {
+        val run = n - 125
+        if (d + run > destLength || s + 2 > length) throw new IOException("Bad remote frame")
+        java.util.Arrays.fill(dest,d,d + run,src(s + 1))
+        d += run
+        s += 2
+      }
+    }
+    if (d != destLength) throw new IOException("Bad remote frame")
+  }
+
+  /**
+   * Server side: encodes the rectangles of a frame of width x height pixels.
+   */
+  class Encoder(width:Int,height:Int) {
+    private[this] val previous = Array.ofDim[Byte](width * height)
+    private[this] val deltas = Array.ofDim[Byte](width * height)
+    // worst case: all literals
+    private[this] val packed = Array.ofDim[Byte](width * height + width * height / 128 + 1)
+    private[this] var compressed = Array.ofDim[Byte](8192)
+    private[this] val deflater = new Deflater(Deflater.BEST_SPEED)
+    // palette: colors -> indexes
+    private[this] val keys = Array.ofDim[Int](HASH_SIZE)
+    private[this] val indexes = Array.fill(HASH_SIZE)(-1)
+    private[this] var colors = 0
+    private[this] var sentColors = 0
+    private[this] val palette = Array.ofDim[Int](MAX_COLORS)
+    private[this] var lastColor, lastIndex = -1
+
+    private def reset(): Unit = {
+      java.util.Arrays.fill(previous,0.toByte)
+      java.util.Arrays.fill(indexes,-1)
+      colors = 0
+      sentColors = 0
+      lastIndex = -1
+    }
+
+    /**
+     * The palette index of the given color, -1 if the palette is full.
+     */
+    @inline private def colorIndex(color:Int): Int = {
+      if (lastIndex != -1 && color == lastColor) lastIndex
+      else {
+        var h = (color * 0x9E3779B9) >>> 22
+        while (indexes(h) != -1 && keys(h) != color) h = (h + 1) & (HASH_SIZE - 1)
+        if (indexes(h) == -1) {
+          if (colors == MAX_COLORS) return -1
+          keys(h) = color
+          indexes(h) = colors
+          palette(colors) = color
+          colors += 1
+        }
+        lastColor = color
+        lastIndex = indexes(h)
+        lastIndex
+      }
+    }
+
+    /**
+     * Fills deltas with the rectangle's indexes xored with the previous ones. Returns false if the palette is full.
+     */
+    private def delta(pixels:Array[Int],offset:Int,stride:Int,x1:Int,y1:Int,x2:Int,y2:Int): Boolean = {
+      var n = 0
+      var y = y1
+      while (y < y2) {
+        var p = offset + y * stride + x1
+        var prev = y * width + x1
+        var x = x1
+        while (x < x2) {
+          val index = colorIndex(pixels(p))
+          if (index == -1) return false
+          deltas(n) = (index ^ previous(prev)).toByte
+          n += 1
+          p += 1
+          prev += 1
+          x += 1
+        }
+        y += 1
+      }
+      true
+    }
+
+    private def updatePrevious(x1:Int,y1:Int,x2:Int,y2:Int): Unit = {
+      var n = 0
+      var y = y1
+      while (y < y2) {
+        var prev = y * width + x1
+        var x = x1
+        while (x < x2) {
+          previous(prev) = (previous(prev) ^ deltas(n)).toByte
+          n += 1
+          prev += 1
+          x += 1
+        }
+        y += 1
+      }
+    }
+
+    /**
+     * Writes the rectangle x1,y1 - x2,y2 (excluded) of pixels, where the frame starts at the given origin with the
+     * given stride.
+     */
+    def encode(pixels:Array[Int],stride:Int,originX:Int,originY:Int,_x1:Int,_y1:Int,_x2:Int,_y2:Int,out:DataOutputStream): Unit = {
+      val x1 = math.max(_x1 - originX,0)
+      val y1 = math.max(_y1 - originY,0)
+      val x2 = math.min(_x2 - originX,width)
+      val y2 = math.min(_y2 - originY,height)
+      if (x1 >= x2 || y1 >= y2) return
+      val offset = originY * stride + originX
+
+      if (!delta(pixels,offset,stride,x1,y1,x2,y2)) {
+        reset()
+        out.writeChar('R')
+        if (!delta(pixels,offset,stride,x1,y1,x2,y2)) {
+          reset()
+          out.writeChar('R')
+          writeRaw(pixels,offset,stride,x1,y1,x2,y2,out)
+          return
+        }
+      }
+      updatePrevious(x1,y1,x2,y2)
+      if (sentColors < colors) {
+        out.writeChar('C')
+        out.writeByte(sentColors)
+        out.writeShort(colors - sentColors)
+        while (sentColors < colors) {
+          out.writeInt(palette(sentColors))
+          sentColors += 1
+        }
+      }
+      val packedLength = pack(deltas,(x2 - x1) * (y2 - y1),packed)
+      deflater.reset()
+      deflater.setInput(packed,0,packedLength)
+      deflater.finish()
+      var length = 0
+      while (!deflater.finished()) {
+        if (length == compressed.length) compressed = java.util.Arrays.copyOf(compressed,length << 1)
+        length += deflater.deflate(compressed,length,compressed.length - length)
+      }
+      out.writeChar('Z')
+      out.writeInt(x1)
+      out.writeInt(y1)
+      out.writeInt(x2)
+      out.writeInt(y2)
+      out.writeInt(packedLength)
+      out.writeInt(length)
+      out.write(compressed,0,length)
+    }
+
+    private def writeRaw(pixels:Array[Int],offset:Int,stride:Int,x1:Int,y1:Int,x2:Int,y2:Int,out:DataOutputStream): Unit = {
+      out.writeChar('P')
+      out.writeInt(x1)
+      out.writeInt(y1)
+      out.writeInt(x2)
+      out.writeInt(y2)
+      var y = y1
+      while (y < y2) {
+        var p = offset + y * stride + x1
+        var x = x1
+        while (x < x2) {
+          out.writeInt(pixels(p))
+          p += 1
+          x += 1
+        }
+        y += 1
+      }
+    }
+  }
+
+  /**
+   * Client side: decodes the 'C', 'R' and 'Z' messages on a frame of width x height pixels.
+   */
+  class Decoder(width:Int,height:Int) {
+    private[this] val previous = Array.ofDim[Byte](width * height)
+    private[this] val deltas = Array.ofDim[Byte](width * height)
+    private[this] val packed = Array.ofDim[Byte](width * height + width * height / 128 + 1)
+    private[this] var compressed = Array.ofDim[Byte](8192)
+    private[this] val inflater = new Inflater
+    private[this] val palette = Array.ofDim[Int](MAX_COLORS)
+    private[this] var _x1, _y1, _x2, _y2 = 0
+
+    // the rectangle of the last frame
+    def x1: Int = _x1
+    def y1: Int = _y1
+    def x2: Int = _x2
+    def y2: Int = _y2
+
+    def reset(): Unit = java.util.Arrays.fill(previous,0.toByte)
+
+    def readPalette(in:DataInputStream): Unit = {
+      val first = in.readUnsignedByte
+      val count = in.readUnsignedShort
+      if (first + count > MAX_COLORS) throw new IOException("Bad remote palette")
+      for (i <- first until first + count) palette(i) = in.readInt
+    }
+
+    def decode(in:DataInputStream,pixels:Array[Int]): Unit = {
+      _x1 = in.readInt
+      _y1 = in.readInt
+      _x2 = in.readInt
+      _y2 = in.readInt
+      val packedLength = in.readInt
+      val length = in.readInt
+      if (_x1 < 0 || _y1 < 0 || _x2 > width || _y2 > height || _x1 >= _x2 || _y1 >= _y2 || packedLength > packed.length || length < 0) throw new IOException("Bad remote frame")
+      if (length > compressed.length) compressed = Array.ofDim[Byte](length)
+      in.readFully(compressed,0,length)
+      inflater.reset()
+      inflater.setInput(compressed,0,length)
+      var inflated = 0
+      try {
+        while (inflated < packedLength && !inflater.finished()) {
+          val n = inflater.inflate(packed,inflated,packedLength - inflated)
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("Bad remote frame")
+          inflated += n
+        }
+      }
+      catch {
+        case e:DataFormatException =>
+          throw new IOException(e)
+      }
+      if (inflated != packedLength) throw new IOException("Bad remote frame")
+      unpack(packed,packedLength,deltas,(_x2 - _x1) * (_y2 - _y1))
+      var n = 0
+      var y = _y1
+      while (y < _y2) {
+        var p = y * width + _x1
+        var x = _x1
+        while (x < _x2) {
+          val index = (previous(p) ^ deltas(n)) & 0xFF
+          previous(p) = index.toByte
+          pixels(p) = palette(index)
+          n += 1
+          p += 1
+          x += 1
+        }
+        y += 1
+      }
+    }
+  }
+}
@@ -12,7 +12,7 @@ import ucesoft.cbm.peripheral._
 import ucesoft.cbm.peripheral.bus.BusSnoop
 import ucesoft.cbm.peripheral.drive._
 import ucesoft.cbm.peripheral.keyboard.HomeKeyboard
-import ucesoft.cbm.peripheral.vic.VICType
+import ucesoft.cbm.peripheral.vic.{Palette, VICType}
 import ucesoft.cbm.trace.Tracer
 import ucesoft.cbm.trace.Tracer.TracedDisplay
 
@@ -149,7 +149,7 @@ class SCPUC64 extends CBMHomeComputer {
     displayFrame.setTransferHandler(DNDHandler)
 
     // GIF Recorder
-    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display),Array("VIC"))
+    gifRecorder = GIFPanel.createGIFPanel(displayFrame,Array(display),Array("VIC"),Array(Palette.VIC_RGB))
 
     // trace
     tracer.addDevice(Tracer.TracedDevice("Main 65816 CPU", mmu, cpu, true))
@@ -0,0 +1,246 @@
+package ucesoft.cbm.trace
+
+import ucesoft.cbm.ChipID
+import ucesoft.cbm.cpu.{CPU65xx, Memory}
+import ucesoft.cbm.misc.Preferences
+
+import java.io.{File, RandomAccessFile}
+import java.nio.channels.FileChannel
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.util.Properties
+
+/**
+ * Binary execution trace of a 65xx cpu: a memory mapped file used as a ring of fixed size records, one per instruction.
+ *
+ * Header (big endian):
+ * 0  magic "K64T"
+ * 4  version
+ * 8  record size
+ * 12 capacity in records
+ * 16 total records written: the ring holds the last min(total,capacity) ones
+ * 24 cycle of the last record
+ *
+ * Record:
+ * 0  cycles from the previous record
+ * 4  pc
+ * 6  opcode and operand bytes
+ * 9  A, X, Y, SP, P before the instruction
+ * 14 address and value of the last write of the instruction
+ * 17 number of writes (up to 255)
+ * 18 flags: an IRQ or NMI has been taken after the instruction
+ *
+ * main is the offline decoder: it disassembles and filters a trace.
+ */
+object BinaryTrace {
+  final val EXTENSION = ".k64t"
+  final val DEFAULT_CAPACITY = 1 << 20
+
+  private final val MAGIC = 0x4B363454 // K64T
+  private final val VERSION = 1
+  private final val HEADER_SIZE = 32
+  private final val RECORD_SIZE = 20
+  private final val TOTAL_OFFSET = 16
+  private final val LAST_CYCLE_OFFSET = 24
+  // the header is updated every SYNC_RECORDS records, so a trace is readable if the emulator dies
+  private final val SYNC_RECORDS = 0x10000
+
+  final val FLAG_IRQ = 1
+  final val FLAG_NMI = 2
+
+  case class TraceRecord(index:Long,cycle:Long,pc:Int,opcode:Int,operand:Int,a:Int,x:Int,y:Int,sp:Int,p:Int,writeAddress:Int,writeValue:Int,writes:Int,flags:Int)
+
+  /**
+   * Records the instructions of a cpu. begin is called when an instruction starts, write and interrupt while it's
+   * executing: the record is completed and stored when the next one begins or on close.
+   */
+  class Recorder(file:File,capacity:Int = DEFAULT_CAPACITY) {
+    private[this] val raf = new RandomAccessFile(file,"rw")
+    raf.setLength(0)
+    private[this] val buffer : MappedByteBuffer = raf.getChannel.map(FileChannel.MapMode.READ_WRITE,0,HEADER_SIZE + capacity.toLong * RECORD_SIZE)
+    private[this] var total = 0L
+    private[this] var position = HEADER_SIZE
+    private[this] val end = HEADER_SIZE + capacity * RECORD_SIZE
+    private[this] var lastCycle = -1L
+    private[this] var pending = false
+    private[this] var writeAddress, writeValue, writes, flags = 0
+
+    buffer.putInt(0,MAGIC)
+    buffer.putInt(4,VERSION)
+    buffer.putInt(8,RECORD_SIZE)
+    buffer.putInt(12,capacity)
+    syncHeader()
+
+    private def syncHeader(): Unit = {
+      buffer.putLong(TOTAL_OFFSET,total)
+      buffer.putLong(LAST_CYCLE_OFFSET,lastCycle)
+    }
+
+    private def complete(): Unit = {
+      buffer.putShort(position + 14,writeAddress.toShort)
+      buffer.put(position + 16,writeValue.toByte)
+      buffer.put(position + 17,writes.toByte)
+      buffer.put(position + 18,flags.toByte)
+      position += RECORD_SIZE
+      if (position == end) position = HEADER_SIZE
+      total += 1
+      if ((total & (SYNC_RECORDS - 1)) == 0) syncHeader()
+      pending = false
+    }
+
+    final def begin(cycle:Long,pc:Int,opcode:Int,operand:Int,a:Int,x:Int,y:Int,sp:Int,p:Int): Unit = {
+      if (pending) complete()
+      val delta = if (lastCycle == -1) 0L else cycle - lastCycle
+      buffer.putInt(position,if (delta > Int.MaxValue) Int.MaxValue else delta.toInt)
+      buffer.putShort(position + 4,pc.toShort)
+      buffer.put(position + 6,opcode.toByte)
+      buffer.putShort(position + 7,operand.toShort)
+      buffer.put(position + 9,a.toByte)
+      buffer.put(position + 10,x.toByte)
+      buffer.put(position + 11,y.toByte)
+      buffer.put(position + 12,sp.toByte)
+      buffer.put(position + 13,p.toByte)
+      lastCycle = cycle
+      writeAddress = 0
+      writeValue = 0
+      writes = 0
+      flags = 0
+      pending = true
+    }
+
+    final def write(address:Int,value:Int): Unit = if (pending) {
+      writeAddress = address
+      writeValue = value
+      if (writes < 255) writes += 1
+    }
+
+    final def interrupt(flag:Int): Unit = if (pending) flags |= flag
+
+    def close(): Unit = {
+      if (pending) complete()
+      syncHeader()
+      buffer.force()
+      raf.close()
+    }
+  }
+
+  /**
+   * Reads the records of a trace, from the oldest one.
+   */
+  def read(file:File)(f:TraceRecord => Unit): Unit = {
+    val raf = new RandomAccessFile(file,"r")
+    try {
+      val buffer = raf.getChannel.map(FileChannel.MapMode.READ_ONLY,0,raf.length())
+      if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException(s"$file is not a binary trace")
+      if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) throw new IllegalArgumentException(s"Unsupported binary trace version ${buffer.getInt(4)}")
+      val capacity = buffer.getInt(12)
+      val total = buffer.getLong(TOTAL_OFFSET)
+      val count = math.min(total,capacity.toLong).toInt
+      val first = if (total > capacity) (total % capacity).toInt else 0
+      // the cycles are known backwards from the last record
+      var cycle = buffer.getLong(LAST_CYCLE_OFFSET)
+      var i = count - 1
+      while (i > 0) {
+        cycle -= buffer.getInt(HEADER_SIZE + ((first + i) % capacity) * RECORD_SIZE)
+        i -= 1
+      }
+      i = 0
+      while (i < count) {
+        val pos = HEADER_SIZE + ((first + i) % capacity) * RECORD_SIZE
+        if (i > 0) cycle += buffer.getInt(pos)
+        f(record(buffer,pos,total - count + i,cycle))
+        i += 1
+      }
+    }
+    finally raf.close()
+  }
+
+  private def record(buffer:ByteBuffer,pos:Int,index:Long,cycle:Long): TraceRecord = {
+    TraceRecord(index,cycle,
+      buffer.getShort(pos + 4) & 0xFFFF,
+      buffer.get(pos + 6) & 0xFF,
+      buffer.getShort(pos + 7) & 0xFFFF,
+      buffer.get(pos + 9) & 0xFF,
+      buffer.get(pos + 10) & 0xFF,
+      buffer.get(pos + 11) & 0xFF,
+      buffer.get(pos + 12) & 0xFF,
+      buffer.get(pos + 13) & 0xFF,
+      buffer.getShort(pos + 14) & 0xFFFF,
+      buffer.get(pos + 16) & 0xFF,
+      buffer.get(pos + 17) & 0xFF,
+      buffer.get(pos + 18) & 0xFF)
+  }
+
+  private def disassemble(r:TraceRecord): CPU65xx.DisassembledInfo = {
+    // the instruction's bytes, for the disassembler
+    val mem = new Memory {
+      override val isRom = true
+      override val length = 0x10000
+      override val startAddress = 0
+      override val name = "TraceRecord"
+
+      override def init(): Unit = {}
+      override def isActive = true
+      override def read(address: Int, chipID: ChipID.ID): Int = ((address - r.pc) & 0xFFFF) match {
+        case 0 => r.opcode
+        case 1 => r.operand >> 8
+        case 2 => r.operand & 0xFF
+        case _ => 0
+      }
+      override def write(address: Int, value: Int, chipID: ChipID.ID): Unit = {}
+    }
+    CPU65xx.disassemble(mem,r.pc)
+  }
+
+  def format(r:TraceRecord): String = {
+    val write = if (r.writes > 0) f" W($$${r.writeAddress}%04X)=$$${r.writeValue}%02X${if (r.writes > 1) s" (${r.writes} writes)" else ""}" else ""
+    val interrupt = (if ((r.flags & FLAG_IRQ) > 0) " IRQ" else "") + (if ((r.flags & FLAG_NMI) > 0) " NMI" else "")
+    f"${r.index}%10d ${r.cycle}%12d ${disassemble(r)} A=${r.a}%02X X=${r.x}%02X Y=${r.y}%02X SP=${r.sp}%02X P=${r.p}%02X$write$interrupt"
+  }
+
+  def main(args:Array[String]): Unit = {
+    val settings = new Preferences
+    var pc = -1
+    var writeAddress = -1
+    var mnemonic = ""
+    var interrupts = false
+    var fromCycle = 0L
+    var last = 0
+
+    def hex(s:String) : Int = if (s == "") -1 else Integer.parseInt(s,16)
+    settings.add("pc","Only the instructions at the given hex address","") { a => pc = hex(a) }
+    settings.add("write","Only the instructions that wrote the given hex address","") { a => writeAddress = hex(a) }
+    settings.add("op","Only the instructions with the given mnemonic","") { m => mnemonic = m.toUpperCase }
+    settings.add("interrupts","Only the instructions followed by an IRQ or NMI",false) { interrupts = _ }
+    settings.add("from-cycle","Only the instructions executed from the given cycle","") { c => fromCycle = if (c == "") 0 else c.toLong }
+    settings.add("last","Only the last given number of matching instructions",0) { last = _ }
+
+    if (args.length == 0 || settings.checkForHelp(args)) {
+      println(s"BinaryTrace ver. ${ucesoft.cbm.Version.VERSION} (${ucesoft.cbm.Version.BUILD_DATE})")
+      settings.printUsage(s"trace file$EXTENSION")
+      sys.exit(0)
+    }
+    val file = settings.parseAndLoad(args,new Properties) match {
+      case Some(f) => new File(f)
+      case None =>
+        println("Trace file missing")
+        sys.exit(1)
+    }
+
+    val lastRecords = new collection.mutable.Queue[TraceRecord]
+    read(file) { r =>
+      val matches = (pc == -1 || r.pc == pc) &&
+                    (writeAddress == -1 || (r.writes > 0 && r.writeAddress == writeAddress)) &&
+                    (!interrupts || r.flags != 0) &&
+                    r.cycle >= fromCycle &&
+                    (mnemonic == "" || disassemble(r).op == mnemonic)
+      if (matches) {
+        if (last > 0) {
+          lastRecords += r
+          if (lastRecords.size > last) lastRecords.dequeue()
+        }
+        else println(format(r))
+      }
+    }
+    for (r <- lastRecords) println(format(r))
+  }
+}
@@ -32,6 +32,11 @@ object TraceListener {
 
   trait BreakType {
     def isBreak(info:BreakInfo): Boolean
+    /**
+     * False if no address break can fire on the given address: checked before isBreak, so that the info is built
+     * only for the addresses with a break.
+     */
+    def hasBreakAt(address:Int): Boolean = true
   }
 
   case class BreakSet(addressSet: Set[Int]) extends BreakType {
@@ -44,11 +49,14 @@ object TraceListener {
       }
     }
 
+    override def hasBreakAt(address:Int): Boolean = addressSet.contains(address)
+
     override def toString: String = f"breaks in ${addressSet.map(a => f"$a%04X").mkString("{ ", ",", " }")}"
   }
 
   object NoBreak extends BreakType {
     def isBreak(info:BreakInfo) = false
+    override def hasBreakAt(address:Int): Boolean = false
 
     override def toString: String = "no breaks set"
   }
@@ -89,6 +97,11 @@ trait TraceListener {
   val supportTracing = true
 
   def setTraceOnFile(out:PrintWriter,enabled:Boolean) : Unit
+  /**
+   * Records the executed instructions on the given binary trace, null to stop. Ignored by the devices that don't
+   * support it.
+   */
+  def setTraceRecorder(recorder:BinaryTrace.Recorder) : Unit = {}
   def setTrace(traceOn:Boolean) : Unit
   def step(updateRegisters: CpuStepInfo => Unit,stepType: StepType) : Unit
   def setBreakAt(breakType:BreakType,callback:CpuStepInfo => Unit) : Unit
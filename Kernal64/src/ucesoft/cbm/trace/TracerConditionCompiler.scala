@@ -0,0 +1,136 @@
+package ucesoft.cbm.trace
+
+import ucesoft.cbm.trace.TraceListener.TraceRegister
+import ucesoft.cbm.trace.TracerConditionParser._
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Compiles the expressions of TracerConditionParser into a tree of specialised nodes, so that a condition is checked
+ * without walking the expression and without boxing. Registers are read by index from an array filled once per check,
+ * labels are resolved at compile time: a condition must be compiled again when the labels change.
+ * The results are the same of TracerConditionEvaluator: a condition that can't be evaluated is false.
+ */
+object TracerConditionCompiler {
+  private[trace] abstract class IntNode {
+    def apply(regs:Array[Int]): Int
+  }
+  private[trace] abstract class BoolNode {
+    def apply(regs:Array[Int]): Boolean
+  }
+
+  class CompiledCondition private[TracerConditionCompiler](registers:Array[String],cond:BoolNode) {
+    private[this] val values = Array.ofDim[Int](registers.length)
+
+    def apply(regs:List[TraceRegister]): Boolean = {
+      var i = 0
+      while (i < registers.length) {
+        regs.findLast(r => r.conditionName.getOrElse(r.name) == registers(i)) match {
+          case Some(r) =>
+            values(i) = r.intValue
+          case None =>
+            return false
+        }
+        i += 1
+      }
+      try cond(values) catch { case _:ArithmeticException => false }
+    }
+  }
+
+  def compile(expr:Expr,labels:Map[String,Int]): Either[String,CompiledCondition] = {
+    val registers = new ArrayBuffer[String]
+    try {
+      val cond = compileBool(expr,registers,labels)
+      Right(new CompiledCondition(registers.toArray,cond))
+    }
+    catch {
+      case i:IllegalArgumentException =>
+        Left(i.getMessage)
+    }
+  }
+
+  private def isBool(expr:Expr): Boolean = expr match {
+    case TRUE|FALSE|FunOp(_,_) => true
+    case UnaryOp("!",_,_) => true
+    case BinOp(op,_,_) => op == "&&" || op == "||" || op == "==" || op == "!=" || op == ">" || op == "<" || op == ">=" || op == "<="
+    case _ => false
+  }
+
+  private def compileBool(expr:Expr,registers:ArrayBuffer[String],labels:Map[String,Int]): BoolNode = {
+    expr match {
+      case TRUE => new BoolNode { def apply(regs:Array[Int]): Boolean = true }
+      case FALSE => new BoolNode { def apply(regs:Array[Int]): Boolean = false }
+      case UnaryOp("!",op1,_) =>
+        val a = compileBool(op1,registers,labels)
+        new BoolNode { def apply(regs:Array[Int]): Boolean = !a(regs) }
+      case BinOp(op,op1,op2) if op == "&&" || op == "||" =>
+        val a = compileBool(op1,registers,labels)
+        val b = compileBool(op2,registers,labels)
+        if (op == "&&") new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) && b(regs) }
+        else new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) || b(regs) }
+      case BinOp(op,op1,op2) if isBool(expr) =>
+        val a = compileInt(op1,registers,labels)
+        val b = compileInt(op2,registers,labels)
+        op match {
+          case "==" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) == b(regs) }
+          case "!=" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) != b(regs) }
+          case ">" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) > b(regs) }
+          case "<" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) < b(regs) }
+          case ">=" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) >= b(regs) }
+          case "<=" => new BoolNode { def apply(regs:Array[Int]): Boolean = a(regs) <= b(regs) }
+        }
+      case FunOp("bit",List(op1,op2)) =>
+        val a = compileInt(op1,registers,labels)
+        val b = compileInt(op2,registers,labels)
+        new BoolNode { def apply(regs:Array[Int]): Boolean = (a(regs) & (1 << b(regs))) > 0 }
+      case FunOp(f,args) =>
+        throw new IllegalArgumentException(s"Unknown function $f/${args.length}")
+      case _ =>
+        throw new IllegalArgumentException(s"Invalid expression: $expr")
+    }
+  }
+
+  private def compileInt(expr:Expr,registers:ArrayBuffer[String],labels:Map[String,Int]): IntNode = {
+    expr match {
+      case Value(v) =>
+        new IntNode { def apply(regs:Array[Int]): Int = v }
+      case Register(r) =>
+        val index = registers.indexOf(r) match {
+          case -1 =>
+            registers += r
+            registers.length - 1
+          case i => i
+        }
+        new IntNode { def apply(regs:Array[Int]): Int = regs(index) }
+      case Label(l) =>
+        labels.get(l) match {
+          case Some(v) =>
+            new IntNode { def apply(regs:Array[Int]): Int = v }
+          case None =>
+            throw new IllegalArgumentException(s"Label $l not defined")
+        }
+      case UnaryOp("-",op1,_) =>
+        val a = compileInt(op1,registers,labels)
+        new IntNode { def apply(regs:Array[Int]): Int = -a(regs) }
+      case BinOp(op,op1,op2) if !isBool(expr) =>
+        val a = compileInt(op1,registers,labels)
+        val b = compileInt(op2,registers,labels)
+        op match {
+          case "+" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) + b(regs) }
+          case "-" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) - b(regs) }
+          case "*" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) * b(regs) }
+          case "/" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) / b(regs) }
+          case "%" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) % b(regs) }
+          case "&" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) & b(regs) }
+          case "|" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) | b(regs) }
+          case "^" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) ^ b(regs) }
+          case "<<" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) << b(regs) }
+          case ">>" => new IntNode { def apply(regs:Array[Int]): Int = a(regs) >> b(regs) }
+          case _ =>
+            throw new IllegalArgumentException(s"Unknown operator $op")
+        }
+      case _ =>
+        throw new IllegalArgumentException(s"Bad arguments on $expr")
+    }
+  }
+}
@@ -39,7 +39,40 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
   protected class Breaks extends BreakType {
     val addressMap = new mutable.HashMap[Int,AddressBreakInfo]()
     val eventMap = new mutable.HashMap[String,EventBreakInfo]()
-    var labels : Map[String,Int] = Map.empty
+    // the addresses of addressMap
+    private[this] val addressSet = new java.util.BitSet(0x10000)
+    private[this] var _labels : Map[String,Int] = Map.empty
+    // conditions compiled with the current labels, None if they can't be compiled: replaced as a whole, it's read by the cpu's thread
+    @volatile private[this] var compiledConditions = Map.empty[BreakCondition,Option[TracerConditionCompiler.CompiledCondition]]
+
+    def labels : Map[String,Int] = _labels
+    def labels_=(labels:Map[String,Int]): Unit = {
+      _labels = labels
+      compiledConditions = Map.empty
+    }
+
+    def setAddressBreaks(breaks:List[AddressBreakInfo]): Unit = {
+      addressMap.clear()
+      addressSet.clear()
+      compiledConditions = Map.empty
+      for (b <- breaks) {
+        addressMap += b.address -> b
+        addressSet.set(b.address)
+      }
+    }
+
+    override def hasBreakAt(address:Int): Boolean = address >= 0 && addressSet.get(address)
+
+    private def compiled(cond:BreakCondition): Option[TracerConditionCompiler.CompiledCondition] = {
+      compiledConditions.get(cond) match {
+        case Some(c) =>
+          c
+        case None =>
+          val c = TracerConditionCompiler.compile(cond.expr,_labels).toOption
+          compiledConditions += cond -> c
+          c
+      }
+    }
 
     override def isBreak(info:BreakInfo): Boolean = {
       info match {
@@ -57,10 +90,10 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
                     regs ::= TraceRegister("RASTER_LINE","",rasterLine)
                     regs ::= TraceRegister("RASTER_CYCLE","",cycle)
                   }
-                  TracerConditionEvaluator.eval(cond.expr,regs,labels) match {
-                    case Right(value) =>
-                      value
-                    case Left(_) =>
+                  compiled(cond) match {
+                    case Some(c) =>
+                      c(regs)
+                    case None =>
                       false
                   }
               }
@@ -204,6 +237,7 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
     def close(): Unit = {}
   }, true)
   private var tracingFile : PrintWriter = _
+  private var traceRecorder : BinaryTrace.Recorder = _
   private val registerPanel = new JPanel(new FlowLayout(FlowLayout.LEFT))
   private var registers : Map[String,Register] = Map.empty
   private val clockRegister = new Register("CLK")
@@ -260,7 +294,7 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
     clear.addActionListener(_ => tracePanel.setText("") )
     clear.setToolTipText("Clear trace panel")
 
-    traceOnFile.setToolTipText("Save tracing on file ...")
+    traceOnFile.setToolTipText(s"Save tracing on file (binary if the file has ${BinaryTrace.EXTENSION} extension) ...")
     traceOnFile.addActionListener(_ => openTraceOnFile())
 
     val build = new JButton(new ImageIcon(getClass.getResource("/resources/trace/build.png")))
@@ -610,12 +644,28 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
   protected def openTraceOnFile(): Unit = {
     if (tracingFile != null && !traceOnFile.isSelected) {
       tracingFile.close()
+      tracingFile = null
       currentDevice.listener.setTraceOnFile(null,false)
     }
+    else if (traceRecorder != null && !traceOnFile.isSelected) {
+      currentDevice.listener.setTraceRecorder(null)
+      traceRecorder.close()
+      traceRecorder = null
+    }
     else {
       val fc = new JFileChooser()
       fc.setDialogTitle("Select tracing output file")
       fc.showOpenDialog(frame) match {
+        case JFileChooser.APPROVE_OPTION if fc.getSelectedFile.getName.toLowerCase.endsWith(BinaryTrace.EXTENSION) =>
+          try {
+            traceRecorder = new BinaryTrace.Recorder(fc.getSelectedFile)
+            currentDevice.listener.setTraceRecorder(traceRecorder)
+          }
+          catch {
+            case t:Throwable =>
+              JOptionPane.showMessageDialog(frame,s"Can't create binary trace: $t","Trace error",JOptionPane.ERROR_MESSAGE)
+              traceOnFile.setSelected(false)
+          }
         case JFileChooser.APPROVE_OPTION =>
           tracingFile = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fc.getSelectedFile)))
           currentDevice.listener.setTraceOnFile(tracingFile, true)
@@ -986,14 +1036,13 @@ class TracerGUI(openCloseAction: Boolean => Unit) extends Tracer {
 
   protected def updateBreaks(): Unit = {
     breaks(currentDevice.id).eventMap.clear()
-    breaks(currentDevice.id).addressMap.clear()
     val brks = breaksTableModel.getBreaks()
+    breaks(currentDevice.id).setAddressBreaks(brks.collect { case a:AddressBreakInfo => a })
     for(b <- brks) {
       b match {
-        case a@AddressBreakInfo(adr,_,_) =>
-          breaks(currentDevice.id).addressMap += adr -> a
         case e:EventBreakInfo =>
           breaks(currentDevice.id).eventMap += e.toString -> e
+        case _ =>
       }
     }
     val brk = if (brks.size == 0) NoBreak else breaks(currentDevice.id)
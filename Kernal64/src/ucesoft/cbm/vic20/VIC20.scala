@@ -174,7 +174,7 @@ class VIC20 extends CBMHomeComputer {
     displayFrame.setTransferHandler(DNDHandler)
 
     // GIF Recorder
-    gifRecorder = GIFPanel.createGIFPanel(displayFrame, Array(display), Array("VIC"))
+    gifRecorder = GIFPanel.createGIFPanel(displayFrame, Array(display), Array("VIC"), Array(Palette.VIC_RGB))
 
     signals = VIC20ExpansionPort.Signals(preferences,cpu.irqRequest _,cpu.nmiRequest _,() => reset(true),bus,ieee488Bus,mmu)
 
@@ -0,0 +1,34 @@
+package ucesoft.cbm.peripheral.sid.vector;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API convolution kernel of the SID FIR resamplers, see ucesoft.cbm.peripheral.sid.FIRKernel.
+ * The shorts are widened to ints, so the short species has the same number of lanes of the preferred int species.
+ */
+public final class VectorFIRKernel {
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORT_SPECIES = ShortVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(INT_SPECIES.vectorBitSize() / 2));
+
+    private VectorFIRKernel() {}
+
+    public static int convolve(short[] sample, int sample_start, short[] fir, int fir_start, int n) {
+        IntVector acc = IntVector.zero(INT_SPECIES);
+        final int bound = SHORT_SPECIES.loopBound(n);
+        int j = 0;
+        for (; j < bound; j += SHORT_SPECIES.length()) {
+            final IntVector s = (IntVector) ShortVector.fromArray(SHORT_SPECIES, sample, sample_start + j).convertShape(VectorOperators.S2I, INT_SPECIES, 0);
+            final IntVector f = (IntVector) ShortVector.fromArray(SHORT_SPECIES, fir, fir_start + j).convertShape(VectorOperators.S2I, INT_SPECIES, 0);
+            acc = acc.add(s.mul(f));
+        }
+        int v = acc.reduceLanes(VectorOperators.ADD);
+        for (; j < n; j++) {
+            v += sample[sample_start + j] * fir[fir_start + j];
+        }
+        return v;
+    }
+}